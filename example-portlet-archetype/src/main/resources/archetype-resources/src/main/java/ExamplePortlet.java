@@ -28,10 +28,11 @@ import javax.portlet.GenericPortlet;
 import javax.portlet.PortletException;
 import javax.portlet.PortletMode;
 import javax.portlet.PortletRequest;
-import javax.portlet.PortletRequestDispatcher;
 import javax.portlet.RenderRequest;
 import javax.portlet.RenderResponse;
 
+import net.jlehtinen.portlet.util.PortletViewDispatcher;
+
 public class ExamplePortlet extends GenericPortlet {
 
 	protected static final String VIEW_PREFIX = "/WEB-INF/jsp/example/";
@@ -41,6 +42,15 @@ public class ExamplePortlet extends GenericPortlet {
 	protected static final String OPERATOR_PREF = "${package}.operator";
 	
 	protected static Random random = new Random();
+	
+	protected PortletViewDispatcher viewDispatcher;
+
+	public void init() throws PortletException {
+		super.init();
+		
+		// Views are resolved once and their dispatchers reused on later renders
+		viewDispatcher = new PortletViewDispatcher(getPortletContext(), VIEW_PREFIX, VIEW_SUFFIX);
+	}
 
 	public void render(RenderRequest request, RenderResponse response)
 			throws PortletException, IOException {
@@ -74,9 +84,7 @@ public class ExamplePortlet extends GenericPortlet {
 		}
 		
 		// Render view as a JSP page
-		PortletRequestDispatcher dispatcher = 
-			getPortletContext().getRequestDispatcher(VIEW_PREFIX + view + VIEW_SUFFIX);
-		dispatcher.include(request, response);
+		viewDispatcher.include(view, request, response);
 	}
 
 	public void processAction(ActionRequest request, ActionResponse response)
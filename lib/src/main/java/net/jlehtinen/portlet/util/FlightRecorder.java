@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Controls Java Flight Recorder recordings of the running virtual machine through the
+ * diagnostic command management bean. The operations fail with an {@link IOException}
+ * if the virtual machine does not provide the flight recorder.
+ */
+public class FlightRecorder {
+
+	/** Name of the diagnostic command management bean */
+	public static final String DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+
+	/**
+	 * Starts a named recording which is dumped into the specified file when the virtual
+	 * machine exits.
+	 *
+	 * @param name recording name
+	 * @param settings name of the recording settings, such as <code>default</code> or <code>profile</code>
+	 * @param file file into which the recording is dumped on exit
+	 * @return output of the diagnostic command
+	 * @throws IOException if the recording could not be started
+	 */
+	public static String start(String name, String settings, File file) throws IOException {
+		return invoke("jfrStart", new String[] {
+				"name=" + name,
+				"settings=" + settings,
+				"dumponexit=true",
+				"filename=" + file.getAbsolutePath()
+		});
+	}
+
+	/**
+	 * Dumps the current contents of a named recording into the specified file. The
+	 * recording keeps running.
+	 *
+	 * @param name recording name
+	 * @param file destination file
+	 * @return output of the diagnostic command
+	 * @throws IOException if the recording could not be dumped
+	 */
+	public static String dump(String name, File file) throws IOException {
+		return invoke("jfrDump", new String[] { "name=" + name, "filename=" + file.getAbsolutePath() });
+	}
+
+	/**
+	 * Invokes the specified diagnostic command.
+	 *
+	 * @param operation operation name of the command
+	 * @param args command arguments
+	 * @return command output
+	 * @throws IOException if the command failed
+	 */
+	protected static String invoke(String operation, String[] args) throws IOException {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			Object result = server.invoke(new ObjectName(DIAGNOSTIC_COMMAND), operation, new Object[] { args }, new String[] { String[].class.getName() });
+			return result != null ? result.toString().trim() : "";
+		} catch (JMException e) {
+			IOException ioe = new IOException("Diagnostic command " + operation + " failed: " + e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		} catch (RuntimeException e) {
+			IOException ioe = new IOException("Diagnostic command " + operation + " failed: " + e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+
+}
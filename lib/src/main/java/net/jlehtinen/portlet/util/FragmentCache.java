@@ -0,0 +1,455 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.portlet.PortletException;
+import javax.portlet.PortletRequest;
+import javax.portlet.ValidatorException;
+
+/**
+ * Cache for expensive render fragments and model objects of a portlet. The cache holds at
+ * most a given number of entries, evicting the least recently used entry when full, and
+ * entries expire a given time after they have been loaded. An entry is loaded by the first
+ * request needing it; concurrent requests for the same key wait for that load instead of
+ * loading the entry again. A failed load is not cached.
+ * 
+ * <p>Keys for the current render are created with {@link #key(PortletRequest, String)} from
+ * the portlet window, portlet mode, window state, preferences and render parameters. Entries
+ * of a window are invalidated with {@link #invalidate(PortletRequest)}; preferences written
+ * in <code>processAction</code> should be stored with {@link #storePreferences(PortletRequest)},
+ * which invalidates the entries of the window. The hit, miss, eviction and invalidation
+ * counts are exposed as a management bean named {@value #OBJECT_NAME_PREFIX}<i>name</i> once
+ * the cache has been registered, where the prototyping portal reports them.</p>
+ *
+ * @param <V> type of the cached values
+ */
+public class FragmentCache<V> implements FragmentCacheMBean {
+
+	/** Prefix of the management bean names of the caches, followed by the quoted cache name */
+	public static final String OBJECT_NAME_PREFIX = "net.jlehtinen.portlet:type=FragmentCache,name=";
+
+	/** Name of the cache */
+	protected final String name;
+
+	/** Maximum number of cached entries */
+	protected final int maxEntries;
+
+	/** Time to live of a loaded entry in milliseconds or 0 or less if entries do not expire */
+	protected final long ttlMillis;
+
+	/** Entries in access order, guarded by itself */
+	protected final LinkedHashMap<Object, Entry<V>> entries;
+
+	/** Number of requests served from the cache */
+	protected final AtomicLong hits = new AtomicLong();
+
+	/** Number of requests that loaded the entry */
+	protected final AtomicLong misses = new AtomicLong();
+
+	/** Number of entries evicted because the cache was full */
+	protected final AtomicLong evictions = new AtomicLong();
+
+	/** Number of entries removed because they had expired */
+	protected final AtomicLong expirations = new AtomicLong();
+
+	/** Number of entries removed by invalidation */
+	protected final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param name name of the cache, used in the management bean name
+	 * @param maxEntries maximum number of cached entries
+	 * @param ttlMillis time to live of a loaded entry in milliseconds or 0 if entries do not expire
+	 */
+	public FragmentCache(String name, final int maxEntries, long ttlMillis) {
+		if (name == null) {
+			throw new NullPointerException("name");
+		}
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		this.name = name;
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		entries = new LinkedHashMap<Object, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Object, Entry<V>> eldest) {
+				if (size() > maxEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the value of the specified key, loading it with the specified loader if the
+	 * key is not cached or has expired. If another request is already loading the key, waits
+	 * for that load to complete instead.
+	 *
+	 * @param key cache key
+	 * @param loader loader of the value
+	 * @return cached or loaded value
+	 * @throws PortletException if the loader failed, wrapping any checked exception other
+	 * than a portlet exception
+	 */
+	public V get(Object key, Callable<? extends V> loader) throws PortletException {
+		Entry<V> entry;
+		boolean load = false;
+		synchronized (entries) {
+			entry = entries.get(key);
+			if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+				entries.remove(key);
+				expirations.incrementAndGet();
+				entry = null;
+			}
+			if (entry == null) {
+				entry = new Entry<V>(loader);
+				entries.put(key, entry);
+				load = true;
+			}
+		}
+		if (load) {
+			misses.incrementAndGet();
+			entry.load(ttlMillis);
+		} else {
+			hits.incrementAndGet();
+		}
+		try {
+			return entry.task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PortletException("Interrupted while waiting for cache entry " + key);
+		} catch (ExecutionException e) {
+			synchronized (entries) {
+				if (entries.get(key) == entry) {
+					entries.remove(key);
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof PortletException) {
+				throw (PortletException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new PortletException("Failed to load cache entry " + key, cause);
+		}
+	}
+
+	/**
+	 * Removes the entry of the specified key.
+	 *
+	 * @param key cache key
+	 */
+	public void invalidate(Object key) {
+		synchronized (entries) {
+			if (entries.remove(key) != null) {
+				invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Removes the entries created by {@link #key(PortletRequest, String)} for the portlet
+	 * window of the specified request.
+	 *
+	 * @param request portlet request
+	 */
+	public void invalidate(PortletRequest request) {
+		String windowId = request.getWindowID();
+		synchronized (entries) {
+			Iterator<Object> iter = entries.keySet().iterator();
+			while (iter.hasNext()) {
+				Object key = iter.next();
+				if (key instanceof Key && ((Key) key).windowId.equals(windowId)) {
+					iter.remove();
+					invalidations.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	public void invalidateAll() {
+		synchronized (entries) {
+			invalidations.addAndGet(entries.size());
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Stores the preferences of the specified request and invalidates the entries of its
+	 * portlet window. Call this instead of storing the preferences directly when the
+	 * preferences affect cached values.
+	 *
+	 * @param request action or resource request
+	 * @throws ValidatorException if the preferences are not valid
+	 * @throws IOException if the preferences could not be stored
+	 */
+	public void storePreferences(PortletRequest request) throws ValidatorException, IOException {
+		request.getPreferences().store();
+		invalidate(request);
+	}
+
+	/**
+	 * Creates a key for the specified fragment of the portlet window of the specified request.
+	 * The key covers the portlet mode, window state, preferences and render parameters, so
+	 * a change in any of them selects another entry. Every name and value is prefixed with
+	 * its length so that no two distinct request states produce the same key.
+	 *
+	 * @param request portlet request
+	 * @param fragment name of the fragment or model object
+	 * @return cache key
+	 */
+	public static Object key(PortletRequest request, String fragment) {
+		StringBuilder sb = new StringBuilder();
+		appendString(sb, fragment);
+		appendString(sb, request.getPortletMode().toString());
+		appendString(sb, request.getWindowState().toString());
+		appendMap(sb, request.getPreferences().getMap());
+		appendMap(sb, request.getParameterMap());
+		return new Key(request.getWindowID(), sb.toString());
+	}
+
+	/**
+	 * Appends the specified multi-valued map to the specified builder in key order,
+	 * preceded by its size. Each value array is preceded by its length.
+	 *
+	 * @param sb string builder
+	 * @param map map to be appended
+	 */
+	protected static void appendMap(StringBuilder sb, Map<String, String[]> map) {
+		sb.append(map.size()).append('{');
+		Iterator<Map.Entry<String, String[]>> iter = new TreeMap<String, String[]>(map).entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, String[]> entry = iter.next();
+			appendString(sb, entry.getKey());
+			String[] values = entry.getValue();
+			if (values == null) {
+				sb.append('-');
+			} else {
+				sb.append(values.length).append('[');
+				for (int i = 0; i < values.length; i++) {
+					appendString(sb, values[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends the specified string to the specified builder preceded by its length.
+	 *
+	 * @param sb string builder
+	 * @param value string to be appended or null
+	 */
+	protected static void appendString(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append('-');
+		} else {
+			sb.append(value.length()).append(':').append(value);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Returns the management bean name of this cache.
+	 *
+	 * @return object name
+	 * @throws MalformedObjectNameException if the object name is not valid
+	 */
+	protected ObjectName getObjectName() throws MalformedObjectNameException {
+		return new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+	}
+
+	/**
+	 * Registers this cache as a management bean, replacing any previous registration of
+	 * a cache with the same name. Typically called in the <code>init</code> method of the portlet.
+	 *
+	 * @return whether the registration succeeded
+	 */
+	public boolean registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Unregisters the management bean of this cache. Typically called in the
+	 * <code>destroy</code> method of the portlet.
+	 */
+	public void unregisterMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (Exception e) {
+			// Already unregistered
+		}
+	}
+
+	/**
+	 * Cache key of a fragment of a portlet window.
+	 */
+	protected static class Key {
+
+		/** Portlet window identifier */
+		protected final String windowId;
+
+		/** Fragment name and request state */
+		protected final String state;
+
+		/**
+		 * Constructs a new key.
+		 *
+		 * @param windowId portlet window identifier
+		 * @param state fragment name and request state
+		 */
+		protected Key(String windowId, String state) {
+			this.windowId = windowId;
+			this.state = state;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) obj;
+			return windowId.equals(key.windowId) && state.equals(key.state);
+		}
+
+		public int hashCode() {
+			return windowId.hashCode() * 31 + state.hashCode();
+		}
+
+		public String toString() {
+			return windowId + '|' + state;
+		}
+
+	}
+
+	/**
+	 * Cache entry holding the value or the load in progress.
+	 *
+	 * @param <V> type of the value
+	 */
+	protected static class Entry<V> {
+
+		/** Task loading the value */
+		protected final FutureTask<V> task;
+
+		/** Expiry time in milliseconds, {@link Long#MAX_VALUE} while loading or if not expiring */
+		protected volatile long expires = Long.MAX_VALUE;
+
+		/**
+		 * Constructs a new entry.
+		 *
+		 * @param loader loader of the value
+		 */
+		@SuppressWarnings("unchecked")
+		protected Entry(Callable<? extends V> loader) {
+			task = new FutureTask<V>((Callable<V>) loader);
+		}
+
+		/**
+		 * Loads the value on the calling thread.
+		 *
+		 * @param ttlMillis time to live in milliseconds or 0 or less if not expiring
+		 */
+		protected void load(long ttlMillis) {
+			task.run();
+			if (ttlMillis > 0) {
+				expires = System.currentTimeMillis() + ttlMillis;
+			}
+		}
+
+		/**
+		 * Returns whether this entry has expired.
+		 *
+		 * @param now current time in milliseconds
+		 * @return whether expired
+		 */
+		protected boolean isExpired(long now) {
+			return now >= expires;
+		}
+
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.util;
+
+/**
+ * Management interface of {@link FragmentCache}.
+ */
+public interface FragmentCacheMBean {
+
+	/**
+	 * Returns the name of the cache.
+	 *
+	 * @return cache name
+	 */
+	String getName();
+
+	/**
+	 * Returns the number of cached entries, including entries being loaded.
+	 *
+	 * @return number of entries
+	 */
+	int getSize();
+
+	/**
+	 * Returns the maximum number of cached entries.
+	 *
+	 * @return maximum number of entries
+	 */
+	int getMaxEntries();
+
+	/**
+	 * Returns the time an entry stays valid after it has been loaded.
+	 *
+	 * @return time to live in milliseconds or 0 or less if entries do not expire
+	 */
+	long getTtlMillis();
+
+	/**
+	 * Returns the number of requests served from the cache, including requests that
+	 * waited for another request loading the same entry.
+	 *
+	 * @return number of hits
+	 */
+	long getHits();
+
+	/**
+	 * Returns the number of requests that loaded the entry.
+	 *
+	 * @return number of misses
+	 */
+	long getMisses();
+
+	/**
+	 * Returns the number of entries evicted to keep the cache within its maximum size.
+	 *
+	 * @return number of evictions
+	 */
+	long getEvictions();
+
+	/**
+	 * Returns the number of entries removed because they had expired.
+	 *
+	 * @return number of expirations
+	 */
+	long getExpirations();
+
+	/**
+	 * Returns the number of entries removed by invalidation.
+	 *
+	 * @return number of invalidations
+	 */
+	long getInvalidations();
+
+	/**
+	 * Removes all entries.
+	 */
+	void invalidateAll();
+
+}
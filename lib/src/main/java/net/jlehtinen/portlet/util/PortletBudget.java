@@ -0,0 +1,169 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.util;
+
+import java.util.List;
+
+/**
+ * Immutable performance budget of a single portlet, enforced by the prototyping portal on
+ * each render of the portlet. A limit of zero or less means no limit. A budget has the
+ * string form <code><i>portletName</i>:<i>maxRenderMillis</i>:<i>maxBytes</i>:<i>maxAllocatedBytes</i></code>.
+ */
+public class PortletBudget {
+
+	/**
+	 * Name of the servlet context attribute of the portal holding the budget violations
+	 * as a synchronized list of messages, oldest first.
+	 */
+	public static final String VIOLATIONS_ATTRIBUTE = PortletBudget.class.getName() + ".violations";
+
+	/** Separator of the fields in string form */
+	protected static final char FIELD_SEPARATOR = ':';
+
+	/** Name of the portlet */
+	protected final String portletName;
+
+	/** Longest allowed render time in milliseconds */
+	protected final long maxRenderMillis;
+
+	/** Largest allowed markup size in bytes */
+	protected final long maxBytes;
+
+	/** Largest allowed amount of memory allocated by a render in bytes */
+	protected final long maxAllocatedBytes;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param portletName name of the portlet
+	 * @param maxRenderMillis longest allowed render time in milliseconds or 0 for no limit
+	 * @param maxBytes largest allowed markup size in bytes or 0 for no limit
+	 * @param maxAllocatedBytes largest allowed allocation per render in bytes or 0 for no limit
+	 */
+	public PortletBudget(String portletName, long maxRenderMillis, long maxBytes, long maxAllocatedBytes) {
+		if (portletName == null) {
+			throw new NullPointerException("portletName");
+		}
+		this.portletName = portletName;
+		this.maxRenderMillis = maxRenderMillis;
+		this.maxBytes = maxBytes;
+		this.maxAllocatedBytes = maxAllocatedBytes;
+	}
+
+	/**
+	 * Returns the name of the portlet.
+	 *
+	 * @return portlet name
+	 */
+	public String getPortletName() {
+		return portletName;
+	}
+
+	/**
+	 * Returns the longest allowed render time.
+	 *
+	 * @return render time in milliseconds or 0 or less for no limit
+	 */
+	public long getMaxRenderMillis() {
+		return maxRenderMillis;
+	}
+
+	/**
+	 * Returns the largest allowed markup size.
+	 *
+	 * @return markup size in bytes or 0 or less for no limit
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the largest allowed amount of memory allocated by a render.
+	 *
+	 * @return allocation in bytes or 0 or less for no limit
+	 */
+	public long getMaxAllocatedBytes() {
+		return maxAllocatedBytes;
+	}
+
+	/**
+	 * Returns whether the budget limits the memory allocated by a render.
+	 *
+	 * @return whether allocation is limited
+	 */
+	public boolean isAllocationLimited() {
+		return maxAllocatedBytes > 0;
+	}
+
+	/**
+	 * Checks the specified render against this budget.
+	 *
+	 * @param renderMillis render time in milliseconds
+	 * @param bytes markup size in bytes
+	 * @param allocatedBytes memory allocated by the render in bytes or -1 if not measured
+	 * @param violations list where a message is added for each exceeded limit
+	 * @return whether the render was within the budget
+	 */
+	public boolean check(long renderMillis, long bytes, long allocatedBytes, List<String> violations) {
+		int size = violations.size();
+		if (maxRenderMillis > 0 && renderMillis > maxRenderMillis) {
+			violations.add("render time " + renderMillis + " ms exceeds " + maxRenderMillis + " ms");
+		}
+		if (maxBytes > 0 && bytes > maxBytes) {
+			violations.add("markup size " + bytes + " bytes exceeds " + maxBytes + " bytes");
+		}
+		if (maxAllocatedBytes > 0 && allocatedBytes > maxAllocatedBytes) {
+			violations.add("allocation " + allocatedBytes + " bytes exceeds " + maxAllocatedBytes + " bytes");
+		}
+		return violations.size() == size;
+	}
+
+	/**
+	 * Parses a budget from its string form. The portlet name may contain the separator.
+	 *
+	 * @param value budget in string form
+	 * @return budget
+	 * @throws IllegalArgumentException if the value is not a valid budget
+	 */
+	public static PortletBudget parse(String value) {
+		long[] limits = new long[3];
+		int end = value.length();
+		for (int i = limits.length - 1; i >= 0; i--) {
+			int separator = value.lastIndexOf(FIELD_SEPARATOR, end - 1);
+			if (separator <= 0) {
+				throw new IllegalArgumentException("Invalid portlet budget: " + value);
+			}
+			try {
+				limits[i] = Long.parseLong(value.substring(separator + 1, end).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid portlet budget: " + value);
+			}
+			end = separator;
+		}
+		return new PortletBudget(value.substring(0, end).trim(), limits[0], limits[1], limits[2]);
+	}
+
+	/**
+	 * Returns the string form of this budget understood by {@link #parse(String)}.
+	 *
+	 * @return budget in string form
+	 */
+	public String toString() {
+		return portletName + FIELD_SEPARATOR + maxRenderMillis + FIELD_SEPARATOR + maxBytes + FIELD_SEPARATOR + maxAllocatedBytes;
+	}
+
+}
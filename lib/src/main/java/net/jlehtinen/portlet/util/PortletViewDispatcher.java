@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.util;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.portlet.PortletContext;
+import javax.portlet.PortletException;
+import javax.portlet.PortletMode;
+import javax.portlet.PortletRequestDispatcher;
+import javax.portlet.RenderRequest;
+import javax.portlet.RenderResponse;
+
+/**
+ * Dispatches portlet renders to views, typically JSP pages, by view name. The path of a view
+ * is resolved and its request dispatcher obtained from the portlet context only on the first
+ * use of the view in a portlet mode; later renders reuse the cached dispatcher without
+ * building the path again. By default the path is the prefix, the view name and the suffix,
+ * for example <code>/WEB-INF/jsp/example/</code> + <code>ask</code> + <code>.jsp</code>.
+ * Override {@link #getPath(PortletMode, String)} to resolve the path differently per mode.
+ * 
+ * <p>The dispatchers are shared by concurrent requests, which the portlet containers the
+ * portlet tools are used with allow. Create the dispatcher in the <code>init</code> method
+ * of the portlet, once the portlet context is available.</p>
+ */
+public class PortletViewDispatcher {
+
+	/** Portlet context providing the request dispatchers */
+	protected final PortletContext portletContext;
+
+	/** Path prefix of the views */
+	protected final String prefix;
+
+	/** Path suffix of the views */
+	protected final String suffix;
+
+	/** Cached request dispatchers keyed by portlet mode and view name */
+	protected final ConcurrentMap<PortletMode, ConcurrentMap<String, PortletRequestDispatcher>> dispatchers =
+		new ConcurrentHashMap<PortletMode, ConcurrentMap<String, PortletRequestDispatcher>>();
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param portletContext portlet context providing the request dispatchers
+	 * @param prefix path prefix of the views
+	 * @param suffix path suffix of the views
+	 */
+	public PortletViewDispatcher(PortletContext portletContext, String prefix, String suffix) {
+		if (portletContext == null) {
+			throw new NullPointerException("portletContext");
+		}
+		this.portletContext = portletContext;
+		this.prefix = prefix != null ? prefix : "";
+		this.suffix = suffix != null ? suffix : "";
+	}
+
+	/**
+	 * Includes the specified view in the render response, using the portlet mode of the request.
+	 *
+	 * @param view view name
+	 * @param request render request
+	 * @param response render response
+	 * @throws PortletException if the view does not exist or fails
+	 * @throws IOException on I/O error
+	 */
+	public void include(String view, RenderRequest request, RenderResponse response) throws PortletException, IOException {
+		getDispatcher(request.getPortletMode(), view).include(request, response);
+	}
+
+	/**
+	 * Returns the request dispatcher of the specified view in the specified portlet mode,
+	 * obtaining it from the portlet context on the first call.
+	 *
+	 * @param mode portlet mode
+	 * @param view view name
+	 * @return request dispatcher
+	 * @throws PortletException if the view does not exist
+	 */
+	public PortletRequestDispatcher getDispatcher(PortletMode mode, String view) throws PortletException {
+		ConcurrentMap<String, PortletRequestDispatcher> views = dispatchers.get(mode);
+		if (views == null) {
+			views = new ConcurrentHashMap<String, PortletRequestDispatcher>();
+			ConcurrentMap<String, PortletRequestDispatcher> existing = dispatchers.putIfAbsent(mode, views);
+			if (existing != null) {
+				views = existing;
+			}
+		}
+		PortletRequestDispatcher dispatcher = views.get(view);
+		if (dispatcher == null) {
+			String path = getPath(mode, view);
+			dispatcher = portletContext.getRequestDispatcher(path);
+			if (dispatcher == null) {
+				throw new PortletException(MessageFormat.format("View {0} not found in portlet mode {1}: {2}", new Object[] { view, mode, path }));
+			}
+			views.putIfAbsent(view, dispatcher);
+		}
+		return dispatcher;
+	}
+
+	/**
+	 * Resolves the path of the specified view in the specified portlet mode. Called once per
+	 * mode and view.
+	 *
+	 * @param mode portlet mode
+	 * @param view view name
+	 * @return path of the view relative to the portlet application
+	 */
+	protected String getPath(PortletMode mode, String view) {
+		return prefix + view + suffix;
+	}
+
+	/**
+	 * Clears the cached dispatchers, for example after the views have been redeployed.
+	 */
+	public void clear() {
+		dispatchers.clear();
+	}
+
+}
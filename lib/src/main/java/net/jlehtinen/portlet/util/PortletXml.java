@@ -1,13 +1,30 @@
 package net.jlehtinen.portlet.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Result;
@@ -16,38 +33,136 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 /**
  * Encapsulates portlet.xml and provides utility methods for accessing and processing it.
+ * The portlet.xml may optionally be validated against the portlet 1.0 and 2.0 schemas
+ * bundled with this class while it is being parsed.
+ * <p>
+ * The portlet names and portlet modes are extracted when the descriptor is loaded. They
+ * can be stored into a binary snapshot keyed by the SHA-1 hash of the descriptor, so that
+ * later loads of an unmodified descriptor read the snapshot instead of parsing the XML.
+ * The DOM document is then built only if a filtered descriptor is saved.
  */
 public class PortletXml {
 
-	/** The portlet.xml as a DOM document */
+	/** Namespace of portlet 1.0 descriptors */
+	public static final String PORTLET_1_0_NAMESPACE = "http://java.sun.com/xml/ns/portlet/portlet-app_1_0.xsd";
+	
+	/** Namespace of portlet 2.0 descriptors */
+	public static final String PORTLET_2_0_NAMESPACE = "http://java.sun.com/xml/ns/portlet/portlet-app_2_0.xsd";
+	
+	/** Bundled schema resources of the supported portlet descriptor versions */
+	protected static final String[] SCHEMA_RESOURCES = { "portlet-app_1_0.xsd", "portlet-app_2_0.xsd" };
+	
+	/** Magic number and format version at the start of a snapshot */
+	protected static final int SNAPSHOT_MAGIC = 0x50585301;
+	
+	/** Algorithm used to hash the descriptor */
+	protected static final String HASH_ALGORITHM = "SHA-1";
+	
+	/** Compiled schema of the supported portlet descriptor versions or null if not compiled yet */
+	private static Schema schema;
+
+	/** The portlet.xml file */
+	protected final File file;
+	
+	/** The portlet.xml as a DOM document or null if not parsed yet */
 	protected Document portletXmlDoc;
 	
-	/** The portlet DOM elements */
+	/** The portlet DOM elements or null if not parsed yet */
 	protected Collection<Element> portletElements;
 	
+	/** Supported portlet modes keyed by portlet name, in declaration order */
+	protected Map<String, Set<String>> portlets;
+	
+	/** Names of the portlets to be included or null if not filtered */
+	protected Set<String> includedPortlets;
+	
+	/** SHA-1 hash of the descriptor or null if not computed */
+	protected byte[] hash;
+	
+	/** Whether the descriptor has been validated against the portlet schema */
+	protected boolean validated;
+	
+	/** Whether the model was read from a snapshot */
+	protected boolean loadedFromSnapshot;
+	
 	/**
 	 * Constructs a new instance from the specified portlet.xml file.
 	 * 
 	 * @param file portlet.xml file to load
-	 * @throws IOException if an I/O error occurs
+	 * @param validate whether to validate the portlet.xml against the portlet schema
+	 * @throws IOException if an I/O error occurs or the portlet.xml is not valid
 	 */
-	protected PortletXml(File file) throws IOException {
+	protected PortletXml(File file, boolean validate) throws IOException {
+		this.file = file;
+		parse(validate);
+		portlets = extractPortlets(portletElements);
+	}
+	
+	/**
+	 * Constructs a new instance from a model read from a snapshot.
+	 * 
+	 * @param file portlet.xml file
+	 * @param portlets supported portlet modes keyed by portlet name
+	 * @param hash SHA-1 hash of the descriptor
+	 * @param validated whether the descriptor has been validated
+	 */
+	protected PortletXml(File file, Map<String, Set<String>> portlets, byte[] hash, boolean validated) {
+		this.file = file;
+		this.portlets = portlets;
+		this.hash = hash;
+		this.validated = validated;
+		this.loadedFromSnapshot = true;
+	}
+	
+	/**
+	 * Parses the portlet.xml into a DOM document.
+	 * 
+	 * @param validate whether to validate the portlet.xml against the portlet schema
+	 * @throws IOException if an I/O error occurs or the portlet.xml is not valid
+	 */
+	protected void parse(boolean validate) throws IOException {
 		try {
 			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 			dbf.setNamespaceAware(true);
+			if (validate) {
+				dbf.setSchema(getSchema());
+			}
 			DocumentBuilder db = dbf.newDocumentBuilder();
+			if (validate) {
+				db.setErrorHandler(new ErrorHandler() {
+					public void warning(SAXParseException exception) {
+						// Ignore warnings
+					}
+					public void error(SAXParseException exception) throws SAXException {
+						throw exception;
+					}
+					public void fatalError(SAXParseException exception) throws SAXException {
+						throw exception;
+					}
+				});
+			}
 			portletXmlDoc = db.parse(file);
 			portletElements = findPortletNodes(portletXmlDoc);
+			validated = validate;
 		} catch (IOException e) {
 			throw e;
+		} catch (SAXParseException e) {
+			throw new IOException(MessageFormat.format("Invalid portlet descriptor {0} at line {1}: {2}", new Object[] {
+					file, String.valueOf(e.getLineNumber()), e.getMessage() }), e);
 		} catch (Exception e) {
 			throw new IOException("Failed to parse portlet descriptor", e);
 		}		
@@ -80,6 +195,63 @@ public class PortletXml {
 		return portlets;
 	}
 	
+	/**
+	 * Extracts the names and supported portlet modes of the specified portlets. The view
+	 * mode is always included as every portlet supports it.
+	 * 
+	 * @param portletElements portlet DOM elements
+	 * @return supported portlet modes in lower case keyed by portlet name, in declaration order
+	 */
+	protected static Map<String, Set<String>> extractPortlets(Collection<Element> portletElements) {
+		Map<String, Set<String>> portlets = new LinkedHashMap<String, Set<String>>();
+		Iterator<Element> iter = portletElements.iterator();
+		while (iter.hasNext()) {
+			Element portletElement = iter.next();
+			String portletName = getPortletName(portletElement);
+			if (portletName == null) {
+				continue;
+			}
+			Set<String> modes = portlets.get(portletName);
+			if (modes == null) {
+				modes = new LinkedHashSet<String>();
+				portlets.put(portletName, modes);
+			}
+			modes.add("view");
+			NodeList portletChildren = portletElement.getChildNodes();
+			for (int i = 0; i < portletChildren.getLength(); i++) {
+				Node c = portletChildren.item(i);
+				if (c.getNodeType() == Node.ELEMENT_NODE && c.getLocalName().equals("supports")) {
+					NodeList supportsChildren = c.getChildNodes();
+					for (int j = 0; j < supportsChildren.getLength(); j++) {
+						Node m = supportsChildren.item(j);
+						if (m.getNodeType() == Node.ELEMENT_NODE && m.getLocalName().equals("portlet-mode")) {
+							modes.add(m.getTextContent().trim().toLowerCase());
+						}
+					}
+				}
+			}
+		}
+		return portlets;
+	}
+	
+	/**
+	 * Returns the compiled schema of the supported portlet descriptor versions, compiling
+	 * it from the bundled schema resources when first needed.
+	 * 
+	 * @return compiled schema
+	 * @throws SAXException if the schema could not be compiled
+	 */
+	protected static synchronized Schema getSchema() throws SAXException {
+		if (schema == null) {
+			Source[] sources = new Source[SCHEMA_RESOURCES.length];
+			for (int i = 0; i < SCHEMA_RESOURCES.length; i++) {
+				sources[i] = new StreamSource(PortletXml.class.getResource(SCHEMA_RESOURCES[i]).toExternalForm());
+			}
+			schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(sources);
+		}
+		return schema;
+	}
+	
 	/**
 	 * Loads portlet descriptor from the specified file.
 	 * 
@@ -87,7 +259,44 @@ public class PortletXml {
 	 * @return portlet.xml DOM document
 	 */
 	public static PortletXml load(File file) throws IOException {
-		return new PortletXml(file);
+		return new PortletXml(file, false);
+	}
+
+	/**
+	 * Loads portlet descriptor from the specified file, optionally validating it against
+	 * the portlet 1.0 or 2.0 schema while parsing.
+	 * 
+	 * @param file portlet.xml to be loaded
+	 * @param validate whether to validate the portlet.xml
+	 * @return portlet.xml DOM document
+	 * @throws IOException if an I/O error occurs or the portlet.xml is not valid
+	 */
+	public static PortletXml load(File file, boolean validate) throws IOException {
+		return new PortletXml(file, validate);
+	}
+
+	/**
+	 * Loads portlet descriptor from the specified file using the specified snapshot. If the
+	 * snapshot was taken of the same descriptor content, and of a validated descriptor if
+	 * validation is requested, the model is read from the snapshot without parsing the
+	 * descriptor. Otherwise the descriptor is parsed and a new snapshot is written.
+	 * 
+	 * @param file portlet.xml to be loaded
+	 * @param validate whether to validate the portlet.xml
+	 * @param snapshot snapshot file
+	 * @return portlet.xml
+	 * @throws IOException if an I/O error occurs or the portlet.xml is not valid
+	 */
+	public static PortletXml load(File file, boolean validate, File snapshot) throws IOException {
+		byte[] hash = hash(file);
+		PortletXml px = readSnapshot(file, hash, snapshot);
+		if (px != null && (px.validated || !validate)) {
+			return px;
+		}
+		px = new PortletXml(file, validate);
+		px.hash = hash;
+		px.writeSnapshot(snapshot);
+		return px;
 	}
 
 	/**
@@ -96,26 +305,43 @@ public class PortletXml {
 	 * @return names of specified portlets
 	 */
 	public Set<String> getPortletNames() {
-		Set<String> names = new HashSet<String>();
-		Iterator<Element> iter = portletElements.iterator();
-		while (iter.hasNext()) {
-			Element portletElement = iter.next();
-			String portletName = getPortletName(portletElement);
-			if (portletName != null) {
-				names.add(portletName);
-			}
-		}
-		return names;
+		return new LinkedHashSet<String>(portlets.keySet());
+	}
+	
+	/**
+	 * Returns the portlet modes supported by the specified portlet, in the order they are
+	 * declared. The view mode is always included as every portlet supports it.
+	 * 
+	 * @param portletName name of the portlet
+	 * @return supported portlet modes in lower case, empty if no such portlet
+	 */
+	public Set<String> getPortletModes(String portletName) {
+		Set<String> modes = portlets.get(portletName);
+		return modes != null ? new LinkedHashSet<String>(modes) : new LinkedHashSet<String>();
 	}
 	
 	/**
 	 * Filters away all the portlets not contained in the specified set of included
-	 * portlets.
+	 * portlets. The DOM document is filtered when it is needed.
 	 *  
 	 * @param includedPortlets set of portlet names to be included
-	 * @throws IOException
 	 */
 	public void filterPortlets(Set<String> includedPortlets) {
+		portlets.keySet().retainAll(includedPortlets);
+		if (this.includedPortlets == null) {
+			this.includedPortlets = new HashSet<String>(includedPortlets);
+		} else {
+			this.includedPortlets.retainAll(includedPortlets);
+		}
+		if (portletElements != null) {
+			filterPortletElements();
+		}
+	}
+
+	/**
+	 * Removes the portlet DOM elements of the portlets not included.
+	 */
+	protected void filterPortletElements() {
 		Iterator<Element> iter = portletElements.iterator();
 		while (iter.hasNext()) {
 			Element portletElement = iter.next();
@@ -150,11 +376,27 @@ public class PortletXml {
 	}
 	
 	/**
-	 * Saves portlet descriptor to the specified file.
+	 * Returns whether the model was read from a snapshot instead of parsing the descriptor.
+	 * 
+	 * @return whether loaded from a snapshot
+	 */
+	public boolean isLoadedFromSnapshot() {
+		return loadedFromSnapshot;
+	}
+	
+	/**
+	 * Saves portlet descriptor to the specified file. The descriptor is parsed first if
+	 * the model was read from a snapshot.
 	 * 
 	 * @param file destination file
 	 */
 	public void save(File file) throws IOException {
+		if (portletXmlDoc == null) {
+			parse(false);
+			if (includedPortlets != null) {
+				filterPortletElements();
+			}
+		}
 		try {
 			file.getParentFile().mkdirs();
 			TransformerFactory tf = TransformerFactory.newInstance();
@@ -166,4 +408,183 @@ public class PortletXml {
 			throw new IOException("Failed to save portlet descriptor", e);
 		}
 	}
+	
+	/**
+	 * Writes a snapshot of the model extracted from the descriptor. The snapshot records
+	 * the hash of the descriptor and whether it was validated.
+	 * 
+	 * @param snapshot snapshot file
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public void writeSnapshot(File snapshot) throws IOException {
+		if (hash == null) {
+			hash = hash(file);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(SNAPSHOT_MAGIC);
+		out.writeInt(hash.length);
+		out.write(hash);
+		out.writeBoolean(validated);
+		out.writeInt(portlets.size());
+		Iterator<Map.Entry<String, Set<String>>> iter = portlets.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, Set<String>> entry = iter.next();
+			writeString(out, entry.getKey());
+			out.writeInt(entry.getValue().size());
+			Iterator<String> modeIter = entry.getValue().iterator();
+			while (modeIter.hasNext()) {
+				writeString(out, modeIter.next());
+			}
+		}
+		out.flush();
+		File parent = snapshot.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		File tmp = new File(parent, snapshot.getName() + ".tmp");
+		OutputStream fout = new FileOutputStream(tmp);
+		try {
+			bytes.writeTo(fout);
+		} finally {
+			fout.close();
+		}
+		if (!tmp.renameTo(snapshot) && (!snapshot.delete() || !tmp.renameTo(snapshot))) {
+			tmp.delete();
+			throw new IOException(MessageFormat.format("Failed to write portlet descriptor snapshot {0}", new Object[] { snapshot }));
+		}
+	}
+	
+	/**
+	 * Reads the model from the specified snapshot if it was taken of a descriptor with the
+	 * specified hash.
+	 * 
+	 * @param file portlet.xml file
+	 * @param hash SHA-1 hash of the descriptor
+	 * @param snapshot snapshot file
+	 * @return portlet.xml with the model read from the snapshot or null if the snapshot
+	 * does not exist, is not valid or was taken of another descriptor
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected static PortletXml readSnapshot(File file, byte[] hash, File snapshot) throws IOException {
+		if (!snapshot.isFile()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(readFile(snapshot)));
+		try {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				return null;
+			}
+			byte[] snapshotHash = new byte[readLength(in)];
+			in.readFully(snapshotHash);
+			if (!Arrays.equals(hash, snapshotHash)) {
+				return null;
+			}
+			boolean validated = in.readBoolean();
+			int count = in.readInt();
+			Map<String, Set<String>> portlets = new LinkedHashMap<String, Set<String>>();
+			for (int i = 0; i < count; i++) {
+				String name = readString(in);
+				int modeCount = in.readInt();
+				Set<String> modes = new LinkedHashSet<String>();
+				for (int j = 0; j < modeCount; j++) {
+					modes.add(readString(in));
+				}
+				portlets.put(name, modes);
+			}
+			return new PortletXml(file, portlets, hash, validated);
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the SHA-1 hash of the content of the specified file.
+	 * 
+	 * @param file file to be hashed
+	 * @return hash
+	 * @throws IOException if the file could not be read
+	 */
+	protected static byte[] hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Failed to hash portlet descriptor", e);
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return digest.digest();
+	}
+	
+	/**
+	 * Reads the content of the specified file.
+	 * 
+	 * @param file file to be read
+	 * @return content
+	 * @throws IOException if the file could not be read
+	 */
+	protected static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(file.length(), Integer.MAX_VALUE));
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, n);
+			}
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Writes a length prefixed UTF-8 string.
+	 * 
+	 * @param out output
+	 * @param value string to be written
+	 * @throws IOException if an I/O error occurs
+	 */
+	protected static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Reads a length prefixed UTF-8 string.
+	 * 
+	 * @param in input reading from a byte array
+	 * @return string read
+	 * @throws IOException if the string could not be read or decoded
+	 */
+	protected static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readLength(in)];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
+	/**
+	 * Reads a length prefix and checks that as many bytes remain, so that a corrupt
+	 * snapshot can not make the reader allocate more than the snapshot holds.
+	 * 
+	 * @param in input reading from a byte array, whose available bytes are those remaining
+	 * @return length read
+	 * @throws EOFException if the length is negative or exceeds the remaining bytes
+	 * @throws IOException if the length could not be read
+	 */
+	protected static int readLength(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > in.available()) {
+			throw new EOFException(MessageFormat.format("Invalid length {0} in portlet descriptor snapshot", new Object[] { new Integer(length) }));
+		}
+		return length;
+	}
 }
@@ -0,0 +1,582 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Immutable configuration handed over from the Portlet Prototyping Maven Plugin to the
+ * prototyping portal. The plugin publishes an instance as a servlet context attribute
+ * of the portal context and replaces it as a whole whenever the configuration changes.
+ * The portal web application loads this class and the classes it exposes, listed in
+ * {@link #SHARED_CLASS_NAMES}, from the parent class loader so that the instance can be
+ * shared as is. Optional settings are applied using the
+ * <code>with</code> methods which return modified copies.
+ */
+public class PrototypingConfiguration {
+
+	/** Name of the servlet context attribute holding the current configuration */
+	public static final String ATTRIBUTE_NAME = PrototypingConfiguration.class.getName();
+
+	/**
+	 * Names of this class and the classes appearing in its signatures, which the portal
+	 * must load from the parent class loader together with this class
+	 */
+	public static final List<String> SHARED_CLASS_NAMES = Collections.unmodifiableList(Arrays.asList(new String[] {
+		PrototypingConfiguration.class.getName(), PortletBudget.class.getName() }));
+
+	/** System property for the portlet context */
+	public static final String PORTLET_CONTEXT_PATH_PROPERTY = "portletContextPath";
+
+	/** System property for the portlet names */
+	public static final String PORTLET_NAMES_PROPERTY = "portletNames";
+
+	/** System property for custom CSS URLs */
+	public static final String CSS_URLS_PROPERTY = "cssUrls";
+
+	/** System property for custom Javascript URLs */
+	public static final String JS_URLS_PROPERTY = "jsUrls";
+
+	/** System property for the portlet preferences file */
+	public static final String PREFERENCES_FILE_PROPERTY = "preferencesFile";
+
+	/** System property for the flight recording file */
+	public static final String FLIGHT_RECORDING_FILE_PROPERTY = "flightRecordingFile";
+
+	/** System property for the request capture file */
+	public static final String REQUEST_CAPTURE_FILE_PROPERTY = "requestCaptureFile";
+
+	/** System property for the portlet budgets */
+	public static final String PORTLET_BUDGETS_PROPERTY = "portletBudgets";
+
+	/** Name of the property enabling streaming page aggregation */
+	public static final String STREAMING_PROPERTY = "streaming";
+
+	/** Name of the property listing the portlets loaded after the page */
+	public static final String DEFERRED_PORTLETS_PROPERTY = "deferredPortlets";
+
+	/** Name of the property enabling the fast startup mode of the portal */
+	public static final String FAST_STARTUP_PROPERTY = "fastStartup";
+
+	/** Name of the property enabling the session footprint analysis */
+	public static final String SESSION_FOOTPRINT_PROPERTY = "sessionFootprint";
+
+	/** Name of the flight recording started by the plugin */
+	public static final String FLIGHT_RECORDING_NAME = "portlet-prototyping";
+
+	/** Separator used for portlet names in string form */
+	public static final String PORTLET_NAMES_SEPARATOR = ",";
+
+	/** Separator used for URLs in string form */
+	public static final String URLS_SEPARATOR = ";";
+
+	/** Separator used for portlet budgets in string form */
+	public static final String BUDGETS_SEPARATOR = ";";
+
+	/** Context path of the portlet application */
+	protected final String portletContextPath;
+
+	/** Names of the prototyped portlets */
+	protected final List<String> portletNames;
+
+	/** Custom CSS URLs or null to use the portal defaults */
+	protected final List<String> cssUrls;
+
+	/** Custom Javascript URLs or null to use the portal defaults */
+	protected final List<String> jsUrls;
+
+	/** File used to persist portlet preferences or null to keep them in memory only */
+	protected final File preferencesFile;
+
+	/** File into which the flight recording is dumped or null if no recording is running */
+	protected final File flightRecordingFile;
+
+	/** File into which requests are captured or null if requests are not captured */
+	protected final File requestCaptureFile;
+
+	/** Performance budgets of the portlets */
+	protected final List<PortletBudget> portletBudgets;
+
+	/** Whether the portal page is streamed to the client as the portlets are rendered */
+	protected final boolean streaming;
+
+	/** Names of the portlets loaded by the browser after the page has loaded */
+	protected final List<String> deferredPortlets;
+
+	/** Whether the portal services are created in the fast startup mode */
+	protected final boolean fastStartup;
+
+	/** Whether the session footprint of the portlets is analyzed */
+	protected final boolean sessionFootprint;
+
+	/**
+	 * Constructs a new instance. The specified lists are copied.
+	 *
+	 * @param portletContextPath context path of the portlet application
+	 * @param portletNames names of the prototyped portlets
+	 * @param cssUrls custom CSS URLs or null to use the portal defaults
+	 * @param jsUrls custom Javascript URLs or null to use the portal defaults
+	 */
+	public PrototypingConfiguration(String portletContextPath, List<String> portletNames, List<String> cssUrls, List<String> jsUrls) {
+		if (portletContextPath == null) {
+			throw new NullPointerException("portletContextPath");
+		}
+		this.portletContextPath = portletContextPath;
+		this.portletNames = copyList(portletNames);
+		this.cssUrls = cssUrls != null ? copyList(cssUrls) : null;
+		this.jsUrls = jsUrls != null ? copyList(jsUrls) : null;
+		this.preferencesFile = null;
+		this.flightRecordingFile = null;
+		this.requestCaptureFile = null;
+		this.portletBudgets = Collections.emptyList();
+		this.streaming = false;
+		this.deferredPortlets = Collections.emptyList();
+		this.fastStartup = false;
+		this.sessionFootprint = false;
+	}
+
+	/**
+	 * Constructs a modified copy of the specified configuration. Used by the <code>with</code>
+	 * methods which return modified copies. The specified lists must be unmodifiable.
+	 *
+	 * @param configuration configuration to be copied
+	 * @param preferencesFile preferences file or null to keep preferences in memory only
+	 * @param flightRecordingFile flight recording file or null if no recording is running
+	 * @param requestCaptureFile request capture file or null if requests are not captured
+	 * @param portletBudgets performance budgets of the portlets
+	 * @param streaming whether streaming page aggregation is enabled
+	 * @param deferredPortlets names of the deferred portlets
+	 * @param fastStartup whether the fast startup mode is enabled
+	 * @param sessionFootprint whether the session footprint is analyzed
+	 */
+	protected PrototypingConfiguration(PrototypingConfiguration configuration, File preferencesFile, File flightRecordingFile, File requestCaptureFile,
+			List<PortletBudget> portletBudgets, boolean streaming, List<String> deferredPortlets, boolean fastStartup, boolean sessionFootprint) {
+		this.portletContextPath = configuration.portletContextPath;
+		this.portletNames = configuration.portletNames;
+		this.cssUrls = configuration.cssUrls;
+		this.jsUrls = configuration.jsUrls;
+		this.preferencesFile = preferencesFile;
+		this.flightRecordingFile = flightRecordingFile;
+		this.requestCaptureFile = requestCaptureFile;
+		this.portletBudgets = portletBudgets;
+		this.streaming = streaming;
+		this.deferredPortlets = deferredPortlets;
+		this.fastStartup = fastStartup;
+		this.sessionFootprint = sessionFootprint;
+	}
+
+	/**
+	 * Returns the context path of the portlet application.
+	 *
+	 * @return context path of the portlet application
+	 */
+	public String getPortletContextPath() {
+		return portletContextPath;
+	}
+
+	/**
+	 * Returns the names of the prototyped portlets.
+	 *
+	 * @return unmodifiable list of portlet names
+	 */
+	public List<String> getPortletNames() {
+		return portletNames;
+	}
+
+	/**
+	 * Returns the custom CSS URLs.
+	 *
+	 * @return unmodifiable list of CSS URLs or null to use the portal defaults
+	 */
+	public List<String> getCssUrls() {
+		return cssUrls;
+	}
+
+	/**
+	 * Returns the custom Javascript URLs.
+	 *
+	 * @return unmodifiable list of Javascript URLs or null to use the portal defaults
+	 */
+	public List<String> getJsUrls() {
+		return jsUrls;
+	}
+
+	/**
+	 * Returns the file used to persist portlet preferences.
+	 *
+	 * @return preferences file or null to keep preferences in memory only
+	 */
+	public File getPreferencesFile() {
+		return preferencesFile;
+	}
+
+	/**
+	 * Returns a copy of this configuration using the specified preferences file.
+	 *
+	 * @param preferencesFile preferences file or null to keep preferences in memory only
+	 * @return modified copy of this configuration
+	 */
+	public PrototypingConfiguration withPreferencesFile(File preferencesFile) {
+		return new PrototypingConfiguration(this, preferencesFile, flightRecordingFile, requestCaptureFile, portletBudgets, streaming, deferredPortlets, fastStartup, sessionFootprint);
+	}
+
+	/**
+	 * Returns the file into which the flight recording named {@link #FLIGHT_RECORDING_NAME}
+	 * is dumped on exit. On demand dumps are written next to it.
+	 *
+	 * @return flight recording file or null if no recording is running
+	 */
+	public File getFlightRecordingFile() {
+		return flightRecordingFile;
+	}
+
+	/**
+	 * Returns a copy of this configuration using the specified flight recording file.
+	 *
+	 * @param flightRecordingFile flight recording file or null if no recording is running
+	 * @return modified copy of this configuration
+	 */
+	public PrototypingConfiguration withFlightRecordingFile(File flightRecordingFile) {
+		return new PrototypingConfiguration(this, preferencesFile, flightRecordingFile, requestCaptureFile, portletBudgets, streaming, deferredPortlets, fastStartup, sessionFootprint);
+	}
+
+	/**
+	 * Returns the file into which the portal captures the requests it receives.
+	 *
+	 * @return request capture file or null if requests are not captured
+	 */
+	public File getRequestCaptureFile() {
+		return requestCaptureFile;
+	}
+
+	/**
+	 * Returns a copy of this configuration using the specified request capture file.
+	 *
+	 * @param requestCaptureFile request capture file or null if requests are not captured
+	 * @return modified copy of this configuration
+	 */
+	public PrototypingConfiguration withRequestCaptureFile(File requestCaptureFile) {
+		return new PrototypingConfiguration(this, preferencesFile, flightRecordingFile, requestCaptureFile, portletBudgets, streaming, deferredPortlets, fastStartup, sessionFootprint);
+	}
+
+	/**
+	 * Returns the performance budgets of the portlets.
+	 *
+	 * @return unmodifiable list of portlet budgets
+	 */
+	public List<PortletBudget> getPortletBudgets() {
+		return portletBudgets;
+	}
+
+	/**
+	 * Returns the performance budget of the specified portlet.
+	 *
+	 * @param portletName name of the portlet
+	 * @return portlet budget or null if the portlet has no budget
+	 */
+	public PortletBudget getPortletBudget(String portletName) {
+		for (int i = 0; i < portletBudgets.size(); i++) {
+			PortletBudget budget = portletBudgets.get(i);
+			if (budget.getPortletName().equals(portletName)) {
+				return budget;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a copy of this configuration using the specified portlet budgets. The list is copied.
+	 *
+	 * @param portletBudgets portlet budgets or null for none
+	 * @return modified copy of this configuration
+	 */
+	public PrototypingConfiguration withPortletBudgets(List<PortletBudget> portletBudgets) {
+		return new PrototypingConfiguration(this, preferencesFile, flightRecordingFile, requestCaptureFile,
+				portletBudgets != null
+					? Collections.unmodifiableList(new ArrayList<PortletBudget>(portletBudgets))
+					: Collections.<PortletBudget>emptyList(),
+				streaming, deferredPortlets, fastStartup, sessionFootprint);
+	}
+
+	/**
+	 * Returns whether the portal page is streamed to the client as the portlets are rendered.
+	 * When streaming, the page head and shell are flushed before the portlets are rendered
+	 * and each portlet window is flushed as soon as it has been rendered.
+	 *
+	 * @return whether streaming page aggregation is enabled
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Returns a copy of this configuration with streaming page aggregation enabled or disabled.
+	 *
+	 * @param streaming whether to enable streaming page aggregation
+	 * @return modified copy of this configuration
+	 */
+	public PrototypingConfiguration withStreaming(boolean streaming) {
+		return new PrototypingConfiguration(this, preferencesFile, flightRecordingFile, requestCaptureFile, portletBudgets, streaming, deferredPortlets, fastStartup, sessionFootprint);
+	}
+
+	/**
+	 * Returns the names of the portlets loaded by the browser after the page has loaded.
+	 * The windows of these portlets are rendered as placeholders and their content is
+	 * fetched with a separate request per window.
+	 *
+	 * @return unmodifiable list of portlet names
+	 */
+	public List<String> getDeferredPortlets() {
+		return deferredPortlets;
+	}
+
+	/**
+	 * Returns whether the specified portlet is loaded by the browser after the page has loaded.
+	 *
+	 * @param portletName name of the portlet
+	 * @return whether the portlet is deferred
+	 */
+	public boolean isDeferredPortlet(String portletName) {
+		return deferredPortlets.contains(portletName);
+	}
+
+	/**
+	 * Returns a copy of this configuration deferring the specified portlets. The list is copied.
+	 *
+	 * @param deferredPortlets names of the deferred portlets or null for none
+	 * @return modified copy of this configuration
+	 */
+	public PrototypingConfiguration withDeferredPortlets(List<String> deferredPortlets) {
+		return new PrototypingConfiguration(this, preferencesFile, flightRecordingFile, requestCaptureFile,
+				portletBudgets, streaming, copyList(deferredPortlets), fastStartup, sessionFootprint);
+	}
+
+	/**
+	 * Returns whether the portal services are created in the fast startup mode. In the fast
+	 * startup mode the services not needed to start the portal are created in the
+	 * background.
+	 *
+	 * @return whether the fast startup mode is enabled
+	 */
+	public boolean isFastStartup() {
+		return fastStartup;
+	}
+
+	/**
+	 * Returns a copy of this configuration with the fast startup mode enabled or disabled.
+	 *
+	 * @param fastStartup whether to enable the fast startup mode
+	 * @return modified copy of this configuration
+	 */
+	public PrototypingConfiguration withFastStartup(boolean fastStartup) {
+		return new PrototypingConfiguration(this, preferencesFile, flightRecordingFile, requestCaptureFile, portletBudgets, streaming, deferredPortlets, fastStartup, sessionFootprint);
+	}
+
+	/**
+	 * Returns whether the session footprint of the portlets is analyzed. The analysis
+	 * serializes the portlet session attributes after each portlet invocation.
+	 *
+	 * @return whether the session footprint analysis is enabled
+	 */
+	public boolean isSessionFootprint() {
+		return sessionFootprint;
+	}
+
+	/**
+	 * Returns a copy of this configuration with the session footprint analysis enabled or disabled.
+	 *
+	 * @param sessionFootprint whether to enable the session footprint analysis
+	 * @return modified copy of this configuration
+	 */
+	public PrototypingConfiguration withSessionFootprint(boolean sessionFootprint) {
+		return new PrototypingConfiguration(this, preferencesFile, flightRecordingFile, requestCaptureFile, portletBudgets, streaming, deferredPortlets, fastStartup, sessionFootprint);
+	}
+
+	/**
+	 * Creates a configuration from the legacy system properties. This is used when the
+	 * portal is deployed without the plugin.
+	 *
+	 * @return configuration or null if the required system properties are not set
+	 */
+	public static PrototypingConfiguration fromSystemProperties() {
+		return fromProperties(System.getProperties());
+	}
+
+	/**
+	 * Creates a configuration from the specified properties, using the same property names
+	 * as the legacy system properties.
+	 *
+	 * @param props configuration properties
+	 * @return configuration or null if the required properties are not set
+	 */
+	public static PrototypingConfiguration fromProperties(Properties props) {
+		String portletContextPath = props.getProperty(PORTLET_CONTEXT_PATH_PROPERTY);
+		String portletNames = props.getProperty(PORTLET_NAMES_PROPERTY);
+		if (portletContextPath == null || portletNames == null) {
+			return null;
+		}
+		String cssUrls = props.getProperty(CSS_URLS_PROPERTY);
+		String jsUrls = props.getProperty(JS_URLS_PROPERTY);
+		String preferencesFile = props.getProperty(PREFERENCES_FILE_PROPERTY);
+		String flightRecordingFile = props.getProperty(FLIGHT_RECORDING_FILE_PROPERTY);
+		String requestCaptureFile = props.getProperty(REQUEST_CAPTURE_FILE_PROPERTY);
+		String deferredPortlets = props.getProperty(DEFERRED_PORTLETS_PROPERTY);
+		List<PortletBudget> portletBudgets = new ArrayList<PortletBudget>();
+		String budgets = props.getProperty(PORTLET_BUDGETS_PROPERTY);
+		if (budgets != null) {
+			List<String> items = parseList(budgets, BUDGETS_SEPARATOR);
+			for (int i = 0; i < items.size(); i++) {
+				portletBudgets.add(PortletBudget.parse(items.get(i)));
+			}
+		}
+		return new PrototypingConfiguration(
+				portletContextPath,
+				parseList(portletNames, PORTLET_NAMES_SEPARATOR),
+				cssUrls != null ? parseList(cssUrls, URLS_SEPARATOR) : null,
+				jsUrls != null ? parseList(jsUrls, URLS_SEPARATOR) : null
+		).withPreferencesFile(preferencesFile != null ? new File(preferencesFile) : null)
+		 .withFlightRecordingFile(flightRecordingFile != null ? new File(flightRecordingFile) : null)
+		 .withRequestCaptureFile(requestCaptureFile != null ? new File(requestCaptureFile) : null)
+		 .withPortletBudgets(portletBudgets)
+		 .withStreaming(Boolean.valueOf(props.getProperty(STREAMING_PROPERTY)).booleanValue())
+		 .withDeferredPortlets(deferredPortlets != null ? parseList(deferredPortlets, PORTLET_NAMES_SEPARATOR) : null)
+		 .withFastStartup(Boolean.valueOf(props.getProperty(FAST_STARTUP_PROPERTY)).booleanValue())
+		 .withSessionFootprint(Boolean.valueOf(props.getProperty(SESSION_FOOTPRINT_PROPERTY)).booleanValue());
+	}
+
+	/**
+	 * Returns this configuration as properties understood by {@link #fromProperties(Properties)}.
+	 * Used to hand the configuration over to a portal running in another process.
+	 *
+	 * @return configuration properties
+	 */
+	public Properties toProperties() {
+		Properties props = new Properties();
+		props.setProperty(PORTLET_CONTEXT_PATH_PROPERTY, portletContextPath);
+		props.setProperty(PORTLET_NAMES_PROPERTY, joinList(portletNames, PORTLET_NAMES_SEPARATOR));
+		if (cssUrls != null) {
+			props.setProperty(CSS_URLS_PROPERTY, joinList(cssUrls, URLS_SEPARATOR));
+		}
+		if (jsUrls != null) {
+			props.setProperty(JS_URLS_PROPERTY, joinList(jsUrls, URLS_SEPARATOR));
+		}
+		if (preferencesFile != null) {
+			props.setProperty(PREFERENCES_FILE_PROPERTY, preferencesFile.getPath());
+		}
+		if (flightRecordingFile != null) {
+			props.setProperty(FLIGHT_RECORDING_FILE_PROPERTY, flightRecordingFile.getPath());
+		}
+		if (requestCaptureFile != null) {
+			props.setProperty(REQUEST_CAPTURE_FILE_PROPERTY, requestCaptureFile.getPath());
+		}
+		if (!portletBudgets.isEmpty()) {
+			List<String> budgets = new ArrayList<String>(portletBudgets.size());
+			for (int i = 0; i < portletBudgets.size(); i++) {
+				budgets.add(portletBudgets.get(i).toString());
+			}
+			props.setProperty(PORTLET_BUDGETS_PROPERTY, joinList(budgets, BUDGETS_SEPARATOR));
+		}
+		if (streaming) {
+			props.setProperty(STREAMING_PROPERTY, "true");
+		}
+		if (!deferredPortlets.isEmpty()) {
+			props.setProperty(DEFERRED_PORTLETS_PROPERTY, joinList(deferredPortlets, PORTLET_NAMES_SEPARATOR));
+		}
+		if (fastStartup) {
+			props.setProperty(FAST_STARTUP_PROPERTY, "true");
+		}
+		if (sessionFootprint) {
+			props.setProperty(SESSION_FOOTPRINT_PROPERTY, "true");
+		}
+		return props;
+	}
+
+	/**
+	 * Joins the specified items into a separated string.
+	 *
+	 * @param items items to be joined
+	 * @param separator item separator
+	 * @return separated string
+	 */
+	protected static String joinList(List<String> items, String separator) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < items.size(); i++) {
+			if (i > 0) {
+				sb.append(separator);
+			}
+			sb.append(items.get(i));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses a separated string into a list of non-empty, trimmed items.
+	 *
+	 * @param value string to be parsed
+	 * @param separator item separator
+	 * @return list of items
+	 */
+	public static List<String> parseList(String value, String separator) {
+		List<String> items = new ArrayList<String>();
+		int start = 0;
+		while (start <= value.length()) {
+			int end = value.indexOf(separator, start);
+			if (end == -1) {
+				end = value.length();
+			}
+			String item = value.substring(start, end).trim();
+			if (item.length() > 0) {
+				items.add(item);
+			}
+			start = end + separator.length();
+		}
+		return items;
+	}
+
+	/**
+	 * Returns an unmodifiable copy of the specified list.
+	 *
+	 * @param list list to be copied or null
+	 * @return unmodifiable copy, empty if the list was null
+	 */
+	protected static List<String> copyList(List<String> list) {
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(new ArrayList<String>(list));
+	}
+
+	public String toString() {
+		return "PrototypingConfiguration[portletContextPath=" + portletContextPath
+			+ ", portletNames=" + portletNames
+			+ ", cssUrls=" + cssUrls
+			+ ", jsUrls=" + jsUrls
+			+ ", preferencesFile=" + preferencesFile
+			+ ", flightRecordingFile=" + flightRecordingFile
+			+ ", requestCaptureFile=" + requestCaptureFile
+			+ ", portletBudgets=" + portletBudgets
+			+ ", streaming=" + streaming
+			+ ", deferredPortlets=" + deferredPortlets
+			+ ", fastStartup=" + fastStartup
+			+ ", sessionFootprint=" + sessionFootprint + "]";
+	}
+}
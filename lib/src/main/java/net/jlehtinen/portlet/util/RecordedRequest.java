@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.util;
+
+/**
+ * Single request captured by the prototyping portal into a {@link RequestLog}.
+ */
+public class RecordedRequest {
+
+	/** Time of the request in milliseconds since the start of the capture */
+	protected final long time;
+
+	/** Index of the HTTP session of the request or -1 if none */
+	protected final int session;
+
+	/** Name of the authenticated user or null */
+	protected final String user;
+
+	/** HTTP method */
+	protected final String method;
+
+	/** Request URI including the query string */
+	protected final String uri;
+
+	/** Content type of the request body or null */
+	protected final String contentType;
+
+	/** Request body or null if none */
+	protected final byte[] body;
+
+	/** Response status */
+	protected final int status;
+
+	/** Processing time in microseconds */
+	protected final long durationMicros;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param time time of the request in milliseconds since the start of the capture
+	 * @param session index of the HTTP session or -1 if none
+	 * @param user name of the authenticated user or null
+	 * @param method HTTP method
+	 * @param uri request URI including the query string
+	 * @param contentType content type of the request body or null
+	 * @param body request body or null if none
+	 * @param status response status
+	 * @param durationMicros processing time in microseconds
+	 */
+	public RecordedRequest(long time, int session, String user, String method, String uri, String contentType, byte[] body, int status, long durationMicros) {
+		this.time = time;
+		this.session = session;
+		this.user = user;
+		this.method = method;
+		this.uri = uri;
+		this.contentType = contentType;
+		this.body = body;
+		this.status = status;
+		this.durationMicros = durationMicros;
+	}
+
+	/**
+	 * Returns the time of the request.
+	 *
+	 * @return milliseconds since the start of the capture
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns the index of the HTTP session of the request. Requests of the same
+	 * session share the same index.
+	 *
+	 * @return session index or -1 if none
+	 */
+	public int getSession() {
+		return session;
+	}
+
+	/**
+	 * Returns the name of the authenticated user.
+	 *
+	 * @return user name or null
+	 */
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * Returns the HTTP method.
+	 *
+	 * @return HTTP method
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Returns the request URI.
+	 *
+	 * @return request URI including the query string
+	 */
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * Returns the content type of the request body.
+	 *
+	 * @return content type or null
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Returns the request body.
+	 *
+	 * @return request body or null if none
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * Returns the response status.
+	 *
+	 * @return response status
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the processing time of the request.
+	 *
+	 * @return processing time in microseconds
+	 */
+	public long getDurationMicros() {
+		return durationMicros;
+	}
+
+	public String toString() {
+		return method + " " + uri;
+	}
+}
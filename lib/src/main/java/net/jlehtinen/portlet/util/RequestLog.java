@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary log of requests captured by the prototyping portal and replayed by the
+ * Portlet Prototyping Maven Plugin. The log starts with a header followed by one record
+ * per request. Records are flushed as they are written so the log can be read while the
+ * capture is running; a truncated record at the end of the log is ignored.
+ */
+public class RequestLog {
+
+	/** Magic number at the start of the log */
+	protected static final int MAGIC = 0x50505251;
+
+	/** Version of the log format */
+	protected static final int VERSION = 1;
+
+	/** The log file */
+	protected final File file;
+
+	/** Time of the start of the capture */
+	protected final long startTime;
+
+	/** Output stream writing the log */
+	protected DataOutputStream out;
+
+	/**
+	 * Creates a new log, replacing any existing file.
+	 *
+	 * @param file log file
+	 * @throws IOException on I/O error
+	 */
+	public RequestLog(File file) throws IOException {
+		this.file = file;
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Failed to create directory " + parent);
+		}
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.flush();
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns the log file.
+	 *
+	 * @return log file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the time of the start of the capture, to be used as the base of
+	 * {@link RecordedRequest#getTime()}.
+	 *
+	 * @return start time in milliseconds
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Appends the specified request to the log.
+	 *
+	 * @param request recorded request
+	 * @throws IOException on I/O error or if the log has been closed
+	 */
+	public synchronized void write(RecordedRequest request) throws IOException {
+		if (out == null) {
+			throw new IOException("Request log " + file + " has been closed");
+		}
+		out.writeLong(request.getTime());
+		out.writeInt(request.getSession());
+		writeString(out, request.getUser());
+		out.writeUTF(request.getMethod());
+		out.writeUTF(request.getUri());
+		writeString(out, request.getContentType());
+		byte[] body = request.getBody();
+		out.writeInt(body != null ? body.length : -1);
+		if (body != null) {
+			out.write(body);
+		}
+		out.writeInt(request.getStatus());
+		out.writeLong(request.getDurationMicros());
+		out.flush();
+	}
+
+	/**
+	 * Closes the log.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+	/**
+	 * Reads the requests recorded in the specified log.
+	 *
+	 * @param file log file
+	 * @return recorded requests in the order they were recorded
+	 * @throws IOException on I/O error or if the file is not a request log
+	 */
+	public static List<RecordedRequest> read(File file) throws IOException {
+		List<RecordedRequest> requests = new ArrayList<RecordedRequest>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a request log");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported request log version " + version + " in " + file);
+			}
+			while (true) {
+				long time = in.readLong();
+				int session = in.readInt();
+				String user = readString(in);
+				String method = in.readUTF();
+				String uri = in.readUTF();
+				String contentType = readString(in);
+				int length = in.readInt();
+				byte[] body = null;
+				if (length >= 0) {
+					body = new byte[length];
+					in.readFully(body);
+				}
+				int status = in.readInt();
+				long durationMicros = in.readLong();
+				requests.add(new RecordedRequest(time, session, user, method, uri, contentType, body, status, durationMicros));
+			}
+		} catch (EOFException e) {
+			// End of log reached
+		} finally {
+			in.close();
+		}
+		return requests;
+	}
+
+	/**
+	 * Writes a string which may be null.
+	 *
+	 * @param out output stream
+	 * @param s string or null
+	 * @throws IOException on I/O error
+	 */
+	protected static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param in input stream
+	 * @return string or null
+	 * @throws IOException on I/O error
+	 */
+	protected static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+}
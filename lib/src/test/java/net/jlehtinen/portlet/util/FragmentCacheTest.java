@@ -0,0 +1,200 @@
+package net.jlehtinen.portlet.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.portlet.PortletException;
+import javax.portlet.PortletMode;
+import javax.portlet.PortletPreferences;
+import javax.portlet.PortletRequest;
+import javax.portlet.WindowState;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class FragmentCacheTest {
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		FragmentCache<String> cache = new FragmentCache<String>("test", 10, 0);
+		AtomicInteger loads = new AtomicInteger();
+		Assert.assertEquals("Loaded value", "a1", cache.get("a", loader("a", loads)));
+		Assert.assertEquals("Cached value", "a1", cache.get("a", loader("a", loads)));
+		Assert.assertEquals("Hits", 1, cache.getHits());
+		Assert.assertEquals("Misses", 1, cache.getMisses());
+		
+		cache.invalidate("a");
+		Assert.assertEquals("Reloaded value", "a2", cache.get("a", loader("a", loads)));
+		Assert.assertEquals("Invalidations", 1, cache.getInvalidations());
+	}
+	
+	@Test
+	public void testEviction() throws Exception {
+		FragmentCache<String> cache = new FragmentCache<String>("test", 2, 0);
+		AtomicInteger loads = new AtomicInteger();
+		cache.get("a", loader("a", loads));
+		cache.get("b", loader("b", loads));
+		cache.get("a", loader("a", loads));
+		cache.get("c", loader("c", loads));
+		Assert.assertEquals("Size", 2, cache.getSize());
+		Assert.assertEquals("Evictions", 1, cache.getEvictions());
+		Assert.assertEquals("Recently used value", "a1", cache.get("a", loader("a", loads)));
+		Assert.assertEquals("Evicted value", "b4", cache.get("b", loader("b", loads)));
+	}
+	
+	@Test
+	public void testExpiration() throws Exception {
+		FragmentCache<String> cache = new FragmentCache<String>("test", 10, 20);
+		AtomicInteger loads = new AtomicInteger();
+		cache.get("a", loader("a", loads));
+		Thread.sleep(50);
+		Assert.assertEquals("Expired value", "a2", cache.get("a", loader("a", loads)));
+		Assert.assertEquals("Expirations", 1, cache.getExpirations());
+	}
+	
+	@Test
+	public void testSingleFlight() throws Exception {
+		final FragmentCache<String> cache = new FragmentCache<String>("test", 10, 0);
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Future<String> first = executor.submit(new Callable<String>() {
+				public String call() throws Exception {
+					return cache.get("a", new Callable<String>() {
+						public String call() throws Exception {
+							loading.countDown();
+							release.await();
+							return "a" + loads.incrementAndGet();
+						}
+					});
+				}
+			});
+			Assert.assertTrue("Loading", loading.await(5, TimeUnit.SECONDS));
+			Future<?>[] others = new Future<?>[3];
+			for (int i = 0; i < others.length; i++) {
+				others[i] = executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return cache.get("a", loader("a", loads));
+					}
+				});
+			}
+			Thread.sleep(50);
+			release.countDown();
+			Assert.assertEquals("First value", "a1", first.get(5, TimeUnit.SECONDS));
+			for (int i = 0; i < others.length; i++) {
+				Assert.assertEquals("Shared value", "a1", others[i].get(5, TimeUnit.SECONDS));
+			}
+			Assert.assertEquals("Loads", 1, loads.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testFailedLoadNotCached() throws Exception {
+		FragmentCache<String> cache = new FragmentCache<String>("test", 10, 0);
+		try {
+			cache.get("a", new Callable<String>() {
+				public String call() throws Exception {
+					throw new Exception("Failed");
+				}
+			});
+			Assert.fail("Expected PortletException");
+		} catch (PortletException e) {
+			Assert.assertEquals("Cause", "Failed", e.getCause().getMessage());
+		}
+		Assert.assertEquals("Size", 0, cache.getSize());
+	}
+	
+	@Test
+	public void testRequestKeys() throws Exception {
+		FragmentCache<String> cache = new FragmentCache<String>("test", 10, 0);
+		AtomicInteger loads = new AtomicInteger();
+		Map<String, String[]> prefs = Collections.singletonMap("operator", new String[] { "+" });
+		PortletRequest request = createRequest("w1", PortletMode.VIEW, prefs);
+		Assert.assertEquals("Equal keys", FragmentCache.key(request, "f"), FragmentCache.key(createRequest("w1", PortletMode.VIEW, prefs), "f"));
+		Assert.assertFalse("Other mode", FragmentCache.key(request, "f").equals(FragmentCache.key(createRequest("w1", PortletMode.EDIT, prefs), "f")));
+		Map<String, String[]> otherPrefs = Collections.singletonMap("operator", new String[] { "-" });
+		Assert.assertFalse("Other preferences", FragmentCache.key(request, "f").equals(FragmentCache.key(createRequest("w1", PortletMode.VIEW, otherPrefs), "f")));
+		
+		cache.get(FragmentCache.key(request, "f"), loader("f", loads));
+		cache.get(FragmentCache.key(request, "g"), loader("g", loads));
+		cache.get(FragmentCache.key(createRequest("w2", PortletMode.VIEW, prefs), "f"), loader("f", loads));
+		cache.invalidate(request);
+		Assert.assertEquals("Entries of other windows", 1, cache.getSize());
+	}
+	
+	@Test
+	public void testAmbiguousRequestKeys() throws Exception {
+		Map<String, String[]> joined = Collections.singletonMap("operator", new String[] { "+, -" });
+		Map<String, String[]> split = Collections.singletonMap("operator", new String[] { "+", "-" });
+		Assert.assertFalse("Joined and split values", FragmentCache.key(createRequest("w1", PortletMode.VIEW, joined), "f").equals(
+				FragmentCache.key(createRequest("w1", PortletMode.VIEW, split), "f")));
+		
+		Map<String, String[]> nested = Collections.singletonMap("a", new String[] { "x];b=[y" });
+		Map<String, String[]> pair = new HashMap<String, String[]>();
+		pair.put("a", new String[] { "x" });
+		pair.put("b", new String[] { "y" });
+		Assert.assertFalse("Nested and separate entries", FragmentCache.key(createRequest("w1", PortletMode.VIEW, nested), "f").equals(
+				FragmentCache.key(createRequest("w1", PortletMode.VIEW, pair), "f")));
+	}
+	
+	@Test
+	public void testRegisterMBean() throws Exception {
+		FragmentCache<String> cache = new FragmentCache<String>("test: cache", 10, 0);
+		Assert.assertTrue("Registered", cache.registerMBean());
+		Assert.assertTrue("Registered again", cache.registerMBean());
+		cache.unregisterMBean();
+	}
+	
+	protected static Callable<String> loader(final String prefix, final AtomicInteger loads) {
+		return new Callable<String>() {
+			public String call() {
+				return prefix + loads.incrementAndGet();
+			}
+		};
+	}
+	
+	protected static PortletRequest createRequest(final String windowId, final PortletMode mode, final Map<String, String[]> prefs) {
+		final PortletPreferences preferences = (PortletPreferences) Proxy.newProxyInstance(FragmentCacheTest.class.getClassLoader(), new Class<?>[] { PortletPreferences.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("getMap")) {
+					return prefs;
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+		return (PortletRequest) Proxy.newProxyInstance(FragmentCacheTest.class.getClassLoader(), new Class<?>[] { PortletRequest.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getWindowID")) {
+					return windowId;
+				} else if (name.equals("getPortletMode")) {
+					return mode;
+				} else if (name.equals("getWindowState")) {
+					return WindowState.NORMAL;
+				} else if (name.equals("getPreferences")) {
+					return preferences;
+				} else if (name.equals("getParameterMap")) {
+					return new HashMap<String, String[]>();
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+	
+}
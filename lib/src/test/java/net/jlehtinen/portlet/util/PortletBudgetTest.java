@@ -0,0 +1,42 @@
+package net.jlehtinen.portlet.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class PortletBudgetTest {
+
+	@Test
+	public void testParse() {
+		PortletBudget budget = PortletBudget.parse("ns:Portlet:100:2048:0");
+		Assert.assertEquals("Portlet name", "ns:Portlet", budget.getPortletName());
+		Assert.assertEquals("Render time", 100, budget.getMaxRenderMillis());
+		Assert.assertEquals("Markup size", 2048, budget.getMaxBytes());
+		Assert.assertFalse("Allocation limited", budget.isAllocationLimited());
+		
+		List<String> violations = new ArrayList<String>();
+		Assert.assertTrue("Within budget", budget.check(100, 2048, 1000000, violations));
+		Assert.assertFalse("Over budget", budget.check(101, 4096, 1000000, violations));
+		Assert.assertEquals("Violations", 2, violations.size());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseInvalid() {
+		PortletBudget.parse("Portlet:100");
+	}
+	
+	@Test
+	public void testAllocationBudget() {
+		PortletBudget budget = PortletBudget.parse("Portlet:0:0:1024");
+		Assert.assertTrue("Allocation limited", budget.isAllocationLimited());
+		
+		List<String> violations = new ArrayList<String>();
+		Assert.assertTrue("Within budget", budget.check(1000, 100000, 1024, violations));
+		Assert.assertFalse("Over budget", budget.check(1000, 100000, 1025, violations));
+		Assert.assertEquals("Violations", 1, violations.size());
+	}
+	
+}
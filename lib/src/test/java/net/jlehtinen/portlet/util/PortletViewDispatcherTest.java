@@ -0,0 +1,72 @@
+package net.jlehtinen.portlet.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.portlet.PortletContext;
+import javax.portlet.PortletException;
+import javax.portlet.PortletMode;
+import javax.portlet.PortletRequestDispatcher;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortletViewDispatcherTest {
+
+	protected List<String> resolvedPaths;
+	
+	protected PortletContext portletContext;
+	
+	@Before
+	public void setup() {
+		resolvedPaths = new ArrayList<String>();
+		portletContext = (PortletContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("getRequestDispatcher")) {
+					String path = (String) args[0];
+					resolvedPaths.add(path);
+					return path.indexOf("missing") == -1 ? createDispatcher() : null;
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+	@Test
+	public void testCaching() throws Exception {
+		PortletViewDispatcher dispatcher = new PortletViewDispatcher(portletContext, "/WEB-INF/jsp/", ".jsp");
+		PortletRequestDispatcher view = dispatcher.getDispatcher(PortletMode.VIEW, "ask");
+		Assert.assertSame("Cached dispatcher", view, dispatcher.getDispatcher(PortletMode.VIEW, "ask"));
+		Assert.assertNotSame("Dispatcher in another mode", view, dispatcher.getDispatcher(PortletMode.EDIT, "ask"));
+		dispatcher.getDispatcher(PortletMode.VIEW, "help");
+		Assert.assertEquals("Resolved paths", "[/WEB-INF/jsp/ask.jsp, /WEB-INF/jsp/ask.jsp, /WEB-INF/jsp/help.jsp]", resolvedPaths.toString());
+		
+		dispatcher.clear();
+		Assert.assertNotSame("Dispatcher after clear", view, dispatcher.getDispatcher(PortletMode.VIEW, "ask"));
+	}
+	
+	@Test(expected = PortletException.class)
+	public void testMissingView() throws Exception {
+		new PortletViewDispatcher(portletContext, "/WEB-INF/jsp/", ".jsp").getDispatcher(PortletMode.VIEW, "missing");
+	}
+	
+	protected static PortletRequestDispatcher createDispatcher() {
+		return (PortletRequestDispatcher) Proxy.newProxyInstance(PortletViewDispatcherTest.class.getClassLoader(), new Class<?>[] { PortletRequestDispatcher.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("equals")) {
+					return Boolean.valueOf(proxy == args[0]);
+				}
+				if (method.getName().equals("hashCode")) {
+					return new Integer(System.identityHashCode(proxy));
+				}
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+}
@@ -1,7 +1,11 @@
 package net.jlehtinen.portlet.util;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
@@ -31,6 +35,22 @@ public class PortletXmlTest {
 		loadPortletXml();
 	}
 	
+	@Test
+	public void testValidate() throws Exception {
+		PortletXml px = PortletXml.load(new File(testOutputDirectory, "valid-portlet.xml"), true);
+		Assert.assertEquals("Validated portlet modes", "[view, edit]", px.getPortletModes("valid-portlet").toString());
+	}
+	
+	@Test
+	public void testValidateInvalid() throws Exception {
+		try {
+			PortletXml.load(new File(testOutputDirectory, "portlet.xml"), true);
+			Assert.fail("Invalid portlet descriptor was accepted");
+		} catch (IOException e) {
+			Assert.assertTrue("Error message contains line number", e.getMessage().indexOf("line") != -1);
+		}
+	}
+	
 	@Test
 	public void testGetPortletNames() throws Exception {
 		PortletXml px = loadPortletXml();
@@ -40,6 +60,14 @@ public class PortletXmlTest {
 		Assert.assertEquals("Portlet name set size", 2, pnames.size());
 	}
 	
+	@Test
+	public void testGetPortletModes() throws Exception {
+		PortletXml px = loadPortletXml();
+		Assert.assertEquals("Example portlet modes", "[view, edit, help]", px.getPortletModes("example-portlet").toString());
+		Assert.assertEquals("Failing portlet modes", "[view]", px.getPortletModes("failing-portlet").toString());
+		Assert.assertTrue("Unknown portlet modes", px.getPortletModes("unknown-portlet").isEmpty());
+	}
+	
 	@Test
 	public void testFilterPortlets() throws Exception {
 		
@@ -58,6 +86,72 @@ public class PortletXmlTest {
 		Assert.assertEquals("Portlet name set size", 0, pnames.size());
 	}
 	
+	@Test
+	public void testSnapshot() throws Exception {
+		File snapshot = new File(testOutputDirectory, "snapshot/portlet.xml.snapshot");
+		snapshot.delete();
+		File file = new File(testOutputDirectory, "portlet.xml");
+		PortletXml parsed = PortletXml.load(file, false, snapshot);
+		Assert.assertFalse("First load parses the descriptor", parsed.isLoadedFromSnapshot());
+		Assert.assertTrue("Snapshot written", snapshot.isFile());
+		PortletXml cached = PortletXml.load(file, false, snapshot);
+		Assert.assertTrue("Second load reads the snapshot", cached.isLoadedFromSnapshot());
+		Assert.assertEquals("Portlet names", parsed.getPortletNames(), cached.getPortletNames());
+		Assert.assertEquals("Example portlet modes", "[view, edit, help]", cached.getPortletModes("example-portlet").toString());
+		Assert.assertEquals("Failing portlet modes", "[view]", cached.getPortletModes("failing-portlet").toString());
+		Assert.assertFalse("Validating load does not use an unvalidated snapshot",
+				PortletXml.load(new File(testOutputDirectory, "valid-portlet.xml"), true, snapshot).isLoadedFromSnapshot());
+	}
+	
+	@Test
+	public void testSnapshotFilterAndSave() throws Exception {
+		File snapshot = new File(testOutputDirectory, "snapshot/filter.snapshot");
+		File file = new File(testOutputDirectory, "portlet.xml");
+		PortletXml.load(file, false, snapshot);
+		PortletXml px = PortletXml.load(file, false, snapshot);
+		Assert.assertTrue("Loaded from snapshot", px.isLoadedFromSnapshot());
+		Set<String> pnames = new HashSet<String>();
+		pnames.add("example-portlet");
+		px.filterPortlets(pnames);
+		Assert.assertEquals("Filtered portlet names", "[example-portlet]", px.getPortletNames().toString());
+		File filtered = new File(testOutputDirectory, "snapshot/filtered-portlet.xml");
+		px.save(filtered);
+		Assert.assertEquals("Saved portlet names", "[example-portlet]", PortletXml.load(filtered).getPortletNames().toString());
+	}
+	
+	@Test
+	public void testSnapshotInvalidated() throws Exception {
+		File snapshot = new File(testOutputDirectory, "snapshot/modified.snapshot");
+		File file = new File(testOutputDirectory, "snapshot/modified-portlet.xml");
+		PortletXml.load(new File(testOutputDirectory, "portlet.xml")).save(file);
+		PortletXml.load(file, false, snapshot);
+		Assert.assertTrue("Unmodified descriptor uses snapshot", PortletXml.load(file, false, snapshot).isLoadedFromSnapshot());
+		Writer out = new FileWriter(file, true);
+		out.write("\n");
+		out.close();
+		Assert.assertFalse("Modified descriptor is parsed", PortletXml.load(file, false, snapshot).isLoadedFromSnapshot());
+		Assert.assertTrue("Snapshot is rewritten", PortletXml.load(file, false, snapshot).isLoadedFromSnapshot());
+	}
+	
+	@Test
+	public void testSnapshotCorrupted() throws Exception {
+		File snapshot = new File(testOutputDirectory, "snapshot/corrupted.snapshot");
+		File file = new File(testOutputDirectory, "portlet.xml");
+		snapshot.delete();
+		PortletXml.load(file, false, snapshot);
+		
+		// Replace the length of the first portlet name with one exceeding the snapshot
+		RandomAccessFile raf = new RandomAccessFile(snapshot, "rw");
+		raf.seek(4);
+		raf.seek(4 + 4 + raf.readInt() + 1 + 4);
+		raf.writeInt(Integer.MAX_VALUE);
+		raf.close();
+		PortletXml px = PortletXml.load(file, false, snapshot);
+		Assert.assertFalse("Corrupted snapshot is not used", px.isLoadedFromSnapshot());
+		Assert.assertEquals("Example portlet modes", "[view, edit, help]", px.getPortletModes("example-portlet").toString());
+		Assert.assertTrue("Snapshot is rewritten", PortletXml.load(file, false, snapshot).isLoadedFromSnapshot());
+	}
+	
 	protected PortletXml loadPortletXml() throws Exception {
 		return PortletXml.load(new File(testOutputDirectory, "portlet.xml"));		
 	}
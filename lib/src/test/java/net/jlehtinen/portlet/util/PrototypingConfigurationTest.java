@@ -0,0 +1,50 @@
+package net.jlehtinen.portlet.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class PrototypingConfigurationTest {
+
+	@Test
+	public void testPropertiesRoundTrip() throws Exception {
+		PrototypingConfiguration original = new PrototypingConfiguration(
+				"/example", Arrays.asList("First", "Second"), Arrays.asList("http://localhost/a.css"), null
+		).withPreferencesFile(new File("prefs.log"))
+		 .withRequestCaptureFile(new File("requests.log"))
+		 .withPortletBudgets(Arrays.asList(new PortletBudget("First", 50, 20000, 0)))
+		 .withStreaming(true)
+		 .withDeferredPortlets(Arrays.asList("Second"))
+		 .withFastStartup(true)
+		 .withSessionFootprint(true);
+		
+		Properties props = original.toProperties();
+		Assert.assertEquals("Portlet names", "First,Second", props.getProperty(PrototypingConfiguration.PORTLET_NAMES_PROPERTY));
+		
+		PrototypingConfiguration copy = PrototypingConfiguration.fromProperties(props);
+		Assert.assertEquals("Context path", "/example", copy.getPortletContextPath());
+		Assert.assertEquals("Portlet names", original.getPortletNames(), copy.getPortletNames());
+		Assert.assertEquals("CSS URLs", original.getCssUrls(), copy.getCssUrls());
+		Assert.assertNull("JS URLs", copy.getJsUrls());
+		Assert.assertEquals("Preferences file", new File("prefs.log"), copy.getPreferencesFile());
+		Assert.assertNull("Flight recording file", copy.getFlightRecordingFile());
+		Assert.assertEquals("Request capture file", new File("requests.log"), copy.getRequestCaptureFile());
+		Assert.assertEquals("Portlet budgets", "[First:50:20000:0]", copy.getPortletBudgets().toString());
+		Assert.assertNull("Budget of portlet without budget", copy.getPortletBudget("Second"));
+		Assert.assertTrue("Streaming", copy.isStreaming());
+		Assert.assertTrue("Deferred portlet", copy.isDeferredPortlet("Second"));
+		Assert.assertFalse("Portlet not deferred", copy.isDeferredPortlet("First"));
+		Assert.assertTrue("Fast startup", copy.isFastStartup());
+		Assert.assertTrue("Session footprint", copy.isSessionFootprint());
+	}
+	
+	@Test
+	public void testMissingProperties() {
+		Assert.assertNull("Configuration", PrototypingConfiguration.fromProperties(new Properties()));
+	}
+	
+}
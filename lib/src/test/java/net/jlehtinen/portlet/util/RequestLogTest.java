@@ -0,0 +1,52 @@
+package net.jlehtinen.portlet.util;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestLogTest {
+
+	protected File testOutputDirectory;
+	
+	@Before
+	public void setup() throws Exception {
+		if (testOutputDirectory == null) {
+			Properties props = new Properties();
+			InputStream in = getClass().getResource("/paths.properties").openStream();
+			props.load(in);
+			in.close();
+			testOutputDirectory = new File(props.getProperty("testOutputDirectory"));
+		}
+	}
+	
+	@Test
+	public void testWriteAndRead() throws Exception {
+		File file = new File(testOutputDirectory, "requests.log");
+		RequestLog log = new RequestLog(file);
+		log.write(new RecordedRequest(0, -1, null, "GET", "/pluto/portal", null, null, 200, 1500));
+		log.write(new RecordedRequest(25, 0, "pluto", "POST", "/pluto/portal/Page/~AQ?x=1", "application/x-www-form-urlencoded", "a=b".getBytes("UTF-8"), 302, 2500));
+		log.close();
+		
+		List<RecordedRequest> requests = RequestLog.read(file);
+		Assert.assertEquals("Number of requests", 2, requests.size());
+		RecordedRequest get = requests.get(0);
+		Assert.assertEquals("Method", "GET", get.getMethod());
+		Assert.assertEquals("Session", -1, get.getSession());
+		Assert.assertNull("User", get.getUser());
+		Assert.assertNull("Body", get.getBody());
+		RecordedRequest post = requests.get(1);
+		Assert.assertEquals("Time", 25, post.getTime());
+		Assert.assertEquals("User", "pluto", post.getUser());
+		Assert.assertEquals("URI", "/pluto/portal/Page/~AQ?x=1", post.getUri());
+		Assert.assertEquals("Body", "a=b", new String(post.getBody(), "UTF-8"));
+		Assert.assertEquals("Status", 302, post.getStatus());
+		Assert.assertEquals("Duration", 2500, post.getDurationMicros());
+	}
+	
+}
@@ -0,0 +1,83 @@
+package net.jlehtinen.portlet.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SharedClassesTest {
+
+	@Test
+	public void testBudgetAcrossClassLoaders() throws Exception {
+		PrototypingConfiguration configuration = new PrototypingConfiguration("/example", Arrays.asList("First"), null, null)
+			.withPortletBudgets(Arrays.asList(new PortletBudget("First", 50, 20000, 0)));
+		ClassLoader loader = new WebAppLikeClassLoader(PrototypingConfiguration.SHARED_CLASS_NAMES);
+		Object maxRenderMillis = loader.loadClass(BudgetReader.class.getName()).getMethod("getMaxRenderMillis", new Class<?>[] { Object.class })
+			.invoke(null, new Object[] { configuration });
+		Assert.assertEquals("Budget read in the child loader", new Long(50), maxRenderMillis);
+	}
+	
+	@Test
+	public void testBudgetNotShared() throws Exception {
+		PrototypingConfiguration configuration = new PrototypingConfiguration("/example", Arrays.asList("First"), null, null)
+			.withPortletBudgets(Arrays.asList(new PortletBudget("First", 50, 20000, 0)));
+		ClassLoader loader = new WebAppLikeClassLoader(Collections.singletonList(PrototypingConfiguration.class.getName()));
+		try {
+			loader.loadClass(BudgetReader.class.getName()).getMethod("getMaxRenderMillis", new Class<?>[] { Object.class })
+				.invoke(null, new Object[] { configuration });
+			Assert.fail("Expected a loader constraint violation");
+		} catch (InvocationTargetException e) {
+			Assert.assertTrue("Linkage error", e.getCause() instanceof LinkageError);
+		}
+	}
+	
+	/**
+	 * Reads a budget of a configuration, loaded by the child class loader like the portal.
+	 */
+	public static class BudgetReader {
+		
+		public static long getMaxRenderMillis(Object configuration) {
+			return ((PrototypingConfiguration) configuration).getPortletBudget("First").getMaxRenderMillis();
+		}
+		
+	}
+	
+	/**
+	 * Class loader loading the library and test classes itself, except the system classes,
+	 * like the web application class loader of Jetty.
+	 */
+	protected static class WebAppLikeClassLoader extends URLClassLoader {
+		
+		protected final List<String> systemClasses;
+		
+		public WebAppLikeClassLoader(List<String> systemClasses) {
+			super(new URL[] {
+					PrototypingConfiguration.class.getProtectionDomain().getCodeSource().getLocation(),
+					SharedClassesTest.class.getProtectionDomain().getCodeSource().getLocation() },
+					SharedClassesTest.class.getClassLoader());
+			this.systemClasses = systemClasses;
+		}
+		
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.startsWith("net.jlehtinen.") || systemClasses.contains(name)) {
+				return super.loadClass(name, resolve);
+			}
+			Class<?> c = findLoadedClass(name);
+			if (c == null) {
+				c = findClass(name);
+			}
+			if (resolve) {
+				resolveClass(c);
+			}
+			return c;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import net.jlehtinen.portlet.util.PortletBudget;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Performance budget configuration record of a single portlet.
+ */
+public class Budget {
+
+	/** Name of the portlet */
+	protected String portletName;
+	
+	/** Longest allowed render time in milliseconds or 0 for no limit */
+	protected long maxRenderMillis;
+	
+	/** Largest allowed markup size in bytes or 0 for no limit */
+	protected long maxBytes;
+	
+	/** Largest allowed allocation per render in bytes or 0 for no limit */
+	protected long maxAllocatedBytes;
+	
+	/**
+	 * Returns the name of the portlet.
+	 * 
+	 * @return portlet name
+	 */
+	public String getPortletName() {
+		return portletName;
+	}
+	
+	/**
+	 * Validates the budget entry and throws an exception if data is invalid.
+	 * 
+	 * @throws MojoExecutionException on invalid data
+	 */
+	public void validate() throws MojoExecutionException {
+		if (portletName == null || portletName.equals("")) {
+			throw new MojoExecutionException("portletName must be specified and non-empty");
+		}
+		if (maxRenderMillis <= 0 && maxBytes <= 0 && maxAllocatedBytes <= 0) {
+			throw new MojoExecutionException("at least one of maxRenderMillis, maxBytes and maxAllocatedBytes must be specified");
+		}
+	}
+	
+	/**
+	 * Returns the budget in the form passed on to the portal.
+	 * 
+	 * @return portlet budget
+	 */
+	public PortletBudget toPortletBudget() {
+		return new PortletBudget(portletName, maxRenderMillis, maxBytes, maxAllocatedBytes);
+	}
+	
+	public String toString() {
+		return toPortletBudget().toString();
+	}
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.mortbay.jetty.Handler;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.ContextHandlerCollection;
+import org.mortbay.jetty.handler.DefaultHandler;
+import org.mortbay.jetty.handler.HandlerCollection;
+import org.mortbay.jetty.nio.SelectChannelConnector;
+import org.mortbay.jetty.webapp.WebAppContext;
+
+/**
+ * Main class of the portal JVM forked by the <em>run-forked</em> goal. The forked JVM
+ * connects to the control port given as the only argument, receives its settings as
+ * properties, starts Jetty with the portlet application and the portal, and reports the
+ * local port back. It then runs until it receives the stop command or the control
+ * connection is closed, so that the portal never outlives the Maven process.
+ * 
+ * <p>When started by the <em>daemon</em> goal the forked JVM instead outlives Maven. It
+ * writes its output to a log file and, once started, listens for commands on a local
+ * daemon port recorded in the daemon file together with a token that the commands must
+ * carry. The redeploy command restarts the portlet application with fresh settings and
+ * reports the time taken; the stop command stops the daemon and removes the daemon file.</p>
+ * 
+ * <p>This class must not refer to the mojo classes as the forked JVM does not have Maven
+ * on its class path.</p>
+ */
+public class ForkedPortal {
+
+	/** Message sent by the forked JVM once the portal has started */
+	public static final String READY = "ready";
+	
+	/** Command stopping the forked JVM */
+	public static final String STOP = "stop";
+	
+	/** Command redeploying the portlet application in the daemon */
+	public static final String REDEPLOY = "redeploy";
+	
+	/** Message sent by the daemon if a command failed, followed by the error message */
+	public static final String ERROR = "error";
+	
+	/** Setting holding the daemon file, missing unless running as a daemon */
+	public static final String DAEMON_FILE = "daemonFile";
+	
+	/** Setting holding the log file of the daemon */
+	public static final String DAEMON_LOG = "daemonLog";
+	
+	/** Daemon file property holding the daemon port */
+	public static final String DAEMON_PORT = "daemonPort";
+	
+	/** Daemon file property holding the HTTP port */
+	public static final String DAEMON_HTTP_PORT = "httpPort";
+	
+	/** Daemon file property holding the token the commands must carry */
+	public static final String DAEMON_TOKEN = "token";
+	
+	/** Setting holding the HTTP port, 0 for any free port */
+	public static final String PORT = "port";
+	
+	/** Setting holding the context path of the portlet application */
+	public static final String CONTEXT_PATH = "contextPath";
+	
+	/** Setting holding the web application source directory of the portlet application */
+	public static final String WEBAPP_DIRECTORY = "webAppDirectory";
+	
+	/** Setting holding the assembled web.xml of the portlet application */
+	public static final String WEB_XML = "webXml";
+	
+	/** Setting holding the class path of the portlet application, separated by the path separator */
+	public static final String CLASS_PATH = "classPath";
+	
+	/** Setting holding the portal WAR */
+	public static final String PORTAL_WAR = "portalWar";
+	
+	/** Setting holding the context path of the portal */
+	public static final String PORTAL_CONTEXT_PATH = "portalContextPath";
+	
+	/** Setting holding the realm name */
+	public static final String REALM_NAME = "realmName";
+	
+	/** Prefix of the settings holding the realm users */
+	public static final String USER_PREFIX = "user.";
+	
+	/** Setting holding the request thread pool mode, missing for the Jetty default pool */
+	public static final String THREAD_POOL = "threadPool";
+	
+	/** Setting holding the maximum number of request threads */
+	public static final String MAX_THREADS = "maxThreads";
+	
+	/** Setting holding the maximum number of queued requests */
+	public static final String MAX_QUEUED_REQUESTS = "maxQueuedRequests";
+	
+	/** Prefix of the settings holding the portal configuration */
+	public static final String CONFIGURATION_PREFIX = "configuration.";
+	
+	/** Longest time to wait for a daemon client to send its command, in milliseconds */
+	protected static final int DAEMON_READ_TIMEOUT = 30000;
+	
+	/** Log writing to the standard streams, which the daemon redirects to its log file */
+	protected static final Log log = new SystemStreamLog();
+	
+	/**
+	 * Runs the forked portal.
+	 * 
+	 * @param args control port
+	 * @throws Exception if the portal could not be started
+	 */
+	public static void main(String[] args) throws Exception {
+		Socket control = new Socket(InetAddress.getByName("127.0.0.1"), Integer.parseInt(args[0]));
+		DataInputStream in = new DataInputStream(control.getInputStream());
+		DataOutputStream out = new DataOutputStream(control.getOutputStream());
+		
+		// Receive settings and start the portal
+		Properties settings = readSettings(in);
+		String daemonFile = settings.getProperty(DAEMON_FILE);
+		if (daemonFile != null) {
+			PrintStream logStream = new PrintStream(new FileOutputStream(settings.getProperty(DAEMON_LOG), true), true);
+			System.setOut(logStream);
+			System.setErr(logStream);
+		}
+		Server server = createServer(settings);
+		server.start();
+		int port = server.getConnectors()[0].getLocalPort();
+		out.writeUTF(READY);
+		out.writeInt(port);
+		out.flush();
+		
+		if (daemonFile != null) {
+			
+			// Serve commands until stopped
+			control.close();
+			serveDaemon(server, new File(daemonFile), port);
+		} else {
+		
+			// Run until stopped or the parent goes away
+			try {
+				while (!STOP.equals(in.readUTF())) {
+					// Ignore unknown commands
+				}
+			} catch (IOException e) {
+				// Control connection closed
+			}
+			control.close();
+		}
+		server.stop();
+		System.exit(0);
+	}
+	
+	/**
+	 * Reads settings sent as a length prefixed properties file.
+	 * 
+	 * @param in input stream
+	 * @return settings
+	 * @throws IOException on I/O error
+	 */
+	public static Properties readSettings(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		Properties settings = new Properties();
+		settings.load(new ByteArrayInputStream(bytes));
+		return settings;
+	}
+	
+	/**
+	 * Writes settings as a length prefixed properties file.
+	 * 
+	 * @param out output stream
+	 * @param settings settings
+	 * @throws IOException on I/O error
+	 */
+	public static void writeSettings(DataOutputStream out, Properties settings) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		settings.store(bytes, null);
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+		out.flush();
+	}
+	
+	/**
+	 * Serves daemon commands until the stop command is received. The daemon port and
+	 * token are written to the daemon file, which is removed when the daemon stops. A
+	 * client that does not send its command in time is disconnected so that it can not
+	 * block the daemon.
+	 * 
+	 * @param server running server
+	 * @param daemonFile daemon file
+	 * @param port HTTP port
+	 * @throws IOException if the daemon port could not be opened
+	 */
+	protected static void serveDaemon(Server server, File daemonFile, int port) throws IOException {
+		ServerSocket daemonServer = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+		String token = Long.toHexString(new SecureRandom().nextLong());
+		Properties daemon = new Properties();
+		daemon.setProperty(DAEMON_PORT, String.valueOf(daemonServer.getLocalPort()));
+		daemon.setProperty(DAEMON_HTTP_PORT, String.valueOf(port));
+		daemon.setProperty(DAEMON_TOKEN, token);
+		OutputStream fileOut = new FileOutputStream(daemonFile);
+		try {
+			daemon.store(fileOut, "Portlet prototyping daemon");
+		} finally {
+			fileOut.close();
+		}
+		log.info(MessageFormat.format("Portal daemon listening at port {0}", new Object[] { String.valueOf(daemonServer.getLocalPort()) }));
+		try {
+			boolean stopped = false;
+			while (!stopped) {
+				Socket socket = daemonServer.accept();
+				try {
+					socket.setSoTimeout(DAEMON_READ_TIMEOUT);
+					DataInputStream in = new DataInputStream(socket.getInputStream());
+					DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+					if (!token.equals(in.readUTF())) {
+						continue;
+					}
+					String command = in.readUTF();
+					if (STOP.equals(command)) {
+						stopped = true;
+					} else if (REDEPLOY.equals(command)) {
+						Properties settings = readSettings(in);
+						try {
+							long millis = redeploy(server, settings);
+							out.writeUTF(READY);
+							out.writeLong(millis);
+						} catch (Exception e) {
+							log.error("Redeployment failed", e);
+							out.writeUTF(ERROR);
+							out.writeUTF(String.valueOf(e));
+						}
+						out.flush();
+					}
+				} catch (IOException e) {
+					// Client went away or timed out
+				} finally {
+					socket.close();
+				}
+			}
+		} finally {
+			daemonFile.delete();
+			daemonServer.close();
+		}
+	}
+	
+	/**
+	 * Returns a copy of the specified system classes with the specified classes added.
+	 * System classes are loaded by the parent class loader. Shared by the run goal, as
+	 * the forked JVM can not load the mojo classes.
+	 * 
+	 * @param systemClasses current system classes or null
+	 * @param classNames names of the classes to be added
+	 * @return new system classes
+	 */
+	public static String[] addSystemClasses(String[] systemClasses, List<String> classNames) {
+		if (systemClasses == null) {
+			systemClasses = new String[0];
+		}
+		String[] classes = new String[systemClasses.length + classNames.size()];
+		System.arraycopy(systemClasses, 0, classes, 0, systemClasses.length);
+		for (int i = 0; i < classNames.size(); i++) {
+			classes[systemClasses.length + i] = classNames.get(i);
+		}
+		return classes;
+	}
+	
+	/**
+	 * Redeploys the portlet application with the specified settings and publishes the new
+	 * portal configuration. Settings of the server and the portal itself are not changed.
+	 * 
+	 * @param server running server
+	 * @param settings new settings
+	 * @return time taken in milliseconds
+	 * @throws Exception if the portlet application could not be restarted
+	 */
+	protected static long redeploy(Server server, Properties settings) throws Exception {
+		long start = System.nanoTime();
+		Handler[] contexts = server.getChildHandlersByClass(WebAppContext.class);
+		WebAppContext portal = null;
+		WebAppContext webapp = null;
+		for (int i = 0; i < contexts.length; i++) {
+			WebAppContext context = (WebAppContext) contexts[i];
+			if (context.getContextPath().equals(settings.getProperty(PORTAL_CONTEXT_PATH))) {
+				portal = context;
+			} else {
+				webapp = context;
+			}
+		}
+		if (portal == null || webapp == null) {
+			throw new IllegalStateException("Portlet application or portal not found");
+		}
+		webapp.stop();
+		configureWebApp(webapp, settings);
+		webapp.start();
+		
+		// Setting through the servlet context notifies the portal attribute listeners
+		portal.getServletContext().setAttribute(PrototypingConfiguration.ATTRIBUTE_NAME, PrototypingConfiguration.fromProperties(getPrefixed(settings, CONFIGURATION_PREFIX)));
+		long millis = (System.nanoTime() - start) / 1000000;
+		log.info(MessageFormat.format("Redeployed portlet application {0} in {1} ms", new Object[] { webapp.getContextPath(), new Long(millis) }));
+		return millis;
+	}
+	
+	/**
+	 * Creates the server according to the specified settings.
+	 * 
+	 * @param settings settings received from the parent
+	 * @return configured server
+	 */
+	protected static Server createServer(Properties settings) {
+		Server server = new Server();
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setPort(Integer.parseInt(settings.getProperty(PORT, "8080")));
+		server.addConnector(connector);
+		String threadPool = settings.getProperty(THREAD_POOL);
+		if (threadPool != null) {
+			server.setThreadPool(new RequestThreadPool(log, threadPool,
+					Integer.parseInt(settings.getProperty(MAX_THREADS)), Integer.parseInt(settings.getProperty(MAX_QUEUED_REQUESTS))));
+		}
+		
+		// Portlet application
+		WebAppContext webapp = new WebAppContext();
+		configureWebApp(webapp, settings);
+		
+		// Portal
+		WebAppContext portal = new WebAppContext();
+		portal.setContextPath(settings.getProperty(PORTAL_CONTEXT_PATH));
+		portal.setWar(settings.getProperty(PORTAL_WAR));
+		portal.setExtractWAR(false);
+		Realm realm = new Realm(settings.getProperty(REALM_NAME), getUsers(settings));
+		realm.registerMBean(log);
+		portal.getSecurityHandler().setUserRealm(realm);
+		portal.setSystemClasses(addSystemClasses(portal.getSystemClasses(), PrototypingConfiguration.SHARED_CLASS_NAMES));
+		portal.setAttribute(PrototypingConfiguration.ATTRIBUTE_NAME, PrototypingConfiguration.fromProperties(getPrefixed(settings, CONFIGURATION_PREFIX)));
+		
+		ContextHandlerCollection contexts = new ContextHandlerCollection();
+		contexts.setHandlers(new Handler[] { webapp, portal });
+		HandlerCollection handlers = new HandlerCollection();
+		handlers.setHandlers(new Handler[] { contexts, new DefaultHandler() });
+		server.setHandler(handlers);
+		return server;
+	}
+	
+	/**
+	 * Configures the portlet application according to the specified settings.
+	 * 
+	 * @param webapp portlet application context
+	 * @param settings settings received from the parent
+	 */
+	protected static void configureWebApp(WebAppContext webapp, Properties settings) {
+		webapp.setContextPath(settings.getProperty(CONTEXT_PATH));
+		webapp.setResourceBase(settings.getProperty(WEBAPP_DIRECTORY));
+		webapp.setDescriptor(settings.getProperty(WEB_XML));
+		webapp.setExtraClasspath(settings.getProperty(CLASS_PATH).replace(File.pathSeparatorChar, ';'));
+	}
+	
+	/**
+	 * Adds the specified users to the settings.
+	 * 
+	 * @param settings settings to be sent to the forked JVM
+	 * @param users realm users
+	 */
+	public static void setUsers(Properties settings, List<User> users) {
+		for (int i = 0; i < users.size(); i++) {
+			User user = users.get(i);
+			settings.setProperty(USER_PREFIX + i + ".name", user.getUsername());
+			settings.setProperty(USER_PREFIX + i + ".password", user.getPassword());
+			if (user.getRoles() != null) {
+				settings.setProperty(USER_PREFIX + i + ".roles", user.getRoles());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the users in the specified settings.
+	 * 
+	 * @param settings settings received from the parent
+	 * @return realm users
+	 */
+	protected static List<User> getUsers(Properties settings) {
+		List<User> users = new ArrayList<User>();
+		String name;
+		for (int i = 0; (name = settings.getProperty(USER_PREFIX + i + ".name")) != null; i++) {
+			users.add(new User(name, settings.getProperty(USER_PREFIX + i + ".password"), settings.getProperty(USER_PREFIX + i + ".roles")));
+		}
+		return users;
+	}
+	
+	/**
+	 * Returns the settings starting with the specified prefix, with the prefix removed.
+	 * 
+	 * @param settings settings
+	 * @param prefix prefix
+	 * @return matching settings without the prefix
+	 */
+	protected static Properties getPrefixed(Properties settings, String prefix) {
+		Properties props = new Properties();
+		Enumeration<?> names = settings.propertyNames();
+		while (names.hasMoreElements()) {
+			String name = (String) names.nextElement();
+			if (name.startsWith(prefix)) {
+				props.setProperty(name.substring(prefix.length()), settings.getProperty(name));
+			}
+		}
+		return props;
+	}
+	
+}
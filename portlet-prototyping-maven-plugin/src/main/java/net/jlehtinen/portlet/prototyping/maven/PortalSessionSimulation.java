@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Asks a running portal to simulate a number of concurrent user sessions and reports the
+ * heap retained per session, as measured by the portal, once the simulation completes.
+ * The sessions are assigned the given users in turn.
+ */
+public class PortalSessionSimulation implements Runnable {
+
+	/** Path of the simulation endpoint relative to the portal context */
+	public static final String SIMULATION_PATH = "/prototyping/simulation";
+
+	/** Interval between progress polls in milliseconds */
+	protected static final long POLL_INTERVAL = 1000;
+
+	/** Longest time to wait for the simulation to complete in milliseconds */
+	protected static final long TIMEOUT = 60 * 60 * 1000;
+
+	/** Number of growing classes logged */
+	protected static final int LOGGED_CLASSES = 5;
+
+	/** Pattern matching the session counts in the report */
+	protected static final Pattern SESSIONS_PATTERN = Pattern.compile("\"created\":(\\d+),\"failedRequests\":(\\d+),\"millis\":(\\d+)");
+
+	/** Pattern matching the retained heap in the report */
+	protected static final Pattern HEAP_PATTERN = Pattern.compile(
+			"\"bytesPerSession\":(\\d+),\"jettySession\":(\\d+),\"portletSession\":(\\d+),\"preferences\":(\\d+),\"attributes\":(\\d+),\"capacity\":(-?\\d+)");
+
+	/** Pattern matching the growing classes in the report */
+	protected static final Pattern CLASS_PATTERN = Pattern.compile("\\{\"class\":\"((?:[^\"\\\\]|\\\\.)*)\",\"instances\":(-?\\d+),\"bytes\":(\\d+)\\}");
+
+	/** Maven log */
+	protected final Log log;
+
+	/** URL of the simulation endpoint */
+	protected final String url;
+
+	/** Users assigned to the sessions */
+	protected final List<User> users;
+
+	/** Number of sessions to be simulated */
+	protected final int sessions;
+
+	/** Supported portlet modes keyed by portlet name */
+	protected final Map<String, Set<String>> portletModes;
+
+	/**
+	 * Constructs a new simulation.
+	 * 
+	 * @param log Maven log
+	 * @param portalUrl scheme, host, port and context path of the portal
+	 * @param users users assigned to the sessions
+	 * @param sessions number of sessions to be simulated
+	 * @param portletModes supported portlet modes keyed by portlet name
+	 */
+	public PortalSessionSimulation(Log log, String portalUrl, List<User> users, int sessions, Map<String, Set<String>> portletModes) {
+		this.log = log;
+		this.url = portalUrl + SIMULATION_PATH;
+		this.users = users;
+		this.sessions = sessions;
+		this.portletModes = portletModes;
+	}
+
+	/**
+	 * Starts the simulation and waits for it to complete. Failures are logged.
+	 */
+	public void run() {
+		long start = System.currentTimeMillis();
+		try {
+			log.info(MessageFormat.format("Simulating {0} sessions", new Object[] { new Integer(sessions) }));
+			String report = PortalWarmUp.send(url, createBody());
+			while (report.indexOf("\"complete\":true") == -1) {
+				if (report.indexOf("\"running\":true") == -1 || System.currentTimeMillis() - start > TIMEOUT) {
+					log.warn(MessageFormat.format("Session simulation did not complete: {0}", new Object[] { report }));
+					return;
+				}
+				Thread.sleep(POLL_INTERVAL);
+				report = PortalWarmUp.send(url, null);
+			}
+			Matcher counts = SESSIONS_PATTERN.matcher(report);
+			if (counts.find()) {
+				log.info(MessageFormat.format("Simulated {0} sessions in {1} ms, {2} failed requests", new Object[] {
+						counts.group(1), counts.group(3), counts.group(2) }));
+			}
+			Matcher heap = HEAP_PATTERN.matcher(report);
+			if (heap.find()) {
+				log.info(MessageFormat.format("Retained heap per session {0} bytes: Jetty session {1}, portlet session {2}, preferences {3}, attributes and other {4}", new Object[] {
+						heap.group(1), heap.group(2), heap.group(3), heap.group(4), heap.group(5) }));
+				log.info(MessageFormat.format("Maximum heap holds about {0} sessions", new Object[] { heap.group(6) }));
+			}
+			Matcher classes = CLASS_PATTERN.matcher(report);
+			for (int i = 0; i < LOGGED_CLASSES && classes.find(); i++) {
+				log.info(MessageFormat.format("  {0}: {1} instances, {2} bytes", new Object[] { classes.group(1), classes.group(2), classes.group(3) }));
+			}
+		} catch (IOException e) {
+			log.warn(MessageFormat.format("Session simulation failed at {0}", new Object[] { url }), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates the form encoded request body giving the number of sessions, the users and
+	 * the portlets with their modes.
+	 * 
+	 * @return form encoded body
+	 * @throws IOException if encoding fails
+	 */
+	protected String createBody() throws IOException {
+		StringBuilder body = new StringBuilder("sessions=").append(sessions);
+		Iterator<User> iter = users.iterator();
+		while (iter.hasNext()) {
+			User user = iter.next();
+			body.append("&user=").append(URLEncoder.encode(user.getUsername() + ':' + user.getPassword(), "UTF-8"));
+		}
+		String portlets = PortalWarmUp.createBody(portletModes);
+		if (portlets.length() > 0) {
+			body.append('&').append(portlets);
+		}
+		return body.toString();
+	}
+
+}
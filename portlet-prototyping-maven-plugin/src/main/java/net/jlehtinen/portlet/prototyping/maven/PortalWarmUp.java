@@ -0,0 +1,225 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Warms up a running portal by asking it to render each portlet window on the portal page
+ * in each of the portlet modes supported by the portlet, and waits for the portal to
+ * report itself warm. The renders are made by the portal in parallel. The portal is warm
+ * only if every render succeeded; otherwise the failed renders are reported as a warning.
+ */
+public class PortalWarmUp implements Runnable {
+
+	/** Path of the warm-up endpoint relative to the portal context */
+	public static final String WARM_UP_PATH = "/prototyping/warmup";
+
+	/** Interval between progress polls in milliseconds */
+	protected static final long POLL_INTERVAL = 200;
+
+	/** Longest time to wait for the portal to become warm in milliseconds */
+	protected static final long TIMEOUT = 10 * 60 * 1000;
+
+	/** Pattern matching the render statuses in the progress report */
+	protected static final Pattern STATUS_PATTERN = Pattern.compile("\"status\":(\\d+)");
+
+	/** Pattern matching the failed renders in the progress report */
+	protected static final Pattern FAILED_PATTERN = Pattern.compile("\"successful\":false");
+
+	/** Pattern matching the page timings in the progress report */
+	protected static final Pattern PAGE_PATTERN = Pattern.compile("\"pageFirstByteMillis\":(-?\\d+),\"pageMillis\":(-?\\d+)");
+
+	/** Maven log */
+	protected final Log log;
+
+	/** URL of the warm-up endpoint */
+	protected final String url;
+
+	/** Supported portlet modes keyed by portlet name */
+	protected final Map<String, Set<String>> portletModes;
+
+	/**
+	 * Constructs a new warm-up.
+	 * 
+	 * @param log Maven log
+	 * @param portalUrl scheme, host, port and context path of the portal
+	 * @param portletModes supported portlet modes keyed by portlet name
+	 */
+	public PortalWarmUp(Log log, String portalUrl, Map<String, Set<String>> portletModes) {
+		this.log = log;
+		this.url = portalUrl + WARM_UP_PATH;
+		this.portletModes = portletModes;
+	}
+
+	/**
+	 * Starts the warm-up and waits for the portal to become warm. Failures are logged.
+	 */
+	public void run() {
+		long start = System.currentTimeMillis();
+		try {
+			String report = send(createBody(portletModes));
+			while (report.indexOf("\"warm\":true") == -1) {
+				if (report.indexOf("\"running\":true") == -1 || System.currentTimeMillis() - start > TIMEOUT) {
+					log.warn(MessageFormat.format("Portal warm-up did not complete, {0} renders failed: {1}", new Object[] {
+							new Integer(countFailed(report)), report }));
+					return;
+				}
+				Thread.sleep(POLL_INTERVAL);
+				report = send(null);
+			}
+			int renders = 0;
+			Matcher matcher = STATUS_PATTERN.matcher(report);
+			while (matcher.find()) {
+				renders++;
+			}
+			int failed = countFailed(report);
+			log.info(MessageFormat.format("Portal warm in {0} ms: {1} renders of {2} portlets, {3} failed", new Object[] {
+					new Long(System.currentTimeMillis() - start), new Integer(renders), new Integer(portletModes.size()), new Integer(failed) }));
+			Matcher page = PAGE_PATTERN.matcher(report);
+			if (page.find()) {
+				log.info(MessageFormat.format("Default page first byte in {0} ms, complete in {1} ms", new Object[] {
+						page.group(1), page.group(2) }));
+			}
+		} catch (IOException e) {
+			log.warn(MessageFormat.format("Portal warm-up failed at {0}", new Object[] { url }), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Counts the renders reported as not successful in the progress report, either
+	 * because of an error status or a portlet exception.
+	 * 
+	 * @param report progress report
+	 * @return number of failed renders
+	 */
+	protected static int countFailed(String report) {
+		int failed = 0;
+		Matcher matcher = FAILED_PATTERN.matcher(report);
+		while (matcher.find()) {
+			failed++;
+		}
+		return failed;
+	}
+
+	/**
+	 * Starts the warm-up in a background thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "Portal warm-up");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Creates the form encoded request body listing the portlets and their modes.
+	 * 
+	 * @param portletModes supported portlet modes keyed by portlet name
+	 * @return form encoded body
+	 * @throws IOException if encoding fails
+	 */
+	protected static String createBody(Map<String, Set<String>> portletModes) throws IOException {
+		StringBuilder body = new StringBuilder();
+		Iterator<Map.Entry<String, Set<String>>> iter = portletModes.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, Set<String>> entry = iter.next();
+			StringBuilder value = new StringBuilder(entry.getKey()).append(':');
+			Iterator<String> modeIter = entry.getValue().iterator();
+			while (modeIter.hasNext()) {
+				value.append(modeIter.next());
+				if (modeIter.hasNext()) {
+					value.append(',');
+				}
+			}
+			if (body.length() > 0) {
+				body.append('&');
+			}
+			body.append("portlet=").append(URLEncoder.encode(value.toString(), "UTF-8"));
+		}
+		return body.toString();
+	}
+
+	/**
+	 * Sends a request to the warm-up endpoint.
+	 * 
+	 * @param body form encoded body to be posted or null to send a GET
+	 * @return progress report
+	 * @throws IOException if the request failed
+	 */
+	protected String send(String body) throws IOException {
+		return send(url, body);
+	}
+
+	/**
+	 * Sends a request to the specified portal endpoint.
+	 * 
+	 * @param url URL of the endpoint
+	 * @param body form encoded body to be posted or null to send a GET
+	 * @return response body
+	 * @throws IOException if the request failed
+	 */
+	protected static String send(String url, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try {
+			if (body != null) {
+				byte[] bytes = body.getBytes("UTF-8");
+				connection.setRequestMethod("POST");
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+				connection.setFixedLengthStreamingMode(bytes.length);
+				OutputStream out = connection.getOutputStream();
+				out.write(bytes);
+				out.close();
+			}
+			int status = connection.getResponseCode();
+			if (status >= 300) {
+				throw new IOException(MessageFormat.format("Request to {0} returned status {1}", new Object[] { url, new Integer(status) }));
+			}
+			InputStream in = connection.getInputStream();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+			return out.toString("UTF-8");
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+}
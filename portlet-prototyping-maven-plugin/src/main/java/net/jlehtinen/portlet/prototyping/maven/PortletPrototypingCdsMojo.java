@@ -0,0 +1,285 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Creates a class data sharing (CDS) archive for faster portal startup. The goal forks
+ * a training run of Maven executing the <em>run</em> goal, which starts the portal,
+ * renders the portal page once and stops. The training run dumps the list of loaded
+ * classes and, on Java 13 or later, archives the loaded classes at exit, including the
+ * Jetty, Pluto, Spring and portlet classes loaded by the Maven class loaders. On Java 10
+ * to 12 the archive is created from the class list and covers only the classes of the
+ * Java runtime and the Maven launcher. Later runs use the archive when Maven is started
+ * with <code>-XX:SharedArchiveFile</code> pointing to it, for example through
+ * <code>MAVEN_OPTS</code>. The archive is valid only for the Java runtime that created it.
+ * 
+ * @goal cds
+ * @description Creates a class data sharing archive for faster portal startup
+ */
+public class PortletPrototypingCdsMojo extends AbstractMojo {
+
+	/** First Java version supporting application class data sharing */
+	protected static final int MIN_CDS_JAVA_VERSION = 10;
+	
+	/** First Java version supporting dynamic archives */
+	protected static final int MIN_DYNAMIC_CDS_JAVA_VERSION = 13;
+	
+	/** Options removed from the inherited Maven options of the training run */
+	protected static final String[] EXCLUDED_OPTIONS = { "-XX:SharedArchiveFile=", "-Xshare:", "-XX:ArchiveClassesAtExit=", "-XX:DumpLoadedClassList=" };
+	
+	/**
+	 * The project descriptor used for the training run.
+	 * 
+	 * @parameter expression="${project.file}"
+	 * @required
+	 * @readonly
+	 */
+	protected File projectFile;
+	
+	/**
+	 * Whether Maven is offline.
+	 * 
+	 * @parameter expression="${settings.offline}"
+	 * @readonly
+	 */
+	protected boolean offline;
+	
+	/**
+	 * The class data sharing archive to be created.
+	 * 
+	 * @parameter expression="${cdsArchive}" default-value="${project.build.directory}/pluto-cds.jsa"
+	 */
+	protected File cdsArchive;
+	
+	/**
+	 * The list of classes loaded during the training run.
+	 * 
+	 * @parameter expression="${cdsClassList}" default-value="${project.build.directory}/pluto-cds.classlist"
+	 */
+	protected File cdsClassList;
+	
+	/**
+	 * Additional command line arguments for the training run, separated by white space,
+	 * such as <code>-DportletNames=MyPortlet</code>.
+	 * 
+	 * @parameter expression="${cdsTrainingArguments}"
+	 */
+	protected String cdsTrainingArguments;
+	
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		int javaVersion = getJavaFeatureVersion();
+		if (javaVersion < MIN_CDS_JAVA_VERSION) {
+			throw new MojoExecutionException(MessageFormat.format("Application class data sharing requires Java {0} or later, current version is {1}", new Object[] {
+					new Integer(MIN_CDS_JAVA_VERSION), System.getProperty("java.version") }));
+		}
+		boolean dynamic = javaVersion >= MIN_DYNAMIC_CDS_JAVA_VERSION;
+		cdsArchive.getAbsoluteFile().getParentFile().mkdirs();
+		cdsClassList.getAbsoluteFile().getParentFile().mkdirs();
+		cdsArchive.delete();
+		cdsClassList.delete();
+		
+		// Training run
+		StringBuilder options = new StringBuilder(getInheritedOptions());
+		options.append(" -XX:DumpLoadedClassList=").append(cdsClassList.getAbsolutePath());
+		if (dynamic) {
+			options.append(" -XX:ArchiveClassesAtExit=").append(cdsArchive.getAbsolutePath());
+		}
+		List<String> command = new ArrayList<String>();
+		command.add(getMavenExecutable().getPath());
+		command.add("-B");
+		if (offline) {
+			command.add("-o");
+		}
+		command.add("-f");
+		command.add(projectFile.getAbsolutePath());
+		command.add(getRunGoal());
+		command.add("-DtrainingRun=true");
+		if (cdsTrainingArguments != null) {
+			String[] args = cdsTrainingArguments.trim().split("\\s+");
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].length() > 0) {
+					command.add(args[i]);
+				}
+			}
+		}
+		getLog().info(MessageFormat.format("Starting training run: {0}", new Object[] { command }));
+		long start = System.currentTimeMillis();
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.directory(projectFile.getAbsoluteFile().getParentFile());
+		Map<String, String> env = pb.environment();
+		env.put("JAVA_HOME", System.getProperty("java.home"));
+		env.put("MAVEN_OPTS", options.toString().trim());
+		run(pb, "Training run");
+		getLog().info(MessageFormat.format("Training run completed in {0} ms", new Object[] { new Long(System.currentTimeMillis() - start) }));
+		if (!cdsClassList.exists()) {
+			throw new MojoExecutionException(MessageFormat.format("Training run did not produce class list {0}", new Object[] { cdsClassList }));
+		}
+		
+		// Create a static archive from the class list if dynamic archives are not supported
+		if (!dynamic) {
+			List<String> dump = new ArrayList<String>();
+			dump.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+			dump.add("-Xshare:dump");
+			if (javaVersion == MIN_CDS_JAVA_VERSION) {
+				dump.add("-XX:+UseAppCDS");
+			}
+			dump.add("-XX:SharedClassListFile=" + cdsClassList.getAbsolutePath());
+			dump.add("-XX:SharedArchiveFile=" + cdsArchive.getAbsolutePath());
+			dump.add("-cp");
+			dump.add(System.getProperty("java.class.path"));
+			run(new ProcessBuilder(dump), "Archive dump");
+		}
+		if (!cdsArchive.exists()) {
+			throw new MojoExecutionException(MessageFormat.format("Class data sharing archive {0} was not created", new Object[] { cdsArchive }));
+		}
+		getLog().info(MessageFormat.format("Created class data sharing archive {0} ({1} kB)", new Object[] {
+				cdsArchive, new Long(cdsArchive.length() / 1024) }));
+		getLog().info(MessageFormat.format("To use it, start Maven with MAVEN_OPTS=\"-XX:SharedArchiveFile={0}\"", new Object[] { cdsArchive.getAbsolutePath() }));
+	}
+	
+	/**
+	 * Runs the specified process, logging its output.
+	 * 
+	 * @param pb process to be run
+	 * @param name name of the process for logging
+	 * @throws MojoExecutionException if the process could not be run or failed
+	 */
+	protected void run(ProcessBuilder pb, String name) throws MojoExecutionException {
+		pb.redirectErrorStream(true);
+		int exitValue;
+		try {
+			Process process = pb.start();
+			process.getOutputStream().close();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				getLog().info("[" + name + "] " + line);
+			}
+			reader.close();
+			exitValue = process.waitFor();
+		} catch (IOException e) {
+			throw new MojoExecutionException(MessageFormat.format("{0} failed", new Object[] { name }), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException(MessageFormat.format("{0} interrupted", new Object[] { name }), e);
+		}
+		if (exitValue != 0) {
+			throw new MojoExecutionException(MessageFormat.format("{0} failed with exit value {1}", new Object[] { name, new Integer(exitValue) }));
+		}
+	}
+	
+	/**
+	 * Returns the Maven options inherited by the training run, excluding any options
+	 * controlling class data sharing.
+	 * 
+	 * @return inherited options
+	 */
+	protected static String getInheritedOptions() {
+		String opts = System.getenv("MAVEN_OPTS");
+		if (opts == null) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		String[] options = opts.trim().split("\\s+");
+		for (int i = 0; i < options.length; i++) {
+			boolean excluded = false;
+			for (int j = 0; j < EXCLUDED_OPTIONS.length && !excluded; j++) {
+				excluded = options[i].startsWith(EXCLUDED_OPTIONS[j]);
+			}
+			if (!excluded && options[i].length() > 0) {
+				sb.append(' ').append(options[i]);
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns the Maven executable of the running Maven installation.
+	 * 
+	 * @return Maven executable
+	 * @throws MojoExecutionException if the Maven installation is not known
+	 */
+	protected static File getMavenExecutable() throws MojoExecutionException {
+		String home = System.getProperty("maven.home");
+		if (home == null) {
+			throw new MojoExecutionException("Maven installation directory is not known (maven.home)");
+		}
+		File bin = new File(home, "bin");
+		if (File.separatorChar == '\\') {
+			File cmd = new File(bin, "mvn.cmd");
+			return cmd.exists() ? cmd : new File(bin, "mvn.bat");
+		}
+		return new File(bin, "mvn");
+	}
+	
+	/**
+	 * Returns the fully qualified <em>run</em> goal of this plugin version.
+	 * 
+	 * @return run goal
+	 * @throws MojoExecutionException if the plugin version is not known
+	 */
+	protected static String getRunGoal() throws MojoExecutionException {
+		String version;
+		try {
+			Properties prop = new Properties();
+			prop.load(PortletPrototypingCdsMojo.class.getResource(PortletPrototypingRunMojo.VERSION_PROPERTIES_PATH).openStream());
+			version = prop.getProperty("version");
+		} catch (Exception e) {
+			throw new MojoExecutionException("Failed to read version information", e);
+		}
+		if (version == null) {
+			throw new MojoExecutionException("Version property not found");
+		}
+		return PortletPrototypingRunMojo.PORTLET_PROTOTYPING_GROUP_ID + ":portlet-prototyping-maven-plugin:" + version + ":run";
+	}
+	
+	/**
+	 * Returns the feature version of the running Java runtime, such as 8 for 1.8.0 or 17 for 17.0.1.
+	 * 
+	 * @return feature version or 0 if not known
+	 */
+	protected static int getJavaFeatureVersion() {
+		String version = System.getProperty("java.specification.version");
+		if (version == null) {
+			return 0;
+		}
+		if (version.startsWith("1.")) {
+			version = version.substring(2);
+		}
+		int dot = version.indexOf('.');
+		try {
+			return Integer.parseInt(dot != -1 ? version.substring(0, dot) : version);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+}
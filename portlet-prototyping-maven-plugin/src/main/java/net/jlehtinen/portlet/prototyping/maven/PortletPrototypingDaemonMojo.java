@@ -0,0 +1,243 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.text.MessageFormat;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Runs the portlet or portlets being developed in a long-lived portal daemon. The first
+ * invocation starts the portal in a forked JVM like the <em>run-forked</em> goal, but the
+ * forked JVM keeps running after Maven exits. Later invocations assemble the portlets,
+ * connect to the daemon over a local socket and only redeploy the portlet application,
+ * so an iteration costs the redeployment instead of a portal startup. Settings of the
+ * server and the portal itself, such as the port, users and JVM options, are applied
+ * only when the daemon is started; stop the daemon with <code>-DstopDaemon=true</code>
+ * to change them.
+ * 
+ * @extendsPlugin jetty
+ * @goal daemon
+ * @description Runs the portlet or portlets being developed in a long-lived portal daemon
+ */
+public class PortletPrototypingDaemonMojo extends PortletPrototypingRunForkedMojo {
+
+	/** How long to wait for the daemon to redeploy the portlet application, in milliseconds */
+	protected static final int REDEPLOY_TIMEOUT = 5 * 60 * 1000;
+	
+	/**
+	 * File recording the port and token of the running daemon.
+	 * 
+	 * @parameter expression="${daemonFile}" default-value="${project.build.directory}/pluto-daemon.properties"
+	 */
+	protected File daemonFile;
+	
+	/**
+	 * Log file of the daemon, receiving the output of the portal.
+	 * 
+	 * @parameter expression="${daemonLog}" default-value="${project.build.directory}/pluto-daemon.log"
+	 */
+	protected File daemonLog;
+	
+	/**
+	 * Whether to stop the running daemon instead of starting it or redeploying to it.
+	 * 
+	 * @parameter expression="${stopDaemon}" default-value="false"
+	 */
+	protected boolean stopDaemon;
+	
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		long start = System.nanoTime();
+		
+		// Stop the daemon, if so requested
+		Properties daemon = readDaemonFile();
+		if (stopDaemon) {
+			stopDaemon(daemon);
+			return;
+		}
+		
+		// Check Java version
+		checkJavaVersion();
+		
+		// Configure this mojo
+		checkPomConfiguration();
+		configureJettyPlutoRunMojo();
+		
+		// Assemble portlets for Pluto
+		assemblePortlets();
+		
+		// Redeploy to the running daemon or start a new one
+		if (daemon != null) {
+			try {
+				redeploy(daemon);
+				getLog().info(MessageFormat.format("Iteration completed in {0} ms", new Object[] { new Long((System.nanoTime() - start) / 1000000) }));
+				return;
+			} catch (ConnectException e) {
+				getLog().info("Portal daemon not running, starting a new one");
+			} catch (IOException e) {
+				throw new MojoExecutionException("Failed to redeploy to the portal daemon", e);
+			}
+		}
+		daemonFile.getAbsoluteFile().getParentFile().mkdirs();
+		forkPortal(false);
+		try {
+			control.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+		getLog().info(MessageFormat.format("Portal daemon started, logging to {0}", new Object[] { daemonLog }));
+	}
+	
+	/**
+	 * Adds the daemon file and log to the settings of the forked JVM.
+	 * 
+	 * @see PortletPrototypingRunForkedMojo#createForkedSettings()
+	 */
+	protected Properties createForkedSettings() throws MojoExecutionException {
+		Properties settings = super.createForkedSettings();
+		settings.setProperty(ForkedPortal.DAEMON_FILE, daemonFile.getAbsolutePath());
+		settings.setProperty(ForkedPortal.DAEMON_LOG, daemonLog.getAbsolutePath());
+		return settings;
+	}
+	
+	/**
+	 * Warms up the started daemon before Maven exits.
+	 * 
+	 * @see PortletPrototypingRunForkedMojo#portalStarted(int)
+	 */
+	protected void portalStarted(int port) throws MojoExecutionException {
+		getLog().info(MessageFormat.format("Started portal daemon at http://localhost:{0}{1}/portal", new Object[] { String.valueOf(port), plutoContextPath }));
+		if (warmUp) {
+			createPortalWarmUp("http://localhost:" + port).run();
+		}
+	}
+	
+	/**
+	 * Redeploys the assembled portlet application to the running daemon.
+	 * 
+	 * @param daemon daemon file properties
+	 * @throws ConnectException if the daemon is not running
+	 * @throws IOException if the redeployment failed
+	 * @throws MojoExecutionException if the settings could not be created
+	 */
+	protected void redeploy(Properties daemon) throws IOException, MojoExecutionException {
+		Socket socket = connectDaemon(daemon);
+		try {
+			socket.setSoTimeout(REDEPLOY_TIMEOUT);
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeUTF(daemon.getProperty(ForkedPortal.DAEMON_TOKEN, ""));
+			out.writeUTF(ForkedPortal.REDEPLOY);
+			ForkedPortal.writeSettings(out, createForkedSettings());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			String reply = in.readUTF();
+			if (ForkedPortal.ERROR.equals(reply)) {
+				throw new IOException(MessageFormat.format("Portal daemon failed to redeploy: {0}", new Object[] { in.readUTF() }));
+			} else if (!ForkedPortal.READY.equals(reply)) {
+				throw new IOException("Unexpected message from the portal daemon");
+			}
+			getLog().info(MessageFormat.format("Redeployed portlet application to the portal daemon in {0} ms", new Object[] { new Long(in.readLong()) }));
+		} finally {
+			socket.close();
+		}
+		String port = daemon.getProperty(ForkedPortal.DAEMON_HTTP_PORT);
+		if (warmUp) {
+			createPortalWarmUp("http://localhost:" + port).run();
+		}
+		getLog().info(MessageFormat.format("Portal daemon running at http://localhost:{0}{1}/portal", new Object[] { port, plutoContextPath }));
+	}
+	
+	/**
+	 * Stops the running daemon.
+	 * 
+	 * @param daemon daemon file properties or null if no daemon file exists
+	 */
+	protected void stopDaemon(Properties daemon) {
+		if (daemon == null) {
+			getLog().info("Portal daemon not running");
+			return;
+		}
+		try {
+			Socket socket = connectDaemon(daemon);
+			try {
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				out.writeUTF(daemon.getProperty(ForkedPortal.DAEMON_TOKEN, ""));
+				out.writeUTF(ForkedPortal.STOP);
+				out.flush();
+				
+				// Wait for the daemon to close the connection
+				socket.getInputStream().read();
+			} finally {
+				socket.close();
+			}
+			getLog().info("Portal daemon stopped");
+		} catch (IOException e) {
+			getLog().info("Portal daemon not running");
+			daemonFile.delete();
+		}
+	}
+	
+	/**
+	 * Connects to the daemon port recorded in the daemon file.
+	 * 
+	 * @param daemon daemon file properties
+	 * @return connected socket
+	 * @throws IOException if the daemon is not running
+	 */
+	protected static Socket connectDaemon(Properties daemon) throws IOException {
+		String port = daemon.getProperty(ForkedPortal.DAEMON_PORT);
+		if (port == null) {
+			throw new ConnectException("No daemon port");
+		}
+		return new Socket(InetAddress.getByName("127.0.0.1"), Integer.parseInt(port));
+	}
+	
+	/**
+	 * Reads the daemon file.
+	 * 
+	 * @return daemon file properties or null if the daemon file does not exist
+	 * @throws MojoExecutionException if the daemon file could not be read
+	 */
+	protected Properties readDaemonFile() throws MojoExecutionException {
+		if (!daemonFile.exists()) {
+			return null;
+		}
+		Properties daemon = new Properties();
+		try {
+			InputStream in = new FileInputStream(daemonFile);
+			try {
+				daemon.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException(MessageFormat.format("Failed to read daemon file {0}", new Object[] { daemonFile }), e);
+		}
+		return daemon;
+	}
+	
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.jlehtinen.portlet.util.RecordedRequest;
+import net.jlehtinen.portlet.util.RequestLog;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.mortbay.jetty.Server;
+
+/**
+ * Replays requests captured by the portal (see the <em>captureRequests</em> parameter of
+ * the <em>run</em> goal) as a performance regression test. The portal is started as by the
+ * <em>run</em> goal, the captured requests are replayed and the portal is stopped. Request
+ * latencies are compared against a stored baseline. The first replay stores the baseline,
+ * as the processing times recorded during the capture are not comparable to the round trip
+ * times of the replay. All parameters of the <em>run</em> goal are available.
+ * 
+ * @extendsPlugin jetty
+ * @goal replay
+ * @description Replays captured portal requests and compares their latencies against a baseline
+ */
+public class PortletPrototypingReplayMojo extends PortletPrototypingRunMojo {
+
+	/** Replay speed for replaying as fast as possible */
+	protected static final String SPEED_MAX = "max";
+	
+	/**
+	 * Replay speed relative to the captured pace, such as <em>1</em> for the captured pace
+	 * or <em>10</em> for ten times faster, or <em>max</em> to replay as fast as possible.
+	 * 
+	 * @parameter expression="${replaySpeed}" default-value="1"
+	 */
+	protected String replaySpeed;
+	
+	/**
+	 * File holding the baseline latencies.
+	 * 
+	 * @parameter expression="${replayBaselineFile}" default-value="${project.build.directory}/pluto-replay-baseline.properties"
+	 */
+	protected File replayBaselineFile;
+	
+	/**
+	 * Whether to store the latencies of this replay as the new baseline. The baseline is
+	 * always stored if it does not exist yet.
+	 * 
+	 * @parameter expression="${updateReplayBaseline}" default-value="false"
+	 */
+	protected boolean updateReplayBaseline;
+	
+	/**
+	 * How much slower than the baseline a request may be before it is reported as a
+	 * regression, in percent.
+	 * 
+	 * @parameter expression="${replayTolerance}" default-value="20"
+	 */
+	protected int replayTolerance;
+	
+	/**
+	 * How many times a request must have been replayed, both in the baseline and in this
+	 * replay, before its latency is compared.
+	 * 
+	 * @parameter expression="${replayMinSamples}" default-value="5"
+	 */
+	protected int replayMinSamples;
+	
+	/**
+	 * How much slower than the baseline a request must be before it is reported as a
+	 * regression, in milliseconds, in addition to the <em>replayTolerance</em>. Keeps
+	 * jitter of fast requests from being reported.
+	 * 
+	 * @parameter expression="${replayMinDelta}" default-value="2"
+	 */
+	protected int replayMinDelta;
+	
+	/**
+	 * Whether to fail the build if regressions are detected.
+	 * 
+	 * @parameter expression="${failOnReplayRegression}" default-value="false"
+	 */
+	protected boolean failOnReplayRegression;
+	
+	/**
+	 * Whether to fail the build if portlet renders exceed their budgets (see the
+	 * <em>budgets</em> parameter) during the replay.
+	 * 
+	 * @parameter expression="${failOnBudgetViolation}" default-value="false"
+	 */
+	protected boolean failOnBudgetViolation;
+	
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		
+		// Read the captured requests before starting the portal
+		double speed = parseSpeed();
+		List<RecordedRequest> requests;
+		try {
+			requests = RequestLog.read(requestCaptureFile);
+		} catch (IOException e) {
+			throw new MojoExecutionException(MessageFormat.format("Failed to read captured requests from {0}", new Object[] { requestCaptureFile }), e);
+		}
+		if (requests.isEmpty()) {
+			throw new MojoExecutionException(MessageFormat.format("No captured requests in {0}", new Object[] { requestCaptureFile }));
+		}
+		
+		// Start the portal without blocking and without capturing the replay
+		captureRequests = false;
+		daemon = true;
+		super.execute();
+		
+		// Warm up before replaying so that the replay does not pay for initialization
+		if (warmUp) {
+			createPortalWarmUp(getServerUrl()).run();
+		}
+		clearBudgetViolations();
+		
+		// Replay and stop the portal
+		Server server = (Server) getServer().getProxiedObject();
+		List<String> violations;
+		RequestReplayer replayer = new RequestReplayer(getLog(), getServerUrl(), speed, getPasswords());
+		ReplayStatistics statistics;
+		long start = System.currentTimeMillis();
+		getLog().info(MessageFormat.format("Replaying {0} requests from {1} at speed {2}", new Object[] {
+				new Integer(requests.size()), requestCaptureFile, replaySpeed }));
+		try {
+			statistics = replayer.replay(requests);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Failed to replay captured requests", e);
+		} finally {
+			violations = getBudgetViolations();
+			try {
+				server.stop();
+			} catch (Exception e) {
+				getLog().warn("Failed to stop Jetty", e);
+			}
+		}
+		getLog().info(MessageFormat.format("Replayed {0} requests in {1} ms: mean {2} ms, median {3} ms, 95th percentile {4} ms", new Object[] {
+				new Integer(requests.size()),
+				new Long(System.currentTimeMillis() - start),
+				new Double(statistics.getMean(ReplayStatistics.TOTAL) / 1000.0),
+				new Double(statistics.getPercentile(ReplayStatistics.TOTAL, 50) / 1000.0),
+				new Double(statistics.getPercentile(ReplayStatistics.TOTAL, 95) / 1000.0) }));
+		if (replayer.getStatusMismatches() > 0) {
+			getLog().warn(MessageFormat.format("{0} requests returned a different status than captured", new Object[] {
+					new Integer(replayer.getStatusMismatches()) }));
+		}
+		
+		// Compare against the baseline
+		compareToBaseline(statistics);
+		
+		// Check the portlet budgets
+		checkBudgets(violations);
+	}
+	
+	/**
+	 * Reports the portlet budget violations of the replay.
+	 * 
+	 * @param violations violation messages
+	 * @throws MojoFailureException if there are violations and the build should fail
+	 */
+	protected void checkBudgets(List<String> violations) throws MojoFailureException {
+		if (budgets == null || budgets.isEmpty()) {
+			return;
+		}
+		if (violations.isEmpty()) {
+			getLog().info("No portlet budget violations");
+			return;
+		}
+		getLog().warn(MessageFormat.format("{0} portlet budget violations:", new Object[] { new Integer(violations.size()) }));
+		Iterator<String> iter = violations.iterator();
+		while (iter.hasNext()) {
+			getLog().warn(iter.next());
+		}
+		if (failOnBudgetViolation) {
+			throw new MojoFailureException(MessageFormat.format("{0} portlet budget violations detected", new Object[] { new Integer(violations.size()) }));
+		}
+	}
+	
+	/**
+	 * Warms up the portal before the replay instead of in the background.
+	 * 
+	 * @see PortletPrototypingRunMojo#isBackgroundWarmUp()
+	 */
+	protected boolean isBackgroundWarmUp() {
+		return false;
+	}
+	
+	/**
+	 * Never hot swaps the portlet application, as a redeployment during the replay would
+	 * skew the replayed latencies.
+	 * 
+	 * @see PortletPrototypingRunMojo#isHotSwap()
+	 */
+	protected boolean isHotSwap() {
+		return false;
+	}
+	
+	/**
+	 * Never simulates sessions, as they would skew the replayed latencies.
+	 * 
+	 * @see PortletPrototypingRunMojo#isSessionSimulation()
+	 */
+	protected boolean isSessionSimulation() {
+		return false;
+	}
+	
+	/**
+	 * Compares the replay latencies against the stored baseline and stores a new baseline
+	 * if so configured or if there is no baseline yet.
+	 * 
+	 * @param statistics replay latencies
+	 * @throws MojoExecutionException if the baseline could not be read or stored
+	 * @throws MojoFailureException if regressions are detected and the build should fail
+	 */
+	protected void compareToBaseline(ReplayStatistics statistics) throws MojoExecutionException, MojoFailureException {
+		List<String> regressions = Collections.emptyList();
+		boolean baselineExists = replayBaselineFile.exists();
+		if (baselineExists) {
+			ReplayStatistics baseline;
+			try {
+				baseline = ReplayStatistics.load(replayBaselineFile);
+			} catch (IOException e) {
+				throw new MojoExecutionException(MessageFormat.format("Failed to read replay baseline {0}", new Object[] { replayBaselineFile }), e);
+			}
+			regressions = statistics.compare(baseline, replayTolerance, replayMinSamples, replayMinDelta * 1000L);
+			if (regressions.isEmpty()) {
+				getLog().info(MessageFormat.format("No regressions compared to {0}", new Object[] { replayBaselineFile }));
+			} else {
+				getLog().warn(MessageFormat.format("{0} regressions compared to {1}:", new Object[] { new Integer(regressions.size()), replayBaselineFile }));
+				Iterator<String> iter = regressions.iterator();
+				while (iter.hasNext()) {
+					getLog().warn(iter.next());
+				}
+			}
+		} else {
+			getLog().info(MessageFormat.format("No replay baseline {0}, skipping the comparison", new Object[] { replayBaselineFile }));
+		}
+		if (!baselineExists || updateReplayBaseline) {
+			try {
+				statistics.save(replayBaselineFile);
+			} catch (IOException e) {
+				throw new MojoExecutionException(MessageFormat.format("Failed to store replay baseline {0}", new Object[] { replayBaselineFile }), e);
+			}
+			getLog().info(MessageFormat.format("Stored replay baseline {0}", new Object[] { replayBaselineFile }));
+		}
+		if (!regressions.isEmpty() && failOnReplayRegression) {
+			throw new MojoFailureException(MessageFormat.format("{0} replay regressions detected", new Object[] { new Integer(regressions.size()) }));
+		}
+	}
+	
+	/**
+	 * Parses the replay speed.
+	 * 
+	 * @return speed factor or 0 to replay as fast as possible
+	 * @throws MojoExecutionException if the speed is invalid
+	 */
+	protected double parseSpeed() throws MojoExecutionException {
+		if (SPEED_MAX.equals(replaySpeed)) {
+			return 0;
+		}
+		try {
+			double speed = Double.parseDouble(replaySpeed);
+			if (speed > 0) {
+				return speed;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new MojoExecutionException(MessageFormat.format("Invalid replay speed {0}, expected a positive number or {1}", new Object[] { replaySpeed, SPEED_MAX }));
+	}
+	
+	/**
+	 * Returns the passwords of the realm users.
+	 * 
+	 * @return passwords keyed by user name
+	 */
+	protected Map<String, String> getPasswords() {
+		Map<String, String> passwords = new HashMap<String, String>();
+		Iterator<User> iter = users.iterator();
+		while (iter.hasNext()) {
+			User user = iter.next();
+			passwords.put(user.getUsername(), user.getPassword());
+		}
+		return passwords;
+	}
+	
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
+import net.jlehtinen.portlet.util.ReflectionWrapper;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.mortbay.jetty.Connector;
+
+/**
+ * Runs the portlet or portlets being developed like the <em>run</em> goal, but in a
+ * forked JVM instead of the Maven JVM. The forked JVM has its own heap, garbage collector
+ * and JIT options given by the <em>jvmArgs</em> parameter and a class path containing
+ * only Jetty, the portal libraries and the plugin itself. The settings of the run are
+ * passed to the forked JVM over a local control connection, which also stops the forked
+ * JVM when Maven exits. Automatic redeployment is not supported in the forked mode.
+ * 
+ * @extendsPlugin jetty
+ * @goal run-forked
+ * @description Runs the portlet or portlets being developed in a forked JVM
+ */
+public class PortletPrototypingRunForkedMojo extends PortletPrototypingRunMojo {
+
+	/** Group identifiers of the plugin dependencies included in the forked class path */
+	protected static final String[] FORK_GROUP_IDS = { "org.mortbay.jetty", "javax.servlet", "ant", "org.eclipse.jdt", "org.eclipse.jdt.core.compiler", "org.slf4j", PORTLET_PROTOTYPING_GROUP_ID };
+	
+	/** Artifact identifiers of the plugin dependencies excluded from the forked class path */
+	protected static final String[] FORK_EXCLUDED_ARTIFACT_IDS = { "maven-jetty-plugin", "start" };
+	
+	/** Artifact identifier of the Maven plugin API, included for logging */
+	protected static final String MAVEN_PLUGIN_API_ID = "maven-plugin-api";
+	
+	/** How long to wait for the forked JVM to stop when Maven exits, in milliseconds */
+	protected static final long STOP_TIMEOUT = 10000;
+	
+	/**
+	 * Options of the forked JVM, separated by white space, such as
+	 * <code>-Xmx512m -XX:+UseG1GC</code>.
+	 * 
+	 * @parameter expression="${jvmArgs}"
+	 */
+	protected String jvmArgs;
+	
+	/**
+	 * Java executable used for the forked JVM. Defaults to the Java runtime running Maven.
+	 * 
+	 * @parameter expression="${javaExecutable}"
+	 */
+	protected File javaExecutable;
+	
+	/**
+	 * Whether the forked JVM uses a class data sharing archive. On Java 13 or later, the
+	 * archive is created when the first forked JVM exits and used by later runs.
+	 * 
+	 * @parameter expression="${forkedCds}" default-value="false"
+	 */
+	protected boolean forkedCds;
+	
+	/**
+	 * Class data sharing archive of the forked JVM.
+	 * 
+	 * @parameter expression="${forkedCdsArchive}" default-value="${project.build.directory}/pluto-forked-cds.jsa"
+	 */
+	protected File forkedCdsArchive;
+	
+	/** The forked JVM or null if not running */
+	protected Process process;
+	
+	/** Control connection to the forked JVM or null if not connected */
+	protected Socket control;
+	
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		
+		// Check Java version
+		checkJavaVersion();
+		
+		// Configure this mojo
+		checkPomConfiguration();
+		configureJettyPlutoRunMojo();
+		
+		// Assemble portlets for Pluto
+		assemblePortlets();
+		
+		// Run the portal in a forked JVM
+		forkPortal(true);
+		
+		// Wait for the forked JVM to exit
+		int exitValue;
+		try {
+			exitValue = process.waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			stopForkedJvm();
+			return;
+		}
+		if (exitValue != 0) {
+			throw new MojoExecutionException(MessageFormat.format("Forked JVM exited with value {0}", new Object[] { new Integer(exitValue) }));
+		}
+	}
+	
+	/**
+	 * Starts the forked JVM and waits for the portal to start.
+	 * 
+	 * @param stopOnExit whether to stop the forked JVM when Maven exits
+	 * @throws MojoExecutionException if the forked JVM could not be started
+	 */
+	protected void forkPortal(boolean stopOnExit) throws MojoExecutionException {
+		ServerSocket controlServer;
+		try {
+			controlServer = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		} catch (IOException e) {
+			throw new MojoExecutionException("Failed to open control port for the forked JVM", e);
+		}
+		try {
+			startForkedJvm(controlServer.getLocalPort());
+			if (stopOnExit) {
+				Runtime.getRuntime().addShutdownHook(new Thread("Forked portal shutdown") {
+					public void run() {
+						stopForkedJvm();
+					}
+				});
+			}
+			connect(controlServer);
+		} catch (IOException e) {
+			stopForkedJvm();
+			throw new MojoExecutionException("Failed to start the forked JVM", e);
+		} finally {
+			try {
+				controlServer.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+	
+	/**
+	 * Starts the flight recording in the forked JVM instead of the Maven JVM.
+	 * 
+	 * @see PortletPrototypingRunMojo#startFlightRecording()
+	 */
+	protected void startFlightRecording() {
+		flightRecordingFile.getAbsoluteFile().getParentFile().mkdirs();
+		flightRecordingStarted = true;
+	}
+	
+	/**
+	 * Starts the forked JVM and forwards its output to the Maven log.
+	 * 
+	 * @param controlPort control port the forked JVM connects to
+	 * @throws MojoExecutionException if the command could not be created
+	 * @throws IOException if the forked JVM could not be started
+	 */
+	protected void startForkedJvm(int controlPort) throws MojoExecutionException, IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(javaExecutable != null ? javaExecutable.getPath() : new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		if (jvmArgs != null) {
+			String[] args = jvmArgs.trim().split("\\s+");
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].length() > 0) {
+					command.add(args[i]);
+				}
+			}
+		}
+		addCdsOptions(command);
+		if (flightRecordingStarted) {
+			command.add("-XX:StartFlightRecording=name=" + PrototypingConfiguration.FLIGHT_RECORDING_NAME
+					+ ",settings=" + flightRecordingSettings + ",filename=" + flightRecordingFile.getAbsolutePath() + ",dumponexit=true");
+		}
+		command.add("-cp");
+		command.add(createForkedClassPath());
+		command.add(ForkedPortal.class.getName());
+		command.add(String.valueOf(controlPort));
+		getLog().info(MessageFormat.format("Forked JVM = {0}", new Object[] { command }));
+		
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		process = pb.start();
+		process.getOutputStream().close();
+		Thread output = new Thread("Forked portal output") {
+			public void run() {
+				try {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+					String line;
+					while ((line = reader.readLine()) != null) {
+						getLog().info(line);
+					}
+				} catch (IOException e) {
+					// Forked JVM exited
+				}
+			}
+		};
+		output.setDaemon(true);
+		output.start();
+	}
+	
+	/**
+	 * Adds the class data sharing options, if so configured.
+	 * 
+	 * @param command forked JVM command
+	 */
+	protected void addCdsOptions(List<String> command) {
+		if (!forkedCds) {
+			return;
+		}
+		if (javaExecutable == null && PortletPrototypingCdsMojo.getJavaFeatureVersion() < PortletPrototypingCdsMojo.MIN_DYNAMIC_CDS_JAVA_VERSION) {
+			getLog().warn(MessageFormat.format("Class data sharing of the forked JVM requires Java {0} or later", new Object[] {
+					new Integer(PortletPrototypingCdsMojo.MIN_DYNAMIC_CDS_JAVA_VERSION) }));
+			return;
+		}
+		forkedCdsArchive.getAbsoluteFile().getParentFile().mkdirs();
+		if (forkedCdsArchive.exists()) {
+			command.add("-XX:SharedArchiveFile=" + forkedCdsArchive.getAbsolutePath());
+			getLog().info(MessageFormat.format("Forked JVM uses class data sharing archive {0}", new Object[] { forkedCdsArchive }));
+		} else {
+			command.add("-XX:ArchiveClassesAtExit=" + forkedCdsArchive.getAbsolutePath());
+			getLog().info(MessageFormat.format("Forked JVM creates class data sharing archive {0} on exit", new Object[] { forkedCdsArchive }));
+		}
+	}
+	
+	/**
+	 * Accepts the control connection of the forked JVM, sends the settings and waits for
+	 * the portal to start.
+	 * 
+	 * @param controlServer control server socket
+	 * @throws IOException if the forked JVM exited or the connection failed
+	 * @throws MojoExecutionException if the settings could not be created
+	 */
+	protected void connect(ServerSocket controlServer) throws IOException, MojoExecutionException {
+		controlServer.setSoTimeout(1000);
+		while (control == null) {
+			try {
+				control = controlServer.accept();
+			} catch (SocketTimeoutException e) {
+				try {
+					throw new IOException(MessageFormat.format("Forked JVM exited with value {0}", new Object[] { new Integer(process.exitValue()) }));
+				} catch (IllegalThreadStateException e2) {
+					// Still running
+				}
+			}
+		}
+		ForkedPortal.writeSettings(new DataOutputStream(control.getOutputStream()), createForkedSettings());
+		DataInputStream in = new DataInputStream(control.getInputStream());
+		if (!ForkedPortal.READY.equals(in.readUTF())) {
+			throw new IOException("Unexpected message from the forked JVM");
+		}
+		portalStarted(in.readInt());
+	}
+	
+	/**
+	 * Called when the forked portal has started. Starts warming up the portal in the background.
+	 * 
+	 * @param port HTTP port of the forked portal
+	 * @throws MojoExecutionException if the warm-up could not be created
+	 */
+	protected void portalStarted(int port) throws MojoExecutionException {
+		getLog().info(MessageFormat.format("Started forked portal at http://localhost:{0}{1}/portal", new Object[] { String.valueOf(port), plutoContextPath }));
+		if (warmUp) {
+			createPortalWarmUp("http://localhost:" + port).start();
+		}
+	}
+	
+	/**
+	 * Stops the forked JVM, waiting for it to exit for a while before destroying it.
+	 */
+	protected synchronized void stopForkedJvm() {
+		if (process == null) {
+			return;
+		}
+		if (control != null) {
+			try {
+				DataOutputStream out = new DataOutputStream(control.getOutputStream());
+				out.writeUTF(ForkedPortal.STOP);
+				out.flush();
+			} catch (IOException e) {
+				// Already gone
+			}
+		}
+		long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+		while (System.currentTimeMillis() < deadline) {
+			try {
+				process.exitValue();
+				break;
+			} catch (IllegalThreadStateException e) {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e2) {
+					break;
+				}
+			}
+		}
+		process.destroy();
+		if (control != null) {
+			try {
+				control.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+	
+	/**
+	 * Creates the settings sent to the forked JVM.
+	 * 
+	 * @return forked JVM settings
+	 * @throws MojoExecutionException if the portlet application class path could not be determined
+	 */
+	protected Properties createForkedSettings() throws MojoExecutionException {
+		Properties settings = new Properties();
+		settings.setProperty(ForkedPortal.PORT, String.valueOf(getPort()));
+		settings.setProperty(ForkedPortal.CONTEXT_PATH, getContextPath());
+		settings.setProperty(ForkedPortal.WEBAPP_DIRECTORY, getWebAppSourceDirectory().getAbsolutePath());
+		settings.setProperty(ForkedPortal.WEB_XML, webXmlDestination.getAbsolutePath());
+		settings.setProperty(ForkedPortal.CLASS_PATH, getWebAppClassPath());
+		settings.setProperty(ForkedPortal.PORTAL_WAR, portal.getFile());
+		settings.setProperty(ForkedPortal.PORTAL_CONTEXT_PATH, plutoContextPath);
+		settings.setProperty(ForkedPortal.REALM_NAME, plutoRealmName);
+		ForkedPortal.setUsers(settings, users);
+		if (!THREAD_POOL_DEFAULT.equals(threadPool)) {
+			settings.setProperty(ForkedPortal.THREAD_POOL, threadPool);
+			settings.setProperty(ForkedPortal.MAX_THREADS, String.valueOf(maxThreads));
+			settings.setProperty(ForkedPortal.MAX_QUEUED_REQUESTS, String.valueOf(maxQueuedRequests));
+		}
+		Properties props = configuration.toProperties();
+		Enumeration<?> names = props.propertyNames();
+		while (names.hasMoreElements()) {
+			String name = (String) names.nextElement();
+			settings.setProperty(ForkedPortal.CONFIGURATION_PREFIX + name, props.getProperty(name));
+		}
+		return settings;
+	}
+	
+	/**
+	 * Returns the HTTP port of the forked portal from the first configured connector or
+	 * the <code>jetty.port</code> system property.
+	 * 
+	 * @return HTTP port
+	 */
+	protected int getPort() {
+		Object[] connectors = getConfiguredConnectors();
+		if (connectors != null && connectors.length > 0) {
+			return ((Connector) connectors[0]).getPort();
+		}
+		return Integer.parseInt(System.getProperty(PORT_SYSPROPERTY, "8080"));
+	}
+	
+	/**
+	 * Returns the class path of the portlet application, consisting of the classes
+	 * directory and the runtime dependencies of the project.
+	 * 
+	 * @return class path separated by the path separator
+	 */
+	protected String getWebAppClassPath() {
+		List<?> files = (List<?>) new ReflectionWrapper(this).invokeMethod("setUpClassPath", new Class<?>[0], new Object[0]);
+		StringBuilder sb = new StringBuilder();
+		Iterator<?> iter = files.iterator();
+		while (iter.hasNext()) {
+			if (sb.length() > 0) {
+				sb.append(File.pathSeparatorChar);
+			}
+			sb.append(((File) iter.next()).getAbsolutePath());
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Creates the class path of the forked JVM, consisting of this plugin, Jetty and its
+	 * JSP support, the portal libraries and the Maven plugin API used for logging.
+	 * 
+	 * @return class path separated by the path separator
+	 * @throws MojoExecutionException if the location of this plugin is not known
+	 */
+	protected String createForkedClassPath() throws MojoExecutionException {
+		Set<String> entries = new LinkedHashSet<String>();
+		try {
+			entries.add(new File(getClass().getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath());
+		} catch (URISyntaxException e) {
+			throw new MojoExecutionException("Failed to locate the plugin", e);
+		}
+		Iterator<?> iter = ((List<?>) new ReflectionWrapper(this).getFieldValue("pluginArtifacts")).iterator();
+		while (iter.hasNext()) {
+			Artifact artifact = (Artifact) iter.next();
+			if (isForkedArtifact(artifact) && artifact.getFile() != null) {
+				entries.add(artifact.getFile().getAbsolutePath());
+			}
+		}
+		Iterator<Library> libraries = portalLibraries.iterator();
+		while (libraries.hasNext()) {
+			entries.add(new File(libraries.next().getFile()).getAbsolutePath());
+		}
+		StringBuilder sb = new StringBuilder();
+		Iterator<String> entryIter = entries.iterator();
+		while (entryIter.hasNext()) {
+			if (sb.length() > 0) {
+				sb.append(File.pathSeparatorChar);
+			}
+			sb.append(entryIter.next());
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns whether the specified plugin dependency is included in the forked class path.
+	 * 
+	 * @param artifact plugin dependency
+	 * @return whether included
+	 */
+	protected static boolean isForkedArtifact(Artifact artifact) {
+		if (MAVEN_PLUGIN_API_ID.equals(artifact.getArtifactId())) {
+			return true;
+		}
+		for (int i = 0; i < FORK_EXCLUDED_ARTIFACT_IDS.length; i++) {
+			if (FORK_EXCLUDED_ARTIFACT_IDS[i].equals(artifact.getArtifactId())) {
+				return false;
+			}
+		}
+		for (int i = 0; i < FORK_GROUP_IDS.length; i++) {
+			if (FORK_GROUP_IDS[i].equals(artifact.getGroupId())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+}
@@ -18,6 +18,8 @@ package net.jlehtinen.portlet.prototyping.maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.text.MessageFormat;
@@ -25,11 +27,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
+import net.jlehtinen.portlet.util.FlightRecorder;
+import net.jlehtinen.portlet.util.PortletBudget;
 import net.jlehtinen.portlet.util.PortletXml;
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
 import net.jlehtinen.portlet.util.ReflectionWrapper;
 
 import org.apache.maven.artifact.Artifact;
@@ -42,6 +49,8 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.pluto.util.assemble.AssemblerConfig;
 import org.apache.pluto.util.assemble.AssemblerFactory;
+import org.mortbay.component.LifeCycle;
+import org.mortbay.jetty.Server;
 import org.mortbay.jetty.handler.ContextHandler;
 import org.mortbay.jetty.plugin.Jetty6RunMojo;
 import org.mortbay.jetty.webapp.WebAppContext;
@@ -69,17 +78,14 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 	/** Pluto group identifier */
 	protected static final String PLUTO_GROUP_ID = "org.apache.portals.pluto";
 	
-	/** System property for the portlet names */
-	protected static final String PORTLET_NAMES_PROPERTY = "portletNames";
-	
-	/** System property for the portlet context */
-	protected static final String PORTLET_CONTEXT_PATH_PROPERTY = "portletContextPath";
-	
 	/** System property for custom CSS URLs */
-	protected static final String CSS_URLS_PROPERTY = "cssUrls";
+	protected static final String CSS_URLS_PROPERTY = PrototypingConfiguration.CSS_URLS_PROPERTY;
 	
 	/** System property for custom Javascript URLs */
-	protected static final String JS_URLS_PROPERTY = "jsUrls";
+	protected static final String JS_URLS_PROPERTY = PrototypingConfiguration.JS_URLS_PROPERTY;
+	
+	/** Thread pool mode keeping the Jetty default thread pool */
+	protected static final String THREAD_POOL_DEFAULT = "default";
 	
 	/** Path to properties file containing version information */
 	protected static final String VERSION_PROPERTIES_PATH = "/net/jlehtinen/portlet/prototyping/maven/version.properties";
@@ -99,6 +105,15 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 	 */
 	protected File portletXml;
 	
+	/**
+	 * Whether to validate the portlet.xml against the portlet 1.0 or 2.0 schema before
+	 * the portlets are assembled, so that a malformed descriptor fails the build early
+	 * with the offending line instead of failing in the assembler or the portal.
+	 * 
+	 * @parameter expression="${validatePortletXml}" default-value="false"
+	 */
+	protected boolean validatePortletXml;
+	
 	/**
 	 * The destination file into which a modified version of the <em>portlet.xml</em> is written.
 	 * This will be used only if the descriptor needs to be modified.
@@ -109,6 +124,16 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 	 */
 	protected File portletXmlDestination;
 	
+	/**
+	 * The snapshot of the portlet names and modes extracted from the <em>portlet.xml</em>.
+	 * It is used instead of parsing the descriptor as long as the descriptor content is unchanged.
+	 * 
+	 * @parameter expression="${project.build.directory}/pluto-resources/portlet.xml.snapshot"
+	 * @readonly
+	 * @required
+	 */
+	protected File portletXmlSnapshot;
+	
     /**
      * The destination file into which an assembled version of the <em>web.xml</em> is written.
      * 
@@ -116,7 +141,7 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
      * @readonly
      * @required
      */
-    private File webXmlDestination;
+    protected File webXmlDestination;
 
 	/**
 	 * <p>Specifies the names of the portlets to be prototyped under Pluto as a comma separated list.
@@ -285,6 +310,210 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 	 */
 	protected String plutoRealmName;
 	
+	/**
+	 * <p>File used by the portal to persist portlet preferences over restarts. The portal
+	 * keeps the preferences in memory and appends changes to this file in the background.
+	 * Set the <em>persistPreferences</em> property to false to keep preferences in memory only.</p>
+	 * 
+	 * @parameter expression="${preferencesFile}" default-value="${project.build.directory}/pluto-preferences.log"
+	 */
+	protected File preferencesFile;
+	
+	/**
+	 * Whether to persist portlet preferences in the <em>preferencesFile</em>.
+	 * 
+	 * @parameter expression="${persistPreferences}" default-value="true"
+	 */
+	protected boolean persistPreferences;
+	
+	/**
+	 * <p>Thread pool running the requests in Jetty. The following modes are supported.</p>
+	 * 
+	 * <ul>
+	 * <li><em>queued</em> uses a bounded pool of at most <em>maxThreads</em> threads and
+	 * queues at most <em>maxQueuedRequests</em> requests; requests beyond that are rejected</li>
+	 * <li><em>virtual</em> runs each request on a new virtual thread if supported by the Java
+	 * runtime, falling back to <em>queued</em> otherwise</li>
+	 * <li><em>default</em> uses the thread pool configured by Jetty</li>
+	 * </ul>
+	 * 
+	 * <p>The number of active, queued and rejected requests of the <em>queued</em> and
+	 * <em>virtual</em> modes is available through JMX as
+	 * <em>net.jlehtinen.portlet.prototyping:type=RequestThreadPool</em>.</p>
+	 * 
+	 * @parameter expression="${threadPool}" default-value="default"
+	 */
+	protected String threadPool;
+	
+	/**
+	 * Maximum number of request threads in the <em>queued</em> thread pool mode.
+	 * 
+	 * @parameter expression="${maxThreads}" default-value="250"
+	 */
+	protected int maxThreads;
+	
+	/**
+	 * Maximum number of requests waiting for a thread in the <em>queued</em> thread pool mode.
+	 * 
+	 * @parameter expression="${maxQueuedRequests}" default-value="1000"
+	 */
+	protected int maxQueuedRequests;
+	
+	/**
+	 * <p>Whether to start a Java Flight Recorder recording when the portal is started.
+	 * The portal emits an event for each portlet action, event, render and resource
+	 * request, carrying the portlet name, window identifier and portlet mode. The recording
+	 * is dumped into <em>flightRecordingFile</em> when Maven exits and on demand by posting
+	 * to <em>${plutoContextPath}/prototyping/flight-recording</em>.</p>
+	 * 
+	 * <p>Requires a Java runtime with an open flight recorder, such as Java 11 or later or
+	 * Java 8 update 262 or later.</p>
+	 * 
+	 * @parameter expression="${flightRecording}" default-value="false"
+	 */
+	protected boolean flightRecording;
+	
+	/**
+	 * File into which the flight recording is dumped on exit. On demand dumps are written
+	 * into the same directory.
+	 * 
+	 * @parameter expression="${flightRecordingFile}" default-value="${project.build.directory}/portlet-prototyping.jfr"
+	 */
+	protected File flightRecordingFile;
+	
+	/**
+	 * Name of the flight recorder settings to be used, either <em>default</em> or
+	 * <em>profile</em> or a path to a custom settings file.
+	 * 
+	 * @parameter expression="${flightRecordingSettings}" default-value="profile"
+	 */
+	protected String flightRecordingSettings;
+	
+	/**
+	 * Whether the portal captures the requests it receives into <em>requestCaptureFile</em>.
+	 * The captured requests can be replayed using the <em>replay</em> goal.
+	 * 
+	 * @parameter expression="${captureRequests}" default-value="false"
+	 */
+	protected boolean captureRequests;
+	
+	/**
+	 * File into which requests are captured and from which the <em>replay</em> goal
+	 * replays them. An existing file is replaced when the capture starts.
+	 * 
+	 * @parameter expression="${requestCaptureFile}" default-value="${project.build.directory}/pluto-requests.log"
+	 */
+	protected File requestCaptureFile;
+	
+	/**
+	 * Whether this is a training run, such as the one started by the <em>cds</em> goal.
+	 * A training run starts the portal, renders the portal page once and stops.
+	 * 
+	 * @parameter expression="${trainingRun}" default-value="false"
+	 */
+	protected boolean trainingRun;
+	
+	/**
+	 * Whether to warm up the portal after it has been started or the portlet application
+	 * redeployed. Each portlet window on the portal page is rendered once in each portlet
+	 * mode the portlet supports according to the portlet.xml, in parallel, so that the
+	 * portlets are initialized and their JSPs compiled before the first real request.
+	 * Progress is reported by <em>${plutoContextPath}/prototyping/warmup</em>.
+	 * 
+	 * @parameter expression="${warmUp}" default-value="true"
+	 */
+	protected boolean warmUp;
+	
+	/**
+	 * Number of concurrent user sessions to simulate after the portal has been started
+	 * and warmed up, or zero to not simulate. Each session runs a short scripted interaction
+	 * with the portlets on the portal page and the portal reports the heap retained per
+	 * session, split between the Jetty session, the Pluto portlet session, the preferences
+	 * and the session attributes. The sessions are assigned the configured users in turn
+	 * and synthetic users <em>simulated<i>N</i></em>, with the roles of the first configured
+	 * user, are added so that each session has a user of its own. The sessions send the
+	 * credentials of their users using HTTP basic authentication and are authenticated
+	 * by the portal.
+	 * 
+	 * @parameter expression="${simulateSessions}" default-value="0"
+	 */
+	protected int simulateSessions;
+	
+	/**
+	 * Whether to stream the portal page to the browser as the portlets are rendered. The
+	 * page head, including the CSS and Javascript links, is sent before any portlet is
+	 * rendered and each portlet window is sent as soon as it is complete, so the browser
+	 * can fetch the assets while the portlets are still rendering. Otherwise the whole
+	 * page is buffered and sent once the slowest portlet has been rendered.
+	 * 
+	 * @parameter expression="${streaming}" default-value="false"
+	 */
+	protected boolean streaming;
+	
+	/**
+	 * Comma separated names of the portlets loaded by the browser after the page has
+	 * loaded. The windows of these portlets are rendered as placeholders whose content
+	 * is fetched with a separate request per window, showing the latency the user
+	 * perceives for each of them.
+	 * 
+	 * @parameter expression="${deferredPortlets}"
+	 */
+	protected String deferredPortlets;
+	
+	/**
+	 * Whether to start the portal in the fast startup mode. The portal services not needed
+	 * to start the portal are created in the background once it has started. The time
+	 * taken to create each service is logged in either mode.
+	 * 
+	 * @parameter expression="${fastStartup}" default-value="false"
+	 */
+	protected boolean fastStartup;
+	
+	/**
+	 * Whether to analyze the session footprint of the portlets. The portlet session
+	 * attributes are serialized after every portlet request to measure their size, which
+	 * slows down every request, so the analysis is off by default.
+	 * 
+	 * @parameter expression="${sessionFootprint}" default-value="false"
+	 */
+	protected boolean sessionFootprint;
+	
+	/**
+	 * Interval in seconds at which the compiled classes and the dependencies of the
+	 * portlet application are checked for changes. On a change only the portlet
+	 * application is restarted with a new class loader and registered with Pluto again;
+	 * the portal and the shared portal libraries stay up. The reload time is logged. Zero
+	 * disables the check. Ignored if the Jetty <code>scanIntervalSeconds</code> parameter
+	 * has been set. Changes are never checked during a replay or a class data sharing
+	 * training run.
+	 * 
+	 * @parameter expression="${hotSwapInterval}" default-value="1"
+	 */
+	protected int hotSwapInterval;
+	
+	/**
+	 * <p>Performance budgets of the portlets. The portal measures each render of a portlet
+	 * with a budget and reports renders exceeding it in the log and on the portal page.
+	 * A limit of zero means no limit. Allocation is measured per thread and requires a
+	 * Java runtime supporting thread allocation measurement.</p>
+	 * 
+	 * <p>The following example demonstrates the use of this parameter:</p>
+	 * 
+	 * <pre>
+	 * &lt;budgets>
+	 *   &lt;budget>
+	 *     &lt;portletName>MyPortlet&lt;/portletName>
+	 *     &lt;maxRenderMillis>50&lt;/maxRenderMillis>
+	 *     &lt;maxBytes>20000&lt;/maxBytes>
+	 *     &lt;maxAllocatedBytes>5000000&lt;/maxAllocatedBytes>
+	 *   &lt;/budget>
+	 * &lt;/budgets>
+	 * </pre>
+	 * 
+	 * @parameter
+	 */
+	protected List<Budget> budgets;
+	
 	/**
 	 * Artifact resolver
 	 * 
@@ -326,6 +555,15 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 	/** The parsed portlet.xml or null if not loaded yet */
 	protected PortletXml parsedPortletXml;
 	
+	/** Whether the portlet names were defaulted from the portlet.xml */
+	protected boolean defaultPortletNames;
+	
+	/** Whether the flight recording was started */
+	protected boolean flightRecordingStarted;
+	
+	/** The configuration currently published to the portal */
+	protected PrototypingConfiguration configuration;
+	
 	public void execute() throws MojoExecutionException, MojoFailureException {
 
 		// Check Java version
@@ -343,7 +581,66 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 		// Create a context handler for Pluto portal
 		plutoHandler = createPlutoContextHandler();
 		
+		// A training run must not block
+		if (trainingRun) {
+			daemon = true;
+		}
+		
+		// Watch the portlet application for changes unless Jetty scanning has been
+		// configured explicitly, but never while measuring
+		if (!isHotSwap()) {
+			scanIntervalSeconds = 0;
+		} else if (scanIntervalSeconds <= 0 && hotSwapInterval > 0) {
+			scanIntervalSeconds = hotSwapInterval;
+		}
+		
 		super.execute();
+		
+		if (trainingRun) {
+			completeTrainingRun();
+		}
+	}
+
+	/**
+	 * Completes a training run by rendering the portal page once and stopping the server.
+	 * 
+	 * @throws MojoExecutionException if the server could not be stopped
+	 */
+	protected void completeTrainingRun() throws MojoExecutionException {
+		if (warmUp) {
+			createPortalWarmUp(getServerUrl()).run();
+		}
+		String url = getServerUrl() + plutoContextPath + "/portal";
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			int status = connection.getResponseCode();
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				byte[] buffer = new byte[8192];
+				while (in.read(buffer) != -1) {
+					// Discard the page
+				}
+				in.close();
+			}
+			getLog().info(MessageFormat.format("Training run rendered {0} with status {1}", new Object[] { url, new Integer(status) }));
+		} catch (IOException e) {
+			getLog().warn(MessageFormat.format("Training run failed to render {0}", new Object[] { url }), e);
+		}
+		try {
+			((Server) getServer().getProxiedObject()).stop();
+		} catch (Exception e) {
+			throw new MojoExecutionException("Failed to stop Jetty after training run", e);
+		}
+	}
+	
+	/**
+	 * Returns the base URL of the running server.
+	 * 
+	 * @return scheme, host and port of the first connector
+	 */
+	protected String getServerUrl() {
+		Server server = (Server) getServer().getProxiedObject();
+		return "http://localhost:" + server.getConnectors()[0].getLocalPort();
 	}
 
 	/**
@@ -464,6 +761,18 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 			}
 		}
 		
+		// Validate the portlet budgets
+		if (budgets != null) {
+			Iterator<Budget> iter = budgets.iterator();
+			while (iter.hasNext()) {
+				try {
+					iter.next().validate();
+				} catch (MojoExecutionException e) {
+					throw new MojoExecutionException(MessageFormat.format("Invalid <budget> entry in configuration: {0}", new Object[] { e.getMessage() }));
+				}
+			}
+		}
+		
 		// Initialize the default portal implementation, if necessary
 		if (portal == null) {
 			portal = createDefaultPortal();
@@ -481,6 +790,15 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 			users.add(new User("pluto", "pluto", "pluto"));
 		}
 		
+		// Add synthetic users for the simulated sessions, if necessary
+		if (simulateSessions < 0) {
+			throw new MojoExecutionException("simulateSessions must not be negative");
+		}
+		String simulatedRoles = users.isEmpty() ? null : users.get(0).getRoles();
+		for (int i = users.size() + 1; i <= simulateSessions; i++) {
+			users.add(new User("simulated" + i, "simulated" + i, simulatedRoles));
+		}
+		
 		// Resolve portal implementation WAR if necessary
 		if (portal.getFile() == null) {
 			portal.setFile(resolveArtifact(createArtifact(portal)));
@@ -495,28 +813,280 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 			}
 		}
 		
-		// Pass the context path onwards in a system parameter
-		System.setProperty(PORTLET_CONTEXT_PATH_PROPERTY, getContextPath());
+		// Use portlet names from portlet.xml if not specified
+		if (portletNames == null) {
+			defaultPortletNames = true;
+			disableOtherPortlets = false;
+		}
 		
-		// Pass the portlet identifiers to the portal in a system property
-		if (System.getProperty(PORTLET_NAMES_PROPERTY) == null) {
-			
-			// Use portlet names from portlet.xml if not specified
-			if (portletNames == null) {
-				portletNames = getDefaultPortletNames();
-				disableOtherPortlets = false;
-			}
-			
-			// Set the system property
-			System.setProperty(PORTLET_NAMES_PROPERTY, portletNames);
+		// Validate the thread pool configuration
+		if (!THREAD_POOL_DEFAULT.equals(threadPool) && !RequestThreadPool.MODE_QUEUED.equals(threadPool) && !RequestThreadPool.MODE_VIRTUAL.equals(threadPool)) {
+			throw new MojoExecutionException(MessageFormat.format("Unknown thread pool mode {0}", new Object[] { threadPool }));
+		}
+		if (maxThreads < 1 || maxQueuedRequests < 1) {
+			throw new MojoExecutionException("Both maxThreads and maxQueuedRequests must be positive");
 		}
 		
-		// Pass any CSS URLs to the portal in a system property
-		urlsToProperty(cssUrls, CSS_URLS_PROPERTY);
-
-		// Pass any Javascript URLs to the portal in a system property
-		urlsToProperty(jsUrls, JS_URLS_PROPERTY);
+		// Start the flight recording if so configured
+		if (flightRecording) {
+			startFlightRecording();
+		}
 		
+		// Create the configuration passed on to the portal
+		configuration = createConfiguration();
+	}
+	
+	/**
+	 * Starts the flight recording. Failure to start the recording is logged but
+	 * does not prevent the portal from being started.
+	 */
+	protected void startFlightRecording() {
+		try {
+			flightRecordingFile.getAbsoluteFile().getParentFile().mkdirs();
+			String output = FlightRecorder.start(PrototypingConfiguration.FLIGHT_RECORDING_NAME, flightRecordingSettings, flightRecordingFile);
+			flightRecordingStarted = true;
+			getLog().info(MessageFormat.format("Flight recording = {0} ({1})", new Object[] { flightRecordingFile, output }));
+		} catch (IOException e) {
+			getLog().warn("Failed to start flight recording, the Java runtime may not support it", e);
+		}
+	}
+	
+	/**
+	 * Overrides the Jetty plugin method to install the configured request thread pool and
+	 * to warm up the portal once the server has been started.
+	 * 
+	 * @see org.mortbay.jetty.plugin.Jetty6RunMojo#finishConfigurationBeforeStart()
+	 */
+	public void finishConfigurationBeforeStart() throws Exception {
+		super.finishConfigurationBeforeStart();
+		if (!THREAD_POOL_DEFAULT.equals(threadPool)) {
+			Server server = (Server) getServer().getProxiedObject();
+			server.setThreadPool(new RequestThreadPool(getLog(), threadPool, maxThreads, maxQueuedRequests));
+		}
+		if (isBackgroundWarmUp() || isSessionSimulation()) {
+			((Server) getServer().getProxiedObject()).addLifeCycleListener(new LifeCycle.Listener() {
+				public void lifeCycleStarting(LifeCycle event) {
+					// Nothing to do
+				}
+				public void lifeCycleStarted(LifeCycle event) {
+					if (isSessionSimulation()) {
+						startPortalSessionSimulation();
+					} else {
+						startPortalWarmUp();
+					}
+				}
+				public void lifeCycleFailure(LifeCycle event, Throwable cause) {
+					// Nothing to do
+				}
+				public void lifeCycleStopping(LifeCycle event) {
+					// Nothing to do
+				}
+				public void lifeCycleStopped(LifeCycle event) {
+					// Nothing to do
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Returns whether the portal is warmed up in the background once the server has been
+	 * started. Goals that use the portal right after starting it warm it up themselves.
+	 * 
+	 * @return whether to warm up in the background
+	 */
+	protected boolean isBackgroundWarmUp() {
+		return warmUp && !trainingRun;
+	}
+	
+	/**
+	 * Returns whether the portlet application is watched for changes and redeployed.
+	 * A training run never redeploys, as a redeployment would load classes a normal
+	 * startup does not.
+	 * 
+	 * @return whether to hot swap the portlet application
+	 */
+	protected boolean isHotSwap() {
+		return !trainingRun;
+	}
+	
+	/**
+	 * Starts warming up the running portal in the background. Failure to start the
+	 * warm-up is logged but does not prevent the portal from being used.
+	 */
+	protected void startPortalWarmUp() {
+		try {
+			createPortalWarmUp(getServerUrl()).start();
+		} catch (MojoExecutionException e) {
+			getLog().warn("Failed to start portal warm-up", e);
+		}
+	}
+	
+	/**
+	 * Returns whether user sessions are simulated once the server has been started.
+	 * 
+	 * @return whether to simulate sessions
+	 */
+	protected boolean isSessionSimulation() {
+		return simulateSessions > 0 && !trainingRun;
+	}
+	
+	/**
+	 * Starts simulating user sessions on the running portal in the background, after
+	 * warming it up if configured, so that the measured heap excludes the initialization
+	 * of the portlets. Failure to start the simulation is logged.
+	 */
+	protected void startPortalSessionSimulation() {
+		final PortalWarmUp portalWarmUp;
+		final PortalSessionSimulation simulation;
+		try {
+			String serverUrl = getServerUrl();
+			portalWarmUp = warmUp ? createPortalWarmUp(serverUrl) : null;
+			simulation = new PortalSessionSimulation(getLog(), serverUrl + plutoContextPath, users, simulateSessions, getPortletModes());
+		} catch (MojoExecutionException e) {
+			getLog().warn("Failed to start session simulation", e);
+			return;
+		}
+		Thread thread = new Thread("Portal session simulation") {
+			public void run() {
+				if (portalWarmUp != null) {
+					portalWarmUp.run();
+				}
+				simulation.run();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Creates a warm-up of the portal covering the configured portlets and the portlet
+	 * modes they support according to the portlet.xml.
+	 * 
+	 * @param serverUrl scheme, host and port of the portal
+	 * @return portal warm-up
+	 * @throws MojoExecutionException if the portlet.xml could not be parsed
+	 */
+	protected PortalWarmUp createPortalWarmUp(String serverUrl) throws MojoExecutionException {
+		return new PortalWarmUp(getLog(), serverUrl + plutoContextPath, getPortletModes());
+	}
+	
+	/**
+	 * Returns the portlet modes supported by the configured portlets according to the portlet.xml.
+	 * 
+	 * @return supported portlet modes keyed by portlet name
+	 * @throws MojoExecutionException if the portlet.xml could not be parsed
+	 */
+	protected Map<String, Set<String>> getPortletModes() throws MojoExecutionException {
+		PortletXml doc = getParsedPortletXml();
+		Map<String, Set<String>> portletModes = new LinkedHashMap<String, Set<String>>();
+		Iterator<String> iter = configuration.getPortletNames().iterator();
+		while (iter.hasNext()) {
+			String name = iter.next();
+			portletModes.put(name, doc.getPortletModes(name));
+		}
+		return portletModes;
+	}
+	
+	/**
+	 * Creates the configuration passed on to the portal from the current mojo configuration.
+	 * 
+	 * @return configuration for the portal
+	 * @throws MojoExecutionException if an error occurs
+	 */
+	protected PrototypingConfiguration createConfiguration() throws MojoExecutionException {
+		if (defaultPortletNames) {
+			portletNames = getDefaultPortletNames();
+		}
+		return new PrototypingConfiguration(
+				getContextPath(),
+				PrototypingConfiguration.parseList(portletNames, PrototypingConfiguration.PORTLET_NAMES_SEPARATOR),
+				resolveUrls(cssUrls, CSS_URLS_PROPERTY),
+				resolveUrls(jsUrls, JS_URLS_PROPERTY)
+		).withPreferencesFile(persistPreferences ? preferencesFile : null)
+		 .withFlightRecordingFile(flightRecordingStarted ? flightRecordingFile : null)
+		 .withRequestCaptureFile(captureRequests ? requestCaptureFile : null)
+		 .withPortletBudgets(getPortletBudgets())
+		 .withStreaming(streaming)
+		 .withFastStartup(fastStartup)
+		 .withSessionFootprint(sessionFootprint)
+		 .withDeferredPortlets(deferredPortlets != null ? PrototypingConfiguration.parseList(deferredPortlets, PrototypingConfiguration.PORTLET_NAMES_SEPARATOR) : null);
+	}
+	
+	/**
+	 * Returns the configured portlet budgets in the form passed on to the portal.
+	 * 
+	 * @return portlet budgets
+	 */
+	protected List<PortletBudget> getPortletBudgets() {
+		List<PortletBudget> portletBudgets = new ArrayList<PortletBudget>();
+		if (budgets != null) {
+			Iterator<Budget> iter = budgets.iterator();
+			while (iter.hasNext()) {
+				portletBudgets.add(iter.next().toPortletBudget());
+			}
+		}
+		return portletBudgets;
+	}
+	
+	/**
+	 * Returns the portlet budget violations reported by the running portal.
+	 * 
+	 * @return violation messages, oldest first, empty if not available
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<String> getBudgetViolations() {
+		List<String> violations = (List<String>) plutoHandler.getServletContext().getAttribute(PortletBudget.VIOLATIONS_ATTRIBUTE);
+		if (violations == null) {
+			return new ArrayList<String>();
+		}
+		synchronized (violations) {
+			return new ArrayList<String>(violations);
+		}
+	}
+	
+	/**
+	 * Clears the portlet budget violations reported by the running portal.
+	 */
+	protected void clearBudgetViolations() {
+		List<?> violations = (List<?>) plutoHandler.getServletContext().getAttribute(PortletBudget.VIOLATIONS_ATTRIBUTE);
+		if (violations != null) {
+			violations.clear();
+		}
+	}
+	
+	/**
+	 * Publishes the specified configuration to the running portal, atomically replacing
+	 * the previous configuration.
+	 * 
+	 * @param configuration new configuration
+	 */
+	protected void publishConfiguration(PrototypingConfiguration configuration) {
+		this.configuration = configuration;
+		
+		// Setting through the servlet context notifies the portal attribute listeners
+		plutoHandler.getServletContext().setAttribute(PrototypingConfiguration.ATTRIBUTE_NAME, configuration);
+		getLog().info(MessageFormat.format("Portal configuration = {0}", new Object[] { configuration }));
+	}
+	
+	/**
+	 * Overrides the Jetty plugin method to publish a fresh configuration to the portal
+	 * and to warm it up again whenever the portlet application is restarted. Jetty
+	 * discards the class loader of the portlet application and creates a new one when
+	 * the context is started again, and Pluto registers the portlet application again
+	 * when its portlet servlets are initialized. The reload time is logged.
+	 * 
+	 * @see org.mortbay.jetty.plugin.AbstractJettyRunMojo#restartWebApp(boolean)
+	 */
+	public void restartWebApp(boolean reconfigureScanner) throws Exception {
+		long start = System.nanoTime();
+		super.restartWebApp(reconfigureScanner);
+		getLog().info(MessageFormat.format("Reloaded portlet application {0} in {1} ms", new Object[] {
+				webAppConfig.getContextPath(), new Long((System.nanoTime() - start) / 1000000) }));
+		parsedPortletXml = null;
+		publishConfiguration(createConfiguration());
+		if (warmUp) {
+			startPortalWarmUp();
+		}
 	}
 	
 	/**
@@ -559,22 +1129,19 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 	}
 
 	/**
-	 * Converts a list of URLs to a semicolon separated property string value.
+	 * Resolves the list of URLs to be used, preferring a semicolon separated list given
+	 * in the specified system property over the configured list.
 	 * 
-	 * @param urls list of urls
+	 * @param urls list of configured urls or null
 	 * @param property property name
+	 * @return list of URLs or null if none specified
 	 */
-	protected void urlsToProperty(List<String> urls, String property) {
-		if (System.getProperty(property) == null && urls != null) {
-			StringBuilder sb = new StringBuilder();
-			for (String url : urls) {
-				if (sb.length() > 0) {
-					sb.append(';');
-				}
-				sb.append(url.toString());
-			}
-			System.setProperty(property, sb.toString());
-		}		
+	protected List<String> resolveUrls(List<String> urls, String property) {
+		String value = System.getProperty(property);
+		if (value != null) {
+			return PrototypingConfiguration.parseList(value, PrototypingConfiguration.URLS_SEPARATOR);
+		}
+		return urls;
 	}
 	
     /**
@@ -629,6 +1196,11 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 	 */
 	protected void assemblePortlets() throws MojoExecutionException {
 		
+		// Validate portlet.xml before the assembly if so configured
+		if (validatePortletXml) {
+			getParsedPortletXml();
+		}
+		
 		// Filter portlet.xml if so configured
 		File portletXmlUsed;
 		if (disableOtherPortlets) {
@@ -710,10 +1282,16 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
 		plutoHandler.setWar(portal.getFile());
 		plutoHandler.setExtractWAR(false);
 		Realm realm = new Realm(plutoRealmName, users);
+		realm.registerMBean(getLog());
 		plutoHandler.getSecurityHandler().setUserRealm(realm);
+		
+		// Share the configuration classes with the portal and publish the configuration
+		plutoHandler.setSystemClasses(ForkedPortal.addSystemClasses(plutoHandler.getSystemClasses(), PrototypingConfiguration.SHARED_CLASS_NAMES));
+		plutoHandler.setAttribute(PrototypingConfiguration.ATTRIBUTE_NAME, configuration);
+		getLog().info(MessageFormat.format("Portal configuration = {0}", new Object[] { configuration }));
 		return plutoHandler;
 	}
-
+	
 	/**
      * Creates a new runtime artifact identification record from the specified identifiers.
      * 
@@ -769,9 +1347,12 @@ public class PortletPrototypingRunMojo extends Jetty6RunMojo {
     protected PortletXml getParsedPortletXml() throws MojoExecutionException {
     	if (parsedPortletXml == null) {
     		try {
-    			parsedPortletXml = PortletXml.load(portletXml);
+    			parsedPortletXml = PortletXml.load(portletXml, validatePortletXml, portletXmlSnapshot);
+    			if (parsedPortletXml.isLoadedFromSnapshot()) {
+    				getLog().debug(MessageFormat.format("Loaded portlet.xml model from snapshot {0}", new Object[] { portletXmlSnapshot }));
+    			}
     		} catch (IOException e) {
-    			throw new MojoExecutionException("Failed to load or parse portlet.xml", e);
+    			throw new MojoExecutionException("Failed to load or parse portlet.xml: " + e.getMessage(), e);
     		}
     	}
     	return parsedPortletXml;
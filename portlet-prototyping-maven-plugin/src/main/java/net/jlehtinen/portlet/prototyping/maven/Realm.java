@@ -16,19 +16,33 @@
  */
 package net.jlehtinen.portlet.prototyping.maven;
 
+import java.lang.management.ManagementFactory;
 import java.security.Principal;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.maven.plugin.logging.Log;
 import org.mortbay.jetty.Request;
 import org.mortbay.jetty.security.UserRealm;
 
 /**
- * Hash map based user realm initialized from a set of User records.
+ * Hash map based user realm initialized from a set of User records. The authentication
+ * results are counted and available through JMX under {@value #OBJECT_NAME} once
+ * registered, so that the portal can report them. As the portal authenticates each
+ * request carrying basic authentication credentials, the counts are numbers of such
+ * requests; anonymous requests are not authenticated.
  */
-public class Realm implements UserRealm {
+public class Realm implements UserRealm, RealmMBean {
+
+	/** Name of the management bean */
+	public static final String OBJECT_NAME = "net.jlehtinen.portlet.prototyping:type=Realm";
+	
 
 	/**
 	 * Wrapper class for {@link User} promoted to a specified role.
@@ -71,6 +85,12 @@ public class Realm implements UserRealm {
 	
 	/** Map of users by name */
 	protected final Map<String, User> usersByName;
+	
+	/** Number of successful authentications */
+	protected final AtomicLong successfulAuthentications = new AtomicLong();
+	
+	/** Number of failed authentications */
+	protected final AtomicLong failedAuthentications = new AtomicLong();
 
 	/**
 	 * Constructs and initializes a new instance using the specified users.
@@ -97,11 +117,39 @@ public class Realm implements UserRealm {
 		if (o != null) {
 			User u = (User) o;
 			if (u.authenticate(credentials)) {
+				successfulAuthentications.incrementAndGet();
 				return u;
 			}
 		}
+		failedAuthentications.incrementAndGet();
 		return null;
 	}
+	
+	public long getSuccessfulAuthentications() {
+		return successfulAuthentications.get();
+	}
+	
+	public long getFailedAuthentications() {
+		return failedAuthentications.get();
+	}
+	
+	/**
+	 * Registers this realm as a management bean, replacing any previous registration.
+	 * 
+	 * @param log log for reporting a failure
+	 */
+	public void registerMBean(Log log) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (Exception e) {
+			log.warn("Failed to register realm management bean", e);
+		}
+	}
 
 	public boolean reauthenticate(Principal user) {
 		return true;
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+/**
+ * Management interface of {@link Realm}.
+ */
+public interface RealmMBean {
+
+	/**
+	 * Returns the realm name.
+	 * 
+	 * @return realm name
+	 */
+	String getName();
+	
+	/**
+	 * Returns the number of successful authentications.
+	 * 
+	 * @return number of successful authentications
+	 */
+	long getSuccessfulAuthentications();
+	
+	/**
+	 * Returns the number of failed authentications.
+	 * 
+	 * @return number of failed authentications
+	 */
+	long getFailedAuthentications();
+	
+}
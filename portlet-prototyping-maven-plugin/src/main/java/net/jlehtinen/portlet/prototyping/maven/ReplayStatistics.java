@@ -0,0 +1,236 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Request latencies collected while replaying captured requests, keyed by request. The
+ * statistics can be stored as a baseline and compared against later replays.
+ */
+public class ReplayStatistics {
+
+	/** Key of the latencies of all requests */
+	public static final String TOTAL = "*";
+	
+	/** Latencies in microseconds keyed by request */
+	protected final Map<String, List<Long>> latencies = new TreeMap<String, List<Long>>();
+	
+	/**
+	 * Adds the latency of a single request.
+	 * 
+	 * @param key request key
+	 * @param micros latency in microseconds
+	 */
+	public void add(String key, long micros) {
+		getLatencies(key).add(new Long(micros));
+		getLatencies(TOTAL).add(new Long(micros));
+	}
+	
+	/**
+	 * Returns the request keys, including {@link #TOTAL}.
+	 * 
+	 * @return request keys
+	 */
+	public Set<String> getKeys() {
+		return Collections.unmodifiableSet(latencies.keySet());
+	}
+	
+	/**
+	 * Returns the number of latencies recorded for the specified key.
+	 * 
+	 * @param key request key
+	 * @return number of latencies
+	 */
+	public int getCount(String key) {
+		List<Long> values = latencies.get(key);
+		return values != null ? values.size() : 0;
+	}
+	
+	/**
+	 * Returns the mean latency of the specified key.
+	 * 
+	 * @param key request key
+	 * @return mean latency in microseconds or 0 if none recorded
+	 */
+	public long getMean(String key) {
+		List<Long> values = latencies.get(key);
+		if (values == null || values.isEmpty()) {
+			return 0;
+		}
+		long sum = 0;
+		Iterator<Long> iter = values.iterator();
+		while (iter.hasNext()) {
+			sum += iter.next().longValue();
+		}
+		return sum / values.size();
+	}
+	
+	/**
+	 * Returns the specified percentile of the latencies of the specified key.
+	 * 
+	 * @param key request key
+	 * @param percentile percentile between 0 and 100
+	 * @return latency in microseconds or 0 if none recorded
+	 */
+	public long getPercentile(String key, int percentile) {
+		List<Long> values = latencies.get(key);
+		if (values == null || values.isEmpty()) {
+			return 0;
+		}
+		List<Long> sorted = new ArrayList<Long>(values);
+		Collections.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+		return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))).longValue();
+	}
+	
+	/**
+	 * Compares these statistics against the specified baseline. A request regresses if
+	 * its mean latency exceeds the baseline mean both by more than the tolerance and by
+	 * more than the minimum delta. The 95th percentile of all requests is compared the
+	 * same way. Requests with fewer than the minimum number of samples in either
+	 * statistics are not compared, as a few samples of a fast request are mostly noise.
+	 * 
+	 * @param baseline baseline statistics
+	 * @param tolerance tolerance in percent
+	 * @param minSamples minimum number of samples per request in both statistics
+	 * @param minDeltaMicros minimum absolute increase in microseconds
+	 * @return descriptions of the regressions, empty if none
+	 */
+	public List<String> compare(ReplayStatistics baseline, int tolerance, int minSamples, long minDeltaMicros) {
+		List<String> regressions = new ArrayList<String>();
+		double factor = 1 + tolerance / 100.0;
+		Iterator<String> iter = latencies.keySet().iterator();
+		while (iter.hasNext()) {
+			String key = iter.next();
+			if (getCount(key) < minSamples || baseline.getCount(key) < Math.max(minSamples, 1)) {
+				continue;
+			}
+			long mean = getMean(key);
+			long baselineMean = baseline.getMean(key);
+			if (mean > baselineMean * factor && mean - baselineMean > minDeltaMicros) {
+				regressions.add(MessageFormat.format("{0}: mean {1} ms, baseline {2} ms", new Object[] {
+						key, new Double(mean / 1000.0), new Double(baselineMean / 1000.0) }));
+			}
+		}
+		long p95 = getPercentile(TOTAL, 95);
+		long baselineP95 = baseline.getPercentile(TOTAL, 95);
+		if (getCount(TOTAL) >= minSamples && baseline.getCount(TOTAL) >= Math.max(minSamples, 1)
+				&& p95 > baselineP95 * factor && p95 - baselineP95 > minDeltaMicros) {
+			regressions.add(MessageFormat.format("{0}: 95th percentile {1} ms, baseline {2} ms", new Object[] {
+					TOTAL, new Double(p95 / 1000.0), new Double(baselineP95 / 1000.0) }));
+		}
+		return regressions;
+	}
+	
+	/**
+	 * Stores these statistics into the specified file.
+	 * 
+	 * @param file destination file
+	 * @throws IOException on I/O error
+	 */
+	public void save(File file) throws IOException {
+		Properties props = new Properties();
+		Iterator<Map.Entry<String, List<Long>>> iter = latencies.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, List<Long>> entry = iter.next();
+			if (TOTAL.equals(entry.getKey())) {
+				continue;
+			}
+			StringBuilder sb = new StringBuilder();
+			Iterator<Long> valueIter = entry.getValue().iterator();
+			while (valueIter.hasNext()) {
+				if (sb.length() > 0) {
+					sb.append(',');
+				}
+				sb.append(valueIter.next());
+			}
+			props.setProperty(entry.getKey(), sb.toString());
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			props.store(out, "Replay latencies in microseconds");
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Loads statistics stored by {@link #save(File)}.
+	 * 
+	 * @param file statistics file
+	 * @return loaded statistics
+	 * @throws IOException on I/O error or if the file is malformed
+	 */
+	public static ReplayStatistics load(File file) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		ReplayStatistics statistics = new ReplayStatistics();
+		Iterator<Map.Entry<Object, Object>> iter = props.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<Object, Object> entry = iter.next();
+			String[] values = ((String) entry.getValue()).split(",");
+			for (int i = 0; i < values.length; i++) {
+				try {
+					statistics.add((String) entry.getKey(), Long.parseLong(values[i].trim()));
+				} catch (NumberFormatException e) {
+					throw new IOException(MessageFormat.format("Malformed latency {0} in {1}", new Object[] { values[i], file }));
+				}
+			}
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Returns the latencies of the specified key, creating the list if necessary.
+	 * 
+	 * @param key request key
+	 * @return latencies
+	 */
+	protected List<Long> getLatencies(String key) {
+		List<Long> values = latencies.get(key);
+		if (values == null) {
+			values = new ArrayList<Long>();
+			latencies.put(key, values);
+		}
+		return values;
+	}
+	
+}
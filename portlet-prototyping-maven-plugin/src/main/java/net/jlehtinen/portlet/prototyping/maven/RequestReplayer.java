@@ -0,0 +1,261 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jlehtinen.portlet.util.RecordedRequest;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.Base64;
+
+/**
+ * Replays captured requests against a running portal. Requests are sent one at a time
+ * in the recorded order, either at the recorded pace scaled by a speed factor or as fast
+ * as possible. Each recorded session gets its own cookies, and the requests of
+ * authenticated users carry basic authentication credentials using the password of the
+ * user in the realm configuration.
+ */
+public class RequestReplayer {
+
+	/** Maven log */
+	protected final Log log;
+	
+	/** Scheme, host and port of the portal */
+	protected final String baseUrl;
+	
+	/** Speed factor relative to the recorded pace or 0 to replay as fast as possible */
+	protected final double speed;
+	
+	/** Passwords keyed by user name */
+	protected final Map<String, String> passwords;
+	
+	/** Authorization header values keyed by user name */
+	protected final Map<String, String> authorizations = new HashMap<String, String>();
+	
+	/** Cookies keyed by recorded session index */
+	protected final Map<Integer, Map<String, String>> cookies = new HashMap<Integer, Map<String, String>>();
+	
+	/** Number of requests whose status differed from the recorded status */
+	protected int statusMismatches;
+	
+	/**
+	 * Constructs a new replayer.
+	 * 
+	 * @param log Maven log
+	 * @param baseUrl scheme, host and port of the portal
+	 * @param speed speed factor relative to the recorded pace or 0 to replay as fast as possible
+	 * @param passwords passwords keyed by user name
+	 */
+	public RequestReplayer(Log log, String baseUrl, double speed, Map<String, String> passwords) {
+		this.log = log;
+		this.baseUrl = baseUrl;
+		this.speed = speed;
+		this.passwords = passwords;
+	}
+	
+	/**
+	 * Replays the specified requests.
+	 * 
+	 * @param requests recorded requests
+	 * @return latencies of the replayed requests
+	 * @throws IOException if a request could not be sent
+	 */
+	public ReplayStatistics replay(List<RecordedRequest> requests) throws IOException {
+		ReplayStatistics statistics = new ReplayStatistics();
+		long start = System.currentTimeMillis();
+		Iterator<RecordedRequest> iter = requests.iterator();
+		while (iter.hasNext()) {
+			RecordedRequest request = iter.next();
+			if (speed > 0) {
+				long delay = start + (long) (request.getTime() / speed) - System.currentTimeMillis();
+				if (delay > 0) {
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Replay interrupted");
+					}
+				}
+			}
+			Map<String, String> sessionCookies = getCookies(request);
+			String authorization = getAuthorization(request.getUser());
+			long requestStart = System.nanoTime();
+			int status = send(request.getMethod(), request.getUri(), request.getContentType(), request.getBody(), authorization, sessionCookies);
+			statistics.add(request.getMethod() + " " + request.getUri(), (System.nanoTime() - requestStart) / 1000);
+			if (status != request.getStatus()) {
+				statusMismatches++;
+				if (log.isDebugEnabled()) {
+					log.debug(MessageFormat.format("{0} returned {1}, recorded {2}", new Object[] {
+							request, new Integer(status), new Integer(request.getStatus()) }));
+				}
+			}
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Returns the number of replayed requests whose status differed from the recorded status.
+	 * 
+	 * @return number of status mismatches
+	 */
+	public int getStatusMismatches() {
+		return statusMismatches;
+	}
+	
+	/**
+	 * Returns the cookies of the session of the specified request.
+	 * 
+	 * @param request recorded request
+	 * @return cookies keyed by name
+	 */
+	protected Map<String, String> getCookies(RecordedRequest request) {
+		if (request.getSession() < 0) {
+			return new LinkedHashMap<String, String>();
+		}
+		Integer session = new Integer(request.getSession());
+		Map<String, String> sessionCookies = cookies.get(session);
+		if (sessionCookies == null) {
+			sessionCookies = new LinkedHashMap<String, String>();
+			cookies.put(session, sessionCookies);
+		}
+		return sessionCookies;
+	}
+	
+	/**
+	 * Returns the authorization header value for the specified user.
+	 * 
+	 * @param user user name or null for an unauthenticated request
+	 * @return authorization header value or null if the request is sent unauthenticated
+	 * @throws IOException if the credentials could not be encoded
+	 */
+	protected String getAuthorization(String user) throws IOException {
+		if (user == null) {
+			return null;
+		}
+		String authorization = authorizations.get(user);
+		if (authorization == null && !authorizations.containsKey(user)) {
+			String password = passwords.get(user);
+			if (password == null) {
+				log.warn(MessageFormat.format("No password for user {0}, replaying the requests unauthenticated", new Object[] { user }));
+			} else {
+				authorization = "Basic " + new String(Base64.encodeBase64((user + ':' + password).getBytes("UTF-8")), "US-ASCII");
+			}
+			authorizations.put(user, authorization);
+		}
+		return authorization;
+	}
+	
+	/**
+	 * Sends a single request and reads the response.
+	 * 
+	 * @param method HTTP method
+	 * @param uri request URI
+	 * @param contentType content type of the body or null
+	 * @param body request body or null
+	 * @param authorization authorization header value or null
+	 * @param sessionCookies cookies to be sent, updated from the response
+	 * @return response status
+	 * @throws IOException if the request could not be sent
+	 */
+	protected int send(String method, String uri, String contentType, byte[] body, String authorization, Map<String, String> sessionCookies) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + uri).openConnection();
+		connection.setInstanceFollowRedirects(false);
+		connection.setUseCaches(false);
+		connection.setRequestMethod(method);
+		if (authorization != null) {
+			connection.setRequestProperty("Authorization", authorization);
+		}
+		if (!sessionCookies.isEmpty()) {
+			StringBuilder sb = new StringBuilder();
+			Iterator<Map.Entry<String, String>> iter = sessionCookies.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<String, String> cookie = iter.next();
+				if (sb.length() > 0) {
+					sb.append("; ");
+				}
+				sb.append(cookie.getKey()).append('=').append(cookie.getValue());
+			}
+			connection.setRequestProperty("Cookie", sb.toString());
+		}
+		if (contentType != null) {
+			connection.setRequestProperty("Content-Type", contentType);
+		}
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(body);
+			} finally {
+				out.close();
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		if (in != null) {
+			try {
+				byte[] buffer = new byte[8192];
+				while (in.read(buffer) != -1) {
+					// Discard the response body
+				}
+			} finally {
+				in.close();
+			}
+		}
+		storeCookies(connection, sessionCookies);
+		return status;
+	}
+	
+	/**
+	 * Stores the cookies set by the specified response.
+	 * 
+	 * @param connection connection holding the response
+	 * @param sessionCookies cookies of the session
+	 */
+	protected static void storeCookies(HttpURLConnection connection, Map<String, String> sessionCookies) {
+		Map<String, List<String>> headers = connection.getHeaderFields();
+		Iterator<Map.Entry<String, List<String>>> iter = headers.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, List<String>> header = iter.next();
+			if (header.getKey() == null || !"Set-Cookie".equalsIgnoreCase(header.getKey())) {
+				continue;
+			}
+			Iterator<String> valueIter = header.getValue().iterator();
+			while (valueIter.hasNext()) {
+				String value = valueIter.next();
+				int end = value.indexOf(';');
+				String pair = end != -1 ? value.substring(0, end) : value;
+				int eq = pair.indexOf('=');
+				if (eq > 0) {
+					sessionCookies.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+				}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+import java.lang.management.ManagementFactory;
+import java.text.MessageFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.maven.plugin.logging.Log;
+import org.mortbay.component.AbstractLifeCycle;
+import org.mortbay.thread.ThreadPool;
+
+/**
+ * Jetty thread pool running requests either on a bounded pool of platform threads or on
+ * a new virtual thread per request. In the queued mode the pool grows up to the maximum
+ * number of threads before jobs are queued, and jobs are rejected once the queue is full.
+ * The number of active, queued and rejected jobs is available through JMX under
+ * {@value #OBJECT_NAME}.
+ */
+public class RequestThreadPool extends AbstractLifeCycle implements ThreadPool, RequestThreadPoolMBean {
+
+	/** Bounded pool of platform threads */
+	public static final String MODE_QUEUED = "queued";
+	
+	/** Virtual thread per request */
+	public static final String MODE_VIRTUAL = "virtual";
+	
+	/** Name of the management bean */
+	public static final String OBJECT_NAME = "net.jlehtinen.portlet.prototyping:type=RequestThreadPool";
+	
+	/** Idle time after which platform threads exit, in seconds */
+	protected static final long KEEP_ALIVE_SECONDS = 60;
+	
+	/** Maven log */
+	protected final Log log;
+	
+	/** Requested mode */
+	protected final String requestedMode;
+	
+	/** Maximum number of platform threads */
+	protected final int maxThreads;
+	
+	/** Maximum number of queued jobs */
+	protected final int maxQueued;
+	
+	/** Mode in effect */
+	protected String mode;
+	
+	/** Executor running the jobs */
+	protected ExecutorService executor;
+	
+	/** Queue of the platform thread executor or null in virtual mode */
+	protected BlockingQueue<Runnable> queue;
+	
+	/** Number of active jobs */
+	protected final AtomicInteger active = new AtomicInteger();
+	
+	/** Peak number of active jobs */
+	protected final AtomicInteger peakActive = new AtomicInteger();
+	
+	/** Number of rejected jobs */
+	protected final AtomicLong rejected = new AtomicLong();
+	
+	/** Number of completed jobs */
+	protected final AtomicLong completed = new AtomicLong();
+	
+	/**
+	 * Constructs a new thread pool.
+	 * 
+	 * @param log Maven log
+	 * @param mode {@link #MODE_QUEUED} or {@link #MODE_VIRTUAL}
+	 * @param maxThreads maximum number of platform threads
+	 * @param maxQueued maximum number of queued jobs
+	 */
+	public RequestThreadPool(Log log, String mode, int maxThreads, int maxQueued) {
+		this.log = log;
+		this.requestedMode = mode;
+		this.maxThreads = maxThreads;
+		this.maxQueued = maxQueued;
+	}
+	
+	protected void doStart() throws Exception {
+		mode = MODE_QUEUED;
+		if (MODE_VIRTUAL.equals(requestedMode)) {
+			executor = createVirtualThreadExecutor();
+			if (executor != null) {
+				mode = MODE_VIRTUAL;
+			} else {
+				log.warn(MessageFormat.format("Virtual threads are not supported by Java {0}, using {1} thread pool", new Object[] {
+						System.getProperty("java.version"), MODE_QUEUED }));
+			}
+		}
+		if (executor == null) {
+			final AtomicInteger counter = new AtomicInteger();
+			queue = new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueued));
+			ThreadPoolExecutor tpe = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					return new Thread(r, "Jetty request " + counter.incrementAndGet());
+				}
+			});
+			
+			// Grow up to maxThreads before queueing, let idle threads exit
+			tpe.allowCoreThreadTimeOut(true);
+			executor = tpe;
+		}
+		registerMBean();
+		log.info(MessageFormat.format("Request thread pool = {0} (maxThreads = {1}, maxQueued = {2})", new Object[] {
+				mode, new Integer(maxThreads), new Integer(maxQueued) }));
+	}
+	
+	protected void doStop() throws Exception {
+		unregisterMBean();
+		executor.shutdown();
+		executor.awaitTermination(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+		log.info(MessageFormat.format("Request thread pool completed {0} jobs, peak active {1}, rejected {2}", new Object[] {
+				new Long(completed.get()), new Integer(peakActive.get()), new Long(rejected.get()) }));
+		executor = null;
+		queue = null;
+	}
+	
+	/**
+	 * Creates an executor starting a new virtual thread for each job.
+	 * 
+	 * @return executor or null if virtual threads are not supported
+	 */
+	protected static ExecutorService createVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor", new Class<?>[0]).invoke(null, new Object[0]);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	public boolean dispatch(final Runnable job) {
+		ExecutorService executor = this.executor;
+		if (executor == null) {
+			return false;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					int n = active.incrementAndGet();
+					int peak;
+					while (n > (peak = peakActive.get()) && !peakActive.compareAndSet(peak, n)) {
+						// Retry
+					}
+					try {
+						job.run();
+					} finally {
+						active.decrementAndGet();
+						completed.incrementAndGet();
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			return false;
+		}
+	}
+
+	public void join() throws InterruptedException {
+		ExecutorService executor = this.executor;
+		if (executor != null) {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public int getThreads() {
+		if (executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor) executor).getPoolSize();
+		}
+		return active.get();
+	}
+
+	public int getIdleThreads() {
+		if (executor instanceof ThreadPoolExecutor) {
+			return Math.max(0, ((ThreadPoolExecutor) executor).getPoolSize() - active.get());
+		}
+		return 0;
+	}
+
+	public boolean isLowOnThreads() {
+		return queue != null && active.get() >= maxThreads && !queue.isEmpty();
+	}
+	
+	public String getMode() {
+		return mode;
+	}
+	
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+	
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+	
+	public int getActive() {
+		return active.get();
+	}
+	
+	public int getPeakActive() {
+		return peakActive.get();
+	}
+	
+	public int getQueued() {
+		BlockingQueue<Runnable> queue = this.queue;
+		return queue != null ? queue.size() : 0;
+	}
+	
+	public long getRejected() {
+		return rejected.get();
+	}
+	
+	public long getCompleted() {
+		return completed.get();
+	}
+	
+	/**
+	 * Registers this pool as a management bean, replacing any previous registration.
+	 */
+	protected void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (Exception e) {
+			log.warn("Failed to register request thread pool management bean", e);
+		}
+	}
+	
+	/**
+	 * Unregisters the management bean of this pool.
+	 */
+	protected void unregisterMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			log.warn("Failed to unregister request thread pool management bean", e);
+		}
+	}
+	
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010 Johannes Lehtinen 
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.maven;
+
+/**
+ * Management interface of {@link RequestThreadPool}.
+ */
+public interface RequestThreadPoolMBean {
+
+	/**
+	 * Returns the thread pool mode.
+	 * 
+	 * @return {@link RequestThreadPool#MODE_QUEUED} or {@link RequestThreadPool#MODE_VIRTUAL}
+	 */
+	String getMode();
+	
+	/**
+	 * Returns the maximum number of platform threads.
+	 * 
+	 * @return maximum number of threads
+	 */
+	int getMaxThreads();
+	
+	/**
+	 * Returns the maximum number of queued requests.
+	 * 
+	 * @return maximum queue size
+	 */
+	int getMaxQueued();
+	
+	/**
+	 * Returns the number of jobs currently being run.
+	 * 
+	 * @return number of active jobs
+	 */
+	int getActive();
+	
+	/**
+	 * Returns the largest number of jobs run concurrently.
+	 * 
+	 * @return peak number of active jobs
+	 */
+	int getPeakActive();
+	
+	/**
+	 * Returns the number of jobs waiting for a thread.
+	 * 
+	 * @return number of queued jobs
+	 */
+	int getQueued();
+	
+	/**
+	 * Returns the number of jobs rejected because the queue was full.
+	 * 
+	 * @return number of rejected jobs
+	 */
+	long getRejected();
+	
+	/**
+	 * Returns the number of completed jobs.
+	 * 
+	 * @return number of completed jobs
+	 */
+	long getCompleted();
+	
+}
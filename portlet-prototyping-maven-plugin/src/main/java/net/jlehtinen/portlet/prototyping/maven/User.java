@@ -79,6 +79,15 @@ public class User implements Principal {
 		return password;
 	}
 
+	/**
+	 * Returns the comma separated list of roles.
+	 * 
+	 * @return roles or null
+	 */
+	public String getRoles() {
+		return roles;
+	}
+
 	/**
 	 * Returns the set of user roles.
 	 * 
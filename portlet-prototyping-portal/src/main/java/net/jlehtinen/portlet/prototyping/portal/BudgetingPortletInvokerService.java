@@ -0,0 +1,317 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.portlet.ActionRequest;
+import javax.portlet.ActionResponse;
+import javax.portlet.EventRequest;
+import javax.portlet.EventResponse;
+import javax.portlet.PortletException;
+import javax.portlet.PortletRequest;
+import javax.portlet.PortletResponse;
+import javax.portlet.RenderRequest;
+import javax.portlet.RenderResponse;
+import javax.portlet.ResourceRequest;
+import javax.portlet.ResourceResponse;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+
+import net.jlehtinen.portlet.util.PortletBudget;
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
+
+import org.apache.pluto.container.FilterManager;
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.PortletInvokerService;
+import org.apache.pluto.container.PortletRequestContext;
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.driver.PortletContextService;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.driver.container.DefaultPortletInvokerService;
+import org.apache.pluto.driver.core.PortalServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * {@link PortletInvokerService} enforcing the portlet budgets of the current
+ * {@link PrototypingConfiguration}. Renders of portlets with a budget are measured around
+ * the dispatch to the portlet: the render time, the size of the markup written into the
+ * portal buffer and, where the Java runtime supports it, the memory allocated by the
+ * rendering thread. Violations are logged, kept for the theme by portlet window and
+ * collected into the servlet context attribute {@link PortletBudget#VIOLATIONS_ATTRIBUTE}.
+ * Renders of portlets without a budget and the other lifecycle phases are passed through.
+ */
+public class BudgetingPortletInvokerService implements PortletInvokerService, ServletContextAware {
+
+	/** Name of the servlet context attribute holding the service */
+	public static final String ATTRIBUTE_NAME = BudgetingPortletInvokerService.class.getName();
+
+	/** Largest number of violation messages kept */
+	protected static final int MAX_VIOLATIONS = 1000;
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(BudgetingPortletInvokerService.class);
+
+	/** Name of the HotSpot thread bean interface providing the allocation measurement */
+	protected static final String ALLOCATION_THREAD_BEAN_CLASS = "com.sun.management.ThreadMXBean";
+
+	/** The thread bean */
+	protected static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	/** Method returning the bytes allocated by a thread or null if not supported */
+	protected static final Method allocatedBytesMethod = getAllocatedBytesMethod();
+
+	/** Invoker service dispatching to the portlets */
+	protected final PortletInvokerService delegate;
+
+	/** Violation messages, oldest first */
+	protected final List<String> violations = Collections.synchronizedList(new ArrayList<String>());
+
+	/** Latest measurements keyed by portlet window identifier */
+	protected final ConcurrentHashMap<String, RenderMeasurement> measurements = new ConcurrentHashMap<String, RenderMeasurement>();
+
+	/** Servlet context of the portal or null if not set yet */
+	protected ServletContext servletContext;
+
+	/**
+	 * Constructs a new instance dispatching through the default Pluto invoker service.
+	 *
+	 * @param portletContextService portlet context service
+	 */
+	public BudgetingPortletInvokerService(PortletContextService portletContextService) {
+		this(new DefaultPortletInvokerService(portletContextService));
+	}
+
+	/**
+	 * Constructs a new instance dispatching through the specified invoker service.
+	 *
+	 * @param delegate invoker service dispatching to the portlets
+	 */
+	public BudgetingPortletInvokerService(PortletInvokerService delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Publishes this service and the violations in the specified servlet context.
+	 *
+	 * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		this.servletContext = servletContext;
+		servletContext.setAttribute(ATTRIBUTE_NAME, this);
+		servletContext.setAttribute(PortletBudget.VIOLATIONS_ATTRIBUTE, violations);
+	}
+
+	/**
+	 * Returns the latest measurements of the portlet windows with a budget.
+	 *
+	 * @return measurements keyed by portlet window identifier, sorted by identifier
+	 */
+	public Map<String, RenderMeasurement> getMeasurements() {
+		return Collections.unmodifiableMap(new TreeMap<String, RenderMeasurement>(measurements));
+	}
+
+	/**
+	 * Returns the budget violations.
+	 *
+	 * @return violation messages, oldest first
+	 */
+	public List<String> getViolations() {
+		synchronized (violations) {
+			return new ArrayList<String>(violations);
+		}
+	}
+
+	public void render(PortletRequestContext requestContext, RenderRequest request, RenderResponse response, FilterManager filterManager)
+			throws IOException, PortletException, PortletContainerException {
+		PortletWindow window = requestContext.getPortletWindow();
+		PortletBudget budget = getBudget(window);
+		if (budget == null) {
+			delegate.render(requestContext, request, response, filterManager);
+			return;
+		}
+		StringWriter buffer = getBuffer(requestContext.getContainerResponse());
+		int offset = buffer != null ? buffer.getBuffer().length() : 0;
+		boolean allocation = allocatedBytesMethod != null && budget.isAllocationLimited();
+		long allocatedStart = allocation ? getAllocatedBytes() : 0;
+		long start = System.nanoTime();
+		try {
+			delegate.render(requestContext, request, response, filterManager);
+		} finally {
+			long renderMillis = (System.nanoTime() - start) / 1000000;
+			long allocatedBytes = allocation ? getAllocatedBytes() - allocatedStart : -1;
+			long bytes = buffer != null ? countBytes(buffer, offset, requestContext.getContainerResponse().getCharacterEncoding()) : 0;
+			record(budget, window.getId().getStringId(), renderMillis, bytes, allocatedBytes);
+		}
+	}
+
+	public void action(PortletRequestContext requestContext, ActionRequest request, ActionResponse response, FilterManager filterManager)
+			throws IOException, PortletException, PortletContainerException {
+		delegate.action(requestContext, request, response, filterManager);
+	}
+
+	public void event(PortletRequestContext requestContext, EventRequest request, EventResponse response, FilterManager filterManager)
+			throws IOException, PortletException, PortletContainerException {
+		delegate.event(requestContext, request, response, filterManager);
+	}
+
+	public void serveResource(PortletRequestContext requestContext, ResourceRequest request, ResourceResponse response, FilterManager filterManager)
+			throws IOException, PortletException, PortletContainerException {
+		delegate.serveResource(requestContext, request, response, filterManager);
+	}
+
+	public void load(PortletRequestContext requestContext, PortletRequest request, PortletResponse response)
+			throws IOException, PortletException, PortletContainerException {
+		delegate.load(requestContext, request, response);
+	}
+
+	public void admin(PortletRequestContext requestContext, PortletRequest request, PortletResponse response)
+			throws IOException, PortletException, PortletContainerException {
+		delegate.admin(requestContext, request, response);
+	}
+
+	/**
+	 * Records the measurements of a render and reports the budget violations.
+	 *
+	 * @param budget budget of the portlet
+	 * @param windowId portlet window identifier
+	 * @param renderMillis render time in milliseconds
+	 * @param bytes markup size in bytes
+	 * @param allocatedBytes memory allocated by the render in bytes or -1 if not measured
+	 */
+	protected void record(PortletBudget budget, String windowId, long renderMillis, long bytes, long allocatedBytes) {
+		List<String> exceeded = new ArrayList<String>(3);
+		budget.check(renderMillis, bytes, allocatedBytes, exceeded);
+		measurements.put(windowId, new RenderMeasurement(windowId, renderMillis, bytes, allocatedBytes, exceeded));
+		for (int i = 0; i < exceeded.size(); i++) {
+			String message = MessageFormat.format("Portlet window {0} over budget: {1}", new Object[] { windowId, exceeded.get(i) });
+			logger.warn(message);
+			synchronized (violations) {
+				if (violations.size() >= MAX_VIOLATIONS) {
+					violations.remove(0);
+				}
+				violations.add(message);
+			}
+		}
+	}
+
+	/**
+	 * Returns the budget of the portlet of the specified window.
+	 *
+	 * @param window portlet window
+	 * @return portlet budget or null if the portlet has no budget
+	 */
+	protected PortletBudget getBudget(PortletWindow window) {
+		PrototypingConfiguration configuration = servletContext != null
+			? (PrototypingConfiguration) servletContext.getAttribute(PrototypingConfiguration.ATTRIBUTE_NAME) : null;
+		PortletDefinition definition = window.getPortletDefinition();
+		if (configuration == null || definition == null) {
+			return null;
+		}
+		return configuration.getPortletBudget(definition.getPortletName());
+	}
+
+	/**
+	 * Returns the portal buffer the portlet markup is written into.
+	 *
+	 * @param response container response
+	 * @return portal buffer or null if the response is not buffered by the portal
+	 */
+	protected static StringWriter getBuffer(ServletResponse response) {
+		while (response instanceof ServletResponseWrapper) {
+			if (response instanceof PortalServletResponse) {
+				return ((PortalServletResponse) response).getInternalBuffer();
+			}
+			response = ((ServletResponseWrapper) response).getResponse();
+		}
+		return null;
+	}
+
+	/**
+	 * Counts the bytes of the markup written into the portal buffer.
+	 *
+	 * @param buffer portal buffer
+	 * @param offset length of the buffer before the render
+	 * @param encoding character encoding of the response or null
+	 * @return markup size in bytes
+	 */
+	protected static long countBytes(StringWriter buffer, int offset, String encoding) {
+		String markup = buffer.getBuffer().substring(offset);
+		try {
+			return markup.getBytes(encoding != null ? encoding : "UTF-8").length;
+		} catch (IOException e) {
+			return markup.length();
+		}
+	}
+
+	/**
+	 * Returns the bytes allocated so far by the current thread. Must only be called if
+	 * the allocation can be measured.
+	 *
+	 * @return allocated bytes or 0 if the measurement failed
+	 */
+	protected static long getAllocatedBytes() {
+		try {
+			return ((Long) allocatedBytesMethod.invoke(threadBean, new Object[] { new Long(Thread.currentThread().getId()) })).longValue();
+		} catch (Throwable t) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the method measuring the memory allocated by a thread if the thread bean
+	 * supports it. The HotSpot specific interface is accessed using reflection so that
+	 * the portal also runs on virtual machines without it.
+	 *
+	 * @return method taking a thread identifier or null if allocation can not be measured
+	 */
+	protected static Method getAllocatedBytesMethod() {
+		try {
+			Class<?> beanClass = Class.forName(ALLOCATION_THREAD_BEAN_CLASS);
+			if (beanClass.isInstance(threadBean)) {
+				Method supported = beanClass.getMethod("isThreadAllocatedMemorySupported", new Class<?>[0]);
+				if (((Boolean) supported.invoke(threadBean, new Object[0])).booleanValue()) {
+					Method enabled = beanClass.getMethod("isThreadAllocatedMemoryEnabled", new Class<?>[0]);
+					if (!((Boolean) enabled.invoke(threadBean, new Object[0])).booleanValue()) {
+						beanClass.getMethod("setThreadAllocatedMemoryEnabled", new Class<?>[] { Boolean.TYPE })
+								.invoke(threadBean, new Object[] { Boolean.TRUE });
+					}
+					return beanClass.getMethod("getThreadAllocatedBytes", new Class<?>[] { Long.TYPE });
+				}
+			}
+		} catch (Throwable t) {
+			// Reported below
+		}
+		logger.debug("Thread allocation measurement not supported, allocation budgets disabled");
+		return null;
+	}
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Request wrapper buffering the request body so that it can be captured by the
+ * {@link RequestCaptureFilter} and still be read by the portal. The body of a form post
+ * is parsed by the wrapper since the container can no longer parse it once it has been
+ * read. Buffering stops once the body exceeds the size limit; such a body is not captured
+ * and the rest of it is read from the request as the portal consumes it.
+ */
+public class CapturedRequest extends HttpServletRequestWrapper {
+
+	/** Content type of form posts */
+	protected static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+	/** The buffered request body, or its beginning if over the limit */
+	protected final byte[] body;
+
+	/** Whether the body exceeded the limit and was only partially buffered */
+	protected final boolean overLimit;
+
+	/** Parameters parsed from the query string and form post, or null if not parsed yet */
+	protected Map<String, String[]> parameters;
+
+	/**
+	 * Constructs a new wrapper, reading the request body up to the specified limit.
+	 *
+	 * @param request servlet request
+	 * @param maxBody largest body buffered, in bytes
+	 * @throws IOException on I/O error
+	 */
+	public CapturedRequest(HttpServletRequest request, int maxBody) throws IOException {
+		super(request);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(Math.min(request.getContentLength(), maxBody + 1), 256));
+		InputStream in = request.getInputStream();
+		byte[] chunk = new byte[4096];
+		int n;
+		while (buffer.size() <= maxBody && (n = in.read(chunk, 0, Math.min(chunk.length, maxBody + 1 - buffer.size()))) != -1) {
+			buffer.write(chunk, 0, n);
+		}
+		body = buffer.toByteArray();
+		overLimit = body.length > maxBody;
+	}
+
+	/**
+	 * Returns the buffered request body.
+	 *
+	 * @return request body or null if the body exceeded the limit
+	 */
+	public byte[] getBody() {
+		return overLimit ? null : body;
+	}
+
+	/**
+	 * Returns the request body. A body over the limit continues from the request and can
+	 * be read only once.
+	 *
+	 * @see javax.servlet.ServletRequestWrapper#getInputStream()
+	 */
+	public ServletInputStream getInputStream() throws IOException {
+		final InputStream in = overLimit ? new SequenceInputStream(new ByteArrayInputStream(body), super.getInputStream())
+				: new ByteArrayInputStream(body);
+		return new ServletInputStream() {
+			public int read() throws IOException {
+				return in.read();
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				return in.read(b, off, len);
+			}
+		};
+	}
+
+	public BufferedReader getReader() throws IOException {
+		String encoding = getCharacterEncoding();
+		return new BufferedReader(new InputStreamReader(getInputStream(), encoding != null ? encoding : "ISO-8859-1"));
+	}
+
+	public String getParameter(String name) {
+		if (!isFormPost()) {
+			return super.getParameter(name);
+		}
+		String[] values = getParameterMap().get(name);
+		return values != null ? values[0] : null;
+	}
+
+	public String[] getParameterValues(String name) {
+		if (!isFormPost()) {
+			return super.getParameterValues(name);
+		}
+		return getParameterMap().get(name);
+	}
+
+	@SuppressWarnings("unchecked")
+	public Enumeration<String> getParameterNames() {
+		if (!isFormPost()) {
+			return super.getParameterNames();
+		}
+		return Collections.enumeration(getParameterMap().keySet());
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized Map<String, String[]> getParameterMap() {
+		if (!isFormPost()) {
+			return super.getParameterMap();
+		}
+		if (parameters == null) {
+			Map<String, List<String>> parsed = new LinkedHashMap<String, List<String>>();
+			String encoding = getCharacterEncoding();
+			if (encoding == null) {
+				encoding = "ISO-8859-1";
+			}
+			try {
+				parse(getQueryString(), encoding, parsed);
+				parse(new String(overLimit ? readBody() : body, "ISO-8859-1"), encoding, parsed);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e.getMessage());
+			} catch (IOException e) {
+				throw new IllegalStateException(e.getMessage());
+			}
+			Map<String, String[]> result = new LinkedHashMap<String, String[]>();
+			Iterator<Map.Entry<String, List<String>>> iter = parsed.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<String, List<String>> entry = iter.next();
+				result.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+			}
+			parameters = Collections.unmodifiableMap(result);
+		}
+		return parameters;
+	}
+
+	/**
+	 * Reads the whole request body, including the part not buffered.
+	 *
+	 * @return request body
+	 * @throws IOException on I/O error
+	 */
+	protected byte[] readBody() throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(getContentLength(), body.length));
+		InputStream in = getInputStream();
+		byte[] chunk = new byte[4096];
+		int n;
+		while ((n = in.read(chunk)) != -1) {
+			buffer.write(chunk, 0, n);
+		}
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Returns whether the request is a form post whose parameters are parsed by this wrapper.
+	 *
+	 * @return whether the request is a form post
+	 */
+	protected boolean isFormPost() {
+		String contentType = getContentType();
+		return "POST".equals(getMethod()) && contentType != null && contentType.toLowerCase().startsWith(FORM_CONTENT_TYPE);
+	}
+
+	/**
+	 * Parses URL encoded parameters.
+	 *
+	 * @param s URL encoded parameters or null
+	 * @param encoding character encoding
+	 * @param parameters map where the parameters are added
+	 * @throws UnsupportedEncodingException if the encoding is not supported
+	 */
+	protected static void parse(String s, String encoding, Map<String, List<String>> parameters) throws UnsupportedEncodingException {
+		if (s == null) {
+			return;
+		}
+		int start = 0;
+		while (start < s.length()) {
+			int end = s.indexOf('&', start);
+			if (end == -1) {
+				end = s.length();
+			}
+			if (end > start) {
+				int eq = s.indexOf('=', start);
+				String name;
+				String value;
+				if (eq == -1 || eq > end) {
+					name = URLDecoder.decode(s.substring(start, end), encoding);
+					value = "";
+				} else {
+					name = URLDecoder.decode(s.substring(start, eq), encoding);
+					value = URLDecoder.decode(s.substring(eq + 1, end), encoding);
+				}
+				List<String> values = parameters.get(name);
+				if (values == null) {
+					values = new ArrayList<String>(1);
+					parameters.put(name, values);
+				}
+				values.add(value);
+			}
+			start = end + 1;
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Delivery statistics of a single event name.
+ */
+public class EventStatistics {
+
+	/** Event name */
+	protected final QName name;
+
+	/** Number of times the event was published */
+	protected long published;
+
+	/** Total number of deliveries to subscribers */
+	protected long deliveries;
+
+	/** Largest number of subscribers for a single publication */
+	protected int maxFanOut;
+
+	/** Number of failed deliveries */
+	protected long failures;
+
+	/** Total processing time of the publications in nanoseconds */
+	protected long totalNanos;
+
+	/** Longest processing time of a single publication in nanoseconds */
+	protected long maxNanos;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param name event name
+	 */
+	public EventStatistics(QName name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records a single publication of the event.
+	 *
+	 * @param fanOut number of subscribers the event was delivered to
+	 * @param failed number of failed deliveries
+	 * @param nanos processing time in nanoseconds
+	 */
+	public synchronized void record(int fanOut, int failed, long nanos) {
+		published++;
+		deliveries += fanOut;
+		maxFanOut = Math.max(maxFanOut, fanOut);
+		failures += failed;
+		totalNanos += nanos;
+		maxNanos = Math.max(maxNanos, nanos);
+	}
+
+	/**
+	 * Returns the event name.
+	 * 
+	 * @return event name
+	 */
+	public QName getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the number of times the event was published.
+	 * 
+	 * @return number of publications
+	 */
+	public synchronized long getPublished() {
+		return published;
+	}
+
+	/**
+	 * Returns the total number of deliveries to subscribers.
+	 * 
+	 * @return number of deliveries
+	 */
+	public synchronized long getDeliveries() {
+		return deliveries;
+	}
+
+	/**
+	 * Returns the largest number of subscribers for a single publication.
+	 * 
+	 * @return largest fan-out
+	 */
+	public synchronized int getMaxFanOut() {
+		return maxFanOut;
+	}
+
+	/**
+	 * Returns the number of failed deliveries.
+	 * 
+	 * @return number of failed deliveries
+	 */
+	public synchronized long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Returns the total processing time of the publications.
+	 * 
+	 * @return total processing time in nanoseconds
+	 */
+	public synchronized long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Returns the longest processing time of a single publication.
+	 * 
+	 * @return longest processing time in nanoseconds
+	 */
+	public synchronized long getMaxNanos() {
+		return maxNanos;
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet reporting the event fan-out and processing time collected by the
+ * {@link PortletPrototypingEventCoordinationService} as JSON.
+ */
+public class EventStatisticsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		PortletPrototypingEventCoordinationService service = (PortletPrototypingEventCoordinationService) getServletContext().getAttribute(PortletPrototypingEventCoordinationService.ATTRIBUTE_NAME);
+		if (service == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Event coordination statistics not available");
+			return;
+		}
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = response.getWriter();
+		out.print("{\"events\":[");
+		Iterator<EventStatistics> iter = service.getStatistics().values().iterator();
+		while (iter.hasNext()) {
+			EventStatistics stats = iter.next();
+			out.print("{\"name\":");
+			out.print(JsonUtil.quote(stats.getName().toString()));
+			out.print(",\"published\":");
+			out.print(stats.getPublished());
+			out.print(",\"deliveries\":");
+			out.print(stats.getDeliveries());
+			out.print(",\"maxFanOut\":");
+			out.print(stats.getMaxFanOut());
+			out.print(",\"failures\":");
+			out.print(stats.getFailures());
+			out.print(",\"totalMillis\":");
+			out.print(stats.getTotalNanos() / 1000000.0);
+			out.print(",\"maxMillis\":");
+			out.print(stats.getMaxNanos() / 1000000.0);
+			out.print('}');
+			if (iter.hasNext()) {
+				out.print(',');
+			}
+		}
+		out.print("]}");
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.driver.services.portal.PortletWindowConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable index from event names to the portlet windows subscribing to them. The index
+ * is built once from the portlet windows on the portal pages and the processing events
+ * declared in their portlet descriptors. Wildcard subscriptions (local part ending with
+ * "*") are resolved on first use of each event name and memoized.
+ */
+public class EventSubscriberIndex {
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(EventSubscriberIndex.class);
+
+	/** Wildcard suffix of event names */
+	protected static final String WILDCARD = "*";
+
+	/** Portlet window identifiers the index was built from */
+	protected final List<String> windowIds;
+
+	/** Version of the portal pages the index was built from or -1 if unknown */
+	protected final long pagesVersion;
+
+	/** Subscribing window identifiers keyed by exact event name */
+	protected final Map<QName, List<String>> exact = new HashMap<QName, List<String>>();
+
+	/** Wildcard subscriptions as (event name prefix, window identifier) pairs */
+	protected final List<Object[]> wildcards = new ArrayList<Object[]>();
+
+	/** Memoized subscribers keyed by event name */
+	protected final ConcurrentHashMap<QName, List<String>> resolved = new ConcurrentHashMap<QName, List<String>>();
+
+	/**
+	 * Builds an index for the specified portlet windows.
+	 *
+	 * @param windowIds identifiers of the portlet windows on the portal pages
+	 * @param pagesVersion version of the portal pages or -1 if unknown
+	 * @param registry portlet registry providing the portlet definitions
+	 */
+	public EventSubscriberIndex(List<String> windowIds, long pagesVersion, PortletRegistryService registry) {
+		this.windowIds = windowIds;
+		this.pagesVersion = pagesVersion;
+		Iterator<String> iter = windowIds.iterator();
+		while (iter.hasNext()) {
+			String windowId = iter.next();
+			PortletWindowConfig config = PortletWindowConfig.fromId(windowId);
+			PortletDefinition definition;
+			try {
+				definition = registry.getPortlet(config.getContextPath(), config.getPortletName());
+			} catch (PortletContainerException e) {
+				logger.warn(MessageFormat.format("Failed to look up portlet definition for {0}", new Object[] { windowId }), e);
+				continue;
+			}
+			if (definition != null) {
+				addSubscriptions(windowId, definition);
+			}
+		}
+	}
+
+	/**
+	 * Adds the processing events of the specified portlet definition to the index.
+	 *
+	 * @param windowId portlet window identifier
+	 * @param definition portlet definition
+	 */
+	protected void addSubscriptions(String windowId, PortletDefinition definition) {
+		PortletApplicationDefinition application = definition.getApplication();
+		String defaultNamespace = application != null ? application.getDefaultNamespace() : null;
+		Iterator<? extends EventDefinitionReference> iter = definition.getSupportedProcessingEvents().iterator();
+		while (iter.hasNext()) {
+			QName name = iter.next().getQualifiedName(defaultNamespace);
+			if (name == null) {
+				continue;
+			}
+			if (name.getLocalPart().endsWith(WILDCARD)) {
+				String local = name.getLocalPart();
+				wildcards.add(new Object[] { new QName(name.getNamespaceURI(), local.substring(0, local.length() - WILDCARD.length())), windowId });
+			} else {
+				List<String> subscribers = exact.get(name);
+				if (subscribers == null) {
+					subscribers = new ArrayList<String>();
+					exact.put(name, subscribers);
+				}
+				if (!subscribers.contains(windowId)) {
+					subscribers.add(windowId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the portlet window identifiers this index was built from.
+	 *
+	 * @return portlet window identifiers
+	 */
+	public List<String> getWindowIds() {
+		return windowIds;
+	}
+
+	/**
+	 * Returns the version of the portal pages this index was built from.
+	 *
+	 * @return version of the portal pages or -1 if unknown
+	 */
+	public long getPagesVersion() {
+		return pagesVersion;
+	}
+
+	/**
+	 * Returns the portlet windows subscribing to the specified event.
+	 *
+	 * @param name event name
+	 * @return unmodifiable list of subscribing window identifiers
+	 */
+	public List<String> getSubscribers(QName name) {
+		List<String> subscribers = resolved.get(name);
+		if (subscribers == null) {
+			Set<String> matching = new LinkedHashSet<String>();
+			List<String> exactSubscribers = exact.get(name);
+			if (exactSubscribers != null) {
+				matching.addAll(exactSubscribers);
+			}
+			Iterator<Object[]> iter = wildcards.iterator();
+			while (iter.hasNext()) {
+				Object[] wildcard = iter.next();
+				QName prefix = (QName) wildcard[0];
+				if (prefix.getNamespaceURI().equals(name.getNamespaceURI()) && name.getLocalPart().startsWith(prefix.getLocalPart())) {
+					matching.add((String) wildcard[1]);
+				}
+			}
+			subscribers = Collections.unmodifiableList(new ArrayList<String>(matching));
+			resolved.putIfAbsent(name, subscribers);
+		}
+		return subscribers;
+	}
+
+}
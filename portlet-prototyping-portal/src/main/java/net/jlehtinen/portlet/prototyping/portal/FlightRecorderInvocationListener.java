@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.portlet.PortletMode;
+import javax.portlet.PortletRequest;
+
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.driver.PortletInvocationEvent;
+import org.apache.pluto.container.driver.PortletInvocationListener;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+
+/**
+ * Emits a {@link PortletPhaseEvent} flight recorder event for each portlet action, event,
+ * render and resource invocation so that the samples of a flight recording can be
+ * attributed to portlet windows. No event is created unless a recording is running.
+ * Nothing is emitted if the Java runtime does not provide the flight recorder.
+ */
+public class FlightRecorderInvocationListener implements PortletInvocationListener {
+
+	/** Whether the flight recorder API is available */
+	protected static final boolean available = PortletPhaseEvent.isAvailable();
+
+	/** Events begun by the current thread, innermost last */
+	protected static final ThreadLocal<List<Object>> events = new ThreadLocal<List<Object>>() {
+		protected List<Object> initialValue() {
+			return new ArrayList<Object>(2);
+		}
+	};
+
+	public void onBegin(PortletInvocationEvent event) {
+		if (!available) {
+			return;
+		}
+		PortletRequest request = event.getPortletRequest();
+		Object phase = request.getAttribute(PortletRequest.LIFECYCLE_PHASE);
+		if (phase == null) {
+			return;
+		}
+		PortletWindow window = event.getPortletWindow();
+		PortletDefinition definition = window.getPortletDefinition();
+		PortletMode mode = request.getPortletMode();
+		events.get().add(PortletPhaseEvent.begin(
+				definition != null ? definition.getPortletName() : null,
+				window.getId().getStringId(),
+				phase.toString(),
+				mode != null ? mode.toString() : null));
+	}
+
+	public void onEnd(PortletInvocationEvent event) {
+		end(event, false);
+	}
+
+	public void onError(PortletInvocationEvent event, Throwable t) {
+		end(event, true);
+	}
+
+	/**
+	 * Ends the event begun for the specified invocation.
+	 *
+	 * @param event portlet invocation event
+	 * @param failed whether the invocation failed
+	 */
+	protected void end(PortletInvocationEvent event, boolean failed) {
+		if (!available || event.getPortletRequest().getAttribute(PortletRequest.LIFECYCLE_PHASE) == null) {
+			return;
+		}
+		List<Object> begun = events.get();
+		if (begun.isEmpty()) {
+			return;
+		}
+		Object phaseEvent = begun.remove(begun.size() - 1);
+		if (begun.isEmpty()) {
+			events.remove();
+		}
+		if (phaseEvent != null) {
+			PortletPhaseEvent.end(phaseEvent, failed);
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jlehtinen.portlet.util.FlightRecorder;
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet dumping the flight recording started by the plugin on demand. A GET reports
+ * whether a recording is running and a POST dumps its current contents into a new file
+ * next to the configured recording file, named after the current time. The response
+ * is JSON.
+ */
+public class FlightRecordingServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(FlightRecordingServlet.class);
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		File file = getFlightRecordingFile();
+		writeJson(response, file, null);
+	}
+
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		File file = getFlightRecordingFile();
+		if (file == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "No flight recording running");
+			return;
+		}
+		File dump = createDumpFile(file);
+		try {
+			FlightRecorder.dump(PrototypingConfiguration.FLIGHT_RECORDING_NAME, dump);
+		} catch (IOException e) {
+			logger.error("Failed to dump flight recording", e);
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+			return;
+		}
+		logger.info("Dumped flight recording to " + dump);
+		writeJson(response, file, dump);
+	}
+
+	/**
+	 * Returns the flight recording file from the current configuration.
+	 *
+	 * @return flight recording file or null if no recording is running
+	 */
+	protected File getFlightRecordingFile() {
+		PrototypingConfiguration configuration = (PrototypingConfiguration) getServletContext().getAttribute(PrototypingConfiguration.ATTRIBUTE_NAME);
+		return configuration != null ? configuration.getFlightRecordingFile() : null;
+	}
+
+	/**
+	 * Returns a new dump file next to the specified recording file.
+	 *
+	 * @param file flight recording file
+	 * @return dump file
+	 */
+	protected static File createDumpFile(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String base = dot != -1 ? name.substring(0, dot) : name;
+		String suffix = dot != -1 ? name.substring(dot) : ".jfr";
+		String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+		return new File(file.getAbsoluteFile().getParentFile(), base + "-" + timestamp + suffix);
+	}
+
+	/**
+	 * Writes the recording status as JSON.
+	 *
+	 * @param response servlet response
+	 * @param file flight recording file or null
+	 * @param dump dump file or null
+	 * @throws IOException on I/O error
+	 */
+	protected static void writeJson(HttpServletResponse response, File file, File dump) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = response.getWriter();
+		out.print("{\"recording\":");
+		out.print(file != null);
+		if (file != null) {
+			out.print(",\"name\":");
+			out.print(JsonUtil.quote(PrototypingConfiguration.FLIGHT_RECORDING_NAME));
+			out.print(",\"file\":");
+			out.print(JsonUtil.quote(file.getAbsolutePath()));
+		}
+		if (dump != null) {
+			out.print(",\"dump\":");
+			out.print(JsonUtil.quote(dump.getAbsolutePath()));
+		}
+		out.print('}');
+	}
+
+}
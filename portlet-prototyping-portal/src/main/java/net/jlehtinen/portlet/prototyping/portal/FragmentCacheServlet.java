@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jlehtinen.portlet.util.FragmentCache;
+
+/**
+ * Servlet reporting the statistics of the {@link FragmentCache} instances registered by the
+ * portlets as JSON. The caches are found through their management beans, as they live in
+ * the class loaders of the portlet applications.
+ */
+public class FragmentCacheServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Reported attributes of the caches */
+	protected static final String[] ATTRIBUTES = {
+		"Size", "MaxEntries", "TtlMillis", "Hits", "Misses", "Evictions", "Expirations", "Invalidations" };
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Map<String, ObjectName> names = new TreeMap<String, ObjectName>();
+		try {
+			Iterator<?> iter = server.queryNames(new ObjectName(FragmentCache.OBJECT_NAME_PREFIX + "*"), null).iterator();
+			while (iter.hasNext()) {
+				ObjectName name = (ObjectName) iter.next();
+				names.put(name.getCanonicalName(), name);
+			}
+		} catch (JMException e) {
+			throw new ServletException(e);
+		}
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = response.getWriter();
+		out.print("{\"caches\":[");
+		boolean first = true;
+		Iterator<ObjectName> iter = names.values().iterator();
+		while (iter.hasNext()) {
+			ObjectName name = iter.next();
+			StringBuilder sb = new StringBuilder();
+			try {
+				sb.append("{\"name\":");
+				sb.append(JsonUtil.quote(String.valueOf(server.getAttribute(name, "Name"))));
+				for (int i = 0; i < ATTRIBUTES.length; i++) {
+					sb.append(",\"");
+					sb.append(Character.toLowerCase(ATTRIBUTES[i].charAt(0))).append(ATTRIBUTES[i].substring(1));
+					sb.append("\":");
+					sb.append(server.getAttribute(name, ATTRIBUTES[i]));
+				}
+				sb.append('}');
+			} catch (JMException e) {
+				// Unregistered while reporting
+				continue;
+			}
+			if (!first) {
+				out.print(',');
+			}
+			out.print(sb);
+			first = false;
+		}
+		out.print("]}");
+	}
+
+}
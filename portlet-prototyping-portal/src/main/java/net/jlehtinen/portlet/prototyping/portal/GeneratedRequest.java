@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.net.URLConnection;
+
+import javax.portlet.PortletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Marks the requests the portal sends to itself when warming up, stress testing or
+ * simulating sessions, so that request capture, page metrics and session footprint
+ * analysis can leave them out.
+ */
+public class GeneratedRequest {
+
+	/** Name of the request header identifying a self-generated request */
+	public static final String HEADER = "X-Portlet-Prototyping";
+
+	/** Header value of warm-up requests */
+	public static final String WARM_UP = "warm-up";
+
+	/** Header value of stress test requests */
+	public static final String STRESS_TEST = "stress-test";
+
+	/** Header value of session simulation requests */
+	public static final String SESSION_SIMULATION = "session-simulation";
+
+	/**
+	 * Marks a request about to be sent as self-generated.
+	 *
+	 * @param connection connection not yet connected
+	 * @param source header value identifying the source of the request
+	 */
+	public static void mark(URLConnection connection, String source) {
+		connection.setRequestProperty(HEADER, source);
+	}
+
+	/**
+	 * Returns whether the specified request was generated by the portal itself.
+	 *
+	 * @param request servlet request
+	 * @return whether self-generated
+	 */
+	public static boolean isGenerated(HttpServletRequest request) {
+		return request.getHeader(HEADER) != null;
+	}
+
+	/**
+	 * Returns whether the specified request was generated by the portal itself.
+	 *
+	 * @param request portlet request
+	 * @return whether self-generated
+	 */
+	public static boolean isGenerated(PortletRequest request) {
+		return request.getProperty(HEADER) != null;
+	}
+
+	/**
+	 * Returns whether the specified request was generated by the portal itself for the
+	 * specified purpose.
+	 *
+	 * @param request portlet request
+	 * @param source header value identifying the source of the request
+	 * @return whether generated by the specified source
+	 */
+	public static boolean isGenerated(PortletRequest request, String source) {
+		return source.equals(request.getProperty(HEADER));
+	}
+
+}
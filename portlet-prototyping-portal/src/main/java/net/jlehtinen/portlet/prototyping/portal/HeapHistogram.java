@@ -0,0 +1,189 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Class histogram of the live objects on the heap. The histogram is taken using the
+ * <code>gcClassHistogram</code> diagnostic command of the HotSpot virtual machine, which
+ * runs a full garbage collection first. On other virtual machines only the heap usage after
+ * a garbage collection is available and the histogram has no classes.
+ */
+public class HeapHistogram {
+
+	/** Name of the diagnostic command management bean */
+	protected static final String DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+
+	/** Pattern matching a class line of the histogram */
+	protected static final Pattern LINE_PATTERN = Pattern.compile("^\\s*\\d+:\\s+(\\d+)\\s+(\\d+)\\s+(\\S+)", Pattern.MULTILINE);
+
+	/** Instances and bytes keyed by class name */
+	protected final Map<String, long[]> classes;
+
+	/** Total bytes of the live objects */
+	protected final long totalBytes;
+
+	/**
+	 * Constructs a new histogram.
+	 *
+	 * @param classes instances and bytes keyed by class name
+	 * @param totalBytes total bytes of the live objects
+	 */
+	protected HeapHistogram(Map<String, long[]> classes, long totalBytes) {
+		this.classes = classes;
+		this.totalBytes = totalBytes;
+	}
+
+	/**
+	 * Takes a histogram of the live objects on the heap.
+	 *
+	 * @return heap histogram
+	 */
+	public static HeapHistogram take() {
+		String output = null;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			output = (String) server.invoke(new ObjectName(DIAGNOSTIC_COMMAND), "gcClassHistogram",
+					new Object[] { new String[0] }, new String[] { String[].class.getName() });
+		} catch (Exception e) {
+			// Diagnostic command not supported
+		}
+		if (output == null) {
+			System.gc();
+			return new HeapHistogram(Collections.<String, long[]>emptyMap(), ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		}
+		return parse(output);
+	}
+
+	/**
+	 * Parses the output of the <code>gcClassHistogram</code> diagnostic command.
+	 *
+	 * @param output command output
+	 * @return heap histogram
+	 */
+	protected static HeapHistogram parse(String output) {
+		Map<String, long[]> classes = new HashMap<String, long[]>();
+		long totalBytes = 0;
+		Matcher matcher = LINE_PATTERN.matcher(output);
+		while (matcher.find()) {
+			long bytes = Long.parseLong(matcher.group(2));
+			classes.put(matcher.group(3), new long[] { Long.parseLong(matcher.group(1)), bytes });
+			totalBytes += bytes;
+		}
+		return new HeapHistogram(classes, totalBytes);
+	}
+
+	/**
+	 * Returns whether the histogram includes the classes of the live objects.
+	 *
+	 * @return whether classes are included
+	 */
+	public boolean hasClasses() {
+		return !classes.isEmpty();
+	}
+
+	/**
+	 * Returns the total bytes of the live objects.
+	 *
+	 * @return total bytes
+	 */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Returns the growth of each class since the specified earlier histogram, largest
+	 * growth first. Classes that did not grow are left out.
+	 *
+	 * @param before earlier histogram
+	 * @return growth of the classes
+	 */
+	public List<ClassGrowth> growthSince(HeapHistogram before) {
+		List<ClassGrowth> growth = new ArrayList<ClassGrowth>();
+		Iterator<Map.Entry<String, long[]>> iter = classes.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, long[]> entry = iter.next();
+			long[] earlier = before.classes.get(entry.getKey());
+			long instances = entry.getValue()[0] - (earlier != null ? earlier[0] : 0);
+			long bytes = entry.getValue()[1] - (earlier != null ? earlier[1] : 0);
+			if (bytes > 0) {
+				growth.add(new ClassGrowth(entry.getKey(), instances, bytes));
+			}
+		}
+		Collections.sort(growth, new Comparator<ClassGrowth>() {
+			public int compare(ClassGrowth g1, ClassGrowth g2) {
+				return g1.bytes < g2.bytes ? 1 : (g1.bytes > g2.bytes ? -1 : g1.className.compareTo(g2.className));
+			}
+		});
+		return growth;
+	}
+
+	/**
+	 * Growth of the live objects of a single class.
+	 */
+	public static class ClassGrowth {
+
+		/** Class name as reported by the histogram */
+		protected final String className;
+
+		/** Growth in instances */
+		protected final long instances;
+
+		/** Growth in bytes */
+		protected final long bytes;
+
+		/**
+		 * Constructs a new instance.
+		 *
+		 * @param className class name
+		 * @param instances growth in instances
+		 * @param bytes growth in bytes
+		 */
+		public ClassGrowth(String className, long instances, long bytes) {
+			this.className = className;
+			this.instances = instances;
+			this.bytes = bytes;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public long getInstances() {
+			return instances;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+	}
+
+}
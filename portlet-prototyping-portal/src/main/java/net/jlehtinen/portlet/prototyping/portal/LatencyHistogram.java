@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with fixed bucket boundaries, suitable for concurrent updates
+ * on the request path. Recording a duration increments one bucket and the total time
+ * without locking or allocating. Like {@link StripedCounter} the buckets are spread over
+ * per-thread stripes, each on cache lines of its own, so that concurrent requests rarely
+ * contend for the same bucket. The bucket counts are not cumulative; a reader may see
+ * a duration in a bucket before it has been added to the total count.
+ */
+public class LatencyHistogram {
+
+	/** Upper bounds of the buckets in milliseconds, the last bucket is unbounded */
+	public static final long[] BOUNDS_MILLIS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+	/** Upper bounds of the buckets in nanoseconds */
+	protected static final long[] BOUNDS_NANOS = new long[BOUNDS_MILLIS.length];
+
+	static {
+		for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+			BOUNDS_NANOS[i] = BOUNDS_MILLIS[i] * 1000000L;
+		}
+	}
+
+	/** Number of buckets, the last one counting durations above all bounds */
+	protected static final int BUCKETS = BOUNDS_MILLIS.length + 1;
+
+	/** Distance between the stripes in array slots, a whole number of cache lines */
+	protected static final int STRIPE_LENGTH = (BUCKETS + StripedCounter.PADDING - 1) / StripedCounter.PADDING * StripedCounter.PADDING;
+
+	/** Number of durations in each bucket, one row of buckets per stripe */
+	protected final AtomicLongArray buckets = new AtomicLongArray(StripedCounter.STRIPES * STRIPE_LENGTH);
+
+	/** Number of recorded durations */
+	protected final StripedCounter count = new StripedCounter();
+
+	/** Sum of the recorded durations in nanoseconds */
+	protected final StripedCounter sumNanos = new StripedCounter();
+
+	/**
+	 * Records the specified duration.
+	 *
+	 * @param nanos duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		int i = 0;
+		while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+			i++;
+		}
+		buckets.incrementAndGet(StripedCounter.getStripe() * STRIPE_LENGTH + i);
+		sumNanos.add(nanos);
+		count.increment();
+	}
+
+	/**
+	 * Returns the number of recorded durations.
+	 *
+	 * @return number of durations
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the sum of the recorded durations.
+	 *
+	 * @return sum in nanoseconds
+	 */
+	public long getSumNanos() {
+		return sumNanos.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded durations.
+	 *
+	 * @return mean in milliseconds or zero if nothing has been recorded
+	 */
+	public double getMeanMillis() {
+		long count = getCount();
+		return count > 0 ? getSumNanos() / 1000000.0 / count : 0;
+	}
+
+	/**
+	 * Returns the number of durations in each bucket. The bucket at index <em>i</em> counts
+	 * the durations above the previous bound and not above {@link #BOUNDS_MILLIS}[<em>i</em>];
+	 * the last bucket counts the durations above all bounds.
+	 *
+	 * @return bucket counts
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+			int offset = stripe * STRIPE_LENGTH;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] += buckets.get(offset + i);
+			}
+		}
+		return counts;
+	}
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet reporting the {@link PortalMetrics}, the authentication results of the portal
+ * realm and the JVM statistics in the Prometheus text exposition format. The realm lives
+ * in the class loader of the plugin, so its results are read through its management bean.
+ */
+public class MetricsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Content type of the Prometheus text exposition format */
+	protected static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	/** Name of the management bean of the portal realm */
+	protected static final String REALM_OBJECT_NAME = "net.jlehtinen.portlet.prototyping:type=Realm";
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setContentType(CONTENT_TYPE);
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = response.getWriter();
+		PortalMetrics metrics = (PortalMetrics) getServletContext().getAttribute(PortalMetrics.ATTRIBUTE_NAME);
+		if (metrics != null) {
+			writePortalMetrics(out, metrics);
+		}
+		writeRealmMetrics(out);
+		writeJvmMetrics(out);
+	}
+
+	/**
+	 * Writes the page, portlet, session and preferences metrics.
+	 *
+	 * @param out output
+	 * @param metrics portal metrics
+	 */
+	protected void writePortalMetrics(PrintWriter out, PortalMetrics metrics) {
+		writeHeader(out, "portal_page_render_seconds", "histogram", "Time taken by portal page requests.");
+		writeHistogram(out, "portal_page_render_seconds", "", metrics.getPageRenderHistogram());
+
+		Map<String, PortletMetrics> portlets = metrics.getPortletMetrics();
+		writeHeader(out, "portlet_request_seconds", "histogram", "Time taken by portlet requests by portlet and phase.");
+		Iterator<PortletMetrics> iter = portlets.values().iterator();
+		while (iter.hasNext()) {
+			PortletMetrics portlet = iter.next();
+			for (int i = 0; i < PortletMetrics.PHASES.length; i++) {
+				LatencyHistogram histogram = portlet.getHistogram(i);
+				if (histogram.getCount() > 0) {
+					writeHistogram(out, "portlet_request_seconds", getPortletLabels(portlet, i), histogram);
+				}
+			}
+		}
+		writeHeader(out, "portlet_request_errors_total", "counter", "Failed portlet requests by portlet and phase.");
+		iter = portlets.values().iterator();
+		while (iter.hasNext()) {
+			PortletMetrics portlet = iter.next();
+			for (int i = 0; i < PortletMetrics.PHASES.length; i++) {
+				if (portlet.getHistogram(i).getCount() > 0) {
+					writeSample(out, "portlet_request_errors_total", "{" + getPortletLabels(portlet, i) + "}", portlet.getErrors(i));
+				}
+			}
+		}
+
+		writeHeader(out, "portal_sessions_active", "gauge", "Portal sessions currently active.");
+		writeSample(out, "portal_sessions_active", "", metrics.getActiveSessions());
+		writeHeader(out, "portal_sessions_created_total", "counter", "Portal sessions created.");
+		writeSample(out, "portal_sessions_created_total", "", metrics.getSessionsCreated());
+
+		writeHeader(out, "portal_preferences_lookups_total", "counter", "Stored preferences lookups by result.");
+		writeSample(out, "portal_preferences_lookups_total", "{result=\"hit\"}", metrics.getPreferencesHits());
+		writeSample(out, "portal_preferences_lookups_total", "{result=\"miss\"}", metrics.getPreferencesMisses());
+		writeHeader(out, "portal_preferences_stores_total", "counter", "Stored preferences updates.");
+		writeSample(out, "portal_preferences_stores_total", "", metrics.getPreferencesStores());
+	}
+
+	/**
+	 * Writes the authentication results of the portal realm, if its management bean
+	 * has been registered. Each request carrying basic authentication credentials is
+	 * authenticated and counted once.
+	 *
+	 * @param out output
+	 */
+	protected void writeRealmMetrics(PrintWriter out) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Object successful;
+		Object failed;
+		try {
+			ObjectName name = new ObjectName(REALM_OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				return;
+			}
+			successful = server.getAttribute(name, "SuccessfulAuthentications");
+			failed = server.getAttribute(name, "FailedAuthentications");
+		} catch (JMException e) {
+			return;
+		}
+		writeHeader(out, "portal_authentications_total", "counter", "Requests with basic authentication credentials by authentication result.");
+		writeSample(out, "portal_authentications_total", "{result=\"success\"}", ((Number) successful).longValue());
+		writeSample(out, "portal_authentications_total", "{result=\"failure\"}", ((Number) failed).longValue());
+	}
+
+	/**
+	 * Writes the memory, thread, class loading and garbage collection statistics of the JVM.
+	 *
+	 * @param out output
+	 */
+	protected void writeJvmMetrics(PrintWriter out) {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		MemoryUsage heap = memory.getHeapMemoryUsage();
+		MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+		writeHeader(out, "jvm_memory_bytes_used", "gauge", "Used JVM memory by area.");
+		writeSample(out, "jvm_memory_bytes_used", "{area=\"heap\"}", heap.getUsed());
+		writeSample(out, "jvm_memory_bytes_used", "{area=\"nonheap\"}", nonHeap.getUsed());
+		writeHeader(out, "jvm_memory_bytes_committed", "gauge", "Committed JVM memory by area.");
+		writeSample(out, "jvm_memory_bytes_committed", "{area=\"heap\"}", heap.getCommitted());
+		writeSample(out, "jvm_memory_bytes_committed", "{area=\"nonheap\"}", nonHeap.getCommitted());
+		writeHeader(out, "jvm_memory_bytes_max", "gauge", "Maximum JVM memory by area, -1 if undefined.");
+		writeSample(out, "jvm_memory_bytes_max", "{area=\"heap\"}", heap.getMax());
+		writeSample(out, "jvm_memory_bytes_max", "{area=\"nonheap\"}", nonHeap.getMax());
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		writeHeader(out, "jvm_threads_current", "gauge", "Live JVM threads.");
+		writeSample(out, "jvm_threads_current", "", threads.getThreadCount());
+		writeHeader(out, "jvm_threads_daemon", "gauge", "Live JVM daemon threads.");
+		writeSample(out, "jvm_threads_daemon", "", threads.getDaemonThreadCount());
+		writeHeader(out, "jvm_threads_peak", "gauge", "Peak number of live JVM threads.");
+		writeSample(out, "jvm_threads_peak", "", threads.getPeakThreadCount());
+
+		writeHeader(out, "jvm_classes_loaded", "gauge", "Classes currently loaded in the JVM.");
+		writeSample(out, "jvm_classes_loaded", "", ManagementFactory.getClassLoadingMXBean().getLoadedClassCount());
+
+		writeHeader(out, "jvm_gc_collection_seconds", "summary", "Time spent in garbage collection by collector.");
+		Iterator<GarbageCollectorMXBean> iter = ManagementFactory.getGarbageCollectorMXBeans().iterator();
+		while (iter.hasNext()) {
+			GarbageCollectorMXBean gc = iter.next();
+			String labels = "{gc=\"" + escape(gc.getName()) + "\"}";
+			writeSample(out, "jvm_gc_collection_seconds_count", labels, gc.getCollectionCount());
+			out.print("jvm_gc_collection_seconds_sum");
+			out.print(labels);
+			out.print(' ');
+			out.println(gc.getCollectionTime() / 1000.0);
+		}
+
+		writeHeader(out, "jvm_uptime_seconds", "gauge", "Uptime of the JVM.");
+		out.print("jvm_uptime_seconds ");
+		out.println(ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+	}
+
+	/**
+	 * Returns the labels identifying the specified portlet and phase.
+	 *
+	 * @param portlet portlet metrics
+	 * @param phase phase index
+	 * @return labels without braces
+	 */
+	protected static String getPortletLabels(PortletMetrics portlet, int phase) {
+		return "portlet=\"" + escape(portlet.getPortletName()) + "\",phase=\"" + PortletMetrics.PHASES[phase] + "\"";
+	}
+
+	/**
+	 * Writes the help and type lines of a metric.
+	 *
+	 * @param out output
+	 * @param name metric name
+	 * @param type metric type
+	 * @param help help text
+	 */
+	protected static void writeHeader(PrintWriter out, String name, String type, String help) {
+		out.print("# HELP ");
+		out.print(name);
+		out.print(' ');
+		out.println(help);
+		out.print("# TYPE ");
+		out.print(name);
+		out.print(' ');
+		out.println(type);
+	}
+
+	/**
+	 * Writes a sample.
+	 *
+	 * @param out output
+	 * @param name metric name
+	 * @param labels labels including braces or an empty string
+	 * @param value sample value
+	 */
+	protected static void writeSample(PrintWriter out, String name, String labels, long value) {
+		out.print(name);
+		out.print(labels);
+		out.print(' ');
+		out.println(value);
+	}
+
+	/**
+	 * Writes the samples of a histogram. The total count is derived from the same
+	 * snapshot as the buckets so that the two are consistent.
+	 *
+	 * @param out output
+	 * @param name metric name
+	 * @param labels labels without braces or an empty string
+	 * @param histogram histogram
+	 */
+	protected static void writeHistogram(PrintWriter out, String name, String labels, LatencyHistogram histogram) {
+		String prefix = labels.length() > 0 ? labels + "," : "";
+		long[] counts = histogram.getBucketCounts();
+		long cumulative = 0;
+		for (int i = 0; i < counts.length; i++) {
+			cumulative += counts[i];
+			String le = i < LatencyHistogram.BOUNDS_MILLIS.length ? String.valueOf(LatencyHistogram.BOUNDS_MILLIS[i] / 1000.0) : "+Inf";
+			writeSample(out, name + "_bucket", "{" + prefix + "le=\"" + le + "\"}", cumulative);
+		}
+		String braced = labels.length() > 0 ? "{" + labels + "}" : "";
+		out.print(name);
+		out.print("_sum");
+		out.print(braced);
+		out.print(' ');
+		out.println(histogram.getSumNanos() / 1000000000.0);
+		writeSample(out, name + "_count", braced, cumulative);
+	}
+
+	/**
+	 * Escapes the specified label value.
+	 *
+	 * @param value label value
+	 * @return escaped value
+	 */
+	protected static String escape(String value) {
+		StringBuilder sb = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				sb.append('\\').append(c);
+			} else if (c == '\n') {
+				sb.append("\\n");
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Filter recording the time taken by each portal page request into the
+ * {@link PortalMetrics} published in the servlet context. Requests the portal sends to
+ * itself are not recorded.
+ */
+public class PageMetricsFilter implements Filter {
+
+	/** The portal servlet context */
+	protected ServletContext servletContext;
+
+	public void init(FilterConfig filterConfig) throws ServletException {
+		servletContext = filterConfig.getServletContext();
+	}
+
+	public void destroy() {
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		if (request instanceof HttpServletRequest && GeneratedRequest.isGenerated((HttpServletRequest) request)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			PortalMetrics metrics = (PortalMetrics) servletContext.getAttribute(PortalMetrics.ATTRIBUTE_NAME);
+			if (metrics != null) {
+				metrics.recordPageRender(System.nanoTime() - start);
+			}
+		}
+	}
+
+}
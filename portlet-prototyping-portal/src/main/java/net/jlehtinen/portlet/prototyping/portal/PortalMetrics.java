@@ -0,0 +1,319 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.lang.management.ManagementFactory;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.portlet.PortletRequest;
+import javax.servlet.ServletContext;
+
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.driver.PortletInvocationEvent;
+import org.apache.pluto.container.driver.PortletInvocationListener;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * Registry of the runtime metrics of the portal: page render times, processing times of
+ * each portlet per request phase, session counts and preferences cache activity. The
+ * portal metrics are available through JMX under {@value #OBJECT_NAME} and the metrics of
+ * each portlet under {@value #PORTLET_OBJECT_NAME_PREFIX}<em>portlet name</em>. Recording
+ * neither locks nor allocates once a portlet has been seen.
+ */
+public class PortalMetrics implements PortalMetricsMBean, PortletInvocationListener, ServletContextAware, DisposableBean {
+
+	/** Name of the servlet context attribute holding the metrics */
+	public static final String ATTRIBUTE_NAME = PortalMetrics.class.getName();
+
+	/** Name of the management bean */
+	public static final String OBJECT_NAME = "net.jlehtinen.portlet.prototyping:type=PortalMetrics";
+
+	/** Name prefix of the management beans of the portlets */
+	public static final String PORTLET_OBJECT_NAME_PREFIX = "net.jlehtinen.portlet.prototyping:type=PortletMetrics,name=";
+
+	/** Deepest nesting of portlet invocations timed on a thread */
+	protected static final int MAX_DEPTH = 8;
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PortalMetrics.class);
+
+	/** Start times of the invocations begun by the current thread, the depth in the first slot */
+	protected static final ThreadLocal<long[]> starts = new ThreadLocal<long[]>() {
+		protected long[] initialValue() {
+			return new long[MAX_DEPTH + 1];
+		}
+	};
+
+	/** Page render times */
+	protected final LatencyHistogram pageRenders = new LatencyHistogram();
+
+	/** Created sessions */
+	protected final StripedCounter sessionsCreated = new StripedCounter();
+
+	/** Destroyed sessions */
+	protected final StripedCounter sessionsDestroyed = new StripedCounter();
+
+	/** Stored preferences lookups finding preferences */
+	protected final StripedCounter preferencesHits = new StripedCounter();
+
+	/** Stored preferences lookups finding nothing */
+	protected final StripedCounter preferencesMisses = new StripedCounter();
+
+	/** Stored preferences */
+	protected final StripedCounter preferencesStores = new StripedCounter();
+
+	/** Portlet metrics keyed by portlet name */
+	protected final ConcurrentHashMap<String, PortletMetrics> portlets = new ConcurrentHashMap<String, PortletMetrics>();
+
+	/** Whether the management beans are registered */
+	protected volatile boolean registered;
+
+	/**
+	 * Publishes these metrics in the specified servlet context and registers the
+	 * management bean.
+	 *
+	 * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		servletContext.setAttribute(ATTRIBUTE_NAME, this);
+		registered = registerMBean(OBJECT_NAME, this);
+	}
+
+	/**
+	 * Unregisters the management beans.
+	 *
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	public void destroy() {
+		registered = false;
+		unregisterMBean(OBJECT_NAME);
+		Iterator<String> iter = portlets.keySet().iterator();
+		while (iter.hasNext()) {
+			unregisterMBean(getPortletObjectName(iter.next()));
+		}
+	}
+
+	public void onBegin(PortletInvocationEvent event) {
+		long[] stack = starts.get();
+		int depth = (int) stack[0] + 1;
+		stack[0] = depth;
+		if (depth <= MAX_DEPTH) {
+			stack[depth] = System.nanoTime();
+		}
+	}
+
+	public void onEnd(PortletInvocationEvent event) {
+		end(event, false);
+	}
+
+	public void onError(PortletInvocationEvent event, Throwable t) {
+		end(event, true);
+	}
+
+	/**
+	 * Records the invocation begun for the specified event.
+	 *
+	 * @param event portlet invocation event
+	 * @param failed whether the invocation failed
+	 */
+	protected void end(PortletInvocationEvent event, boolean failed) {
+		long end = System.nanoTime();
+		long[] stack = starts.get();
+		int depth = (int) stack[0];
+		if (depth <= 0) {
+			return;
+		}
+		stack[0] = depth - 1;
+		if (depth > MAX_DEPTH) {
+			return;
+		}
+		PortletRequest request = event.getPortletRequest();
+		int phase = PortletMetrics.getPhaseIndex(request.getAttribute(PortletRequest.LIFECYCLE_PHASE));
+		PortletWindow window = event.getPortletWindow();
+		PortletDefinition definition = window.getPortletDefinition();
+		if (phase != -1 && definition != null) {
+			getPortletMetrics(definition.getPortletName()).record(phase, end - stack[depth], failed);
+		}
+	}
+
+	/**
+	 * Records a rendered portal page.
+	 *
+	 * @param nanos render time in nanoseconds
+	 */
+	public void recordPageRender(long nanos) {
+		pageRenders.record(nanos);
+	}
+
+	/**
+	 * Records a created session.
+	 */
+	public void sessionCreated() {
+		sessionsCreated.increment();
+	}
+
+	/**
+	 * Records a destroyed session.
+	 */
+	public void sessionDestroyed() {
+		sessionsDestroyed.increment();
+	}
+
+	/**
+	 * Records a stored preferences lookup.
+	 *
+	 * @param hit whether preferences were found
+	 */
+	public void recordPreferencesLookup(boolean hit) {
+		(hit ? preferencesHits : preferencesMisses).increment();
+	}
+
+	/**
+	 * Records stored preferences.
+	 */
+	public void recordPreferencesStore() {
+		preferencesStores.increment();
+	}
+
+	/**
+	 * Returns the page render time histogram.
+	 *
+	 * @return page render times
+	 */
+	public LatencyHistogram getPageRenderHistogram() {
+		return pageRenders;
+	}
+
+	/**
+	 * Returns the metrics of the portlets seen so far.
+	 *
+	 * @return portlet metrics keyed by portlet name, sorted by name
+	 */
+	public Map<String, PortletMetrics> getPortletMetrics() {
+		return Collections.unmodifiableMap(new TreeMap<String, PortletMetrics>(portlets));
+	}
+
+	/**
+	 * Returns the metrics of the specified portlet, creating and registering them if
+	 * necessary.
+	 *
+	 * @param portletName portlet name
+	 * @return portlet metrics
+	 */
+	protected PortletMetrics getPortletMetrics(String portletName) {
+		PortletMetrics metrics = portlets.get(portletName);
+		if (metrics == null) {
+			metrics = new PortletMetrics(portletName);
+			PortletMetrics existing = portlets.putIfAbsent(portletName, metrics);
+			if (existing != null) {
+				metrics = existing;
+			} else if (registered) {
+				registerMBean(getPortletObjectName(portletName), metrics);
+			}
+		}
+		return metrics;
+	}
+
+	public long getPageRenders() {
+		return pageRenders.getCount();
+	}
+
+	public double getPageRenderMeanMillis() {
+		return pageRenders.getMeanMillis();
+	}
+
+	public long getActiveSessions() {
+		return Math.max(0, sessionsCreated.get() - sessionsDestroyed.get());
+	}
+
+	public long getSessionsCreated() {
+		return sessionsCreated.get();
+	}
+
+	public long getPreferencesHits() {
+		return preferencesHits.get();
+	}
+
+	public long getPreferencesMisses() {
+		return preferencesMisses.get();
+	}
+
+	public long getPreferencesStores() {
+		return preferencesStores.get();
+	}
+
+	/**
+	 * Returns the name of the management bean of the specified portlet.
+	 *
+	 * @param portletName portlet name
+	 * @return object name
+	 */
+	protected static String getPortletObjectName(String portletName) {
+		return PORTLET_OBJECT_NAME_PREFIX + ObjectName.quote(portletName);
+	}
+
+	/**
+	 * Registers the specified management bean, replacing any previous registration.
+	 *
+	 * @param name object name
+	 * @param mbean management bean
+	 * @return whether the bean was registered
+	 */
+	protected static boolean registerMBean(String name, Object mbean) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(mbean, objectName);
+			return true;
+		} catch (Exception e) {
+			logger.warn(MessageFormat.format("Failed to register management bean {0}", new Object[] { name }), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Unregisters the specified management bean.
+	 *
+	 * @param name object name
+	 */
+	protected static void unregisterMBean(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (Exception e) {
+			logger.warn(MessageFormat.format("Failed to unregister management bean {0}", new Object[] { name }), e);
+		}
+	}
+
+}
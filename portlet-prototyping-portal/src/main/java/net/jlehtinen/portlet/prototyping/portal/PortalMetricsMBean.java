@@ -0,0 +1,73 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+/**
+ * Management interface of {@link PortalMetrics}.
+ */
+public interface PortalMetricsMBean {
+
+	/**
+	 * Returns the number of portal pages rendered.
+	 *
+	 * @return number of page renders
+	 */
+	long getPageRenders();
+
+	/**
+	 * Returns the mean time of rendering a portal page.
+	 *
+	 * @return mean time in milliseconds
+	 */
+	double getPageRenderMeanMillis();
+
+	/**
+	 * Returns the number of sessions currently active.
+	 *
+	 * @return number of active sessions
+	 */
+	long getActiveSessions();
+
+	/**
+	 * Returns the number of sessions created.
+	 *
+	 * @return number of created sessions
+	 */
+	long getSessionsCreated();
+
+	/**
+	 * Returns the number of stored preferences lookups answered from the cache.
+	 *
+	 * @return number of cache hits
+	 */
+	long getPreferencesHits();
+
+	/**
+	 * Returns the number of stored preferences lookups finding no preferences.
+	 *
+	 * @return number of cache misses
+	 */
+	long getPreferencesMisses();
+
+	/**
+	 * Returns the number of times preferences have been stored.
+	 *
+	 * @return number of stores
+	 */
+	long getPreferencesStores();
+
+}
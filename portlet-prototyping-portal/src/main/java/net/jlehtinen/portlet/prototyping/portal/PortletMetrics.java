@@ -0,0 +1,158 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import javax.portlet.PortletRequest;
+
+/**
+ * Processing time histograms and error counts of a single portlet for each portlet
+ * request phase, maintained by {@link PortalMetrics}.
+ */
+public class PortletMetrics implements PortletMetricsMBean {
+
+	/** The portlet request phases in index order */
+	public static final String[] PHASES = {
+		PortletRequest.ACTION_PHASE, PortletRequest.EVENT_PHASE, PortletRequest.RENDER_PHASE, PortletRequest.RESOURCE_PHASE };
+
+	/** Index of the action phase */
+	public static final int ACTION = 0;
+
+	/** Index of the event phase */
+	public static final int EVENT = 1;
+
+	/** Index of the render phase */
+	public static final int RENDER = 2;
+
+	/** Index of the resource phase */
+	public static final int RESOURCE = 3;
+
+	/** Name of the portlet */
+	protected final String portletName;
+
+	/** Processing time histograms indexed by phase */
+	protected final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+
+	/** Failed requests indexed by phase */
+	protected final StripedCounter[] errors = new StripedCounter[PHASES.length];
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param portletName name of the portlet
+	 */
+	public PortletMetrics(String portletName) {
+		this.portletName = portletName;
+		for (int i = 0; i < PHASES.length; i++) {
+			histograms[i] = new LatencyHistogram();
+			errors[i] = new StripedCounter();
+		}
+	}
+
+	/**
+	 * Returns the index of the specified portlet request phase.
+	 *
+	 * @param phase value of the {@link PortletRequest#LIFECYCLE_PHASE} request attribute
+	 * @return phase index or -1 if not known
+	 */
+	public static int getPhaseIndex(Object phase) {
+		for (int i = 0; i < PHASES.length; i++) {
+			if (PHASES[i].equals(phase)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Records a request processed in the specified phase.
+	 *
+	 * @param phase phase index
+	 * @param nanos processing time in nanoseconds
+	 * @param failed whether the request failed
+	 */
+	public void record(int phase, long nanos, boolean failed) {
+		histograms[phase].record(nanos);
+		if (failed) {
+			errors[phase].increment();
+		}
+	}
+
+	/**
+	 * Returns the processing time histogram of the specified phase.
+	 *
+	 * @param phase phase index
+	 * @return processing time histogram
+	 */
+	public LatencyHistogram getHistogram(int phase) {
+		return histograms[phase];
+	}
+
+	/**
+	 * Returns the number of failed requests in the specified phase.
+	 *
+	 * @param phase phase index
+	 * @return number of failed requests
+	 */
+	public long getErrors(int phase) {
+		return errors[phase].get();
+	}
+
+	public String getPortletName() {
+		return portletName;
+	}
+
+	public long getActionCount() {
+		return histograms[ACTION].getCount();
+	}
+
+	public double getActionMeanMillis() {
+		return histograms[ACTION].getMeanMillis();
+	}
+
+	public long getEventCount() {
+		return histograms[EVENT].getCount();
+	}
+
+	public double getEventMeanMillis() {
+		return histograms[EVENT].getMeanMillis();
+	}
+
+	public long getRenderCount() {
+		return histograms[RENDER].getCount();
+	}
+
+	public double getRenderMeanMillis() {
+		return histograms[RENDER].getMeanMillis();
+	}
+
+	public long getResourceCount() {
+		return histograms[RESOURCE].getCount();
+	}
+
+	public double getResourceMeanMillis() {
+		return histograms[RESOURCE].getMeanMillis();
+	}
+
+	public long getErrors() {
+		long sum = 0;
+		for (int i = 0; i < errors.length; i++) {
+			sum += errors[i].get();
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+/**
+ * Management interface of {@link PortletMetrics}.
+ */
+public interface PortletMetricsMBean {
+
+	/**
+	 * Returns the name of the portlet.
+	 *
+	 * @return portlet name
+	 */
+	String getPortletName();
+
+	/**
+	 * Returns the number of action requests processed.
+	 *
+	 * @return number of action requests
+	 */
+	long getActionCount();
+
+	/**
+	 * Returns the mean time of processing an action request.
+	 *
+	 * @return mean time in milliseconds
+	 */
+	double getActionMeanMillis();
+
+	/**
+	 * Returns the number of events processed.
+	 *
+	 * @return number of events
+	 */
+	long getEventCount();
+
+	/**
+	 * Returns the mean time of processing an event.
+	 *
+	 * @return mean time in milliseconds
+	 */
+	double getEventMeanMillis();
+
+	/**
+	 * Returns the number of render requests processed.
+	 *
+	 * @return number of render requests
+	 */
+	long getRenderCount();
+
+	/**
+	 * Returns the mean time of processing a render request.
+	 *
+	 * @return mean time in milliseconds
+	 */
+	double getRenderMeanMillis();
+
+	/**
+	 * Returns the number of resource requests processed.
+	 *
+	 * @return number of resource requests
+	 */
+	long getResourceCount();
+
+	/**
+	 * Returns the mean time of processing a resource request.
+	 *
+	 * @return mean time in milliseconds
+	 */
+	double getResourceMeanMillis();
+
+	/**
+	 * Returns the number of requests in any phase that failed.
+	 *
+	 * @return number of failed requests
+	 */
+	long getErrors();
+
+}
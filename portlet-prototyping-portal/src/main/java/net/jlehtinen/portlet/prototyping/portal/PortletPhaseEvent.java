@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Flight recorder event type covering a single portlet invocation. The event type is
+ * defined at runtime through the <code>jdk.jfr.EventFactory</code> API using reflection,
+ * so this class loads on any Java runtime. If the flight recorder is not available, no
+ * events are created. Events are only allocated while a recording has the event type
+ * enabled.
+ */
+public class PortletPhaseEvent {
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PortletPhaseEvent.class);
+
+	/** Name of the event type */
+	protected static final String NAME = "net.jlehtinen.portlet.PortletPhase";
+
+	/** Names of the event fields */
+	protected static final String[] FIELD_NAMES = { "portletName", "windowId", "phase", "portletMode", "failed" };
+
+	/** Labels of the event fields */
+	protected static final String[] FIELD_LABELS = { "Portlet Name", "Window ID", "Phase", "Portlet Mode", "Failed" };
+
+	/** Index of the field telling whether the invocation failed */
+	protected static final int FAILED = 4;
+
+	/** The event type or null if the flight recorder is not available */
+	protected static final PortletPhaseEvent eventType = createEventType();
+
+	/** The event factory */
+	protected final Object factory;
+
+	/** The event type of the factory */
+	protected final Object type;
+
+	/** Method checking whether the event type is enabled */
+	protected final Method isEnabled;
+
+	/** Method creating a new event */
+	protected final Method newEvent;
+
+	/** Method setting an event field */
+	protected final Method set;
+
+	/** Method beginning the timing of an event */
+	protected final Method begin;
+
+	/** Method ending the timing of an event */
+	protected final Method end;
+
+	/** Method checking whether an event should be committed */
+	protected final Method shouldCommit;
+
+	/** Method committing an event */
+	protected final Method commit;
+
+	/**
+	 * Defines the event type.
+	 *
+	 * @throws Exception if the flight recorder API is not available
+	 */
+	protected PortletPhaseEvent() throws Exception {
+		Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+		Class<?> eventClass = Class.forName("jdk.jfr.Event");
+		Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+		Class<?> labelClass = Class.forName("jdk.jfr.Label");
+		Constructor<?> annotation = annotationClass.getConstructor(new Class<?>[] { Class.class, Object.class });
+		Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(new Class<?>[] { Class.class, String.class, List.class });
+
+		List<Object> annotations = new ArrayList<Object>();
+		annotations.add(annotation.newInstance(new Object[] { Class.forName("jdk.jfr.Name"), NAME }));
+		annotations.add(annotation.newInstance(new Object[] { labelClass, "Portlet Phase" }));
+		annotations.add(annotation.newInstance(new Object[] { Class.forName("jdk.jfr.Category"), new String[] { "Portlet Prototyping" } }));
+		annotations.add(annotation.newInstance(new Object[] { Class.forName("jdk.jfr.Description"), "Invocation of a portlet lifecycle phase" }));
+		List<Object> fields = new ArrayList<Object>();
+		for (int i = 0; i < FIELD_NAMES.length; i++) {
+			fields.add(field.newInstance(new Object[] { i == FAILED ? boolean.class : String.class, FIELD_NAMES[i],
+					Collections.singletonList(annotation.newInstance(new Object[] { labelClass, FIELD_LABELS[i] })) }));
+		}
+
+		factory = factoryClass.getMethod("create", new Class<?>[] { List.class, List.class }).invoke(null, new Object[] { annotations, fields });
+		type = factoryClass.getMethod("getEventType", new Class<?>[0]).invoke(factory, new Object[0]);
+		isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled", new Class<?>[0]);
+		newEvent = factoryClass.getMethod("newEvent", new Class<?>[0]);
+		set = eventClass.getMethod("set", new Class<?>[] { int.class, Object.class });
+		begin = eventClass.getMethod("begin", new Class<?>[0]);
+		end = eventClass.getMethod("end", new Class<?>[0]);
+		shouldCommit = eventClass.getMethod("shouldCommit", new Class<?>[0]);
+		commit = eventClass.getMethod("commit", new Class<?>[0]);
+	}
+
+	/**
+	 * Defines the event type if the flight recorder is available.
+	 *
+	 * @return event type or null if the flight recorder is not available
+	 */
+	protected static PortletPhaseEvent createEventType() {
+		try {
+			return new PortletPhaseEvent();
+		} catch (Throwable t) {
+			logger.debug("Flight recorder not available, portlet phase events disabled");
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether the flight recorder is available.
+	 *
+	 * @return whether portlet phase events can be created
+	 */
+	public static boolean isAvailable() {
+		return eventType != null;
+	}
+
+	/**
+	 * Creates and begins a new event if a recording has the event type enabled.
+	 *
+	 * @param portletName portlet name
+	 * @param windowId portlet window identifier
+	 * @param phase portlet lifecycle phase
+	 * @param portletMode portlet mode
+	 * @return begun event or null if the event type is not enabled
+	 */
+	public static Object begin(String portletName, String windowId, String phase, String portletMode) {
+		if (eventType == null) {
+			return null;
+		}
+		try {
+			if (!((Boolean) eventType.isEnabled.invoke(eventType.type, new Object[0])).booleanValue()) {
+				return null;
+			}
+			Object event = eventType.newEvent.invoke(eventType.factory, new Object[0]);
+			String[] values = { portletName, windowId, phase, portletMode };
+			for (int i = 0; i < values.length; i++) {
+				eventType.set.invoke(event, new Object[] { new Integer(i), values[i] });
+			}
+			eventType.begin.invoke(event, new Object[0]);
+			return event;
+		} catch (Exception e) {
+			logger.debug("Failed to begin portlet phase event", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Ends and commits an event returned by {@link #begin(String, String, String, String)}.
+	 *
+	 * @param event begun event
+	 * @param failed whether the invocation failed
+	 */
+	public static void end(Object event, boolean failed) {
+		try {
+			eventType.end.invoke(event, new Object[0]);
+			if (((Boolean) eventType.shouldCommit.invoke(event, new Object[0])).booleanValue()) {
+				eventType.set.invoke(event, new Object[] { new Integer(FAILED), Boolean.valueOf(failed) });
+				eventType.commit.invoke(event, new Object[0]);
+			}
+		} catch (Exception e) {
+			logger.debug("Failed to commit portlet phase event", e);
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextAttributeEvent;
+import javax.servlet.ServletContextAttributeListener;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
+
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.services.portal.RenderConfigService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes sure a {@link PrototypingConfiguration} is available in the servlet context
+ * before the portal driver starts and applies any replacement configuration published
+ * later on, e.g. when the Maven plugin reloads the portlet application. If the portal
+ * is deployed without the plugin, the configuration is read once from the system properties.
+ */
+public class PortletPrototypingConfigurationListener implements ServletContextListener, ServletContextAttributeListener {
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PortletPrototypingConfigurationListener.class);
+
+	public void contextInitialized(ServletContextEvent event) {
+		ServletContext servletContext = event.getServletContext();
+		if (servletContext.getAttribute(PrototypingConfiguration.ATTRIBUTE_NAME) == null) {
+			PrototypingConfiguration configuration = PrototypingConfiguration.fromSystemProperties();
+			if (configuration != null) {
+				logger.info("Using portlet prototyping configuration from system properties");
+				servletContext.setAttribute(PrototypingConfiguration.ATTRIBUTE_NAME, configuration);
+			}
+		}
+	}
+
+	public void contextDestroyed(ServletContextEvent event) {
+	}
+
+	public void attributeAdded(ServletContextAttributeEvent event) {
+		if (PrototypingConfiguration.ATTRIBUTE_NAME.equals(event.getName())) {
+			applyConfiguration(event.getServletContext());
+		}
+	}
+
+	public void attributeReplaced(ServletContextAttributeEvent event) {
+		if (PrototypingConfiguration.ATTRIBUTE_NAME.equals(event.getName())) {
+			applyConfiguration(event.getServletContext());
+		}
+	}
+
+	public void attributeRemoved(ServletContextAttributeEvent event) {
+	}
+
+	/**
+	 * Applies the configuration currently published in the specified servlet context
+	 * to the running portal driver. Does nothing if the driver has not been started yet.
+	 *
+	 * @param servletContext portal servlet context
+	 */
+	protected void applyConfiguration(ServletContext servletContext) {
+		PrototypingConfiguration configuration = (PrototypingConfiguration) servletContext.getAttribute(PrototypingConfiguration.ATTRIBUTE_NAME);
+		DriverConfiguration driverConfig = (DriverConfiguration) servletContext.getAttribute(AttributeKeys.DRIVER_CONFIG);
+		if (configuration == null || driverConfig == null) {
+			return;
+		}
+		RenderConfigService renderConfigService = driverConfig.getRenderConfigService();
+		if (renderConfigService instanceof PortletPrototypingRenderConfigServiceImpl) {
+			((PortletPrototypingRenderConfigServiceImpl) renderConfigService).configure(configuration);
+		}
+	}
+
+}
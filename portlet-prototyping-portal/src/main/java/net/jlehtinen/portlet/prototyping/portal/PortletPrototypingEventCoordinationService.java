@@ -0,0 +1,324 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.Serializable;
+import java.io.StringReader;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.portlet.Event;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.pluto.container.EventCoordinationService;
+import org.apache.pluto.container.PortletContainer;
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.driver.PortletContextService;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.driver.core.PortalRequestContext;
+import org.apache.pluto.driver.core.PortletWindowImpl;
+import org.apache.pluto.driver.services.container.EventImpl;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.services.portal.PortletWindowConfig;
+import org.apache.pluto.driver.services.portal.RenderConfigService;
+import org.apache.pluto.driver.url.PortalURL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * {@link EventCoordinationService} that looks up the subscribers of each event from a
+ * precomputed {@link EventSubscriberIndex}. The index is rebuilt only when portlet
+ * applications are registered or removed or when pages are added to or removed from the
+ * portal. Events are delivered on the request thread in the order they were published,
+ * because the subscribers share the servlet request and response. XML event payloads are
+ * unmarshalled into the value type declared by the receiving portlet application, as in the
+ * stock Pluto implementation. Fan-out and processing time are collected per event name.
+ */
+public class PortletPrototypingEventCoordinationService implements EventCoordinationService, PortletRegistryListener, ServletContextAware, DisposableBean {
+
+	/** Name of the servlet context attribute holding the service */
+	public static final String ATTRIBUTE_NAME = PortletPrototypingEventCoordinationService.class.getName();
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PortletPrototypingEventCoordinationService.class);
+
+	/** Factory creating readers for XML event payloads */
+	protected static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+	/** Portlet registry providing the portlet definitions */
+	protected final PortletRegistryService registry;
+
+	/** Render configuration providing the portal pages */
+	protected final RenderConfigService renderConfigService;
+
+	/** Portlet context service providing the portlet application class loaders */
+	protected final PortletContextService portletContextService;
+
+	/** Current subscriber index or null if it must be rebuilt */
+	protected volatile EventSubscriberIndex index;
+
+	/** Statistics keyed by event name */
+	protected final ConcurrentHashMap<QName, EventStatistics> statistics = new ConcurrentHashMap<QName, EventStatistics>();
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param registry portlet registry
+	 * @param renderConfigService render configuration service
+	 * @param portletContextService portlet context service
+	 */
+	public PortletPrototypingEventCoordinationService(PortletRegistryService registry, RenderConfigService renderConfigService, PortletContextService portletContextService) {
+		this.registry = registry;
+		this.renderConfigService = renderConfigService;
+		this.portletContextService = portletContextService;
+		registry.addPortletRegistryListener(this);
+	}
+
+	/**
+	 * Publishes this service in the specified servlet context.
+	 *
+	 * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		servletContext.setAttribute(ATTRIBUTE_NAME, this);
+	}
+
+	/**
+	 * Stops listening to the portlet registry.
+	 *
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	public void destroy() {
+		registry.removePortletRegistryListener(this);
+	}
+
+	public void portletApplicationRegistered(PortletRegistryEvent event) {
+		index = null;
+	}
+
+	public void portletApplicationRemoved(PortletRegistryEvent event) {
+		index = null;
+	}
+
+	/**
+	 * Returns the event statistics.
+	 *
+	 * @return statistics keyed by event name, sorted by name
+	 */
+	public Map<String, EventStatistics> getStatistics() {
+		Map<String, EventStatistics> sorted = new TreeMap<String, EventStatistics>();
+		Iterator<EventStatistics> iter = statistics.values().iterator();
+		while (iter.hasNext()) {
+			EventStatistics stats = iter.next();
+			sorted.put(stats.getName().toString(), stats);
+		}
+		return Collections.unmodifiableMap(sorted);
+	}
+
+	public void processEvents(PortletContainer container, PortletWindow portletWindow, HttpServletRequest request, HttpServletResponse response, List<Event> events) {
+		PortalURL portalURL = PortalRequestContext.getContext(request).getRequestedPortalURL();
+		EventSubscriberIndex index = getIndex();
+		Iterator<Event> iter = events.iterator();
+		while (iter.hasNext()) {
+			Event event = iter.next();
+			long start = System.nanoTime();
+			List<String> subscribers = index.getSubscribers(event.getQName());
+			int failed = 0;
+			Iterator<String> subscriberIter = subscribers.iterator();
+			while (subscriberIter.hasNext()) {
+				if (!deliver(container, portalURL, request, response, event, subscriberIter.next())) {
+					failed++;
+				}
+			}
+			long nanos = System.nanoTime() - start;
+			getStatistics(event.getQName()).record(subscribers.size(), failed, nanos);
+			if (logger.isDebugEnabled()) {
+				logger.debug(MessageFormat.format("Event {0} delivered to {1} portlet windows in {2} ms", new Object[] {
+						event.getQName(), new Integer(subscribers.size()), new Double(nanos / 1000000.0) }));
+			}
+		}
+	}
+
+	/**
+	 * Delivers the specified event to a single subscriber.
+	 *
+	 * @param container portlet container
+	 * @param portalURL requested portal URL
+	 * @param request servlet request
+	 * @param response servlet response
+	 * @param event event to be delivered
+	 * @param windowId identifier of the subscribing portlet window
+	 * @return whether the delivery succeeded
+	 */
+	protected boolean deliver(PortletContainer container, PortalURL portalURL, HttpServletRequest request, HttpServletResponse response, Event event, String windowId) {
+		try {
+			PortletWindow window = new PortletWindowImpl(container, PortletWindowConfig.fromId(windowId), portalURL);
+			container.doEvent(window, request, response, unmarshal(window, event));
+			return true;
+		} catch (Exception e) {
+			logger.error(MessageFormat.format("Failed to deliver event {0} to {1}", new Object[] { event.getQName(), windowId }), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Unmarshals an XML event payload into the value type declared for the event by the
+	 * portlet application of the specified window. Events with other payloads and events not
+	 * declared by the application are returned as such.
+	 *
+	 * @param window receiving portlet window
+	 * @param event event to be delivered
+	 * @return event to be delivered to the window
+	 * @throws Exception on failure to unmarshal the payload
+	 */
+	protected Event unmarshal(PortletWindow window, Event event) throws Exception {
+		if (!(event.getValue() instanceof String)) {
+			return event;
+		}
+		PortletApplicationDefinition application = window.getPortletDefinition().getApplication();
+		EventDefinition definition = getEventDefinition(application, event.getQName());
+		if (definition == null || definition.getValueType() == null) {
+			return event;
+		}
+		ClassLoader loader = portletContextService.getClassLoader(application.getName());
+		Thread thread = Thread.currentThread();
+		ClassLoader contextLoader = thread.getContextClassLoader();
+		thread.setContextClassLoader(loader);
+		try {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new StringReader((String) event.getValue()));
+			Class<? extends Serializable> type = loader.loadClass(definition.getValueType()).asSubclass(Serializable.class);
+			Unmarshaller unmarshaller = JAXBContext.newInstance(type).createUnmarshaller();
+			JAXBElement<? extends Serializable> element = unmarshaller.unmarshal(reader, type);
+			return new EventImpl(event.getQName(), element.getValue());
+		} finally {
+			thread.setContextClassLoader(contextLoader);
+		}
+	}
+
+	/**
+	 * Returns the definition of the specified event in the specified portlet application.
+	 *
+	 * @param application portlet application definition
+	 * @param name event name
+	 * @return event definition or null if the application does not define the event
+	 */
+	protected static EventDefinition getEventDefinition(PortletApplicationDefinition application, QName name) {
+		Iterator<? extends EventDefinition> iter = application.getEventDefinitions().iterator();
+		while (iter.hasNext()) {
+			EventDefinition definition = iter.next();
+			QName qname = definition.getQName();
+			if (qname == null) {
+				qname = new QName(application.getDefaultNamespace(), definition.getName());
+			}
+			if (qname.equals(name)) {
+				return definition;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the subscriber index, rebuilding it if pages have been added to or removed from
+	 * the portal or portlet applications have been registered or removed. If the render
+	 * configuration service does not track page changes, the portlet windows on the pages are
+	 * compared instead.
+	 *
+	 * @return current subscriber index
+	 */
+	protected EventSubscriberIndex getIndex() {
+		EventSubscriberIndex index = this.index;
+		long pagesVersion = getPagesVersion();
+		if (index == null || index.getPagesVersion() != pagesVersion || (pagesVersion < 0 && !index.getWindowIds().equals(getWindowIds()))) {
+			long start = System.nanoTime();
+			List<String> windowIds = getWindowIds();
+			index = new EventSubscriberIndex(windowIds, pagesVersion, registry);
+			this.index = index;
+			logger.info(MessageFormat.format("Built event subscriber index for {0} portlet windows in {1} ms", new Object[] {
+					new Integer(windowIds.size()), new Double((System.nanoTime() - start) / 1000000.0) }));
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the version of the portal pages.
+	 *
+	 * @return version of the portal pages or -1 if the render configuration service does not
+	 * track page changes
+	 */
+	protected long getPagesVersion() {
+		if (renderConfigService instanceof PortletPrototypingRenderConfigServiceImpl) {
+			return ((PortletPrototypingRenderConfigServiceImpl) renderConfigService).getPagesVersion();
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the identifiers of the portlet windows on the portal pages.
+	 *
+	 * @return portlet window identifiers
+	 */
+	protected List<String> getWindowIds() {
+		Set<String> windowIds = new LinkedHashSet<String>();
+		Iterator<?> iter = renderConfigService.getPages().iterator();
+		while (iter.hasNext()) {
+			PageConfig page = (PageConfig) iter.next();
+			windowIds.addAll(page.getPortletIds());
+		}
+		return new ArrayList<String>(windowIds);
+	}
+
+	/**
+	 * Returns the statistics of the specified event name, creating them if necessary.
+	 *
+	 * @param name event name
+	 * @return event statistics
+	 */
+	protected EventStatistics getStatistics(QName name) {
+		EventStatistics stats = statistics.get(name);
+		if (stats == null) {
+			stats = new EventStatistics(name);
+			EventStatistics existing = statistics.putIfAbsent(name, stats);
+			if (existing != null) {
+				stats = existing;
+			}
+		}
+		return stats;
+	}
+
+}
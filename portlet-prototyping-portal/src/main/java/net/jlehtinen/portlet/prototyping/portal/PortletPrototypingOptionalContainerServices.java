@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import org.apache.pluto.container.CCPPProfileService;
+import org.apache.pluto.container.NamespaceMapper;
+import org.apache.pluto.container.PortletEnvironmentService;
+import org.apache.pluto.container.PortletInvokerService;
+import org.apache.pluto.container.PortletPreferencesService;
+import org.apache.pluto.container.RequestDispatcherService;
+import org.apache.pluto.container.UserInfoService;
+import org.apache.pluto.container.driver.OptionalContainerServices;
+
+/**
+ * {@link OptionalContainerServices} used to plug the portlet prototyping services into
+ * the portal driver. Services that have not been set are left null so that the portal
+ * driver uses the default Pluto implementations for them.
+ */
+public class PortletPrototypingOptionalContainerServices implements OptionalContainerServices {
+
+	/** Portlet preferences service or null for default */
+	protected PortletPreferencesService portletPreferencesService;
+
+	/** Portlet invoker service or null for default */
+	protected PortletInvokerService portletInvokerService;
+
+	/**
+	 * Sets the portlet preferences service.
+	 *
+	 * @param portletPreferencesService portlet preferences service or null for default
+	 */
+	public void setPortletPreferencesService(PortletPreferencesService portletPreferencesService) {
+		this.portletPreferencesService = portletPreferencesService;
+	}
+
+	public PortletPreferencesService getPortletPreferencesService() {
+		return portletPreferencesService;
+	}
+
+	/**
+	 * Sets the portlet invoker service.
+	 *
+	 * @param portletInvokerService portlet invoker service or null for default
+	 */
+	public void setPortletInvokerService(PortletInvokerService portletInvokerService) {
+		this.portletInvokerService = portletInvokerService;
+	}
+
+	public PortletEnvironmentService getPortletEnvironmentService() {
+		return null;
+	}
+
+	public PortletInvokerService getPortletInvokerService() {
+		return portletInvokerService;
+	}
+
+	public UserInfoService getUserInfoService() {
+		return null;
+	}
+
+	public NamespaceMapper getNamespaceMapper() {
+		return null;
+	}
+
+	public CCPPProfileService getCCPPProfileService() {
+		return null;
+	}
+
+	public RequestDispatcherService getRequestDispatcherService() {
+		return null;
+	}
+
+}
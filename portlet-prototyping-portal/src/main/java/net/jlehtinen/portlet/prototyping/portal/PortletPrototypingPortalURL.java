@@ -0,0 +1,299 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.servlet.ServletContext;
+
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURLParameter;
+import org.apache.pluto.driver.url.PortalURLParser;
+
+/**
+ * {@link PortalURL} implementation used together with {@link PortletPrototypingPortalURLParser}.
+ * Holds the navigational state of the portal page; the string form is produced by the parser.
+ */
+public class PortletPrototypingPortalURL implements PortalURL {
+
+	/** Scheme, host and port of the portal */
+	protected final String serverURI;
+
+	/** Context path and servlet path of the portal driver */
+	protected final String servletPath;
+
+	/** Parser producing the string form */
+	protected final PortalURLParser parser;
+
+	/** Render path identifying the page or null for the default page */
+	protected String renderPath;
+
+	/** Identifier of the action window or null */
+	protected String actionWindow;
+
+	/** Identifier of the resource window or null */
+	protected String resourceWindow;
+
+	/** Resource identifier or null */
+	protected String resourceID;
+
+	/** Cacheability level of a resource request or null */
+	protected String cacheability;
+
+	/** Portlet parameters keyed by window identifier and parameter name */
+	protected Map<String, PortalURLParameter> parameters = new LinkedHashMap<String, PortalURLParameter>();
+
+	/** Current public render parameters */
+	protected Map<String, String[]> publicParameterCurrent = new HashMap<String, String[]>();
+
+	/** New public render parameters set by a portlet, a null first value removes the parameter */
+	protected Map<String, String[]> publicParameterNew = new HashMap<String, String[]>();
+
+	/** Private render parameters of the resource window */
+	protected Map<String, String[]> privateRenderParameters = new HashMap<String, String[]>();
+
+	/** Portlet modes keyed by window identifier */
+	protected Map<String, PortletMode> portletModes = new HashMap<String, PortletMode>();
+
+	/** Window states keyed by window identifier */
+	protected Map<String, WindowState> windowStates = new HashMap<String, WindowState>();
+
+	/**
+	 * Constructs a new empty URL.
+	 *
+	 * @param serverURI scheme, host and port of the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param parser parser producing the string form
+	 */
+	public PortletPrototypingPortalURL(String serverURI, String servletPath, PortalURLParser parser) {
+		this.serverURI = serverURI;
+		this.servletPath = servletPath;
+		this.parser = parser;
+	}
+
+	public void setRenderPath(String renderPath) {
+		this.renderPath = renderPath;
+	}
+
+	public String getRenderPath() {
+		return renderPath;
+	}
+
+	public void addParameter(PortalURLParameter param) {
+		parameters.put(param.getWindowId() + '\u0000' + param.getName(), param);
+	}
+
+	public Collection<PortalURLParameter> getParameters() {
+		return parameters.values();
+	}
+
+	public void addPublicRenderParametersNew(Map<String, String[]> parameters) {
+		publicParameterNew.putAll(parameters);
+	}
+
+	public void addPublicParameterCurrent(String name, String[] values) {
+		publicParameterCurrent.put(name, values);
+	}
+
+	public void addPublicParameterActionResourceParameter(String name, String value) {
+		String[] current = publicParameterCurrent.get(name);
+		if (current == null) {
+			publicParameterCurrent.put(name, new String[] { value });
+		} else {
+			String[] values = new String[current.length + 1];
+			values[0] = value;
+			System.arraycopy(current, 0, values, 1, current.length);
+			publicParameterCurrent.put(name, values);
+		}
+	}
+
+	public Map<String, String[]> getPublicParameters() {
+		Map<String, String[]> result = new HashMap<String, String[]>(publicParameterCurrent);
+		Iterator<Map.Entry<String, String[]>> iter = publicParameterNew.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, String[]> entry = iter.next();
+			String[] values = entry.getValue();
+			if (values == null || values.length == 0 || values[0] == null) {
+				result.remove(entry.getKey());
+			} else {
+				result.put(entry.getKey(), values);
+			}
+		}
+		return result;
+	}
+
+	public Map<String, String[]> getNewPublicParameters() {
+		return publicParameterNew;
+	}
+
+	public Map<String, String[]> getPrivateRenderParameters() {
+		return privateRenderParameters;
+	}
+
+	public void setActionWindow(String actionWindow) {
+		this.actionWindow = actionWindow;
+	}
+
+	public String getActionWindow() {
+		return actionWindow;
+	}
+
+	public Map<String, PortletMode> getPortletModes() {
+		return Collections.unmodifiableMap(portletModes);
+	}
+
+	public PortletMode getPortletMode(String windowId) {
+		PortletMode mode = portletModes.get(windowId);
+		return mode != null ? mode : PortletMode.VIEW;
+	}
+
+	public void setPortletMode(String windowId, PortletMode portletMode) {
+		portletModes.put(windowId, portletMode);
+	}
+
+	public Map<String, WindowState> getWindowStates() {
+		return Collections.unmodifiableMap(windowStates);
+	}
+
+	public WindowState getWindowState(String windowId) {
+		WindowState state = windowStates.get(windowId);
+		return state != null ? state : WindowState.NORMAL;
+	}
+
+	public void setWindowState(String windowId, WindowState windowState) {
+		windowStates.put(windowId, windowState);
+	}
+
+	public void clearParameters(String windowId) {
+		Iterator<PortalURLParameter> iter = parameters.values().iterator();
+		while (iter.hasNext()) {
+			if (windowId.equals(iter.next().getWindowId())) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the relative URL.
+	 *
+	 * @deprecated use {@link #toURL(boolean)} instead
+	 */
+	@Deprecated
+	public String toString() {
+		return toURL(false);
+	}
+
+	public String toURL(boolean absolute) {
+		String url = parser.toString(this);
+		return absolute ? serverURI + url : url;
+	}
+
+	public String getServerURI() {
+		return serverURI;
+	}
+
+	public String getServletPath() {
+		return servletPath;
+	}
+
+	public PortalURL clone() {
+		PortletPrototypingPortalURL clone = new PortletPrototypingPortalURL(serverURI, servletPath, parser);
+		clone.renderPath = renderPath;
+		clone.actionWindow = actionWindow;
+		clone.resourceWindow = resourceWindow;
+		clone.resourceID = resourceID;
+		clone.cacheability = cacheability;
+		Iterator<PortalURLParameter> iter = parameters.values().iterator();
+		while (iter.hasNext()) {
+			PortalURLParameter param = iter.next();
+			clone.addParameter(new PortalURLParameter(param.getWindowId(), param.getName(), param.getValues()));
+		}
+		clone.publicParameterCurrent = new HashMap<String, String[]>(publicParameterCurrent);
+		clone.publicParameterNew = new HashMap<String, String[]>(publicParameterNew);
+		clone.privateRenderParameters = new HashMap<String, String[]>(privateRenderParameters);
+		clone.portletModes = new HashMap<String, PortletMode>(portletModes);
+		clone.windowStates = new HashMap<String, WindowState>(windowStates);
+		return clone;
+	}
+
+	public String getResourceWindow() {
+		return resourceWindow;
+	}
+
+	public void setResourceWindow(String resourceWindow) {
+		this.resourceWindow = resourceWindow;
+	}
+
+	public PageConfig getPageConfig(ServletContext servletContext) {
+		DriverConfiguration driverConfig = (DriverConfiguration) servletContext.getAttribute(AttributeKeys.DRIVER_CONFIG);
+		return driverConfig.getPageConfig(renderPath);
+	}
+
+	public void setCacheability(String cacheability) {
+		this.cacheability = cacheability;
+	}
+
+	public String getCacheability() {
+		return cacheability;
+	}
+
+	public void setResourceID(String resourceID) {
+		this.resourceID = resourceID;
+	}
+
+	public String getResourceID() {
+		return resourceID;
+	}
+
+	public void merge(PortalURL url, String windowId) {
+		actionWindow = url.getActionWindow();
+		resourceWindow = url.getResourceWindow();
+		setPortletMode(windowId, url.getPortletMode(windowId));
+		setWindowState(windowId, url.getWindowState(windowId));
+		setCacheability(url.getCacheability());
+		setResourceID(url.getResourceID());
+		clearParameters(windowId);
+		Iterator<PortalURLParameter> iter = url.getParameters().iterator();
+		while (iter.hasNext()) {
+			PortalURLParameter param = iter.next();
+			if (windowId.equals(param.getWindowId())) {
+				addParameter(new PortalURLParameter(param.getWindowId(), param.getName(), param.getValues()));
+			}
+		}
+		Iterator<Map.Entry<String, String[]>> publicIter = url.getNewPublicParameters().entrySet().iterator();
+		while (publicIter.hasNext()) {
+			Map.Entry<String, String[]> entry = publicIter.next();
+			String[] values = entry.getValue();
+			if (values == null || values.length == 0 || values[0] == null) {
+				publicParameterCurrent.remove(entry.getKey());
+			} else {
+				publicParameterCurrent.put(entry.getKey(), values);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,864 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURLParameter;
+import org.apache.pluto.driver.url.PortalURLParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link PortalURLParser} encoding the navigational state of the portal compactly. Instead
+ * of one path segment per window mode, state and parameter, the whole state is written as
+ * a single binary record and appended to the render path as a base64url encoded segment
+ * starting with {@value #STATE_PREFIX}. Window identifiers are written once per URL into a
+ * window table and referenced by index; the encoded form of each window identifier and
+ * render path is cached. Encoding buffers are reused per thread, so generating a portlet
+ * URL allocates little more than the resulting string. Only the last path segment is taken
+ * as state; a render path whose last segment starts with {@value #STATE_PREFIX} is followed
+ * by an empty state segment.
+ */
+public class PortletPrototypingPortalURLParser implements PortalURLParser {
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PortletPrototypingPortalURLParser.class);
+
+	/** Prefix of the path segment holding the encoded state */
+	public static final String STATE_PREFIX = "~";
+
+	/** Version of the state encoding */
+	protected static final int VERSION = 1;
+
+	/** Record holding the action window index */
+	protected static final int TAG_ACTION = 1;
+
+	/** Record holding the resource window index */
+	protected static final int TAG_RESOURCE = 2;
+
+	/** Record holding the resource identifier */
+	protected static final int TAG_RESOURCE_ID = 3;
+
+	/** Record holding the cacheability level */
+	protected static final int TAG_CACHEABILITY = 4;
+
+	/** Record holding a window index and portlet mode */
+	protected static final int TAG_MODE = 5;
+
+	/** Record holding a window index and window state */
+	protected static final int TAG_STATE = 6;
+
+	/** Record holding a window index and portlet parameter */
+	protected static final int TAG_PARAMETER = 7;
+
+	/** Record holding a public render parameter */
+	protected static final int TAG_PUBLIC_PARAMETER = 8;
+
+	/** Record holding a private render parameter */
+	protected static final int TAG_PRIVATE_RENDER_PARAMETER = 9;
+
+	/** Standard portlet modes, index being the encoded value */
+	protected static final PortletMode[] MODES = { null, PortletMode.VIEW, PortletMode.EDIT, PortletMode.HELP };
+
+	/** Standard window states, index being the encoded value */
+	protected static final WindowState[] STATES = { null, WindowState.NORMAL, WindowState.MAXIMIZED, WindowState.MINIMIZED };
+
+	/** Maximum number of cached window identifiers and render paths */
+	protected static final int MAX_CACHED = 1024;
+
+	/** The base64url alphabet */
+	protected static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+	/** Reverse lookup table of the base64url alphabet */
+	protected static final int[] BASE64_VALUES = new int[128];
+
+	/** Hexadecimal digits used for percent encoding */
+	protected static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	/** Name of the request attribute holding a portal URL already parsed for the request */
+	public static final String PARSED_URL_ATTRIBUTE = PortletPrototypingPortalURLParser.class.getName() + ".parsedURL";
+
+	/** The shared instance */
+	private static final PortletPrototypingPortalURLParser parser = new PortletPrototypingPortalURLParser();
+
+	static {
+		for (int i = 0; i < BASE64_VALUES.length; i++) {
+			BASE64_VALUES[i] = -1;
+		}
+		for (int i = 0; i < BASE64.length; i++) {
+			BASE64_VALUES[BASE64[i]] = i;
+		}
+	}
+
+	/** Reusable encoding buffers per thread */
+	protected final ThreadLocal<StateBuffer> buffers = new ThreadLocal<StateBuffer>() {
+		protected StateBuffer initialValue() {
+			return new StateBuffer();
+		}
+	};
+
+	/** Encoded window table entries keyed by window identifier */
+	protected final ConcurrentHashMap<String, byte[]> windowEntries = new ConcurrentHashMap<String, byte[]>();
+
+	/** Percent encoded render paths keyed by render path */
+	protected final ConcurrentHashMap<String, String> renderPaths = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Returns the shared parser instance.
+	 *
+	 * @return parser
+	 */
+	public static PortletPrototypingPortalURLParser getParser() {
+		return parser;
+	}
+
+	/**
+	 * Parses the portal URL of the specified request. A URL parsed earlier for the request and
+	 * stored in the {@link #PARSED_URL_ATTRIBUTE} request attribute is returned once instead
+	 * of parsing the request again. Malformed state is ignored and the URL is returned
+	 * with the render path only.
+	 *
+	 * @see org.apache.pluto.driver.url.PortalURLParser#parse(javax.servlet.http.HttpServletRequest)
+	 */
+	public PortalURL parse(HttpServletRequest request) {
+		Object parsed = request.getAttribute(PARSED_URL_ATTRIBUTE);
+		if (parsed != null) {
+			request.removeAttribute(PARSED_URL_ATTRIBUTE);
+			return (PortalURL) parsed;
+		}
+		String serverURI = getServerURI(request);
+		String servletPath = request.getContextPath() + request.getServletPath();
+		PortletPrototypingPortalURL url = new PortletPrototypingPortalURL(serverURI, servletPath, this);
+		String path = request.getPathInfo();
+		if (path == null) {
+			return url;
+		}
+		int index = path.lastIndexOf('/');
+		if (path.startsWith(STATE_PREFIX, index + 1)) {
+			String state = path.substring(index + 1 + STATE_PREFIX.length());
+			path = path.substring(0, index);
+			if (state.length() > 0) {
+				try {
+					decodeState(decodeBase64(state), url);
+				} catch (RuntimeException e) {
+					logger.debug(MessageFormat.format("Ignoring malformed portal URL state {0}", new Object[] { state }), e);
+					url = new PortletPrototypingPortalURL(serverURI, servletPath, this);
+				}
+			}
+		}
+		int start = 0;
+		int end = path.length();
+		while (start < end && path.charAt(start) == '/') {
+			start++;
+		}
+		while (end > start && path.charAt(end - 1) == '/') {
+			end--;
+		}
+		if (start < end) {
+			url.setRenderPath(path.substring(start, end));
+		}
+		return url;
+	}
+
+	public String toString(PortalURL portalURL) {
+		StateBuffer buffer = buffers.get();
+		StringBuilder sb = buffer.chars;
+		sb.setLength(0);
+		sb.append(portalURL.getServletPath());
+		String renderPath = portalURL.getRenderPath();
+		if (renderPath != null && renderPath.length() > 0) {
+			sb.append(getEncodedRenderPath(renderPath));
+		}
+		buffer.reset();
+		if (encodeState(portalURL, buffer)) {
+			sb.append('/').append(STATE_PREFIX);
+			encodeBase64(buffer.bytes, buffer.length, sb);
+		} else if (renderPath != null && renderPath.startsWith(STATE_PREFIX, renderPath.lastIndexOf('/') + 1)) {
+			// Empty state keeps the last render path segment from being taken as state
+			sb.append('/').append(STATE_PREFIX);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the navigational state of the specified URL into the specified buffer.
+	 *
+	 * @param url portal URL
+	 * @param buffer empty buffer
+	 * @return whether there was any state to be written
+	 */
+	protected boolean encodeState(PortalURL url, StateBuffer buffer) {
+
+		// Window table
+		addWindow(buffer, url.getActionWindow());
+		addWindow(buffer, url.getResourceWindow());
+		Iterator<String> windowIter = url.getPortletModes().keySet().iterator();
+		while (windowIter.hasNext()) {
+			addWindow(buffer, windowIter.next());
+		}
+		windowIter = url.getWindowStates().keySet().iterator();
+		while (windowIter.hasNext()) {
+			addWindow(buffer, windowIter.next());
+		}
+		Iterator<PortalURLParameter> paramIter = url.getParameters().iterator();
+		while (paramIter.hasNext()) {
+			addWindow(buffer, paramIter.next().getWindowId());
+		}
+		Map<String, String[]> publicParameters = url.getPublicParameters();
+		Map<String, String[]> privateParameters = url.getPrivateRenderParameters();
+		if (buffer.windows.isEmpty() && url.getResourceID() == null && url.getCacheability() == null
+				&& publicParameters.isEmpty() && (privateParameters == null || privateParameters.isEmpty())) {
+			return false;
+		}
+		buffer.write(VERSION);
+		buffer.writeVarInt(buffer.windows.size());
+		windowIter = buffer.windows.iterator();
+		while (windowIter.hasNext()) {
+			buffer.write(getWindowEntry(windowIter.next()));
+		}
+
+		// Records
+		if (url.getActionWindow() != null) {
+			buffer.write(TAG_ACTION);
+			buffer.writeVarInt(buffer.windowIndexes.get(url.getActionWindow()).intValue());
+		}
+		if (url.getResourceWindow() != null) {
+			buffer.write(TAG_RESOURCE);
+			buffer.writeVarInt(buffer.windowIndexes.get(url.getResourceWindow()).intValue());
+		}
+		if (url.getResourceID() != null) {
+			buffer.write(TAG_RESOURCE_ID);
+			buffer.writeString(url.getResourceID());
+		}
+		if (url.getCacheability() != null) {
+			buffer.write(TAG_CACHEABILITY);
+			buffer.writeString(url.getCacheability());
+		}
+		Iterator<Map.Entry<String, PortletMode>> modeIter = url.getPortletModes().entrySet().iterator();
+		while (modeIter.hasNext()) {
+			Map.Entry<String, PortletMode> entry = modeIter.next();
+			buffer.write(TAG_MODE);
+			buffer.writeVarInt(buffer.windowIndexes.get(entry.getKey()).intValue());
+			writeConstant(buffer, MODES, entry.getValue());
+		}
+		Iterator<Map.Entry<String, WindowState>> stateIter = url.getWindowStates().entrySet().iterator();
+		while (stateIter.hasNext()) {
+			Map.Entry<String, WindowState> entry = stateIter.next();
+			buffer.write(TAG_STATE);
+			buffer.writeVarInt(buffer.windowIndexes.get(entry.getKey()).intValue());
+			writeConstant(buffer, STATES, entry.getValue());
+		}
+		paramIter = url.getParameters().iterator();
+		while (paramIter.hasNext()) {
+			PortalURLParameter param = paramIter.next();
+			buffer.write(TAG_PARAMETER);
+			buffer.writeVarInt(buffer.windowIndexes.get(param.getWindowId()).intValue());
+			buffer.writeString(param.getName());
+			buffer.writeStrings(param.getValues());
+		}
+		writeParameters(buffer, TAG_PUBLIC_PARAMETER, publicParameters);
+		if (privateParameters != null) {
+			writeParameters(buffer, TAG_PRIVATE_RENDER_PARAMETER, privateParameters);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the navigational state from the specified bytes into the specified URL. The URL
+	 * may be partially modified if the state is malformed, so the caller should decode into
+	 * a fresh URL and discard it on failure.
+	 *
+	 * @param bytes encoded state
+	 * @param url portal URL
+	 * @throws IllegalArgumentException if the state is malformed
+	 */
+	protected void decodeState(byte[] bytes, PortletPrototypingPortalURL url) {
+		StateReader reader = new StateReader(bytes);
+		int version = reader.read();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported state version " + version);
+		}
+		int count = reader.readVarInt();
+		if (count > reader.remaining()) {
+			throw new IllegalArgumentException("Truncated state");
+		}
+		String[] windows = new String[count];
+		for (int i = 0; i < windows.length; i++) {
+			windows[i] = reader.readString();
+		}
+		while (reader.hasMore()) {
+			int tag = reader.read();
+			switch (tag) {
+			case TAG_ACTION:
+				url.setActionWindow(readWindow(reader, windows));
+				break;
+			case TAG_RESOURCE:
+				url.setResourceWindow(readWindow(reader, windows));
+				break;
+			case TAG_RESOURCE_ID:
+				url.setResourceID(reader.readString());
+				break;
+			case TAG_CACHEABILITY:
+				url.setCacheability(reader.readString());
+				break;
+			case TAG_MODE: {
+				String window = readWindow(reader, windows);
+				PortletMode mode = (PortletMode) readConstant(reader, MODES);
+				url.setPortletMode(window, mode != null ? mode : new PortletMode(readName(reader)));
+				break;
+			}
+			case TAG_STATE: {
+				String window = readWindow(reader, windows);
+				WindowState state = (WindowState) readConstant(reader, STATES);
+				url.setWindowState(window, state != null ? state : new WindowState(readName(reader)));
+				break;
+			}
+			case TAG_PARAMETER: {
+				String window = readWindow(reader, windows);
+				String name = reader.readString();
+				url.addParameter(new PortalURLParameter(window, name, reader.readStrings()));
+				break;
+			}
+			case TAG_PUBLIC_PARAMETER: {
+				String name = reader.readString();
+				url.addPublicParameterCurrent(name, reader.readStrings());
+				break;
+			}
+			case TAG_PRIVATE_RENDER_PARAMETER: {
+				String name = reader.readString();
+				url.getPrivateRenderParameters().put(name, reader.readStrings());
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown state record " + tag);
+			}
+		}
+	}
+
+	/**
+	 * Reads a window table index and returns the referenced window identifier.
+	 *
+	 * @param reader state reader
+	 * @param windows window table
+	 * @return window identifier
+	 * @throws IllegalArgumentException if the index is out of range
+	 */
+	protected static String readWindow(StateReader reader, String[] windows) {
+		int index = reader.readVarInt();
+		if (index >= windows.length || windows[index] == null) {
+			throw new IllegalArgumentException("Invalid window index " + index);
+		}
+		return windows[index];
+	}
+
+	/**
+	 * Reads a portlet mode or window state code written by
+	 * {@link #writeConstant(StateBuffer, Object[], Object)}.
+	 *
+	 * @param reader state reader
+	 * @param standard standard values, index being the code
+	 * @return standard value or null if a custom name follows
+	 * @throws IllegalArgumentException if the code is out of range
+	 */
+	protected static Object readConstant(StateReader reader, Object[] standard) {
+		int code = reader.readVarInt();
+		if (code >= standard.length) {
+			throw new IllegalArgumentException("Invalid constant " + code);
+		}
+		return standard[code];
+	}
+
+	/**
+	 * Reads the name of a custom portlet mode or window state.
+	 *
+	 * @param reader state reader
+	 * @return name
+	 * @throws IllegalArgumentException if the name is missing
+	 */
+	protected static String readName(StateReader reader) {
+		String name = reader.readString();
+		if (name == null || name.length() == 0) {
+			throw new IllegalArgumentException("Missing name");
+		}
+		return name;
+	}
+
+	/**
+	 * Adds the specified window to the window table of the buffer, if not there already.
+	 *
+	 * @param buffer state buffer
+	 * @param windowId window identifier or null
+	 */
+	protected static void addWindow(StateBuffer buffer, String windowId) {
+		if (windowId != null && !buffer.windowIndexes.containsKey(windowId)) {
+			buffer.windowIndexes.put(windowId, new Integer(buffer.windows.size()));
+			buffer.windows.add(windowId);
+		}
+	}
+
+	/**
+	 * Writes the specified portlet mode or window state, using a short code for standard values.
+	 *
+	 * @param buffer state buffer
+	 * @param standard standard values, index being the code
+	 * @param value value to be written
+	 */
+	protected static void writeConstant(StateBuffer buffer, Object[] standard, Object value) {
+		for (int i = 1; i < standard.length; i++) {
+			if (standard[i].equals(value)) {
+				buffer.writeVarInt(i);
+				return;
+			}
+		}
+		buffer.writeVarInt(0);
+		buffer.writeString(value.toString());
+	}
+
+	/**
+	 * Writes the specified parameters as records of the specified type.
+	 *
+	 * @param buffer state buffer
+	 * @param tag record type
+	 * @param parameters parameters
+	 */
+	protected static void writeParameters(StateBuffer buffer, int tag, Map<String, String[]> parameters) {
+		Iterator<Map.Entry<String, String[]>> iter = parameters.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, String[]> entry = iter.next();
+			buffer.write(tag);
+			buffer.writeString(entry.getKey());
+			buffer.writeStrings(entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns the encoded window table entry of the specified window.
+	 *
+	 * @param windowId window identifier
+	 * @return encoded entry
+	 */
+	protected byte[] getWindowEntry(String windowId) {
+		byte[] entry = windowEntries.get(windowId);
+		if (entry == null) {
+			StateBuffer buffer = new StateBuffer();
+			buffer.writeString(windowId);
+			entry = new byte[buffer.length];
+			System.arraycopy(buffer.bytes, 0, entry, 0, buffer.length);
+			if (windowEntries.size() >= MAX_CACHED) {
+				windowEntries.clear();
+			}
+			windowEntries.put(windowId, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Returns the percent encoded form of the specified render path, including a leading slash.
+	 *
+	 * @param renderPath render path
+	 * @return encoded render path
+	 */
+	protected String getEncodedRenderPath(String renderPath) {
+		String encoded = renderPaths.get(renderPath);
+		if (encoded == null) {
+			StringBuilder sb = new StringBuilder(renderPath.length() + 16);
+			if (renderPath.charAt(0) != '/') {
+				sb.append('/');
+			}
+			StateBuffer utf8 = new StateBuffer();
+			utf8.writeChars(renderPath);
+			for (int i = 0; i < utf8.length; i++) {
+				int b = utf8.bytes[i] & 0xff;
+				if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '-' || b == '.' || b == '_' || b == '/') {
+					sb.append((char) b);
+				} else {
+					sb.append('%').append(HEX[b >> 4]).append(HEX[b & 0xf]);
+				}
+			}
+			encoded = sb.toString();
+			if (renderPaths.size() >= MAX_CACHED) {
+				renderPaths.clear();
+			}
+			renderPaths.put(renderPath, encoded);
+		}
+		return encoded;
+	}
+
+	/**
+	 * Returns the scheme, host and port of the specified request.
+	 *
+	 * @param request servlet request
+	 * @return server URI
+	 */
+	protected static String getServerURI(HttpServletRequest request) {
+		String scheme = request.getScheme();
+		int port = request.getServerPort();
+		StringBuilder sb = new StringBuilder(64);
+		sb.append(scheme).append("://").append(request.getServerName());
+		if (!(("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443))) {
+			sb.append(':').append(port);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the specified bytes as unpadded base64url to the specified builder.
+	 *
+	 * @param bytes bytes to be encoded
+	 * @param length number of bytes to be encoded
+	 * @param sb target builder
+	 */
+	protected static void encodeBase64(byte[] bytes, int length, StringBuilder sb) {
+		int i = 0;
+		for (; i + 2 < length; i += 3) {
+			int v = ((bytes[i] & 0xff) << 16) | ((bytes[i + 1] & 0xff) << 8) | (bytes[i + 2] & 0xff);
+			sb.append(BASE64[v >> 18]).append(BASE64[(v >> 12) & 0x3f]).append(BASE64[(v >> 6) & 0x3f]).append(BASE64[v & 0x3f]);
+		}
+		if (length - i == 1) {
+			int v = bytes[i] & 0xff;
+			sb.append(BASE64[v >> 2]).append(BASE64[(v << 4) & 0x3f]);
+		} else if (length - i == 2) {
+			int v = ((bytes[i] & 0xff) << 8) | (bytes[i + 1] & 0xff);
+			sb.append(BASE64[v >> 10]).append(BASE64[(v >> 4) & 0x3f]).append(BASE64[(v << 2) & 0x3f]);
+		}
+	}
+
+	/**
+	 * Decodes the specified unpadded base64url string.
+	 *
+	 * @param s encoded string
+	 * @return decoded bytes
+	 * @throws IllegalArgumentException if the string is not valid base64url
+	 */
+	protected static byte[] decodeBase64(String s) {
+		int length = s.length();
+		if (length % 4 == 1) {
+			throw new IllegalArgumentException("Invalid base64url length");
+		}
+		byte[] bytes = new byte[length * 3 / 4];
+		int pos = 0;
+		int bits = 0;
+		int value = 0;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			int v = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+			if (v == -1) {
+				throw new IllegalArgumentException("Invalid base64url character " + c);
+			}
+			value = (value << 6) | v;
+			bits += 6;
+			if (bits >= 8) {
+				bits -= 8;
+				bytes[pos++] = (byte) (value >> bits);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Growable byte buffer for encoding state, reused by a single thread.
+	 */
+	protected static class StateBuffer {
+
+		/** Encoded bytes */
+		protected byte[] bytes = new byte[256];
+
+		/** Number of encoded bytes */
+		protected int length;
+
+		/** Builder for the resulting URL */
+		protected final StringBuilder chars = new StringBuilder(256);
+
+		/** Window table being built */
+		protected final List<String> windows = new ArrayList<String>();
+
+		/** Window table indexes keyed by window identifier */
+		protected final Map<String, Integer> windowIndexes = new HashMap<String, Integer>();
+
+		/**
+		 * Clears the buffer for reuse.
+		 */
+		protected void reset() {
+			length = 0;
+			windows.clear();
+			windowIndexes.clear();
+		}
+
+		/**
+		 * Makes room for the specified number of additional bytes.
+		 *
+		 * @param n number of bytes
+		 */
+		protected void ensure(int n) {
+			if (length + n > bytes.length) {
+				byte[] grown = new byte[Math.max(bytes.length * 2, length + n)];
+				System.arraycopy(bytes, 0, grown, 0, length);
+				bytes = grown;
+			}
+		}
+
+		/**
+		 * Writes a single byte.
+		 *
+		 * @param b byte to be written
+		 */
+		protected void write(int b) {
+			ensure(1);
+			bytes[length++] = (byte) b;
+		}
+
+		/**
+		 * Writes the specified bytes.
+		 *
+		 * @param b bytes to be written
+		 */
+		protected void write(byte[] b) {
+			ensure(b.length);
+			System.arraycopy(b, 0, bytes, length, b.length);
+			length += b.length;
+		}
+
+		/**
+		 * Writes a non-negative integer using seven bits per byte.
+		 *
+		 * @param v value to be written
+		 */
+		protected void writeVarInt(int v) {
+			while ((v & ~0x7f) != 0) {
+				write((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			write(v);
+		}
+
+		/**
+		 * Writes a string as its UTF-8 length plus one followed by the UTF-8 bytes. A null
+		 * string is written as zero length.
+		 *
+		 * @param s string to be written or null
+		 */
+		protected void writeString(String s) {
+			if (s == null) {
+				writeVarInt(0);
+				return;
+			}
+			writeVarInt(utf8Length(s) + 1);
+			writeChars(s);
+		}
+
+		/**
+		 * Writes a string array as its length plus one followed by the strings. A null array
+		 * is written as zero length.
+		 *
+		 * @param values strings to be written or null
+		 */
+		protected void writeStrings(String[] values) {
+			if (values == null) {
+				writeVarInt(0);
+				return;
+			}
+			writeVarInt(values.length + 1);
+			for (int i = 0; i < values.length; i++) {
+				writeString(values[i]);
+			}
+		}
+
+		/**
+		 * Writes the UTF-8 bytes of the specified string. Surrogate characters are encoded
+		 * individually which is reversible by {@link StateReader}.
+		 *
+		 * @param s string to be written
+		 */
+		protected void writeChars(String s) {
+			int n = s.length();
+			ensure(n * 3);
+			for (int i = 0; i < n; i++) {
+				char c = s.charAt(i);
+				if (c < 0x80) {
+					bytes[length++] = (byte) c;
+				} else if (c < 0x800) {
+					bytes[length++] = (byte) (0xc0 | (c >> 6));
+					bytes[length++] = (byte) (0x80 | (c & 0x3f));
+				} else {
+					bytes[length++] = (byte) (0xe0 | (c >> 12));
+					bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+					bytes[length++] = (byte) (0x80 | (c & 0x3f));
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of bytes {@link #writeChars(String)} writes for the specified string.
+		 *
+		 * @param s string
+		 * @return encoded length
+		 */
+		protected static int utf8Length(String s) {
+			int n = s.length();
+			int len = n;
+			for (int i = 0; i < n; i++) {
+				char c = s.charAt(i);
+				if (c >= 0x800) {
+					len += 2;
+				} else if (c >= 0x80) {
+					len++;
+				}
+			}
+			return len;
+		}
+
+	}
+
+	/**
+	 * Reader for state written by {@link StateBuffer}.
+	 */
+	protected static class StateReader {
+
+		/** Encoded bytes */
+		protected final byte[] bytes;
+
+		/** Position of the next byte */
+		protected int pos;
+
+		/**
+		 * Constructs a new reader.
+		 *
+		 * @param bytes encoded bytes
+		 */
+		protected StateReader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Returns whether there are bytes left.
+		 *
+		 * @return whether there are bytes left
+		 */
+		protected boolean hasMore() {
+			return pos < bytes.length;
+		}
+
+		/**
+		 * Returns the number of bytes left.
+		 *
+		 * @return number of bytes left
+		 */
+		protected int remaining() {
+			return bytes.length - pos;
+		}
+
+		/**
+		 * Reads a single byte.
+		 *
+		 * @return byte value
+		 * @throws IllegalArgumentException if there are no bytes left
+		 */
+		protected int read() {
+			if (pos >= bytes.length) {
+				throw new IllegalArgumentException("Truncated state");
+			}
+			return bytes[pos++] & 0xff;
+		}
+
+		/**
+		 * Reads a non-negative integer written by {@link StateBuffer#writeVarInt(int)}.
+		 *
+		 * @return value
+		 */
+		protected int readVarInt() {
+			int v = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = read();
+				v |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					if (v < 0) {
+						break;
+					}
+					return v;
+				}
+			}
+			throw new IllegalArgumentException("Malformed integer");
+		}
+
+		/**
+		 * Reads a string written by {@link StateBuffer#writeString(String)}.
+		 *
+		 * @return string or null
+		 */
+		protected String readString() {
+			int len = readVarInt() - 1;
+			if (len < 0) {
+				return null;
+			}
+			int end = pos + len;
+			if (end > bytes.length || end < pos) {
+				throw new IllegalArgumentException("Truncated state");
+			}
+			char[] chars = new char[len];
+			int n = 0;
+			while (pos < end) {
+				int b = bytes[pos++] & 0xff;
+				if (b < 0x80) {
+					chars[n++] = (char) b;
+				} else if (b < 0xe0) {
+					chars[n++] = (char) (((b & 0x1f) << 6) | (read() & 0x3f));
+				} else {
+					int b2 = read();
+					chars[n++] = (char) (((b & 0x0f) << 12) | ((b2 & 0x3f) << 6) | (read() & 0x3f));
+				}
+			}
+			if (pos != end) {
+				throw new IllegalArgumentException("Malformed string");
+			}
+			return new String(chars, 0, n);
+		}
+
+		/**
+		 * Reads a string array written by {@link StateBuffer#writeStrings(String[])}.
+		 *
+		 * @return strings or null
+		 */
+		protected String[] readStrings() {
+			int len = readVarInt() - 1;
+			if (len < 0) {
+				return null;
+			}
+			if (len > remaining()) {
+				throw new IllegalArgumentException("Truncated state");
+			}
+			String[] values = new String[len];
+			for (int i = 0; i < len; i++) {
+				values[i] = readString();
+			}
+			return values;
+		}
+
+	}
+
+}
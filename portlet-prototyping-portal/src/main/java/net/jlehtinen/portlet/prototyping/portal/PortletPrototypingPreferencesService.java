@@ -0,0 +1,187 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.portlet.PortletRequest;
+import javax.portlet.PreferencesValidator;
+import javax.portlet.ValidatorException;
+import javax.servlet.ServletContext;
+
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
+
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.PortletPreference;
+import org.apache.pluto.container.PortletPreferencesService;
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apache.pluto.driver.container.DefaultPortletPreferencesService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * {@link PortletPreferencesService} keeping the stored preferences in a concurrent in-memory
+ * cache keyed by user and portlet window. Stored preferences are written behind to a
+ * {@link PreferencesLog} so that they survive portal restarts without {@link #store}
+ * blocking on I/O. Default preferences and validators are provided by the default
+ * Pluto implementation. Cache lookups and stores are counted in the {@link PortalMetrics},
+ * if set.
+ */
+public class PortletPrototypingPreferencesService implements PortletPreferencesService, ServletContextAware, DisposableBean {
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PortletPrototypingPreferencesService.class);
+
+	/** Stored preferences keyed by user and portlet window */
+	protected final Map<String, Map<String, PortletPreference>> storage = new ConcurrentHashMap<String, Map<String, PortletPreference>>();
+
+	/** Default implementation used for default preferences and validators */
+	protected final PortletPreferencesService defaultService = new DefaultPortletPreferencesService();
+
+	/** Log persisting the stored preferences or null if kept in memory only */
+	protected PreferencesLog log;
+
+	/** Metrics counting the cache activity or null */
+	protected PortalMetrics metrics;
+
+	/**
+	 * Sets the metrics counting the cache activity.
+	 *
+	 * @param metrics portal metrics
+	 */
+	public void setMetrics(PortalMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Opens the preferences log configured in the {@link PrototypingConfiguration}
+	 * published in the specified servlet context, if any.
+	 *
+	 * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		PrototypingConfiguration configuration = (PrototypingConfiguration) servletContext.getAttribute(PrototypingConfiguration.ATTRIBUTE_NAME);
+		if (configuration != null && configuration.getPreferencesFile() != null) {
+			openLog(configuration.getPreferencesFile());
+		}
+	}
+
+	/**
+	 * Opens the specified preferences log and loads the preferences stored in it.
+	 *
+	 * @param file preferences log file
+	 */
+	protected synchronized void openLog(File file) {
+		if (log != null) {
+			return;
+		}
+		PreferencesLog log = new PreferencesLog(file, storage);
+		try {
+			storage.putAll(log.open());
+			this.log = log;
+			logger.info(MessageFormat.format("Loaded stored preferences for {0} portlet windows from {1}", new Object[] { new Integer(storage.size()), file }));
+		} catch (IOException e) {
+			logger.warn(MessageFormat.format("Failed to open preferences log {0}, preferences are kept in memory only", new Object[] { file }), e);
+		} catch (RuntimeException e) {
+			logger.warn(MessageFormat.format("Failed to open preferences log {0}, preferences are kept in memory only", new Object[] { file }), e);
+		}
+	}
+
+	/**
+	 * Writes any pending preferences and closes the preferences log.
+	 *
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	public synchronized void destroy() {
+		if (log != null) {
+			log.close();
+			log = null;
+		}
+	}
+
+	public Map<String, PortletPreference> getDefaultPreferences(PortletWindow window, PortletRequest request) throws PortletContainerException {
+		return defaultService.getDefaultPreferences(window, request);
+	}
+
+	public Map<String, PortletPreference> getStoredPreferences(PortletWindow window, PortletRequest request) throws PortletContainerException {
+		Map<String, PortletPreference> preferences = storage.get(getKey(window, request));
+		PortalMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.recordPreferencesLookup(preferences != null);
+		}
+		if (preferences == null) {
+			return Collections.emptyMap();
+		}
+		return clonePreferences(preferences);
+	}
+
+	public void store(PortletWindow window, PortletRequest request, Map<String, PortletPreference> preferences) throws PortletContainerException {
+		String key = getKey(window, request);
+		storage.put(key, clonePreferences(preferences));
+		PortalMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.recordPreferencesStore();
+		}
+		PreferencesLog log = this.log;
+		if (log != null) {
+			log.write(key);
+		}
+	}
+
+	public PreferencesValidator getPreferencesValidator(PortletDefinition portletDefinition) throws ValidatorException {
+		return defaultService.getPreferencesValidator(portletDefinition);
+	}
+
+	/**
+	 * Returns the storage key for the preferences of the specified user and portlet window.
+	 *
+	 * @param window portlet window
+	 * @param request portlet request identifying the user
+	 * @return storage key
+	 */
+	protected static String getKey(PortletWindow window, PortletRequest request) {
+		String user = request.getRemoteUser();
+		return (user != null ? user : "") + "@" + window.getId().getStringId();
+	}
+
+	/**
+	 * Returns a deep copy of the specified preferences.
+	 *
+	 * @param preferences preferences to be copied
+	 * @return copy of the preferences
+	 */
+	protected static Map<String, PortletPreference> clonePreferences(Map<String, PortletPreference> preferences) {
+		Map<String, PortletPreference> clone = new HashMap<String, PortletPreference>(preferences.size() * 2);
+		Iterator<Map.Entry<String, PortletPreference>> iter = preferences.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, PortletPreference> entry = iter.next();
+			clone.put(entry.getKey(), entry.getValue().clone());
+		}
+		return clone;
+	}
+
+}
@@ -17,9 +17,12 @@
 package net.jlehtinen.portlet.prototyping.portal;
 
 import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.List;
 
 import javax.servlet.ServletContext;
 
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
 import net.jlehtinen.portlet.util.ReflectionWrapper;
 
 import org.apache.pluto.driver.services.impl.resource.RenderConfigServiceImpl;
@@ -29,22 +32,19 @@ import org.apache.pluto.driver.services.portal.RenderConfig;
 import org.apache.pluto.driver.services.portal.RenderConfigService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.web.context.ServletContextAware;
 
 /**
  * Customized version of {@link RenderConfigService} that automatically creates a default
- * page for the portlets to be prototyped.
+ * page for the portlets to be prototyped. The page is configured from the
+ * {@link PrototypingConfiguration} published in the portal servlet context and it is
+ * replaced whenever a new configuration is published.
  */
-public class PortletPrototypingRenderConfigServiceImpl extends RenderConfigServiceImpl {
+public class PortletPrototypingRenderConfigServiceImpl extends RenderConfigServiceImpl implements ServletContextAware {
 
 	/** The logger to use */
 	private static final Logger logger = LoggerFactory.getLogger(PortletPrototypingRenderConfigServiceImpl.class);
 	
-	/** System property for the portlet context */
-	protected static final String PORTLET_CONTEXT_PATH_PROPERTY = "portletContextPath";
-	
-	/** System property for the portlet names */
-	protected static final String PORTLET_NAMES_PROPERTY = "portletNames";
-
 	/** Name of the portlet prototyping page */
 	protected static final String PORTLET_PAGE_NAME = "Portlet Prototyping";
 	
@@ -57,39 +57,97 @@ public class PortletPrototypingRenderConfigServiceImpl extends RenderConfigServi
 	/** Configuration of the portlet prototyping page */
 	protected PageConfig portletPrototypingPage = null;
 	
+	/** The configuration currently applied or null if none */
+	protected PrototypingConfiguration configuration = null;
+	
+	/** Number of times pages have been added or removed */
+	protected volatile long pagesVersion = 0;
+	
 	public PortletPrototypingRenderConfigServiceImpl(ResourceConfig config) {
 		super(config);
-		addPortletPrototypingPage();
 	}
 
 	/**
-	 * Adds a portlet prototyping page to this RenderConfigService.
+	 * Configures the portlet prototyping page using the configuration published in the
+	 * specified servlet context.
+	 * 
+	 * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
 	 */
-	protected void addPortletPrototypingPage() {
-		
-		// Get prototype portlet information
-		logger.info("Configuring Pluto portal for portlet prototyping");
-		String portletContext = System.getProperty(PORTLET_CONTEXT_PATH_PROPERTY);
-		String portletNames = System.getProperty(PORTLET_NAMES_PROPERTY);
-		if (portletContext == null) {
-			logger.warn(MessageFormat.format("System property {0} not set, skipping configuration", new Object[] { PORTLET_CONTEXT_PATH_PROPERTY }));
+	public void setServletContext(ServletContext servletContext) {
+		PrototypingConfiguration configuration = (PrototypingConfiguration) servletContext.getAttribute(PrototypingConfiguration.ATTRIBUTE_NAME);
+		if (configuration == null) {
+			logger.warn(MessageFormat.format("Servlet context attribute {0} not set, skipping configuration", new Object[] { PrototypingConfiguration.ATTRIBUTE_NAME }));
 			return;
 		}
-		if (portletNames == null) {
-			logger.warn(MessageFormat.format("System property {0} not set, skipping configuration", new Object[] { PORTLET_NAMES_PROPERTY }));
+		configure(configuration);
+	}
+	
+	/**
+	 * Returns the configuration currently applied.
+	 * 
+	 * @return current configuration or null if none
+	 */
+	public PrototypingConfiguration getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * Returns the version of the portal pages. The version changes whenever a page is
+	 * added or removed.
+	 * 
+	 * @return current version of the portal pages
+	 */
+	public long getPagesVersion() {
+		return pagesVersion;
+	}
+
+	public synchronized void addPage(PageConfig pageConfig) {
+		super.addPage(pageConfig);
+		pagesVersion++;
+	}
+
+	public synchronized void removePage(PageConfig pageConfig) {
+		super.removePage(pageConfig);
+		pagesVersion++;
+	}
+
+	/**
+	 * Applies the specified configuration, replacing the previous portlet prototyping page, if any.
+	 * Does nothing if the configuration has already been applied.
+	 * 
+	 * @param configuration configuration to be applied
+	 */
+	public synchronized void configure(PrototypingConfiguration configuration) {
+		if (configuration == this.configuration) {
 			return;
 		}
+		if (portletPrototypingPage != null) {
+			removePage(portletPrototypingPage);
+			portletPrototypingPage = null;
+		}
+		this.configuration = configuration;
+		addPortletPrototypingPage(configuration);
+	}
+
+	/**
+	 * Adds a portlet prototyping page to this RenderConfigService.
+	 * 
+	 * @param configuration prototyping configuration
+	 */
+	protected void addPortletPrototypingPage(PrototypingConfiguration configuration) {
+		
+		// Get prototype portlet information
+		logger.info("Configuring Pluto portal for portlet prototyping");
+		String portletContext = configuration.getPortletContextPath();
+		List<String> portletNames = configuration.getPortletNames();
 		logger.info(MessageFormat.format("Portlet context path = {0}", new Object[] { portletContext }));
 		logger.info(MessageFormat.format("Portlet names = {0}", new Object[] { portletNames }));
 
-		// Parse portlet identifiers
-		String[] parsedPortletNames = portletNames.split(",");
-		
 		// Configure prototyping page, if any portlets defined
-		if (parsedPortletNames.length > 0) {
+		if (!portletNames.isEmpty()) {
 			
 			// Create and add the portlet prototyping page
-			portletPrototypingPage = createPortletPrototypingPageConfig(portletContext, parsedPortletNames);
+			portletPrototypingPage = createPortletPrototypingPageConfig(portletContext, portletNames);
 			addPage(portletPrototypingPage);
 
 			// Customize the page layout
@@ -108,7 +166,7 @@ public class PortletPrototypingRenderConfigServiceImpl extends RenderConfigServi
 			}
 		}
 		
-		logger.info(MessageFormat.format("Configured {0} portlets", new Object[] { new Integer(parsedPortletNames.length) }));
+		logger.info(MessageFormat.format("Configured {0} portlets", new Object[] { new Integer(portletNames.size()) }));
 	}
 
 	/**
@@ -118,12 +176,13 @@ public class PortletPrototypingRenderConfigServiceImpl extends RenderConfigServi
 	 * @param portletNames portlet names
 	 * @return configuration for the portlet prototyping page
 	 */
-	protected PageConfig createPortletPrototypingPageConfig(String portletContext, String[] portletNames) {
+	protected PageConfig createPortletPrototypingPageConfig(String portletContext, List<String> portletNames) {
 		PageConfig config = new PageConfig();
 		config.setName(PORTLET_PAGE_NAME);
 		config.setUri(PORTLET_PAGE_URI);
-		for (int i = 0; i < portletNames.length; i++) {
-			config.addPortlet(portletContext, portletNames[i]);
+		Iterator<String> iter = portletNames.iterator();
+		while (iter.hasNext()) {
+			config.addPortlet(portletContext, iter.next());
 		}
 		return config;
 	}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.web.context.support.XmlWebApplicationContext;
+
+/**
+ * Web application context of the portal logging the time taken to create each portal
+ * service. It is selected using the <code>contextClass</code> context parameter.
+ * If the fast startup mode has been enabled in the {@link PrototypingConfiguration}
+ * published in the servlet context, the services are created in two steps:
+ * <ol>
+ * <li>The services required by <code>PortalStartupListener</code> and the services the
+ * prototyping servlets and filters look up from the servlet context are created,
+ * together with the services they depend on.</li>
+ * <li>The remaining services are created in the background once the context has been
+ * refreshed.</li>
+ * </ol>
+ */
+public class PortletPrototypingWebApplicationContext extends XmlWebApplicationContext {
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PortletPrototypingWebApplicationContext.class);
+
+	/**
+	 * Names of the services required by the portal startup listener and of the services
+	 * publishing themselves in the servlet context for the prototyping servlets and filters
+	 */
+	protected static final List<String> STARTUP_BEANS = Collections.unmodifiableList(Arrays.asList(new String[] {
+		"PortletContainer", "PlutoServices", "DriverConfiguration", "AdminConfiguration",
+		"PortalMetrics", "EventCoordinationService", "PortletInvokerService", "SessionFootprintAnalyzer",
+		"PortletStressTester", "PortletWarmUp", "SessionSimulation" }));
+
+	/**
+	 * Returns whether the fast startup mode has been enabled.
+	 *
+	 * @return whether the fast startup mode is enabled
+	 */
+	protected boolean isFastStartup() {
+		PrototypingConfiguration configuration = getServletContext() != null
+			? (PrototypingConfiguration) getServletContext().getAttribute(PrototypingConfiguration.ATTRIBUTE_NAME) : null;
+		return configuration != null && configuration.isFastStartup();
+	}
+
+	protected DefaultListableBeanFactory createBeanFactory() {
+		return new TimedBeanFactory(this, isFastStartup());
+	}
+
+	public void refresh() throws BeansException, IllegalStateException {
+		long start = System.nanoTime();
+		super.refresh();
+		TimedBeanFactory factory = (TimedBeanFactory) getBeanFactory();
+		logger.info(MessageFormat.format("Created {0} portal services in {1} ms{2}: {3}", new Object[] {
+				new Integer(factory.timings.size()), new Long((System.nanoTime() - start) / 1000000),
+				factory.fastStartup ? " in the fast startup mode" : "", formatTimings(factory.timings) }));
+		if (factory.fastStartup) {
+			factory.startDeferredCreation();
+		}
+	}
+
+	/**
+	 * Formats the specified creation times, slowest first.
+	 *
+	 * @param timings creation times in nanoseconds keyed by bean name
+	 * @return formatted creation times
+	 */
+	protected static String formatTimings(Map<String, Long> timings) {
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(timings.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+				return e2.getValue().compareTo(e1.getValue());
+			}
+		});
+		StringBuilder sb = new StringBuilder();
+		Iterator<Map.Entry<String, Long>> iter = entries.iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, Long> entry = iter.next();
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(entry.getKey()).append(' ').append(entry.getValue().longValue() / 1000000).append(" ms");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Bean factory recording the time taken to create each bean, excluding the time taken
+	 * to create the beans it depends on, and implementing the fast startup mode.
+	 */
+	protected static class TimedBeanFactory extends DefaultListableBeanFactory {
+
+		/** Creation times in nanoseconds keyed by bean name */
+		protected final Map<String, Long> timings = new ConcurrentHashMap<String, Long>();
+
+		/** Time taken by the nested creations of the beans being created by the current thread */
+		protected final ThreadLocal<List<long[]>> nested = new ThreadLocal<List<long[]>>() {
+			protected List<long[]> initialValue() {
+				return new ArrayList<long[]>();
+			}
+		};
+
+		/** Whether the fast startup mode is enabled */
+		protected final boolean fastStartup;
+
+		/**
+		 * Constructs a new instance.
+		 *
+		 * @param context the owning application context
+		 * @param fastStartup whether the fast startup mode is enabled
+		 */
+		public TimedBeanFactory(PortletPrototypingWebApplicationContext context, boolean fastStartup) {
+			super(context.getInternalParentBeanFactory());
+			this.fastStartup = fastStartup;
+		}
+
+		protected Object createBean(String beanName, RootBeanDefinition mbd, Object[] args) throws BeanCreationException {
+			List<long[]> stack = nested.get();
+			long[] children = new long[1];
+			stack.add(children);
+			long start = System.nanoTime();
+			try {
+				return super.createBean(beanName, mbd, args);
+			} finally {
+				long nanos = System.nanoTime() - start;
+				stack.remove(stack.size() - 1);
+				if (!stack.isEmpty()) {
+					stack.get(stack.size() - 1)[0] += nanos;
+				}
+				timings.put(beanName, new Long(nanos - children[0]));
+			}
+		}
+
+		public void preInstantiateSingletons() throws BeansException {
+			if (!fastStartup) {
+				super.preInstantiateSingletons();
+				return;
+			}
+			Iterator<String> iter = STARTUP_BEANS.iterator();
+			while (iter.hasNext()) {
+				String name = iter.next();
+				if (containsBeanDefinition(name)) {
+					getBean(name);
+				}
+			}
+		}
+
+		/**
+		 * Starts creating the eager singletons not created yet on a background thread.
+		 */
+		protected void startDeferredCreation() {
+			final List<String> names = new ArrayList<String>();
+			String[] beanNames = getBeanDefinitionNames();
+			for (int i = 0; i < beanNames.length; i++) {
+				if (!containsSingleton(beanNames[i]) && isEager(beanNames[i], getMergedBeanDefinition(beanNames[i], false))) {
+					names.add(beanNames[i]);
+				}
+			}
+			if (names.isEmpty()) {
+				return;
+			}
+			createThreadFactory("Deferred portal service creation").newThread(new Runnable() {
+				public void run() {
+					long start = System.nanoTime();
+					Map<String, Long> deferred = new ConcurrentHashMap<String, Long>();
+					Iterator<String> iter = names.iterator();
+					while (iter.hasNext()) {
+						String name = iter.next();
+						try {
+							getBean(name);
+						} catch (BeansException e) {
+							PortletPrototypingWebApplicationContext.logger.error(MessageFormat.format("Failed to create portal service {0}", new Object[] { name }), e);
+						}
+						Long nanos = timings.get(name);
+						if (nanos != null) {
+							deferred.put(name, nanos);
+						}
+					}
+					PortletPrototypingWebApplicationContext.logger.info(MessageFormat.format("Created {0} deferred portal services in {1} ms: {2}", new Object[] {
+							new Integer(names.size()), new Long((System.nanoTime() - start) / 1000000), formatTimings(deferred) }));
+				}
+			}).start();
+		}
+
+		/**
+		 * Returns whether the specified bean is an eagerly created singleton.
+		 *
+		 * @param name bean name
+		 * @param mbd merged bean definition
+		 * @return whether the bean is created on startup
+		 */
+		protected boolean isEager(String name, RootBeanDefinition mbd) {
+			return !mbd.isAbstract() && mbd.isSingleton() && !mbd.isLazyInit() && !containsSingleton(name);
+		}
+
+		/**
+		 * Creates a factory of daemon threads.
+		 *
+		 * @param name name prefix of the threads
+		 * @return thread factory
+		 */
+		protected static ThreadFactory createThreadFactory(final String name) {
+			final AtomicInteger counter = new AtomicInteger();
+			return new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, name + " " + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.portlet.WindowState;
+import javax.servlet.ServletContext;
+
+import org.apache.pluto.container.driver.PortletInvocationEvent;
+import org.apache.pluto.container.driver.PortletInvocationListener;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.services.portal.RenderConfigService;
+import org.apache.pluto.driver.url.PortalURLParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * Stress tests the portlet windows on the default portal page for thread-safety problems.
+ * Each window is first rendered serially, twice for each of a fixed number of randomized
+ * render parameter variants, to establish the expected output. Variants rendering
+ * differently in the serialized runs are considered nondeterministic and are not compared.
+ * The window is then rendered concurrently by an increasing number of clients using the
+ * same variants and the outputs are compared against the serialized output. Finally,
+ * actions with randomized parameters are invoked concurrently. Portlet exceptions are
+ * collected as a portlet invocation listener. The requests are sent over HTTP to the portal
+ * itself using a single session, with the tested window maximized. Renders request only the
+ * markup of the tested window, without the surrounding page and the measurements shown
+ * below the window, so that only the output of the portlet is compared.
+ */
+public class PortletStressTester implements PortletInvocationListener, ServletContextAware {
+
+	/** Name of the servlet context attribute holding the tester */
+	public static final String ATTRIBUTE_NAME = PortletStressTester.class.getName();
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PortletStressTester.class);
+
+	/** Number of render parameter variants per window */
+	protected static final int VARIANTS = 8;
+
+	/** Request parameter selecting the portlet window to be rendered alone */
+	protected static final String FRAGMENT_PARAMETER = "fragment";
+
+	/** Request parameter disabling the measurements shown below the portlet window */
+	protected static final String MEASUREMENTS_PARAMETER = "measurements";
+
+	/** Characters used in random parameter values */
+	protected static final String VALUE_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+	/** Render configuration providing the default page */
+	protected final RenderConfigService renderConfigService;
+
+	/** Results of the window currently being tested or null */
+	protected volatile WindowStressResult current;
+
+	/** Whether the current window is being invoked concurrently */
+	protected volatile boolean concurrent;
+
+	/** Whether a stress test is running */
+	protected volatile boolean running;
+
+	/** Results of the latest stress test */
+	protected volatile List<WindowStressResult> results = Collections.emptyList();
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param renderConfigService render configuration service
+	 */
+	public PortletStressTester(RenderConfigService renderConfigService) {
+		this.renderConfigService = renderConfigService;
+	}
+
+	/**
+	 * Publishes this tester in the specified servlet context.
+	 *
+	 * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		servletContext.setAttribute(ATTRIBUTE_NAME, this);
+	}
+
+	public void onBegin(PortletInvocationEvent event) {
+		// Nothing to do
+	}
+
+	public void onEnd(PortletInvocationEvent event) {
+		// Nothing to do
+	}
+
+	public void onError(PortletInvocationEvent event, Throwable t) {
+		WindowStressResult result = current;
+		if (result != null && result.getWindowId().equals(event.getPortletWindow().getId().getStringId())) {
+			result.recordException(concurrent, t);
+		}
+	}
+
+	/**
+	 * Returns whether a stress test is running.
+	 *
+	 * @return whether running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the results of the latest stress test.
+	 *
+	 * @return results by portlet window
+	 */
+	public List<WindowStressResult> getResults() {
+		return results;
+	}
+
+	/**
+	 * Returns the identifiers of the portlet windows on the default page.
+	 *
+	 * @return portlet window identifiers
+	 */
+	public List<String> getWindowIds() {
+		PageConfig page = renderConfigService.getDefaultPage();
+		List<String> windowIds = new ArrayList<String>();
+		if (page != null) {
+			windowIds.addAll(page.getPortletIds());
+		}
+		return windowIds;
+	}
+
+	/**
+	 * Stress tests the specified portlet windows. Concurrency is doubled from one client up
+	 * to the specified maximum.
+	 *
+	 * @param serverURI scheme, host and port used to connect to the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param windowIds identifiers of the portlet windows to be tested
+	 * @param parameterNames names of the randomized parameters
+	 * @param maxConcurrency maximum number of concurrent clients
+	 * @param requests number of renders and actions per window and concurrency level
+	 * @param seed seed of the randomized parameters
+	 * @return results by portlet window
+	 * @throws IOException if the portal could not be accessed
+	 */
+	public synchronized List<WindowStressResult> run(String serverURI, String servletPath, List<String> windowIds, List<String> parameterNames, int maxConcurrency, int requests, long seed) throws IOException {
+		running = true;
+		ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Portlet stress client " + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			String cookie = openSession(serverURI + servletPath, GeneratedRequest.STRESS_TEST);
+			List<WindowStressResult> windowResults = new ArrayList<WindowStressResult>();
+			Iterator<String> iter = windowIds.iterator();
+			while (iter.hasNext()) {
+				String windowId = iter.next();
+				WindowStressResult result = new WindowStressResult(windowId);
+				current = result;
+				long start = System.nanoTime();
+				test(result, executor, serverURI, servletPath, cookie, parameterNames, maxConcurrency, requests, new Random(seed ^ windowId.hashCode()));
+				windowResults.add(result);
+				logger.info(MessageFormat.format("Stress tested {0} in {1} ms: {2} differences, {3} concurrent exceptions, {4} errors", new Object[] {
+						windowId, new Long((System.nanoTime() - start) / 1000000), new Integer(result.getDifferences()),
+						new Integer(result.getConcurrentExceptions()), new Integer(result.getErrors()) }));
+			}
+			results = Collections.unmodifiableList(windowResults);
+			return results;
+		} finally {
+			current = null;
+			concurrent = false;
+			running = false;
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Stress tests a single portlet window.
+	 *
+	 * @param result results of the window
+	 * @param executor executor running the clients
+	 * @param serverURI scheme, host and port used to connect to the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param cookie session cookie or null
+	 * @param parameterNames names of the randomized parameters
+	 * @param maxConcurrency maximum number of concurrent clients
+	 * @param requests number of renders and actions per concurrency level
+	 * @param random source of randomized parameters
+	 * @throws IOException if the portal could not be accessed
+	 */
+	protected void test(WindowStressResult result, ExecutorService executor, String serverURI, String servletPath, String cookie,
+			List<String> parameterNames, int maxConcurrency, int requests, Random random) throws IOException {
+		String windowId = result.getWindowId();
+
+		// Render each variant twice serially to establish the expected output
+		concurrent = false;
+		String[] renderURLs = new String[VARIANTS];
+		String[] queries = new String[VARIANTS];
+		byte[][] expected = new byte[VARIANTS][];
+		int nondeterministic = 0;
+		for (int i = 0; i < VARIANTS; i++) {
+			Map<String, String> parameters = createParameters(parameterNames, random);
+			queries[i] = toQuery(parameters);
+			renderURLs[i] = createFragmentURL(createURL(serverURI, servletPath, windowId, parameters, false), windowId);
+			byte[] first = fetch(result, renderURLs[i], cookie, null);
+			byte[] second = fetch(result, renderURLs[i], cookie, null);
+			if (first != null && Arrays.equals(first, second)) {
+				expected[i] = first;
+			} else {
+				nondeterministic++;
+			}
+		}
+		result.recordSerial(VARIANTS - nondeterministic, nondeterministic);
+
+		// Render concurrently at increasing concurrency, then invoke actions
+		concurrent = true;
+		List<Integer> levels = getLevels(maxConcurrency);
+		long[] renderNanos = new long[levels.size()];
+		for (int i = 0; i < levels.size(); i++) {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(requests);
+			for (int j = 0; j < requests; j++) {
+				int variant = random.nextInt(VARIANTS);
+				tasks.add(createRender(result, renderURLs[variant], cookie, expected[variant], queries[variant]));
+			}
+			renderNanos[i] = invoke(executor, tasks, levels.get(i).intValue());
+		}
+		String actionURL = createURL(serverURI, servletPath, windowId, Collections.<String, String>emptyMap(), true);
+		for (int i = 0; i < levels.size(); i++) {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(requests);
+			for (int j = 0; j < requests; j++) {
+				tasks.add(createAction(result, actionURL, cookie, toQuery(createParameters(parameterNames, random))));
+			}
+			long actionNanos = invoke(executor, tasks, levels.get(i).intValue());
+			result.recordLevel(new WindowStressResult.Level(levels.get(i).intValue(), requests, renderNanos[i], requests, actionNanos));
+		}
+		concurrent = false;
+	}
+
+	/**
+	 * Returns the concurrency levels up to the specified maximum.
+	 *
+	 * @param maxConcurrency maximum concurrency
+	 * @return concurrency levels in increasing order
+	 */
+	protected static List<Integer> getLevels(int maxConcurrency) {
+		List<Integer> levels = new ArrayList<Integer>();
+		int level = 1;
+		while (level < maxConcurrency) {
+			levels.add(new Integer(level));
+			level *= 2;
+		}
+		levels.add(new Integer(maxConcurrency));
+		return levels;
+	}
+
+	/**
+	 * Runs the specified tasks using the specified number of concurrent clients and waits
+	 * for them to complete.
+	 *
+	 * @param executor executor running the clients
+	 * @param tasks tasks to be run
+	 * @param concurrency number of concurrent clients
+	 * @return wall clock time in nanoseconds
+	 * @throws IOException if a task failed to access the portal
+	 */
+	protected static long invoke(ExecutorService executor, final List<Callable<Object>> tasks, int concurrency) throws IOException {
+		final AtomicInteger next = new AtomicInteger();
+		List<Future<Object>> clients = new ArrayList<Future<Object>>(concurrency);
+		long start = System.nanoTime();
+		for (int i = 0; i < concurrency; i++) {
+			clients.add(executor.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					int index;
+					while ((index = next.getAndIncrement()) < tasks.size()) {
+						tasks.get(index).call();
+					}
+					return null;
+				}
+			}));
+		}
+		Iterator<Future<Object>> iter = clients.iterator();
+		while (iter.hasNext()) {
+			try {
+				iter.next().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Creates a task rendering a window and comparing the output against the expected output.
+	 *
+	 * @param result results of the window
+	 * @param url render URL
+	 * @param cookie session cookie or null
+	 * @param expected expected output or null if not to be compared
+	 * @param query render parameters for reporting
+	 * @return render task
+	 */
+	protected Callable<Object> createRender(final WindowStressResult result, final String url, final String cookie, final byte[] expected, final String query) {
+		return new Callable<Object>() {
+			public Object call() throws IOException {
+				byte[] output = fetch(result, url, cookie, null);
+				if (expected != null && output != null && !Arrays.equals(expected, output)) {
+					result.recordDifference(query);
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Creates a task invoking an action of a window.
+	 *
+	 * @param result results of the window
+	 * @param url action URL
+	 * @param cookie session cookie or null
+	 * @param body form encoded action parameters
+	 * @return action task
+	 */
+	protected Callable<Object> createAction(final WindowStressResult result, final String url, final String cookie, final String body) {
+		return new Callable<Object>() {
+			public Object call() throws IOException {
+				fetch(result, url, cookie, body);
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Creates randomized parameters.
+	 *
+	 * @param names parameter names
+	 * @param random source of randomness
+	 * @return parameter values by name
+	 */
+	protected static Map<String, String> createParameters(List<String> names, Random random) {
+		Map<String, String> parameters = new LinkedHashMap<String, String>();
+		Iterator<String> iter = names.iterator();
+		while (iter.hasNext()) {
+			String name = iter.next();
+			if (random.nextBoolean()) {
+				parameters.put(name, String.valueOf(random.nextInt(100)));
+			} else {
+				int length = 1 + random.nextInt(12);
+				StringBuilder sb = new StringBuilder(length);
+				for (int i = 0; i < length; i++) {
+					sb.append(VALUE_CHARS.charAt(random.nextInt(VALUE_CHARS.length())));
+				}
+				parameters.put(name, sb.toString());
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Creates a portal URL targeting the specified window, with the window maximized.
+	 *
+	 * @param serverURI scheme, host and port used to connect to the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param windowId portlet window identifier
+	 * @param parameters render parameters
+	 * @param action whether to create an action URL
+	 * @return absolute URL
+	 */
+	protected static String createURL(String serverURI, String servletPath, String windowId, Map<String, String> parameters, boolean action) {
+		PortletPrototypingPortalURL url = new PortletPrototypingPortalURL(serverURI, servletPath, PortletPrototypingPortalURLParser.getParser());
+		url.setWindowState(windowId, WindowState.MAXIMIZED);
+		if (action) {
+			url.setActionWindow(windowId);
+		}
+		Iterator<Map.Entry<String, String>> iter = parameters.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, String> entry = iter.next();
+			url.addParameter(new PortalURLParameter(windowId, entry.getKey(), entry.getValue()));
+		}
+		return url.toURL(true);
+	}
+
+	/**
+	 * Creates a URL rendering only the markup of the specified window.
+	 *
+	 * @param url portal URL
+	 * @param windowId portlet window identifier
+	 * @return absolute URL
+	 */
+	protected static String createFragmentURL(String url, String windowId) {
+		Map<String, String> query = new LinkedHashMap<String, String>();
+		query.put(FRAGMENT_PARAMETER, windowId);
+		query.put(MEASUREMENTS_PARAMETER, Boolean.FALSE.toString());
+		return url + '?' + toQuery(query);
+	}
+
+	/**
+	 * Returns the specified parameters form encoded.
+	 *
+	 * @param parameters parameter values by name
+	 * @return form encoded parameters
+	 */
+	protected static String toQuery(Map<String, String> parameters) {
+		StringBuilder sb = new StringBuilder();
+		try {
+			Iterator<Map.Entry<String, String>> iter = parameters.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<String, String> entry = iter.next();
+				if (sb.length() > 0) {
+					sb.append('&');
+				}
+				sb.append(URLEncoder.encode(entry.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(entry.getValue(), "UTF-8"));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Opens a portal session to be shared by the stress test requests.
+	 *
+	 * @param url portal URL
+	 * @param source header value marking the request as self-generated
+	 * @return session cookie or null if no session was created
+	 * @throws IOException if the portal could not be accessed
+	 */
+	protected static String openSession(String url, String source) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setInstanceFollowRedirects(false);
+		GeneratedRequest.mark(connection, source);
+		try {
+			connection.getResponseCode();
+			StringBuilder sb = new StringBuilder();
+			String header;
+			for (int i = 1; (header = connection.getHeaderFieldKey(i)) != null; i++) {
+				if ("Set-Cookie".equalsIgnoreCase(header)) {
+					String value = connection.getHeaderField(i);
+					int semicolon = value.indexOf(';');
+					if (sb.length() > 0) {
+						sb.append("; ");
+					}
+					sb.append(semicolon != -1 ? value.substring(0, semicolon) : value);
+				}
+			}
+			drain(connection);
+			return sb.length() > 0 ? sb.toString() : null;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Sends a request to the portal. Server error statuses are recorded.
+	 *
+	 * @param result results of the window
+	 * @param url request URL
+	 * @param cookie session cookie or null
+	 * @param body form encoded body to be posted or null to send a GET
+	 * @return response body or null if the status was not successful
+	 * @throws IOException if the portal could not be accessed
+	 */
+	protected static byte[] fetch(WindowStressResult result, String url, String cookie, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setInstanceFollowRedirects(false);
+		GeneratedRequest.mark(connection, GeneratedRequest.STRESS_TEST);
+		if (cookie != null) {
+			connection.setRequestProperty("Cookie", cookie);
+		}
+		if (body != null) {
+			byte[] bytes = body.getBytes("UTF-8");
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+			connection.setFixedLengthStreamingMode(bytes.length);
+			OutputStream out = connection.getOutputStream();
+			out.write(bytes);
+			out.close();
+		}
+		int status = connection.getResponseCode();
+		if (status >= 500) {
+			result.recordError();
+		}
+		byte[] response = drain(connection);
+		return status >= 200 && status < 300 ? response : null;
+	}
+
+	/**
+	 * Reads the response body of the specified connection.
+	 *
+	 * @param connection HTTP connection
+	 * @return response body
+	 * @throws IOException on I/O error
+	 */
+	protected static byte[] drain(HttpURLConnection connection) throws IOException {
+		InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (in != null) {
+			try {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return out.toByteArray();
+	}
+
+}
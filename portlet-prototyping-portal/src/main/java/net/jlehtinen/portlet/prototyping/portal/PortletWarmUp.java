@@ -0,0 +1,487 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.portlet.PortletMode;
+import javax.portlet.PortletRequest;
+import javax.portlet.WindowState;
+import javax.servlet.ServletContext;
+
+import org.apache.pluto.container.driver.PortletInvocationEvent;
+import org.apache.pluto.container.driver.PortletInvocationListener;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.services.portal.PortletWindowConfig;
+import org.apache.pluto.driver.services.portal.RenderConfigService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * Warms up the portlet windows on the default portal page by rendering each window once
+ * in each of its supported portlet modes, so that the portlets are initialized and their
+ * JSPs compiled before the first real request. The renders are sent in parallel over HTTP
+ * to the portal itself using a single session, with the rendered window maximized. The
+ * portal is reported warm once every render has completed. The portal catches portlet
+ * exceptions and still responds with a successful status, so portlet exceptions are
+ * collected as a portlet invocation listener and fail the render of the window and mode.
+ * Finally the whole default page is requested once to measure its time to first byte and
+ * total response time, which shows the effect of streaming page aggregation.
+ */
+public class PortletWarmUp implements PortletInvocationListener, ServletContextAware {
+
+	/** Name of the servlet context attribute holding the warm-up */
+	public static final String ATTRIBUTE_NAME = PortletWarmUp.class.getName();
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PortletWarmUp.class);
+
+	/** Render configuration providing the default page */
+	protected final RenderConfigService renderConfigService;
+
+	/** Whether a warm-up is running */
+	protected volatile boolean running;
+
+	/** Whether the latest warm-up has completed without failed renders */
+	protected volatile boolean warm;
+
+	/** Duration of the latest completed warm-up in milliseconds */
+	protected volatile long millis;
+
+	/** Renders of the latest warm-up */
+	protected volatile List<Render> renders = Collections.emptyList();
+
+	/** Time to the first byte of the default page in milliseconds or -1 if not measured */
+	protected volatile long pageFirstByteMillis = -1;
+
+	/** Total response time of the default page in milliseconds or -1 if not measured */
+	protected volatile long pageMillis = -1;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param renderConfigService render configuration service
+	 */
+	public PortletWarmUp(RenderConfigService renderConfigService) {
+		this.renderConfigService = renderConfigService;
+	}
+
+	/**
+	 * Publishes this warm-up in the specified servlet context.
+	 *
+	 * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		servletContext.setAttribute(ATTRIBUTE_NAME, this);
+	}
+
+	public void onBegin(PortletInvocationEvent event) {
+		// Nothing to do
+	}
+
+	public void onEnd(PortletInvocationEvent event) {
+		// Nothing to do
+	}
+
+	public void onError(PortletInvocationEvent event, Throwable t) {
+		PortletRequest request = event.getPortletRequest();
+		if (!running || !GeneratedRequest.isGenerated(request, GeneratedRequest.WARM_UP)) {
+			return;
+		}
+		String windowId = event.getPortletWindow().getId().getStringId();
+		String mode = request.getPortletMode().toString();
+		Iterator<Render> iter = renders.iterator();
+		while (iter.hasNext()) {
+			Render render = iter.next();
+			if (render.getWindowId().equals(windowId) && render.getMode().equals(mode)) {
+				render.fail(t);
+			}
+		}
+	}
+
+	/**
+	 * Returns whether a warm-up is running.
+	 *
+	 * @return whether running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns whether the latest warm-up has completed successfully, that is, every portlet
+	 * window has rendered without an error status or a portlet exception in each of its
+	 * warmed up modes.
+	 *
+	 * @return whether warm
+	 */
+	public boolean isWarm() {
+		return warm;
+	}
+
+	/**
+	 * Returns the duration of the latest completed warm-up.
+	 *
+	 * @return duration in milliseconds
+	 */
+	public long getMillis() {
+		return millis;
+	}
+
+	/**
+	 * Returns the renders of the latest warm-up.
+	 *
+	 * @return renders in the order they were scheduled
+	 */
+	public List<Render> getRenders() {
+		return renders;
+	}
+
+	/**
+	 * Returns the time to the first byte of the default page measured by the latest warm-up.
+	 *
+	 * @return time to first byte in milliseconds or -1 if not measured
+	 */
+	public long getPageFirstByteMillis() {
+		return pageFirstByteMillis;
+	}
+
+	/**
+	 * Returns the total response time of the default page measured by the latest warm-up.
+	 *
+	 * @return response time in milliseconds or -1 if not measured
+	 */
+	public long getPageMillis() {
+		return pageMillis;
+	}
+
+	/**
+	 * Starts warming up the portlet windows on the default page in the background.
+	 * Windows of portlets without specified modes are rendered in the view mode only.
+	 *
+	 * @param serverURI scheme, host and port used to connect to the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param portletModes supported portlet modes keyed by portlet name
+	 * @return whether the warm-up was started, false if one was already running
+	 */
+	public synchronized boolean start(final String serverURI, final String servletPath, Map<String, Set<String>> portletModes) {
+		if (running) {
+			return false;
+		}
+		final List<Render> scheduled = createRenders(portletModes);
+		running = true;
+		warm = false;
+		renders = scheduled;
+		pageFirstByteMillis = -1;
+		pageMillis = -1;
+		Thread thread = new Thread("Portlet warm-up") {
+			public void run() {
+				try {
+					warmUp(serverURI, servletPath, scheduled);
+				} catch (IOException e) {
+					logger.error("Portlet warm-up failed", e);
+				} finally {
+					running = false;
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * Creates the renders of the portlet windows on the default page.
+	 *
+	 * @param portletModes supported portlet modes keyed by portlet name
+	 * @return renders to be made
+	 */
+	protected List<Render> createRenders(Map<String, Set<String>> portletModes) {
+		List<Render> scheduled = new ArrayList<Render>();
+		PageConfig page = renderConfigService.getDefaultPage();
+		if (page != null) {
+			Iterator<?> iter = page.getPortletIds().iterator();
+			while (iter.hasNext()) {
+				String windowId = (String) iter.next();
+				String portletName = PortletWindowConfig.fromId(windowId).getPortletName();
+				Set<String> modes = portletModes.get(portletName);
+				if (modes == null || modes.isEmpty()) {
+					modes = Collections.singleton(PortletMode.VIEW.toString());
+				}
+				Iterator<String> modeIter = modes.iterator();
+				while (modeIter.hasNext()) {
+					scheduled.add(new Render(windowId, portletName, modeIter.next()));
+				}
+			}
+		}
+		return Collections.unmodifiableList(scheduled);
+	}
+
+	/**
+	 * Makes the specified renders in parallel and waits for them to complete.
+	 *
+	 * @param serverURI scheme, host and port used to connect to the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param scheduled renders to be made
+	 * @throws IOException if the portal could not be accessed
+	 */
+	protected void warmUp(String serverURI, String servletPath, List<Render> scheduled) throws IOException {
+		long start = System.nanoTime();
+		int threads = Math.max(1, Math.min(scheduled.size(), Runtime.getRuntime().availableProcessors() * 2));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Portlet warm-up client " + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			String cookie = PortletStressTester.openSession(serverURI + servletPath, GeneratedRequest.WARM_UP);
+			List<Future<Object>> results = new ArrayList<Future<Object>>(scheduled.size());
+			Iterator<Render> iter = scheduled.iterator();
+			while (iter.hasNext()) {
+				results.add(executor.submit(createTask(iter.next(), serverURI, servletPath, cookie)));
+			}
+			Iterator<Future<Object>> resultIter = results.iterator();
+			while (resultIter.hasNext()) {
+				try {
+					resultIter.next().get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted");
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			measurePage(serverURI + servletPath, cookie);
+		} finally {
+			executor.shutdownNow();
+		}
+		millis = (System.nanoTime() - start) / 1000000;
+		int failed = 0;
+		Iterator<Render> iter = scheduled.iterator();
+		while (iter.hasNext()) {
+			if (!iter.next().isSuccessful()) {
+				failed++;
+			}
+		}
+		warm = failed == 0;
+		logger.info(MessageFormat.format("Portal warm: {0} renders in {1} ms, {2} failed; default page first byte in {3} ms, complete in {4} ms", new Object[] {
+				new Integer(scheduled.size()), new Long(millis), new Integer(failed), new Long(pageFirstByteMillis), new Long(pageMillis) }));
+	}
+
+	/**
+	 * Requests the default page and measures its time to first byte and total response time.
+	 *
+	 * @param url URL of the default page
+	 * @param cookie session cookie or null
+	 * @throws IOException if the portal could not be accessed
+	 */
+	protected void measurePage(String url, String cookie) throws IOException {
+		long start = System.nanoTime();
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setInstanceFollowRedirects(false);
+		GeneratedRequest.mark(connection, GeneratedRequest.WARM_UP);
+		if (cookie != null) {
+			connection.setRequestProperty("Cookie", cookie);
+		}
+		try {
+			InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				try {
+					int b = in.read();
+					pageFirstByteMillis = (System.nanoTime() - start) / 1000000;
+					if (b != -1) {
+						byte[] buffer = new byte[8192];
+						while (in.read(buffer) != -1) {
+							// Discard the rest of the page
+						}
+					}
+				} finally {
+					in.close();
+				}
+			}
+			pageMillis = (System.nanoTime() - start) / 1000000;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Creates a task making a single render.
+	 *
+	 * @param render render to be made
+	 * @param serverURI scheme, host and port used to connect to the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param cookie session cookie or null
+	 * @return render task
+	 */
+	protected Callable<Object> createTask(final Render render, final String serverURI, final String servletPath, final String cookie) {
+		return new Callable<Object>() {
+			public Object call() throws IOException {
+				PortletPrototypingPortalURL url = new PortletPrototypingPortalURL(serverURI, servletPath, PortletPrototypingPortalURLParser.getParser());
+				url.setWindowState(render.getWindowId(), WindowState.MAXIMIZED);
+				url.setPortletMode(render.getWindowId(), new PortletMode(render.getMode()));
+				long start = System.nanoTime();
+				HttpURLConnection connection = (HttpURLConnection) new URL(url.toURL(true)).openConnection();
+				connection.setInstanceFollowRedirects(false);
+				GeneratedRequest.mark(connection, GeneratedRequest.WARM_UP);
+				if (cookie != null) {
+					connection.setRequestProperty("Cookie", cookie);
+				}
+				try {
+					int status = connection.getResponseCode();
+					PortletStressTester.drain(connection);
+					render.complete(status, (System.nanoTime() - start) / 1000000);
+				} finally {
+					connection.disconnect();
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * A single warm-up render of a portlet window in a portlet mode.
+	 */
+	public static class Render {
+
+		/** Portlet window identifier */
+		protected final String windowId;
+
+		/** Portlet name */
+		protected final String portletName;
+
+		/** Portlet mode */
+		protected final String mode;
+
+		/** HTTP status of the render or 0 if not completed */
+		protected volatile int status;
+
+		/** Duration of the render in milliseconds */
+		protected volatile long millis;
+
+		/** Portlet exception thrown by the render or null */
+		protected volatile Throwable error;
+
+		/**
+		 * Constructs a new instance.
+		 *
+		 * @param windowId portlet window identifier
+		 * @param portletName portlet name
+		 * @param mode portlet mode
+		 */
+		public Render(String windowId, String portletName, String mode) {
+			this.windowId = windowId;
+			this.portletName = portletName;
+			this.mode = mode;
+		}
+
+		/**
+		 * Records the completion of the render.
+		 *
+		 * @param status HTTP status
+		 * @param millis duration in milliseconds
+		 */
+		public void complete(int status, long millis) {
+			this.millis = millis;
+			this.status = status;
+		}
+
+		/**
+		 * Records a portlet exception thrown by the render.
+		 *
+		 * @param error portlet exception
+		 */
+		public void fail(Throwable error) {
+			this.error = error;
+		}
+
+		public String getWindowId() {
+			return windowId;
+		}
+
+		public String getPortletName() {
+			return portletName;
+		}
+
+		public String getMode() {
+			return mode;
+		}
+
+		/**
+		 * Returns the HTTP status of the render.
+		 *
+		 * @return HTTP status or 0 if not completed
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * Returns the duration of the render.
+		 *
+		 * @return duration in milliseconds
+		 */
+		public long getMillis() {
+			return millis;
+		}
+
+		/**
+		 * Returns the portlet exception thrown by the render.
+		 *
+		 * @return portlet exception or null
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
+		/**
+		 * Returns whether the render completed successfully, with a successful HTTP status
+		 * and without a portlet exception.
+		 *
+		 * @return whether successful
+		 */
+		public boolean isSuccessful() {
+			return status >= 200 && status < 300 && error == null;
+		}
+
+	}
+
+}
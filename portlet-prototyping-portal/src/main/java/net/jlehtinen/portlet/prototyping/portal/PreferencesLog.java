@@ -0,0 +1,410 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.pluto.container.PortletPreference;
+import org.apache.pluto.container.impl.PortletPreferenceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file log of stored portlet preferences. Each record contains the complete
+ * set of preferences for a single key so the latest record for a key wins when the log
+ * is replayed. Records are written by a background thread which coalesces pending writes
+ * for the same key into a single record, so callers never block on file I/O.
+ * The log is compacted when it is opened. The previous log is kept as a backup while the
+ * compacted log replaces it, and read instead if the log itself is missing. Strings are
+ * written as length prefixed UTF-8 so values of any length can be stored.
+ */
+public class PreferencesLog {
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(PreferencesLog.class);
+
+	/** Marker placed in the write queue to stop the writer thread */
+	protected static final String STOP_MARKER = new String("stop");
+
+	/** How long to wait for pending writes on close, in milliseconds */
+	protected static final long CLOSE_TIMEOUT = 10000;
+
+	/** The log file */
+	protected final File file;
+
+	/** Backup of the log file replaced by the latest compaction */
+	protected final File backup;
+
+	/** Source of the current preferences for the keys to be written */
+	protected final Map<String, Map<String, PortletPreference>> source;
+
+	/** Keys waiting to be written */
+	protected final BlockingQueue<String> pending = new LinkedBlockingQueue<String>();
+
+	/** The background writer thread or null if not open */
+	protected Thread writer;
+
+	/** Output stream appending to the log file */
+	protected DataOutputStream out;
+
+	/**
+	 * Constructs a new log. The log must be opened before use.
+	 *
+	 * @param file log file
+	 * @param source map providing the current preferences for the keys to be written
+	 */
+	public PreferencesLog(File file, Map<String, Map<String, PortletPreference>> source) {
+		this.file = file;
+		this.backup = new File(file.getPath() + ".bak");
+		this.source = source;
+	}
+
+	/**
+	 * Reads the preferences stored in the log, compacts the log and starts the
+	 * background writer.
+	 *
+	 * @return preferences read from the log keyed by preferences key
+	 * @throws IOException on I/O error
+	 */
+	public synchronized Map<String, Map<String, PortletPreference>> open() throws IOException {
+		Map<String, Map<String, PortletPreference>> stored = read();
+		compact(stored);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writePending();
+			}
+		}, "Portlet preferences writer");
+		writer.setDaemon(true);
+		writer.start();
+		return stored;
+	}
+
+	/**
+	 * Schedules the current preferences of the specified key to be written to the log.
+	 *
+	 * @param key preferences key
+	 */
+	public void write(String key) {
+		pending.add(key);
+	}
+
+	/**
+	 * Writes any pending preferences and stops the background writer, which closes the log.
+	 * If the pending writes do not complete in time, the writer is left to complete them
+	 * and close the log in the background.
+	 */
+	public synchronized void close() {
+		if (writer == null) {
+			return;
+		}
+		pending.add(STOP_MARKER);
+		try {
+			writer.join(CLOSE_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (writer.isAlive()) {
+			logger.warn(MessageFormat.format("Pending writes to preferences log {0} did not complete in {1} ms", new Object[] {
+					file, new Long(CLOSE_TIMEOUT) }));
+		}
+		writer = null;
+	}
+
+	/**
+	 * Main loop of the background writer. Drains the pending keys in batches and writes
+	 * a single record per key. A key whose record can not be written is logged and
+	 * skipped. The log is closed once the writer has been stopped.
+	 */
+	protected void writePending() {
+		List<String> batch = new ArrayList<String>();
+		Set<String> keys = new LinkedHashSet<String>();
+		boolean stop = false;
+		while (!stop) {
+			try {
+				batch.add(pending.take());
+			} catch (InterruptedException e) {
+				stop = true;
+			}
+			pending.drainTo(batch);
+			Iterator<String> iter = batch.iterator();
+			while (iter.hasNext()) {
+				String key = iter.next();
+				if (key == STOP_MARKER) {
+					stop = true;
+				} else {
+					keys.add(key);
+				}
+			}
+			try {
+				iter = keys.iterator();
+				while (iter.hasNext()) {
+					String key = iter.next();
+					try {
+						writeRecord(out, key, source.get(key));
+					} catch (RuntimeException e) {
+						logger.warn(MessageFormat.format("Failed to write preferences {0} to log {1}", new Object[] { key, file }), e);
+					}
+				}
+				out.flush();
+			} catch (IOException e) {
+				logger.warn(MessageFormat.format("Failed to write preferences log {0}", new Object[] { file }), e);
+			}
+			batch.clear();
+			keys.clear();
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			logger.warn(MessageFormat.format("Failed to close preferences log {0}", new Object[] { file }), e);
+		}
+	}
+
+	/**
+	 * Reads the records in the log file, or in the backup if the log file is missing
+	 * because a compaction was interrupted. Reading stops at the first truncated or
+	 * corrupted record, which is ignored along with anything after it.
+	 *
+	 * @return the latest preferences for each key
+	 * @throws IOException on I/O error
+	 */
+	protected Map<String, Map<String, PortletPreference>> read() throws IOException {
+		Map<String, Map<String, PortletPreference>> stored = new HashMap<String, Map<String, PortletPreference>>();
+		File source = file;
+		if (!source.exists()) {
+			if (!backup.exists()) {
+				return stored;
+			}
+			source = backup;
+			logger.warn(MessageFormat.format("Preferences log {0} missing, reading backup {1}", new Object[] { file, backup }));
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(readFile(source)));
+		try {
+			while (in.available() > 0) {
+				String key = readString(in);
+				stored.put(key, readPreferences(in));
+			}
+		} catch (EOFException e) {
+			logger.warn(MessageFormat.format("Ignoring truncated or corrupted record in preferences log {0}", new Object[] { source }));
+		}
+		return stored;
+	}
+
+	/**
+	 * Rewrites the log file so that it contains a single record per key. The compacted
+	 * log is written to a temporary file which then replaces the log, the previous log
+	 * being kept as the backup, so that the stored preferences survive a crash at any point.
+	 *
+	 * @param stored preferences to be written
+	 * @throws IOException on I/O error
+	 */
+	protected void compact(Map<String, Map<String, PortletPreference>> stored) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException(MessageFormat.format("Failed to create directory {0}", new Object[] { parent }));
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			Iterator<Map.Entry<String, Map<String, PortletPreference>>> iter = stored.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<String, Map<String, PortletPreference>> entry = iter.next();
+				writeRecord(tmpOut, entry.getKey(), entry.getValue());
+			}
+		} finally {
+			tmpOut.close();
+		}
+		if (file.exists()) {
+			if (backup.exists() && !backup.delete()) {
+				throw new IOException(MessageFormat.format("Failed to replace {0}", new Object[] { backup }));
+			}
+			if (!file.renameTo(backup)) {
+				throw new IOException(MessageFormat.format("Failed to rename {0} to {1}", new Object[] { file, backup }));
+			}
+		}
+		if (!tmp.renameTo(file)) {
+			backup.renameTo(file);
+			throw new IOException(MessageFormat.format("Failed to rename {0} to {1}", new Object[] { tmp, file }));
+		}
+	}
+
+	/**
+	 * Returns the contents of the specified file.
+	 *
+	 * @param file file to be read
+	 * @return file contents
+	 * @throws IOException on I/O error
+	 */
+	protected static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(file.length(), Integer.MAX_VALUE));
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, n);
+			}
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a single record. The record is assembled in memory first so that a failure
+	 * does not leave a partial record in the log.
+	 *
+	 * @param out output stream
+	 * @param key preferences key
+	 * @param preferences preferences or null for none
+	 * @throws IOException on I/O error
+	 */
+	protected static void writeRecord(DataOutputStream out, String key, Map<String, PortletPreference> preferences) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream record = new DataOutputStream(bytes);
+		writeString(record, key);
+		if (preferences == null) {
+			record.writeInt(0);
+		} else {
+			record.writeInt(preferences.size());
+			Iterator<PortletPreference> iter = preferences.values().iterator();
+			while (iter.hasNext()) {
+				PortletPreference preference = iter.next();
+				writeString(record, preference.getName());
+				record.writeBoolean(preference.isReadOnly());
+				String[] values = preference.getValues();
+				if (values == null) {
+					record.writeInt(-1);
+					continue;
+				}
+				record.writeInt(values.length);
+				for (int i = 0; i < values.length; i++) {
+					record.writeBoolean(values[i] != null);
+					if (values[i] != null) {
+						writeString(record, values[i]);
+					}
+				}
+			}
+		}
+		bytes.writeTo(out);
+	}
+
+	/**
+	 * Reads the preferences of a single record.
+	 *
+	 * @param in input stream
+	 * @return preferences keyed by preference name
+	 * @throws EOFException if the record is truncated or corrupted
+	 * @throws IOException on I/O error
+	 */
+	protected static Map<String, PortletPreference> readPreferences(DataInputStream in) throws IOException {
+		int count = readLength(in);
+		Map<String, PortletPreference> preferences = new HashMap<String, PortletPreference>();
+		for (int i = 0; i < count; i++) {
+			String name = readString(in);
+			boolean readOnly = in.readBoolean();
+			int length = in.readInt();
+			String[] values = null;
+			if (length != -1) {
+				values = new String[checkLength(in, length)];
+				for (int j = 0; j < values.length; j++) {
+					values[j] = in.readBoolean() ? readString(in) : null;
+				}
+			}
+			preferences.put(name, new PortletPreferenceImpl(name, values, readOnly));
+		}
+		return preferences;
+	}
+
+	/**
+	 * Writes a string as its UTF-8 length followed by the UTF-8 bytes.
+	 *
+	 * @param out output stream
+	 * @param value string to be written
+	 * @throws IOException on I/O error
+	 */
+	protected static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param in input stream
+	 * @return string
+	 * @throws EOFException if the string is truncated
+	 * @throws IOException on I/O error
+	 */
+	protected static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readLength(in)];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Reads a length or count and checks it against the remaining bytes.
+	 *
+	 * @param in input stream
+	 * @return length
+	 * @throws EOFException if the length is invalid
+	 * @throws IOException on I/O error
+	 */
+	protected static int readLength(DataInputStream in) throws IOException {
+		return checkLength(in, in.readInt());
+	}
+
+	/**
+	 * Checks the specified length or count against the remaining bytes. Every counted
+	 * item takes at least one byte, so a larger value can only come from a truncated or
+	 * corrupted record.
+	 *
+	 * @param in input stream
+	 * @param length length read from the stream
+	 * @return length
+	 * @throws EOFException if the length is negative or exceeds the remaining bytes
+	 * @throws IOException on I/O error
+	 */
+	protected static int checkLength(DataInputStream in, int length) throws IOException {
+		if (length < 0 || length > in.available()) {
+			throw new EOFException(MessageFormat.format("Invalid length {0} in preferences log", new Object[] { new Integer(length) }));
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measurements of a single portlet render checked against the budget of the portlet.
+ */
+public class RenderMeasurement {
+
+	/** Portlet window identifier */
+	protected final String windowId;
+
+	/** Render time in milliseconds */
+	protected final long renderMillis;
+
+	/** Markup size in bytes */
+	protected final long bytes;
+
+	/** Memory allocated by the render in bytes or -1 if not measured */
+	protected final long allocatedBytes;
+
+	/** Exceeded limits of the budget */
+	protected final List<String> violations;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param windowId portlet window identifier
+	 * @param renderMillis render time in milliseconds
+	 * @param bytes markup size in bytes
+	 * @param allocatedBytes memory allocated by the render in bytes or -1 if not measured
+	 * @param violations exceeded limits of the budget
+	 */
+	public RenderMeasurement(String windowId, long renderMillis, long bytes, long allocatedBytes, List<String> violations) {
+		this.windowId = windowId;
+		this.renderMillis = renderMillis;
+		this.bytes = bytes;
+		this.allocatedBytes = allocatedBytes;
+		this.violations = Collections.unmodifiableList(violations);
+	}
+
+	public String getWindowId() {
+		return windowId;
+	}
+
+	/**
+	 * Returns the render time.
+	 *
+	 * @return render time in milliseconds
+	 */
+	public long getRenderMillis() {
+		return renderMillis;
+	}
+
+	/**
+	 * Returns the markup size.
+	 *
+	 * @return markup size in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the memory allocated by the render.
+	 *
+	 * @return allocated bytes or -1 if not measured
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Returns the exceeded limits of the budget.
+	 *
+	 * @return violation messages, empty if the render was within the budget
+	 */
+	public List<String> getViolations() {
+		return violations;
+	}
+
+	/**
+	 * Returns whether the render was within the budget.
+	 *
+	 * @return whether within budget
+	 */
+	public boolean isWithinBudget() {
+		return violations.isEmpty();
+	}
+
+}
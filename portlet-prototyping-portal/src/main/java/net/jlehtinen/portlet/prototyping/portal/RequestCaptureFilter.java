@@ -0,0 +1,229 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
+import net.jlehtinen.portlet.util.RecordedRequest;
+import net.jlehtinen.portlet.util.RequestLog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Filter capturing the requests received by the portal into a {@link RequestLog} when a
+ * request capture file has been configured. Each record holds the request URI, method,
+ * body, session, authenticated user, response status and processing time so that the
+ * browsing session can be replayed by the <em>replay</em> goal of the plugin. The
+ * prototyping endpoints under <code>/prototyping/</code> and the requests the portal sends
+ * to itself are not captured.
+ */
+public class RequestCaptureFilter implements Filter {
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(RequestCaptureFilter.class);
+
+	/** Path prefix of the prototyping endpoints */
+	protected static final String PROTOTYPING_PATH = "/prototyping/";
+
+	/** Largest request body recorded, in bytes */
+	protected static final int MAX_RECORDED_BODY = 1024 * 1024;
+
+	/** The portal servlet context */
+	protected ServletContext servletContext;
+
+	/** Current request log or null if not capturing */
+	protected volatile RequestLog log;
+
+	/** Configuration the current log was opened for */
+	protected volatile PrototypingConfiguration configuration;
+
+	/** Request capture file that could not be created or null */
+	protected File failedFile;
+
+	/** Session indexes keyed by session identifier */
+	protected final ConcurrentHashMap<String, Integer> sessions = new ConcurrentHashMap<String, Integer>();
+
+	/** Next session index */
+	protected final AtomicInteger nextSession = new AtomicInteger();
+
+	public void init(FilterConfig filterConfig) throws ServletException {
+		servletContext = filterConfig.getServletContext();
+	}
+
+	public synchronized void destroy() {
+		closeLog();
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		RequestLog log = null;
+		if (request instanceof HttpServletRequest && response instanceof HttpServletResponse
+				&& !GeneratedRequest.isGenerated((HttpServletRequest) request)) {
+			log = getLog();
+		}
+		if (log == null || ((HttpServletRequest) request).getServletPath().startsWith(PROTOTYPING_PATH)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		CapturedRequest captured = null;
+		if (httpRequest.getContentLength() > 0 || httpRequest.getHeader("Transfer-Encoding") != null) {
+			captured = new CapturedRequest(httpRequest, MAX_RECORDED_BODY);
+			httpRequest = captured;
+		}
+		StatusRecordingResponse httpResponse = new StatusRecordingResponse((HttpServletResponse) response);
+		long time = System.currentTimeMillis() - log.getStartTime();
+		long start = System.nanoTime();
+		try {
+			chain.doFilter(httpRequest, httpResponse);
+		} finally {
+			long durationMicros = (System.nanoTime() - start) / 1000;
+			record(log, httpRequest, httpResponse, captured, time, durationMicros);
+		}
+	}
+
+	/**
+	 * Writes a record of the specified request into the log.
+	 *
+	 * @param log request log
+	 * @param request servlet request
+	 * @param response servlet response
+	 * @param captured request wrapper holding the body or null if there was no body
+	 * @param time time of the request since the start of the capture
+	 * @param durationMicros processing time in microseconds
+	 */
+	protected void record(RequestLog log, HttpServletRequest request, StatusRecordingResponse response, CapturedRequest captured, long time, long durationMicros) {
+		String uri = request.getRequestURI();
+		if (request.getQueryString() != null) {
+			uri = uri + "?" + request.getQueryString();
+		}
+		byte[] body = null;
+		if (captured != null) {
+			body = captured.getBody();
+			if (body == null) {
+				logger.warn(MessageFormat.format("Request body over {0} bytes not captured for {1}", new Object[] { new Integer(MAX_RECORDED_BODY), uri }));
+			}
+		}
+		try {
+			log.write(new RecordedRequest(time, getSessionIndex(request), request.getRemoteUser(), request.getMethod(), uri,
+					request.getContentType(), body, response.getStatus(), durationMicros));
+		} catch (IOException e) {
+			logger.warn(MessageFormat.format("Failed to capture request {0}", new Object[] { uri }), e);
+		}
+	}
+
+	/**
+	 * Returns the index of the session of the specified request.
+	 *
+	 * @param request servlet request
+	 * @return session index or -1 if the request has no session
+	 */
+	protected int getSessionIndex(HttpServletRequest request) {
+		HttpSession session;
+		try {
+			session = request.getSession(false);
+		} catch (IllegalStateException e) {
+			return -1;
+		}
+		if (session == null) {
+			return -1;
+		}
+		Integer index = sessions.get(session.getId());
+		if (index == null) {
+			index = new Integer(nextSession.getAndIncrement());
+			Integer existing = sessions.putIfAbsent(session.getId(), index);
+			if (existing != null) {
+				index = existing;
+			}
+		}
+		return index.intValue();
+	}
+
+	/**
+	 * Returns the request log of the current configuration, opening or closing the log
+	 * if the configuration has changed. Locks only when the configuration has changed.
+	 *
+	 * @return request log or null if requests are not captured
+	 */
+	protected RequestLog getLog() {
+		PrototypingConfiguration configuration = (PrototypingConfiguration) servletContext.getAttribute(PrototypingConfiguration.ATTRIBUTE_NAME);
+		if (configuration == this.configuration) {
+			return log;
+		}
+		return updateLog(configuration);
+	}
+
+	/**
+	 * Opens or closes the request log for the specified configuration.
+	 *
+	 * @param configuration current configuration or null if none
+	 * @return request log or null if requests are not captured
+	 */
+	protected synchronized RequestLog updateLog(PrototypingConfiguration configuration) {
+		if (configuration == this.configuration) {
+			return log;
+		}
+		File file = configuration != null ? configuration.getRequestCaptureFile() : null;
+		if (log != null && !log.getFile().equals(file)) {
+			closeLog();
+		}
+		if (log == null && file != null && !file.equals(failedFile)) {
+			try {
+				log = new RequestLog(file);
+				sessions.clear();
+				nextSession.set(0);
+				logger.info(MessageFormat.format("Capturing requests to {0}", new Object[] { file }));
+			} catch (IOException e) {
+				failedFile = file;
+				logger.error(MessageFormat.format("Failed to create request log {0}, requests not captured", new Object[] { file }), e);
+			}
+		}
+		this.configuration = configuration;
+		return log;
+	}
+
+	/**
+	 * Closes the current request log, if any.
+	 */
+	protected void closeLog() {
+		if (log != null) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				logger.warn(MessageFormat.format("Failed to close request log {0}", new Object[] { log.getFile() }), e);
+			}
+			log = null;
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.pluto.driver.AttributeKeys;
+import org.apache.pluto.driver.config.DriverConfiguration;
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURLParser;
+
+/**
+ * Filter wrapping the responses of portlet resource requests in a
+ * {@link ResourceStreamingResponse} to support conditional GETs and byte ranges.
+ * Other portal requests pass through unmodified. The parsed portal URL is handed over to
+ * the {@link PortletPrototypingPortalURLParser} so that the portal does not parse it again.
+ */
+public class ResourceStreamingFilter implements Filter {
+
+	/** The portal servlet context */
+	protected ServletContext servletContext;
+
+	public void init(FilterConfig filterConfig) throws ServletException {
+		servletContext = filterConfig.getServletContext();
+	}
+
+	public void destroy() {
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		if (request instanceof HttpServletRequest && response instanceof HttpServletResponse && isResourceRequest((HttpServletRequest) request)) {
+			response = new ResourceStreamingResponse((HttpServletRequest) request, (HttpServletResponse) response);
+		}
+		chain.doFilter(request, response);
+	}
+
+	/**
+	 * Returns whether the specified request is a portlet resource request.
+	 *
+	 * @param request servlet request
+	 * @return whether the request is a resource request
+	 */
+	protected boolean isResourceRequest(HttpServletRequest request) {
+		DriverConfiguration driverConfig = (DriverConfiguration) servletContext.getAttribute(AttributeKeys.DRIVER_CONFIG);
+		if (driverConfig == null) {
+			return false;
+		}
+		PortalURLParser parser = driverConfig.getPortalUrlParser();
+		PortalURL portalURL = parser.parse(request);
+		if (portalURL == null) {
+			return false;
+		}
+		if (parser instanceof PortletPrototypingPortalURLParser) {
+			request.setAttribute(PortletPrototypingPortalURLParser.PARSED_URL_ATTRIBUTE, portalURL);
+		}
+		return portalURL.getResourceWindow() != null;
+	}
+
+}
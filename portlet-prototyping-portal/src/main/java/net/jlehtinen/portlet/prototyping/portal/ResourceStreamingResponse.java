@@ -0,0 +1,350 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.StringTokenizer;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper for portlet resource requests adding support for conditional GETs
+ * and single byte ranges. Conditional GETs are answered with 304 (Not Modified) as soon
+ * as the portlet sets a matching <code>ETag</code> or <code>Last-Modified</code> header
+ * and the body is discarded. Byte ranges are served when the portlet sets the content
+ * length before writing the body through the output stream; the bytes outside the range
+ * are skipped as they are written. The body is never buffered by the wrapper, so a content
+ * length set after the body has been started is passed on only if the whole body is being
+ * written; a partial or discarded body already carries its own length.
+ */
+public class ResourceStreamingResponse extends HttpServletResponseWrapper {
+
+	/** The <code>ETag</code> header */
+	protected static final String ETAG = "ETag";
+
+	/** The <code>Last-Modified</code> header */
+	protected static final String LAST_MODIFIED = "Last-Modified";
+
+	/** The <code>Content-Length</code> header */
+	protected static final String CONTENT_LENGTH = "Content-Length";
+
+	/** Prefix of byte range specifications */
+	protected static final String BYTES_PREFIX = "bytes=";
+
+	/** Value of the <code>If-None-Match</code> request header or null */
+	protected final String ifNoneMatch;
+
+	/** Value of the <code>If-Modified-Since</code> request header or -1 */
+	protected final long ifModifiedSince;
+
+	/** Value of the <code>Range</code> request header or null if ranges are not applicable */
+	protected final String range;
+
+	/** Content length set by the portlet or -1 if not known */
+	protected long contentLength = -1;
+
+	/** Whether the response has been turned into 304 (Not Modified) */
+	protected boolean notModified;
+
+	/** Whether the response has been turned into 416 (Requested Range Not Satisfiable) */
+	protected boolean unsatisfiable;
+
+	/** Whether the body output has been obtained */
+	protected boolean bodyStarted;
+
+	/** Whether only a part of the body is written to the client */
+	protected boolean sliced;
+
+	/** The output stream returned to the portlet or null if not obtained yet */
+	protected ServletOutputStream outputStream;
+
+	/** The writer returned to the portlet or null if not obtained yet */
+	protected PrintWriter writer;
+
+	/**
+	 * Constructs a new wrapper.
+	 *
+	 * @param request servlet request
+	 * @param response servlet response to be wrapped
+	 */
+	public ResourceStreamingResponse(HttpServletRequest request, HttpServletResponse response) {
+		super(response);
+		boolean get = "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+		ifNoneMatch = get ? request.getHeader("If-None-Match") : null;
+		long since = -1;
+		if (get) {
+			try {
+				since = request.getDateHeader("If-Modified-Since");
+			} catch (IllegalArgumentException e) {
+				// Ignore malformed header
+			}
+		}
+		ifModifiedSince = since;
+		String rangeHeader = get ? request.getHeader("Range") : null;
+		range = rangeHeader != null && rangeHeader.startsWith(BYTES_PREFIX) && rangeHeader.indexOf(',') == -1 ? rangeHeader : null;
+	}
+
+	public void setHeader(String name, String value) {
+		if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+			setContentLength(value);
+			return;
+		}
+		super.setHeader(name, value);
+		checkHeader(name, value);
+	}
+
+	public void addHeader(String name, String value) {
+		if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+			setContentLength(value);
+			return;
+		}
+		super.addHeader(name, value);
+		checkHeader(name, value);
+	}
+
+	public void setDateHeader(String name, long date) {
+		super.setDateHeader(name, date);
+		checkDateHeader(name, date);
+	}
+
+	public void addDateHeader(String name, long date) {
+		super.addDateHeader(name, date);
+		checkDateHeader(name, date);
+	}
+
+	public void setIntHeader(String name, int value) {
+		if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+			setContentLength(value);
+			return;
+		}
+		super.setIntHeader(name, value);
+	}
+
+	public void setContentLength(int length) {
+		contentLength = length;
+		if (!notModified && !sliced) {
+			super.setContentLength(length);
+		}
+	}
+
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (outputStream == null) {
+			bodyStarted = true;
+			ServletOutputStream target = super.getOutputStream();
+			if (notModified || unsatisfiable) {
+				outputStream = new SliceOutputStream(target, 0, -1);
+			} else {
+				long[] slice = applyRange();
+				outputStream = slice != null ? new SliceOutputStream(target, slice[0], slice[1]) : target;
+			}
+			sliced = outputStream != target;
+		}
+		return outputStream;
+	}
+
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			bodyStarted = true;
+			if (notModified || unsatisfiable) {
+				sliced = true;
+				writer = new PrintWriter(new OutputStreamWriter(new SliceOutputStream(super.getOutputStream(), 0, -1), getCharacterEncoding()));
+			} else {
+				writer = super.getWriter();
+			}
+		}
+		return writer;
+	}
+
+	/**
+	 * Parses a content length header value.
+	 *
+	 * @param value header value
+	 */
+	protected void setContentLength(String value) {
+		try {
+			setContentLength(Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			super.setHeader(CONTENT_LENGTH, value);
+		}
+	}
+
+	/**
+	 * Checks whether the specified header makes the request not modified.
+	 *
+	 * @param name header name
+	 * @param value header value
+	 */
+	protected void checkHeader(String name, String value) {
+		if (ETAG.equalsIgnoreCase(name) && ifNoneMatch != null && value != null && matchesETag(value)) {
+			setNotModified();
+		}
+	}
+
+	/**
+	 * Checks whether the specified date header makes the request not modified.
+	 *
+	 * @param name header name
+	 * @param date header value
+	 */
+	protected void checkDateHeader(String name, long date) {
+		if (LAST_MODIFIED.equalsIgnoreCase(name) && ifNoneMatch == null && ifModifiedSince != -1 && date / 1000 <= ifModifiedSince / 1000) {
+			setNotModified();
+		}
+	}
+
+	/**
+	 * Returns whether the <code>If-None-Match</code> request header matches the specified entity tag.
+	 *
+	 * @param etag entity tag
+	 * @return whether the entity tag matches
+	 */
+	protected boolean matchesETag(String etag) {
+		String tag = stripWeak(etag.trim());
+		StringTokenizer st = new StringTokenizer(ifNoneMatch, ",");
+		while (st.hasMoreTokens()) {
+			String candidate = st.nextToken().trim();
+			if ("*".equals(candidate) || stripWeak(candidate).equals(tag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the weak validator prefix from the specified entity tag.
+	 *
+	 * @param etag entity tag
+	 * @return entity tag without weak prefix
+	 */
+	protected static String stripWeak(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+	/**
+	 * Turns the response into 304 (Not Modified), unless the body has already been started.
+	 */
+	protected void setNotModified() {
+		if (!notModified && !bodyStarted && !isCommitted()) {
+			notModified = true;
+			super.setStatus(SC_NOT_MODIFIED);
+		}
+	}
+
+	/**
+	 * Applies the requested byte range to the response.
+	 *
+	 * @return first and last byte position to be written or null to write everything
+	 */
+	protected long[] applyRange() {
+		if (contentLength < 0) {
+			return null;
+		}
+		super.setHeader("Accept-Ranges", "bytes");
+		if (range == null || isCommitted()) {
+			return null;
+		}
+		String spec = range.substring(BYTES_PREFIX.length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash == -1) {
+			return null;
+		}
+		long first;
+		long last;
+		try {
+			if (dash == 0) {
+				long suffix = Long.parseLong(spec.substring(1).trim());
+				first = Math.max(0, contentLength - suffix);
+				last = contentLength - 1;
+			} else {
+				first = Long.parseLong(spec.substring(0, dash).trim());
+				String lastSpec = spec.substring(dash + 1).trim();
+				last = lastSpec.length() > 0 ? Math.min(Long.parseLong(lastSpec), contentLength - 1) : contentLength - 1;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (first >= contentLength || first > last) {
+			unsatisfiable = true;
+			super.setStatus(SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			super.setHeader("Content-Range", "bytes */" + contentLength);
+			super.setContentLength(0);
+			return new long[] { 0, -1 };
+		}
+		super.setStatus(SC_PARTIAL_CONTENT);
+		super.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + contentLength);
+		super.setContentLength((int) (last - first + 1));
+		return new long[] { first, last };
+	}
+
+	/**
+	 * Output stream writing only the bytes within a byte range to the target stream.
+	 */
+	protected static class SliceOutputStream extends ServletOutputStream {
+
+		/** Target stream */
+		protected final ServletOutputStream target;
+
+		/** Position of the first byte to be written */
+		protected final long first;
+
+		/** Position of the last byte to be written */
+		protected final long last;
+
+		/** Position of the next byte */
+		protected long position;
+
+		/**
+		 * Constructs a new stream. An empty range discards all output.
+		 *
+		 * @param target target stream
+		 * @param first position of the first byte to be written
+		 * @param last position of the last byte to be written
+		 */
+		public SliceOutputStream(ServletOutputStream target, long first, long last) {
+			this.target = target;
+			this.first = first;
+			this.last = last;
+		}
+
+		public void write(int b) throws IOException {
+			if (position >= first && position <= last) {
+				target.write(b);
+			}
+			position++;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			long start = Math.max(position, first);
+			long end = Math.min(position + len - 1, last);
+			if (start <= end) {
+				target.write(b, off + (int) (start - position), (int) (end - start + 1));
+			}
+			position += len;
+		}
+
+		public void flush() throws IOException {
+			target.flush();
+		}
+
+	}
+
+}
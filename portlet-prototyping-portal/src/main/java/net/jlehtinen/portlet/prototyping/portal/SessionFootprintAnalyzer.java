@@ -0,0 +1,261 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.portlet.PortletSession;
+import javax.servlet.ServletContext;
+
+import net.jlehtinen.portlet.util.PrototypingConfiguration;
+
+import org.apache.pluto.container.driver.PortletInvocationEvent;
+import org.apache.pluto.container.driver.PortletInvocationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * Measures the session footprint of the prototyped portlets. After each portlet invocation
+ * the portlet scope and application scope attributes of the portlet session are serialized
+ * to measure their size and attributes that can not be serialized are flagged. The analysis
+ * is enabled by the {@link PrototypingConfiguration}, as serializing the session after each
+ * invocation slows down every request; otherwise the invocations are ignored. Invocations
+ * made for the requests the portal sends to itself are not measured either. The listener
+ * is invoked within the portlet application so it sees the actual portlet session.
+ * The analyzer publishes itself as a servlet context attribute for the footprint servlet,
+ * the session listener and the theme, and logs a summary on shutdown.
+ */
+public class SessionFootprintAnalyzer implements PortletInvocationListener, ServletContextAware, DisposableBean {
+
+	/** Name of the servlet context attribute holding the analyzer */
+	public static final String ATTRIBUTE_NAME = SessionFootprintAnalyzer.class.getName();
+
+	/** Prefix Pluto uses for portlet scope attributes in the underlying HTTP session */
+	protected static final String PORTLET_SCOPE_PREFIX = "javax.portlet.p.";
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(SessionFootprintAnalyzer.class);
+
+	/** The portal servlet context or null if not set */
+	protected ServletContext servletContext;
+
+	/** Footprints keyed by portlet window identifier */
+	protected final ConcurrentHashMap<String, WindowSessionFootprint> footprints = new ConcurrentHashMap<String, WindowSessionFootprint>();
+
+	/**
+	 * Publishes this analyzer in the specified servlet context.
+	 *
+	 * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		this.servletContext = servletContext;
+		servletContext.setAttribute(ATTRIBUTE_NAME, this);
+	}
+
+	/**
+	 * Logs a summary of the measured footprints.
+	 *
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	public void destroy() {
+		if (footprints.isEmpty()) {
+			return;
+		}
+		logger.info("Portlet session footprint summary:");
+		Iterator<WindowSessionFootprint> iter = getFootprints().values().iterator();
+		while (iter.hasNext()) {
+			WindowSessionFootprint footprint = iter.next();
+			logger.info(MessageFormat.format(
+					"{0}: {1} samples, {2} sessions, portlet scope {3} bytes (peak {4}), application scope {5} bytes (peak {6}), growth {7} bytes",
+					new Object[] {
+						footprint.getWindowId(),
+						new Long(footprint.getSamples()),
+						new Integer(footprint.getSessions()),
+						new Long(footprint.getPortletScope()),
+						new Long(footprint.getPeakPortletScope()),
+						new Long(footprint.getApplicationScope()),
+						new Long(footprint.getPeakApplicationScope()),
+						new Long(footprint.getGrowth())
+					}));
+			Map<String, String> failed = footprint.getNonSerializable();
+			if (!failed.isEmpty()) {
+				logger.warn(MessageFormat.format("{0}: non-serializable session attributes {1}", new Object[] { footprint.getWindowId(), failed }));
+			}
+		}
+	}
+
+	/**
+	 * Returns the measured footprints.
+	 *
+	 * @return footprints keyed by portlet window identifier, sorted by identifier
+	 */
+	public Map<String, WindowSessionFootprint> getFootprints() {
+		return Collections.unmodifiableMap(new TreeMap<String, WindowSessionFootprint>(footprints));
+	}
+
+	/**
+	 * Forgets the sizes measured for the specified session.
+	 *
+	 * @param sessionId session identifier
+	 */
+	public void sessionDestroyed(String sessionId) {
+		Iterator<WindowSessionFootprint> iter = footprints.values().iterator();
+		while (iter.hasNext()) {
+			iter.next().removeSession(sessionId);
+		}
+	}
+
+	public void onBegin(PortletInvocationEvent event) {
+	}
+
+	public void onEnd(PortletInvocationEvent event) {
+		if (isEnabled() && !GeneratedRequest.isGenerated(event.getPortletRequest())) {
+			measure(event);
+		}
+	}
+
+	public void onError(PortletInvocationEvent event, Throwable t) {
+		if (isEnabled() && !GeneratedRequest.isGenerated(event.getPortletRequest())) {
+			measure(event);
+		}
+	}
+
+	/**
+	 * Returns whether the analysis is enabled by the current configuration.
+	 *
+	 * @return whether the session footprint is analyzed
+	 */
+	public boolean isEnabled() {
+		PrototypingConfiguration configuration = servletContext != null
+			? (PrototypingConfiguration) servletContext.getAttribute(PrototypingConfiguration.ATTRIBUTE_NAME) : null;
+		return configuration != null && configuration.isSessionFootprint();
+	}
+
+	/**
+	 * Measures the session footprint after the specified invocation.
+	 *
+	 * @param event portlet invocation event
+	 */
+	protected void measure(PortletInvocationEvent event) {
+		PortletSession session = event.getPortletRequest().getPortletSession(false);
+		if (session == null) {
+			return;
+		}
+		try {
+			Map<String, String> failed = new HashMap<String, String>();
+			long portletScope = measure(session, PortletSession.PORTLET_SCOPE, failed);
+			long applicationScope = measure(session, PortletSession.APPLICATION_SCOPE, failed);
+			getFootprint(event.getPortletWindow().getId().getStringId()).record(session.getId(), portletScope, applicationScope, failed);
+		} catch (IllegalStateException e) {
+			// Session invalidated by the portlet
+		}
+	}
+
+	/**
+	 * Measures the serialized size of the attributes in the specified scope. An attribute
+	 * whose serialization fails, also with a runtime exception thrown by its own
+	 * serialization code, is left out of the size and reported as failed.
+	 *
+	 * @param session portlet session
+	 * @param scope session scope
+	 * @param failed map where attributes that could not be serialized are added
+	 * @return serialized size in bytes
+	 */
+	protected long measure(PortletSession session, int scope, Map<String, String> failed) {
+		long size = 0;
+		Enumeration<String> names = session.getAttributeNames(scope);
+		while (names.hasMoreElements()) {
+			String name = names.nextElement();
+			if (scope == PortletSession.APPLICATION_SCOPE && name.startsWith(PORTLET_SCOPE_PREFIX)) {
+				continue;
+			}
+			Object value = session.getAttribute(name, scope);
+			try {
+				size += serializedSize(value);
+			} catch (IOException e) {
+				failed.put(name, value != null ? value.getClass().getName() : null);
+			} catch (RuntimeException e) {
+				failed.put(name, value != null ? value.getClass().getName() : null);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the footprint of the specified portlet window, creating it if necessary.
+	 *
+	 * @param windowId portlet window identifier
+	 * @return footprint of the window
+	 */
+	protected WindowSessionFootprint getFootprint(String windowId) {
+		WindowSessionFootprint footprint = footprints.get(windowId);
+		if (footprint == null) {
+			footprint = new WindowSessionFootprint(windowId);
+			WindowSessionFootprint existing = footprints.putIfAbsent(windowId, footprint);
+			if (existing != null) {
+				footprint = existing;
+			}
+		}
+		return footprint;
+	}
+
+	/**
+	 * Returns the serialized size of the specified object.
+	 *
+	 * @param value object to be serialized
+	 * @return serialized size in bytes
+	 * @throws IOException if the object can not be serialized
+	 */
+	protected static long serializedSize(Object value) throws IOException {
+		CountingOutputStream counter = new CountingOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(counter);
+		out.writeObject(value);
+		out.close();
+		return counter.count;
+	}
+
+	/**
+	 * Output stream that only counts the bytes written.
+	 */
+	protected static class CountingOutputStream extends OutputStream {
+
+		/** Number of bytes written */
+		protected long count;
+
+		public void write(int b) {
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+	}
+
+}
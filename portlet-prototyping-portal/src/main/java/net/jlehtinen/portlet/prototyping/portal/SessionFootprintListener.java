@@ -0,0 +1,39 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+/**
+ * Session listener that makes the {@link SessionFootprintAnalyzer} forget the sizes
+ * measured for expired sessions. Portal and portlet application sessions share the
+ * session identifier.
+ */
+public class SessionFootprintListener implements HttpSessionListener {
+
+	public void sessionCreated(HttpSessionEvent event) {
+	}
+
+	public void sessionDestroyed(HttpSessionEvent event) {
+		SessionFootprintAnalyzer analyzer = (SessionFootprintAnalyzer) event.getSession().getServletContext().getAttribute(SessionFootprintAnalyzer.ATTRIBUTE_NAME);
+		if (analyzer != null) {
+			analyzer.sessionDestroyed(event.getSession().getId());
+		}
+	}
+
+}
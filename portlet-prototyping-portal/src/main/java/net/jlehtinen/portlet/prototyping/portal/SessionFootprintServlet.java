@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet reporting the session footprints measured by the {@link SessionFootprintAnalyzer}
+ * as JSON.
+ */
+public class SessionFootprintServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		SessionFootprintAnalyzer analyzer = (SessionFootprintAnalyzer) getServletContext().getAttribute(SessionFootprintAnalyzer.ATTRIBUTE_NAME);
+		if (analyzer == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Session footprint analyzer not available");
+			return;
+		}
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = response.getWriter();
+		out.print("{\"windows\":[");
+		Iterator<WindowSessionFootprint> iter = analyzer.getFootprints().values().iterator();
+		while (iter.hasNext()) {
+			writeFootprint(out, iter.next());
+			if (iter.hasNext()) {
+				out.print(',');
+			}
+		}
+		out.print("]}");
+	}
+
+	/**
+	 * Writes the specified footprint as a JSON object.
+	 *
+	 * @param out writer
+	 * @param footprint footprint to be written
+	 */
+	protected void writeFootprint(PrintWriter out, WindowSessionFootprint footprint) {
+		out.print("{\"window\":");
+		out.print(JsonUtil.quote(footprint.getWindowId()));
+		out.print(",\"samples\":");
+		out.print(footprint.getSamples());
+		out.print(",\"sessions\":");
+		out.print(footprint.getSessions());
+		out.print(",\"portletScope\":{\"current\":");
+		out.print(footprint.getPortletScope());
+		out.print(",\"peak\":");
+		out.print(footprint.getPeakPortletScope());
+		out.print("},\"applicationScope\":{\"current\":");
+		out.print(footprint.getApplicationScope());
+		out.print(",\"peak\":");
+		out.print(footprint.getPeakApplicationScope());
+		out.print("},\"growth\":");
+		out.print(footprint.getGrowth());
+		out.print(",\"history\":[");
+		long[] history = footprint.getHistory();
+		for (int i = 0; i < history.length; i++) {
+			if (i > 0) {
+				out.print(',');
+			}
+			out.print(history[i]);
+		}
+		out.print("],\"nonSerializable\":{");
+		Iterator<Map.Entry<String, String>> iter = footprint.getNonSerializable().entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, String> entry = iter.next();
+			out.print(JsonUtil.quote(entry.getKey()));
+			out.print(':');
+			out.print(JsonUtil.quote(entry.getValue()));
+			if (iter.hasNext()) {
+				out.print(',');
+			}
+		}
+		out.print("}}");
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+
+/**
+ * Session listener counting the created and destroyed portal sessions in the
+ * {@link PortalMetrics} published in the servlet context.
+ */
+public class SessionMetricsListener implements HttpSessionListener {
+
+	public void sessionCreated(HttpSessionEvent event) {
+		PortalMetrics metrics = getMetrics(event);
+		if (metrics != null) {
+			metrics.sessionCreated();
+		}
+	}
+
+	public void sessionDestroyed(HttpSessionEvent event) {
+		PortalMetrics metrics = getMetrics(event);
+		if (metrics != null) {
+			metrics.sessionDestroyed();
+		}
+	}
+
+	/**
+	 * Returns the metrics published in the servlet context of the session.
+	 *
+	 * @param event session event
+	 * @return portal metrics or null if not available
+	 */
+	protected static PortalMetrics getMetrics(HttpSessionEvent event) {
+		return (PortalMetrics) event.getSession().getServletContext().getAttribute(PortalMetrics.ATTRIBUTE_NAME);
+	}
+
+}
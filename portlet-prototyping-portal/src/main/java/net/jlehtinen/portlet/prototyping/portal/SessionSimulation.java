@@ -0,0 +1,467 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.servlet.ServletContext;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.services.portal.PortletWindowConfig;
+import org.apache.pluto.driver.services.portal.RenderConfigService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.ServletContextAware;
+
+/**
+ * Simulates a number of concurrent users to measure the heap retained per session. Each
+ * simulated session sends the credentials of one of the given users and runs a short
+ * scripted interaction: the default page is requested, each portlet window on it is
+ * rendered maximized in each of its supported portlet modes and the default page is
+ * requested again. The sessions are left open until they expire. Heap histograms taken
+ * before and after the simulation give the retained heap per session, split by the
+ * classes holding it between the Jetty session, the Pluto portlet session, the portlet
+ * preferences and the session attributes and other objects.
+ */
+public class SessionSimulation implements ServletContextAware {
+
+	/** Name of the servlet context attribute holding the simulation */
+	public static final String ATTRIBUTE_NAME = SessionSimulation.class.getName();
+
+	/** Index of the heap held by Jetty session management */
+	public static final int JETTY_SESSION = 0;
+
+	/** Index of the heap held by Pluto and the portal for the portlet session */
+	public static final int PORTLET_SESSION = 1;
+
+	/** Index of the heap held by portlet preferences */
+	public static final int PREFERENCES = 2;
+
+	/** Index of the heap held by session attributes and other objects */
+	public static final int ATTRIBUTES = 3;
+
+	/** Names of the heap categories by index */
+	public static final String[] CATEGORIES = { "jettySession", "portletSession", "preferences", "attributes" };
+
+	/** Number of growing classes reported */
+	protected static final int TOP_CLASSES = 20;
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(SessionSimulation.class);
+
+	/** Render configuration providing the default page */
+	protected final RenderConfigService renderConfigService;
+
+	/** Whether a simulation is running */
+	protected volatile boolean running;
+
+	/** Result of the latest completed simulation or null */
+	protected volatile Result result;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param renderConfigService render configuration service
+	 */
+	public SessionSimulation(RenderConfigService renderConfigService) {
+		this.renderConfigService = renderConfigService;
+	}
+
+	/**
+	 * Publishes this simulation in the specified servlet context.
+	 *
+	 * @see org.springframework.web.context.ServletContextAware#setServletContext(javax.servlet.ServletContext)
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		servletContext.setAttribute(ATTRIBUTE_NAME, this);
+	}
+
+	/**
+	 * Returns whether a simulation is running.
+	 *
+	 * @return whether running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the result of the latest completed simulation.
+	 *
+	 * @return simulation result or null if none completed
+	 */
+	public Result getResult() {
+		return result;
+	}
+
+	/**
+	 * Starts a simulation in the background. The users are assigned to the sessions in
+	 * turn. Windows of portlets without specified modes are rendered in the view mode only.
+	 *
+	 * @param serverURI scheme, host and port used to connect to the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param users user names and passwords, or an empty list for anonymous sessions
+	 * @param sessions number of sessions to be simulated
+	 * @param portletModes supported portlet modes keyed by portlet name
+	 * @return whether the simulation was started, false if one was already running
+	 */
+	public synchronized boolean start(final String serverURI, final String servletPath, final List<String[]> users, final int sessions, Map<String, Set<String>> portletModes) {
+		if (running) {
+			return false;
+		}
+		final List<String[]> renders = createRenders(portletModes);
+		running = true;
+		Thread thread = new Thread("Session simulation") {
+			public void run() {
+				try {
+					result = simulate(serverURI, servletPath, users, sessions, renders);
+				} catch (IOException e) {
+					logger.error("Session simulation failed", e);
+				} finally {
+					running = false;
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * Creates the scripted renders of the portlet windows on the default page.
+	 *
+	 * @param portletModes supported portlet modes keyed by portlet name
+	 * @return window identifiers and portlet modes to be rendered
+	 */
+	protected List<String[]> createRenders(Map<String, Set<String>> portletModes) {
+		List<String[]> renders = new ArrayList<String[]>();
+		PageConfig page = renderConfigService.getDefaultPage();
+		if (page != null) {
+			Iterator<?> iter = page.getPortletIds().iterator();
+			while (iter.hasNext()) {
+				String windowId = (String) iter.next();
+				Set<String> modes = portletModes.get(PortletWindowConfig.fromId(windowId).getPortletName());
+				if (modes == null || modes.isEmpty()) {
+					modes = Collections.singleton(PortletMode.VIEW.toString());
+				}
+				Iterator<String> modeIter = modes.iterator();
+				while (modeIter.hasNext()) {
+					renders.add(new String[] { windowId, modeIter.next() });
+				}
+			}
+		}
+		return renders;
+	}
+
+	/**
+	 * Runs the simulation and measures the heap retained by the sessions.
+	 *
+	 * @param serverURI scheme, host and port used to connect to the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param users user names and passwords
+	 * @param sessions number of sessions to be simulated
+	 * @param renders window identifiers and portlet modes to be rendered in each session
+	 * @return simulation result
+	 * @throws IOException if the portal could not be accessed
+	 */
+	protected Result simulate(String serverURI, String servletPath, List<String[]> users, int sessions, List<String[]> renders) throws IOException {
+		long start = System.nanoTime();
+		HeapHistogram before = HeapHistogram.take();
+		int threads = Math.max(1, Math.min(sessions, Runtime.getRuntime().availableProcessors() * 2));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Session simulation client " + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		int created = 0;
+		int failedRequests = 0;
+		try {
+			List<Future<int[]>> results = new ArrayList<Future<int[]>>(sessions);
+			for (int i = 0; i < sessions; i++) {
+				String[] user = users.isEmpty() ? null : users.get(i % users.size());
+				results.add(executor.submit(createTask(serverURI, servletPath, user, renders)));
+			}
+			Iterator<Future<int[]>> iter = results.iterator();
+			while (iter.hasNext()) {
+				try {
+					int[] counts = iter.next().get();
+					created += counts[0];
+					failedRequests += counts[1];
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted");
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		HeapHistogram after = HeapHistogram.take();
+		Result result = new Result(sessions, created, failedRequests, (System.nanoTime() - start) / 1000000, before, after);
+		logger.info(MessageFormat.format(
+				"Simulated {0} sessions in {1} ms, {2} failed requests; retained heap per session {3} bytes: Jetty session {4}, portlet session {5}, preferences {6}, attributes and other {7}; room for about {8} sessions",
+				new Object[] {
+					new Integer(created),
+					new Long(result.getMillis()),
+					new Integer(failedRequests),
+					new Long(result.getBytesPerSession()),
+					new Long(result.getBytesPerSession(JETTY_SESSION)),
+					new Long(result.getBytesPerSession(PORTLET_SESSION)),
+					new Long(result.getBytesPerSession(PREFERENCES)),
+					new Long(result.getBytesPerSession(ATTRIBUTES)),
+					new Long(result.getCapacity())
+				}));
+		return result;
+	}
+
+	/**
+	 * Creates a task simulating a single session.
+	 *
+	 * @param serverURI scheme, host and port used to connect to the portal
+	 * @param servletPath context path and servlet path of the portal driver
+	 * @param user user name and password or null for an anonymous session
+	 * @param renders window identifiers and portlet modes to be rendered
+	 * @return task returning one if a session was created and the number of failed requests
+	 */
+	protected Callable<int[]> createTask(final String serverURI, final String servletPath, final String[] user, final List<String[]> renders) {
+		return new Callable<int[]>() {
+			public int[] call() throws IOException {
+				String authorization = user != null ? "Basic " + new String(Base64.encodeBase64((user[0] + ':' + user[1]).getBytes("UTF-8")), "US-ASCII") : null;
+				String[] cookie = new String[1];
+				int failed = 0;
+				if (!send(serverURI + servletPath, authorization, cookie)) {
+					failed++;
+				}
+				Iterator<String[]> iter = renders.iterator();
+				while (iter.hasNext()) {
+					String[] render = iter.next();
+					PortletPrototypingPortalURL url = new PortletPrototypingPortalURL(serverURI, servletPath, PortletPrototypingPortalURLParser.getParser());
+					url.setWindowState(render[0], WindowState.MAXIMIZED);
+					url.setPortletMode(render[0], new PortletMode(render[1]));
+					if (!send(url.toURL(true), authorization, cookie)) {
+						failed++;
+					}
+				}
+				if (!send(serverURI + servletPath, authorization, cookie)) {
+					failed++;
+				}
+				return new int[] { cookie[0] != null ? 1 : 0, failed };
+			}
+		};
+	}
+
+	/**
+	 * Sends a request within a simulated session. The session cookie is taken from the
+	 * response if the session does not have one yet.
+	 *
+	 * @param url request URL
+	 * @param authorization authorization header or null
+	 * @param cookie holder of the session cookie
+	 * @return whether the request succeeded
+	 * @throws IOException if the portal could not be accessed
+	 */
+	protected static boolean send(String url, String authorization, String[] cookie) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setInstanceFollowRedirects(false);
+		GeneratedRequest.mark(connection, GeneratedRequest.SESSION_SIMULATION);
+		if (authorization != null) {
+			connection.setRequestProperty("Authorization", authorization);
+		}
+		if (cookie[0] != null) {
+			connection.setRequestProperty("Cookie", cookie[0]);
+		}
+		try {
+			int status = connection.getResponseCode();
+			if (cookie[0] == null) {
+				String header;
+				for (int i = 1; (header = connection.getHeaderFieldKey(i)) != null; i++) {
+					if ("Set-Cookie".equalsIgnoreCase(header)) {
+						String value = connection.getHeaderField(i);
+						int semicolon = value.indexOf(';');
+						cookie[0] = semicolon != -1 ? value.substring(0, semicolon) : value;
+						break;
+					}
+				}
+			}
+			PortletStressTester.drain(connection);
+			return status < 400;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Returns the heap category of the objects of the specified class.
+	 *
+	 * @param className class name as reported by the heap histogram
+	 * @return category index
+	 */
+	protected static int getCategory(String className) {
+		if (className.indexOf("Preference") != -1) {
+			return PREFERENCES;
+		} else if (className.startsWith("org.mortbay.")) {
+			return JETTY_SESSION;
+		} else if (className.startsWith("org.apache.pluto.") || className.startsWith("net.jlehtinen.portlet.prototyping.portal.")) {
+			return PORTLET_SESSION;
+		} else {
+			return ATTRIBUTES;
+		}
+	}
+
+	/**
+	 * Result of a session simulation.
+	 */
+	public static class Result {
+
+		/** Number of sessions simulated */
+		protected final int sessions;
+
+		/** Number of sessions created by the portal */
+		protected final int created;
+
+		/** Number of failed requests */
+		protected final int failedRequests;
+
+		/** Duration of the simulation in milliseconds */
+		protected final long millis;
+
+		/** Growth of the heap in bytes */
+		protected final long growth;
+
+		/** Growth of the heap in bytes by category */
+		protected final long[] categoryGrowth = new long[CATEGORIES.length];
+
+		/** Heap left for further sessions in bytes */
+		protected final long freeBytes;
+
+		/** Growing classes, largest growth first */
+		protected final List<HeapHistogram.ClassGrowth> classes;
+
+		/**
+		 * Constructs a new result from the heap histograms taken before and after the simulation.
+		 *
+		 * @param sessions number of sessions simulated
+		 * @param created number of sessions created by the portal
+		 * @param failedRequests number of failed requests
+		 * @param millis duration of the simulation in milliseconds
+		 * @param before heap histogram before the simulation
+		 * @param after heap histogram after the simulation
+		 */
+		public Result(int sessions, int created, int failedRequests, long millis, HeapHistogram before, HeapHistogram after) {
+			this.sessions = sessions;
+			this.created = created;
+			this.failedRequests = failedRequests;
+			this.millis = millis;
+			growth = Math.max(0, after.getTotalBytes() - before.getTotalBytes());
+			freeBytes = Math.max(0, Runtime.getRuntime().maxMemory() - after.getTotalBytes());
+			List<HeapHistogram.ClassGrowth> growing = after.growthSince(before);
+			Iterator<HeapHistogram.ClassGrowth> iter = growing.iterator();
+			while (iter.hasNext()) {
+				HeapHistogram.ClassGrowth g = iter.next();
+				categoryGrowth[getCategory(g.getClassName())] += g.getBytes();
+			}
+			if (!after.hasClasses()) {
+				categoryGrowth[ATTRIBUTES] = growth;
+			}
+			classes = Collections.unmodifiableList(new ArrayList<HeapHistogram.ClassGrowth>(growing.subList(0, Math.min(TOP_CLASSES, growing.size()))));
+		}
+
+		public int getSessions() {
+			return sessions;
+		}
+
+		public int getCreated() {
+			return created;
+		}
+
+		public int getFailedRequests() {
+			return failedRequests;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		/**
+		 * Returns the heap retained per created session.
+		 *
+		 * @return bytes per session
+		 */
+		public long getBytesPerSession() {
+			return created > 0 ? growth / created : 0;
+		}
+
+		/**
+		 * Returns the heap in the specified category retained per created session. The
+		 * categories are based on the growing classes, so they need not add up to the total.
+		 *
+		 * @param category category index
+		 * @return bytes per session
+		 */
+		public long getBytesPerSession(int category) {
+			return created > 0 ? categoryGrowth[category] / created : 0;
+		}
+
+		/**
+		 * Returns an estimate of the number of sessions the portal can hold at the maximum
+		 * heap size, including the simulated ones.
+		 *
+		 * @return estimated number of sessions
+		 */
+		public long getCapacity() {
+			long perSession = getBytesPerSession();
+			return perSession > 0 ? created + freeBytes / perSession : -1;
+		}
+
+		/**
+		 * Returns the classes that grew the most.
+		 *
+		 * @return growing classes, largest growth first
+		 */
+		public List<HeapHistogram.ClassGrowth> getClasses() {
+			return classes;
+		}
+
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet running the {@link SessionSimulation}. A POST starts a simulation in the
+ * background and a GET reports its result, both as JSON. The request parameter
+ * <code>sessions</code> gives the number of sessions to be simulated, the repeatable
+ * parameter <code>user</code> gives the credentials of a user as
+ * <code><i>name</i>:<i>password</i></code> and the repeatable parameter
+ * <code>portlet</code> gives the supported modes of a portlet as for the
+ * {@link WarmUpServlet}.
+ */
+public class SessionSimulationServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		SessionSimulation simulation = getSimulation(response);
+		if (simulation != null) {
+			writeJson(response, simulation);
+		}
+	}
+
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		SessionSimulation simulation = getSimulation(response);
+		if (simulation == null) {
+			return;
+		}
+		int sessions;
+		try {
+			sessions = Integer.parseInt(request.getParameter("sessions"));
+		} catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid number of sessions");
+			return;
+		}
+		if (sessions <= 0) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid number of sessions");
+			return;
+		}
+		List<String[]> users = new ArrayList<String[]>();
+		String[] credentials = request.getParameterValues("user");
+		if (credentials != null) {
+			for (int i = 0; i < credentials.length; i++) {
+				int colon = credentials[i].indexOf(':');
+				if (colon != -1) {
+					users.add(new String[] { credentials[i].substring(0, colon), credentials[i].substring(colon + 1) });
+				}
+			}
+		}
+		if (!simulation.start("http://localhost:" + request.getLocalPort(), request.getContextPath() + WarmUpServlet.PORTAL_SERVLET_PATH,
+				users, sessions, WarmUpServlet.getPortletModes(request))) {
+			response.sendError(HttpServletResponse.SC_CONFLICT, "Session simulation already running");
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		writeJson(response, simulation);
+	}
+
+	/**
+	 * Returns the simulation or sends an error if it is not available.
+	 *
+	 * @param response servlet response
+	 * @return simulation or null
+	 * @throws IOException on I/O error
+	 */
+	protected SessionSimulation getSimulation(HttpServletResponse response) throws IOException {
+		SessionSimulation simulation = (SessionSimulation) getServletContext().getAttribute(SessionSimulation.ATTRIBUTE_NAME);
+		if (simulation == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Session simulation not available");
+		}
+		return simulation;
+	}
+
+	/**
+	 * Writes the simulation state and the latest result as JSON.
+	 *
+	 * @param response servlet response
+	 * @param simulation session simulation
+	 * @throws IOException on I/O error
+	 */
+	protected static void writeJson(HttpServletResponse response, SessionSimulation simulation) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = response.getWriter();
+		boolean running = simulation.isRunning();
+		SessionSimulation.Result result = running ? null : simulation.getResult();
+		out.print("{\"running\":");
+		out.print(running);
+		out.print(",\"complete\":");
+		out.print(result != null);
+		if (result != null) {
+			out.print(",\"sessions\":");
+			out.print(result.getSessions());
+			out.print(",\"created\":");
+			out.print(result.getCreated());
+			out.print(",\"failedRequests\":");
+			out.print(result.getFailedRequests());
+			out.print(",\"millis\":");
+			out.print(result.getMillis());
+			out.print(",\"bytesPerSession\":");
+			out.print(result.getBytesPerSession());
+			for (int i = 0; i < SessionSimulation.CATEGORIES.length; i++) {
+				out.print(",\"");
+				out.print(SessionSimulation.CATEGORIES[i]);
+				out.print("\":");
+				out.print(result.getBytesPerSession(i));
+			}
+			out.print(",\"capacity\":");
+			out.print(result.getCapacity());
+			out.print(",\"classes\":[");
+			Iterator<HeapHistogram.ClassGrowth> iter = result.getClasses().iterator();
+			while (iter.hasNext()) {
+				HeapHistogram.ClassGrowth growth = iter.next();
+				out.print("{\"class\":");
+				out.print(JsonUtil.quote(growth.getClassName()));
+				out.print(",\"instances\":");
+				out.print(growth.getInstances());
+				out.print(",\"bytes\":");
+				out.print(growth.getBytes());
+				out.print('}');
+				if (iter.hasNext()) {
+					out.print(',');
+				}
+			}
+			out.print(']');
+		}
+		out.print('}');
+	}
+
+}
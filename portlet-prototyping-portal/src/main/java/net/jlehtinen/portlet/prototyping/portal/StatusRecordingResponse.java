@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper remembering the response status for the {@link RequestCaptureFilter}.
+ */
+public class StatusRecordingResponse extends HttpServletResponseWrapper {
+
+	/** The response status */
+	protected int status = SC_OK;
+
+	/**
+	 * Constructs a new wrapper.
+	 *
+	 * @param response servlet response to be wrapped
+	 */
+	public StatusRecordingResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	/**
+	 * Returns the response status.
+	 *
+	 * @return response status
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int sc) {
+		status = sc;
+		super.setStatus(sc);
+	}
+
+	@SuppressWarnings("deprecation")
+	public void setStatus(int sc, String sm) {
+		status = sc;
+		super.setStatus(sc, sm);
+	}
+
+	public void sendError(int sc) throws IOException {
+		status = sc;
+		super.sendError(sc);
+	}
+
+	public void sendError(int sc, String msg) throws IOException {
+		status = sc;
+		super.sendError(sc, msg);
+	}
+
+	public void sendRedirect(String location) throws IOException {
+		status = SC_MOVED_TEMPORARILY;
+		super.sendRedirect(location);
+	}
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet running the {@link PortletStressTester}. A POST runs a stress test and a GET
+ * reports the results of the latest test, both as JSON. The request parameters
+ * <code>window</code> (repeatable, defaults to all windows on the default page),
+ * <code>parameters</code> (comma separated names of the randomized parameters),
+ * <code>concurrency</code>, <code>requests</code> and <code>seed</code> control the test.
+ */
+public class StressTestServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The logger to use */
+	private static final Logger logger = LoggerFactory.getLogger(StressTestServlet.class);
+
+	/** Default maximum number of concurrent clients */
+	protected static final int DEFAULT_CONCURRENCY = 16;
+
+	/** Largest allowed number of concurrent clients */
+	protected static final int MAX_CONCURRENCY = 128;
+
+	/** Default number of renders and actions per window and concurrency level */
+	protected static final int DEFAULT_REQUESTS = 200;
+
+	/** Default names of the randomized parameters */
+	protected static final String DEFAULT_PARAMETERS = "p,q";
+
+	/** Servlet path of the portal driver */
+	protected static final String PORTAL_SERVLET_PATH = "/portal";
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		PortletStressTester tester = getTester(response);
+		if (tester != null) {
+			writeJson(response, tester.isRunning(), tester.getResults());
+		}
+	}
+
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		PortletStressTester tester = getTester(response);
+		if (tester == null) {
+			return;
+		}
+		int concurrency;
+		int requests;
+		long seed;
+		try {
+			concurrency = getInt(request, "concurrency", DEFAULT_CONCURRENCY);
+			requests = getInt(request, "requests", DEFAULT_REQUESTS);
+			String seedValue = request.getParameter("seed");
+			seed = seedValue != null ? Long.parseLong(seedValue) : System.currentTimeMillis();
+		} catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid number: " + e.getMessage());
+			return;
+		}
+		if (concurrency < 1 || concurrency > MAX_CONCURRENCY || requests < 1) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Concurrency must be between 1 and " + MAX_CONCURRENCY + " and requests positive");
+			return;
+		}
+		String[] windows = request.getParameterValues("window");
+		List<String> windowIds = windows != null ? Arrays.asList(windows) : tester.getWindowIds();
+		String parameters = request.getParameter("parameters");
+		List<String> parameterNames = new ArrayList<String>();
+		Iterator<String> iter = Arrays.asList((parameters != null ? parameters : DEFAULT_PARAMETERS).split(",")).iterator();
+		while (iter.hasNext()) {
+			String name = iter.next().trim();
+			if (name.length() > 0) {
+				parameterNames.add(name);
+			}
+		}
+		logger.info("Stress testing " + windowIds + " with up to " + concurrency + " concurrent clients, seed " + seed);
+		List<WindowStressResult> results;
+		try {
+			results = tester.run("http://localhost:" + request.getLocalPort(), request.getContextPath() + PORTAL_SERVLET_PATH,
+					windowIds, parameterNames, concurrency, requests, seed);
+		} catch (IOException e) {
+			logger.error("Stress test failed", e);
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+			return;
+		}
+		writeJson(response, false, results);
+	}
+
+	/**
+	 * Returns the stress tester or sends an error if it is not available.
+	 *
+	 * @param response servlet response
+	 * @return stress tester or null
+	 * @throws IOException on I/O error
+	 */
+	protected PortletStressTester getTester(HttpServletResponse response) throws IOException {
+		PortletStressTester tester = (PortletStressTester) getServletContext().getAttribute(PortletStressTester.ATTRIBUTE_NAME);
+		if (tester == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Stress tester not available");
+		}
+		return tester;
+	}
+
+	/**
+	 * Returns the value of an integer request parameter.
+	 *
+	 * @param request servlet request
+	 * @param name parameter name
+	 * @param defaultValue value used if the parameter is missing
+	 * @return parameter value
+	 * @throws NumberFormatException if the value is not an integer
+	 */
+	protected static int getInt(HttpServletRequest request, String name, int defaultValue) {
+		String value = request.getParameter(name);
+		return value != null ? Integer.parseInt(value) : defaultValue;
+	}
+
+	/**
+	 * Writes the stress test results as JSON.
+	 *
+	 * @param response servlet response
+	 * @param running whether a stress test is running
+	 * @param results results by portlet window
+	 * @throws IOException on I/O error
+	 */
+	protected static void writeJson(HttpServletResponse response, boolean running, List<WindowStressResult> results) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = response.getWriter();
+		out.print("{\"running\":");
+		out.print(running);
+		out.print(",\"windows\":[");
+		Iterator<WindowStressResult> iter = results.iterator();
+		while (iter.hasNext()) {
+			writeResult(out, iter.next());
+			if (iter.hasNext()) {
+				out.print(',');
+			}
+		}
+		out.print("]}");
+	}
+
+	/**
+	 * Writes the results of a single window as a JSON object.
+	 *
+	 * @param out writer
+	 * @param result results to be written
+	 */
+	protected static void writeResult(PrintWriter out, WindowStressResult result) {
+		out.print("{\"window\":");
+		out.print(JsonUtil.quote(result.getWindowId()));
+		out.print(",\"suspicious\":");
+		out.print(result.isSuspicious());
+		out.print(",\"variants\":");
+		out.print(result.getVariants());
+		out.print(",\"nondeterministic\":");
+		out.print(result.getNondeterministic());
+		out.print(",\"differences\":");
+		out.print(result.getDifferences());
+		if (result.getFirstDifference() != null) {
+			out.print(",\"firstDifference\":");
+			out.print(JsonUtil.quote(result.getFirstDifference()));
+		}
+		out.print(",\"exceptions\":{\"serial\":");
+		out.print(result.getSerialExceptions());
+		out.print(",\"concurrent\":");
+		out.print(result.getConcurrentExceptions());
+		if (result.getFirstException() != null) {
+			out.print(",\"first\":");
+			out.print(JsonUtil.quote(result.getFirstException()));
+		}
+		out.print("},\"errors\":");
+		out.print(result.getErrors());
+		out.print(",\"levels\":[");
+		Iterator<WindowStressResult.Level> iter = result.getLevels().iterator();
+		while (iter.hasNext()) {
+			WindowStressResult.Level level = iter.next();
+			out.print("{\"concurrency\":");
+			out.print(level.getConcurrency());
+			out.print(",\"rendersPerSecond\":");
+			out.print(Math.round(level.getRenderThroughput() * 10) / 10.0);
+			out.print(",\"actionsPerSecond\":");
+			out.print(Math.round(level.getActionThroughput() * 10) / 10.0);
+			out.print('}');
+			if (iter.hasNext()) {
+				out.print(',');
+			}
+		}
+		out.print("]}");
+	}
+
+}
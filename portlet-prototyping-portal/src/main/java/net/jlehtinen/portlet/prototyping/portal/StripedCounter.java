@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading concurrent updates over several cells so that threads updating it at
+ * the same time rarely contend for the same cache line. Updates neither lock nor allocate;
+ * reading the value sums up the cells.
+ */
+public class StripedCounter {
+
+	/** Distance between the cells in array slots, keeping each cell on a cache line of its own */
+	protected static final int PADDING = 8;
+
+	/** Number of cells, a power of two */
+	protected static final int STRIPES = getStripes();
+
+	/** The cells */
+	protected final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	/**
+	 * Increments the counter by one.
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Adds the specified amount to the counter.
+	 *
+	 * @param delta amount to be added
+	 */
+	public void add(long delta) {
+		cells.addAndGet(getStripe() * PADDING, delta);
+	}
+
+	/**
+	 * Returns the current value of the counter.
+	 *
+	 * @return sum of the cells
+	 */
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	public String toString() {
+		return String.valueOf(get());
+	}
+
+	/**
+	 * Returns the cell used by the current thread.
+	 *
+	 * @return cell index
+	 */
+	protected static int getStripe() {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+	}
+
+	/**
+	 * Returns the number of cells to use, the smallest power of two not less than twice
+	 * the number of available processors.
+	 *
+	 * @return number of cells
+	 */
+	protected static int getStripes() {
+		int wanted = Runtime.getRuntime().availableProcessors() * 2;
+		int stripes = 1;
+		while (stripes < wanted) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+
+}
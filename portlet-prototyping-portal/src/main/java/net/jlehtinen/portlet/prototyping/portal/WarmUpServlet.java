@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet running the {@link PortletWarmUp}. A POST starts a warm-up in the background and
+ * a GET reports its progress, both as JSON. The repeatable request parameter
+ * <code>portlet</code> gives the supported modes of a portlet as
+ * <code><i>name</i>:<i>mode</i>,<i>mode</i>,...</code>; portlets without modes are
+ * warmed up in the view mode only.
+ */
+public class WarmUpServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Servlet path of the portal driver */
+	protected static final String PORTAL_SERVLET_PATH = "/portal";
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		PortletWarmUp warmUp = getWarmUp(response);
+		if (warmUp != null) {
+			writeJson(response, warmUp);
+		}
+	}
+
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		PortletWarmUp warmUp = getWarmUp(response);
+		if (warmUp == null) {
+			return;
+		}
+		Map<String, Set<String>> portletModes = getPortletModes(request);
+		if (!warmUp.start("http://localhost:" + request.getLocalPort(), request.getContextPath() + PORTAL_SERVLET_PATH, portletModes)) {
+			response.sendError(HttpServletResponse.SC_CONFLICT, "Warm-up already running");
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		writeJson(response, warmUp);
+	}
+
+	/**
+	 * Returns the supported portlet modes given by the <code>portlet</code> request parameters.
+	 *
+	 * @param request servlet request
+	 * @return supported portlet modes keyed by portlet name
+	 */
+	protected static Map<String, Set<String>> getPortletModes(HttpServletRequest request) {
+		Map<String, Set<String>> portletModes = new HashMap<String, Set<String>>();
+		String[] portlets = request.getParameterValues("portlet");
+		if (portlets != null) {
+			for (int i = 0; i < portlets.length; i++) {
+				int colon = portlets[i].indexOf(':');
+				Set<String> modes = new LinkedHashSet<String>();
+				if (colon != -1) {
+					Iterator<String> iter = Arrays.asList(portlets[i].substring(colon + 1).split(",")).iterator();
+					while (iter.hasNext()) {
+						String mode = iter.next().trim().toLowerCase();
+						if (mode.length() > 0) {
+							modes.add(mode);
+						}
+					}
+				}
+				portletModes.put(colon != -1 ? portlets[i].substring(0, colon) : portlets[i], modes);
+			}
+		}
+		return portletModes;
+	}
+
+	/**
+	 * Returns the warm-up or sends an error if it is not available.
+	 *
+	 * @param response servlet response
+	 * @return warm-up or null
+	 * @throws IOException on I/O error
+	 */
+	protected PortletWarmUp getWarmUp(HttpServletResponse response) throws IOException {
+		PortletWarmUp warmUp = (PortletWarmUp) getServletContext().getAttribute(PortletWarmUp.ATTRIBUTE_NAME);
+		if (warmUp == null) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Warm-up not available");
+		}
+		return warmUp;
+	}
+
+	/**
+	 * Writes the warm-up progress as JSON.
+	 *
+	 * @param response servlet response
+	 * @param warmUp warm-up
+	 * @throws IOException on I/O error
+	 */
+	protected static void writeJson(HttpServletResponse response, PortletWarmUp warmUp) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = response.getWriter();
+		boolean warm = warmUp.isWarm();
+		out.print("{\"warm\":");
+		out.print(warm);
+		out.print(",\"running\":");
+		out.print(warmUp.isRunning());
+		if (warm) {
+			out.print(",\"millis\":");
+			out.print(warmUp.getMillis());
+			out.print(",\"pageFirstByteMillis\":");
+			out.print(warmUp.getPageFirstByteMillis());
+			out.print(",\"pageMillis\":");
+			out.print(warmUp.getPageMillis());
+		}
+		out.print(",\"renders\":[");
+		Iterator<PortletWarmUp.Render> iter = warmUp.getRenders().iterator();
+		while (iter.hasNext()) {
+			PortletWarmUp.Render render = iter.next();
+			out.print("{\"window\":");
+			out.print(JsonUtil.quote(render.getWindowId()));
+			out.print(",\"portlet\":");
+			out.print(JsonUtil.quote(render.getPortletName()));
+			out.print(",\"mode\":");
+			out.print(JsonUtil.quote(render.getMode()));
+			out.print(",\"status\":");
+			out.print(render.getStatus());
+			out.print(",\"millis\":");
+			out.print(render.getMillis());
+			out.print(",\"successful\":");
+			out.print(render.isSuccessful());
+			if (render.getError() != null) {
+				out.print(",\"error\":");
+				out.print(JsonUtil.quote(render.getError().toString()));
+			}
+			out.print('}');
+			if (iter.hasNext()) {
+				out.print(',');
+			}
+		}
+		out.print("]}");
+	}
+
+}
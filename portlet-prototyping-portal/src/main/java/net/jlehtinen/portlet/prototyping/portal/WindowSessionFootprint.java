@@ -0,0 +1,218 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Session footprint statistics of a single portlet window. Sizes are serialized sizes
+ * in bytes as measured after each portlet invocation. The statistics are tracked per
+ * session so that growth over requests can be reported.
+ */
+public class WindowSessionFootprint {
+
+	/** Number of recent samples kept in the history */
+	public static final int HISTORY_SIZE = 32;
+
+	/** Index of the first portlet scope size in a session sample */
+	protected static final int FIRST_PORTLET_SCOPE = 0;
+
+	/** Index of the first application scope size in a session sample */
+	protected static final int FIRST_APPLICATION_SCOPE = 1;
+
+	/** Index of the latest portlet scope size in a session sample */
+	protected static final int PORTLET_SCOPE = 2;
+
+	/** Index of the latest application scope size in a session sample */
+	protected static final int APPLICATION_SCOPE = 3;
+
+	/** Portlet window identifier */
+	protected final String windowId;
+
+	/** First and latest sizes keyed by session identifier */
+	protected final Map<String, long[]> sessions = new HashMap<String, long[]>();
+
+	/** Attributes that could not be serialized, mapped to their class names */
+	protected final Map<String, String> nonSerializable = new TreeMap<String, String>();
+
+	/** Ring buffer of recent total sizes */
+	protected final long[] history = new long[HISTORY_SIZE];
+
+	/** Number of samples recorded */
+	protected long samples;
+
+	/** Peak portlet scope size of a single session */
+	protected long peakPortletScope;
+
+	/** Peak application scope size of a single session */
+	protected long peakApplicationScope;
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param windowId portlet window identifier
+	 */
+	public WindowSessionFootprint(String windowId) {
+		this.windowId = windowId;
+	}
+
+	/**
+	 * Records the sizes measured after an invocation.
+	 *
+	 * @param sessionId session identifier
+	 * @param portletScope serialized size of the portlet scope attributes
+	 * @param applicationScope serialized size of the application scope attributes
+	 * @param failed attributes that could not be serialized mapped to their class names
+	 */
+	public synchronized void record(String sessionId, long portletScope, long applicationScope, Map<String, String> failed) {
+		long[] sample = sessions.get(sessionId);
+		if (sample == null) {
+			sample = new long[] { portletScope, applicationScope, 0, 0 };
+			sessions.put(sessionId, sample);
+		}
+		sample[PORTLET_SCOPE] = portletScope;
+		sample[APPLICATION_SCOPE] = applicationScope;
+		history[(int) (samples % HISTORY_SIZE)] = portletScope + applicationScope;
+		samples++;
+		peakPortletScope = Math.max(peakPortletScope, portletScope);
+		peakApplicationScope = Math.max(peakApplicationScope, applicationScope);
+		nonSerializable.putAll(failed);
+	}
+
+	/**
+	 * Forgets the sizes of the specified session.
+	 *
+	 * @param sessionId session identifier
+	 */
+	public synchronized void removeSession(String sessionId) {
+		sessions.remove(sessionId);
+	}
+
+	/**
+	 * Returns the portlet window identifier.
+	 *
+	 * @return portlet window identifier
+	 */
+	public String getWindowId() {
+		return windowId;
+	}
+
+	/**
+	 * Returns the number of recorded samples.
+	 *
+	 * @return number of samples
+	 */
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Returns the number of live sessions tracked.
+	 *
+	 * @return number of sessions
+	 */
+	public synchronized int getSessions() {
+		return sessions.size();
+	}
+
+	/**
+	 * Returns the current portlet scope size summed over live sessions.
+	 *
+	 * @return portlet scope size in bytes
+	 */
+	public synchronized long getPortletScope() {
+		return sum(PORTLET_SCOPE);
+	}
+
+	/**
+	 * Returns the current application scope size summed over live sessions.
+	 *
+	 * @return application scope size in bytes
+	 */
+	public synchronized long getApplicationScope() {
+		return sum(APPLICATION_SCOPE);
+	}
+
+	/**
+	 * Returns the peak portlet scope size of a single session.
+	 *
+	 * @return peak portlet scope size in bytes
+	 */
+	public synchronized long getPeakPortletScope() {
+		return peakPortletScope;
+	}
+
+	/**
+	 * Returns the peak application scope size of a single session.
+	 *
+	 * @return peak application scope size in bytes
+	 */
+	public synchronized long getPeakApplicationScope() {
+		return peakApplicationScope;
+	}
+
+	/**
+	 * Returns the growth of the total size since the first sample, summed over live sessions.
+	 *
+	 * @return growth in bytes
+	 */
+	public synchronized long getGrowth() {
+		return sum(PORTLET_SCOPE) + sum(APPLICATION_SCOPE) - sum(FIRST_PORTLET_SCOPE) - sum(FIRST_APPLICATION_SCOPE);
+	}
+
+	/**
+	 * Returns the recent total sizes, oldest first.
+	 *
+	 * @return recent total sizes in bytes
+	 */
+	public synchronized long[] getHistory() {
+		int length = (int) Math.min(samples, HISTORY_SIZE);
+		long[] result = new long[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = history[(int) ((samples - length + i) % HISTORY_SIZE)];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the attributes that could not be serialized.
+	 *
+	 * @return copy of the attribute names mapped to their class names
+	 */
+	public synchronized Map<String, String> getNonSerializable() {
+		return new TreeMap<String, String>(nonSerializable);
+	}
+
+	/**
+	 * Returns the sum of the specified sample values over live sessions.
+	 *
+	 * @param index sample value index
+	 * @return sum of the values
+	 */
+	protected long sum(int index) {
+		long sum = 0;
+		Iterator<long[]> iter = sessions.values().iterator();
+		while (iter.hasNext()) {
+			sum += iter.next()[index];
+		}
+		return sum;
+	}
+
+}
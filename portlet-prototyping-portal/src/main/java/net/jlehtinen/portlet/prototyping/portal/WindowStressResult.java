@@ -0,0 +1,289 @@
+/*
+ * Copyright 2010 Johannes Lehtinen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stress test results of a single portlet window.
+ */
+public class WindowStressResult {
+
+	/** Portlet window identifier */
+	protected final String windowId;
+
+	/** Number of render parameter variants that rendered deterministically when serialized */
+	protected int variants;
+
+	/** Number of render parameter variants that rendered differently in serialized runs */
+	protected int nondeterministic;
+
+	/** Number of concurrent renders whose output differed from the serialized output */
+	protected int differences;
+
+	/** Query of the first render that differed or null */
+	protected String firstDifference;
+
+	/** Number of portlet exceptions during the serialized runs */
+	protected int serialExceptions;
+
+	/** Number of portlet exceptions during the concurrent runs */
+	protected int concurrentExceptions;
+
+	/** First portlet exception during the concurrent runs or null */
+	protected String firstException;
+
+	/** Number of requests answered with a server error status */
+	protected int errors;
+
+	/** Results by concurrency level */
+	protected final List<Level> levels = new ArrayList<Level>();
+
+	/**
+	 * Constructs a new instance.
+	 *
+	 * @param windowId portlet window identifier
+	 */
+	public WindowStressResult(String windowId) {
+		this.windowId = windowId;
+	}
+
+	/**
+	 * Returns the portlet window identifier.
+	 *
+	 * @return window identifier
+	 */
+	public String getWindowId() {
+		return windowId;
+	}
+
+	/**
+	 * Records the outcome of the serialized runs.
+	 *
+	 * @param variants number of deterministic render parameter variants
+	 * @param nondeterministic number of nondeterministic render parameter variants
+	 */
+	public synchronized void recordSerial(int variants, int nondeterministic) {
+		this.variants = variants;
+		this.nondeterministic = nondeterministic;
+	}
+
+	/**
+	 * Records a concurrent render whose output differed from the serialized output.
+	 *
+	 * @param query render parameters of the render
+	 */
+	public synchronized void recordDifference(String query) {
+		differences++;
+		if (firstDifference == null) {
+			firstDifference = query;
+		}
+	}
+
+	/**
+	 * Records a portlet exception.
+	 *
+	 * @param concurrent whether the exception occurred during the concurrent runs
+	 * @param t the exception
+	 */
+	public synchronized void recordException(boolean concurrent, Throwable t) {
+		if (concurrent) {
+			concurrentExceptions++;
+			if (firstException == null) {
+				firstException = String.valueOf(t);
+			}
+		} else {
+			serialExceptions++;
+		}
+	}
+
+	/**
+	 * Records a request answered with a server error status.
+	 */
+	public synchronized void recordError() {
+		errors++;
+	}
+
+	/**
+	 * Records the results of a concurrency level.
+	 *
+	 * @param level level results
+	 */
+	public synchronized void recordLevel(Level level) {
+		levels.add(level);
+	}
+
+	/**
+	 * Returns the number of render parameter variants that rendered deterministically.
+	 *
+	 * @return number of variants
+	 */
+	public synchronized int getVariants() {
+		return variants;
+	}
+
+	/**
+	 * Returns the number of render parameter variants that rendered differently in
+	 * serialized runs and were therefore not compared.
+	 *
+	 * @return number of nondeterministic variants
+	 */
+	public synchronized int getNondeterministic() {
+		return nondeterministic;
+	}
+
+	/**
+	 * Returns the number of concurrent renders whose output differed from the serialized output.
+	 *
+	 * @return number of differences
+	 */
+	public synchronized int getDifferences() {
+		return differences;
+	}
+
+	/**
+	 * Returns the render parameters of the first render that differed.
+	 *
+	 * @return query string or null
+	 */
+	public synchronized String getFirstDifference() {
+		return firstDifference;
+	}
+
+	/**
+	 * Returns the number of portlet exceptions during the serialized runs.
+	 *
+	 * @return number of exceptions
+	 */
+	public synchronized int getSerialExceptions() {
+		return serialExceptions;
+	}
+
+	/**
+	 * Returns the number of portlet exceptions during the concurrent runs.
+	 *
+	 * @return number of exceptions
+	 */
+	public synchronized int getConcurrentExceptions() {
+		return concurrentExceptions;
+	}
+
+	/**
+	 * Returns the first portlet exception during the concurrent runs.
+	 *
+	 * @return exception description or null
+	 */
+	public synchronized String getFirstException() {
+		return firstException;
+	}
+
+	/**
+	 * Returns the number of requests answered with a server error status.
+	 *
+	 * @return number of errors
+	 */
+	public synchronized int getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns the results by concurrency level.
+	 *
+	 * @return level results in increasing order of concurrency
+	 */
+	public synchronized List<Level> getLevels() {
+		return Collections.unmodifiableList(new ArrayList<Level>(levels));
+	}
+
+	/**
+	 * Returns whether thread-safety problems were detected.
+	 *
+	 * @return whether differences, concurrent exceptions or errors were detected
+	 */
+	public synchronized boolean isSuspicious() {
+		return differences > 0 || concurrentExceptions > serialExceptions || errors > 0;
+	}
+
+	/**
+	 * Throughput of a single concurrency level.
+	 */
+	public static class Level {
+
+		/** Number of concurrent clients */
+		protected final int concurrency;
+
+		/** Number of render requests */
+		protected final int renders;
+
+		/** Wall clock time of the render requests in nanoseconds */
+		protected final long renderNanos;
+
+		/** Number of action requests */
+		protected final int actions;
+
+		/** Wall clock time of the action requests in nanoseconds */
+		protected final long actionNanos;
+
+		/**
+		 * Constructs a new instance.
+		 *
+		 * @param concurrency number of concurrent clients
+		 * @param renders number of render requests
+		 * @param renderNanos wall clock time of the render requests in nanoseconds
+		 * @param actions number of action requests
+		 * @param actionNanos wall clock time of the action requests in nanoseconds
+		 */
+		public Level(int concurrency, int renders, long renderNanos, int actions, long actionNanos) {
+			this.concurrency = concurrency;
+			this.renders = renders;
+			this.renderNanos = renderNanos;
+			this.actions = actions;
+			this.actionNanos = actionNanos;
+		}
+
+		/**
+		 * Returns the number of concurrent clients.
+		 *
+		 * @return concurrency
+		 */
+		public int getConcurrency() {
+			return concurrency;
+		}
+
+		/**
+		 * Returns the render throughput.
+		 *
+		 * @return renders per second
+		 */
+		public double getRenderThroughput() {
+			return renderNanos > 0 ? renders * 1000000000.0 / renderNanos : 0;
+		}
+
+		/**
+		 * Returns the action throughput.
+		 *
+		 * @return actions per second
+		 */
+		public double getActionThroughput() {
+			return actionNanos > 0 ? actions * 1000000000.0 / actionNanos : 0;
+		}
+
+	}
+
+}
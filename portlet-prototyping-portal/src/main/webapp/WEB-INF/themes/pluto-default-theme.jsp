@@ -20,6 +20,15 @@ limitations under the License.
 <%@ taglib uri="http://java.sun.com/jstl/fmt" prefix="fmt" %>
 <%@ taglib uri="http://portals.apache.org/pluto" prefix="pluto" %>
 <% pageContext.setAttribute("now", new java.util.Date()); %>
+<%
+    // A deferred portlet window requested by the page is rendered alone
+    if (request.getParameter("fragment") != null) {
+%>
+<jsp:include page="portlet-fragment.jsp"/>
+<%
+        return;
+    }
+%>
 
 <!--
 Portal page template for default theme used by the Pluto Portal Driver.
@@ -32,41 +41,38 @@ group (the left column) displays portlets with odd IDs, while the second group
 
 <head>
     <title>Pluto Portal</title>
-    <%
-    String cssUrls = System.getProperty("cssUrls");
-    if (cssUrls != null) {
-    	String[] cus = cssUrls.split(";");
-    	for (String cu : cus) {
-    		%>
-    		<link type="text/css" rel="stylesheet" href="<%= cu %>" />
-    		<%
-    	}
-    } else {
-    %>
+    <c:set var="prototypingConfig" value="${applicationScope['net.jlehtinen.portlet.util.PrototypingConfiguration']}"/>
+    <c:choose>
+        <c:when test="${prototypingConfig.cssUrls != null}">
+            <c:forEach var="cssUrl" items="${prototypingConfig.cssUrls}">
+                <link type="text/css" rel="stylesheet" href="<c:out value="${cssUrl}"/>" />
+            </c:forEach>
+        </c:when>
+        <c:otherwise>
     <style type="text/css" title="currentStyle" media="screen">
         @import "<c:out value="${pageContext.request.contextPath}"/>/pluto.css";
         @import "<c:out value="${pageContext.request.contextPath}"/>/portlet-spec-1.0.css";
         @import "<c:out value="${pageContext.request.contextPath}"/>/portlet-spec-2.0.css";
     </style>
-    <%
-    }
-    
-    String jsUrls = System.getProperty("jsUrls");
-    if (jsUrls != null) {
-    	String[] jus = jsUrls.split(";");
-    	for (String ju : jus) {
-            %>
-            <script type="text/javascript" src="<%= ju %>"></script>
-            <%    		
-    	}
-    } else {
-    %>
+        </c:otherwise>
+    </c:choose>
+    <c:choose>
+        <c:when test="${prototypingConfig.jsUrls != null}">
+            <c:forEach var="jsUrl" items="${prototypingConfig.jsUrls}">
+                <script type="text/javascript" src="<c:out value="${jsUrl}"/>"></script>
+            </c:forEach>
+        </c:when>
+        <c:otherwise>
     <script type="text/javascript"
             src="<c:out value="${pageContext.request.contextPath}"/>/pluto.js">
     </script>
-    <%
-    }
-    %>
+        </c:otherwise>
+    </c:choose>
+    <c:if test="${!empty prototypingConfig.deferredPortlets}">
+    <script type="text/javascript">
+        var portalPageStart = new Date().getTime();
+    </script>
+    </c:if>
 </head>
 
 <body>
@@ -88,9 +94,13 @@ group (the left column) displays portlets with odd IDs, while the second group
     <!-- Navigation block: links to portal pages -->
     <jsp:include page="navigation.jsp"/>
 
+    <!-- Streaming: send the head and page shell before rendering the portlets -->
+    <c:if test="${prototypingConfig.streaming}"><% out.flush(); %></c:if>
+
     <!-- Content block: portlets are divided into two columns/groups -->
     <div id="content">
         <pluto:isMaximized var="isMax"/>
+        <c:set var="isMax" value="${isMax}" scope="request"/>
 
         <!-- Left column -->
         <c:choose>
@@ -98,7 +108,8 @@ group (the left column) displays portlets with odd IDs, while the second group
                     <c:forEach var="portlet" varStatus="status"
                                items="${currentPage.portletIds}">
                         <c:set var="portlet" value="${portlet}" scope="request"/>
-                        <jsp:include page="portlet-skin.jsp"/>
+                        <jsp:include page="portlet-window.jsp"/>
+                        <c:if test="${prototypingConfig.streaming}"><% out.flush(); %></c:if>
                     </c:forEach>
              </c:when>
 
@@ -107,7 +118,8 @@ group (the left column) displays portlets with odd IDs, while the second group
                     <c:forEach var="portlet" varStatus="status"
                                items="${currentPage.portletIds}" step="2">
                         <c:set var="portlet" value="${portlet}" scope="request"/>
-                        <jsp:include page="portlet-skin.jsp"/>
+                        <jsp:include page="portlet-window.jsp"/>
+                        <c:if test="${prototypingConfig.streaming}"><% out.flush(); %></c:if>
                     </c:forEach>
                 </div>
 
@@ -116,7 +128,8 @@ group (the left column) displays portlets with odd IDs, while the second group
                     <c:forEach var="portlet" varStatus="status"
                                items="${currentPage.portletIds}" begin="1" step="2">
                         <c:set var="portlet" value="${portlet}" scope="request"/>
-                        <jsp:include page="portlet-skin.jsp"/>
+                        <jsp:include page="portlet-window.jsp"/>
+                        <c:if test="${prototypingConfig.streaming}"><% out.flush(); %></c:if>
                     </c:forEach>
                 </div>
 
@@ -132,6 +145,51 @@ group (the left column) displays portlets with odd IDs, while the second group
 
 </div>
 
+<c:if test="${!empty prototypingConfig.deferredPortlets}">
+<!-- Deferred portlets: fetch each placeholder with a fragment request after the page has loaded -->
+<script type="text/javascript">
+    (function() {
+        function load(placeholder) {
+            var windowId = placeholder.id.substring("deferred-".length);
+            var url = window.location.href.split("#")[0];
+            url += (url.indexOf("?") == -1 ? "?" : "&") + "fragment=" + encodeURIComponent(windowId);
+            var request = window.XMLHttpRequest ? new XMLHttpRequest() : new ActiveXObject("Microsoft.XMLHTTP");
+            var start = new Date().getTime();
+            request.onreadystatechange = function() {
+                if (request.readyState == 4) {
+                    var end = new Date().getTime();
+                    var divs = placeholder.getElementsByTagName("div");
+                    var content = divs[0];
+                    var latency = divs[1];
+                    content.innerHTML = request.status == 200 ? request.responseText : "Failed to load: " + request.status;
+                    latency.innerHTML = "Deferred: request " + (end - start) + " ms, visible "
+                        + (end - portalPageStart) + " ms after the page started loading";
+                }
+            };
+            request.open("GET", url, true);
+            request.send(null);
+        }
+        function loadAll() {
+            var divs = document.getElementsByTagName("div");
+            var placeholders = [];
+            for (var i = 0; i < divs.length; i++) {
+                if (divs[i].className == "deferred-portlet") {
+                    placeholders.push(divs[i]);
+                }
+            }
+            for (var i = 0; i < placeholders.length; i++) {
+                load(placeholders[i]);
+            }
+        }
+        if (window.addEventListener) {
+            window.addEventListener("load", loadAll, false);
+        } else {
+            window.attachEvent("onload", loadAll);
+        }
+    })();
+</script>
+</c:if>
+
 </body>
 
 </html>
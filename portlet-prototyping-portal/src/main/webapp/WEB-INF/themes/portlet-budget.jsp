@@ -0,0 +1,32 @@
+<%--
+Copyright 2010 Johannes Lehtinen
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+
+See the License for the specific language governing permissions and
+limitations under the License.
+--%>
+<%@ taglib uri="http://java.sun.com/jstl/core" prefix="c" %>
+
+<%-- Budget measurements of the latest render of the portlet window in request attribute "portlet" --%>
+<c:set var="measurement" value="${applicationScope['net.jlehtinen.portlet.prototyping.portal.BudgetingPortletInvokerService'].measurements[portlet]}"/>
+<c:if test="${measurement != null}">
+    <div class="portlet-budget" style="font-size: smaller; color: #666; margin: 0 0 1em 0;">
+        Render: <c:out value="${measurement.renderMillis}"/> ms,
+        <c:out value="${measurement.bytes}"/> bytes
+        <c:if test="${measurement.allocatedBytes >= 0}">,
+            <c:out value="${measurement.allocatedBytes}"/> bytes allocated
+        </c:if>
+        <c:forEach var="violation" items="${measurement.violations}">
+            <br/><span style="color: #c00;">Over budget: <c:out value="${violation}"/></span>
+        </c:forEach>
+    </div>
+</c:if>
@@ -0,0 +1,25 @@
+<%--
+Copyright 2010 Johannes Lehtinen
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+
+See the License for the specific language governing permissions and
+limitations under the License.
+--%>
+<%@ taglib uri="http://java.sun.com/jstl/core" prefix="c" %>
+
+<%-- Portlet window in request parameter "fragment", rendered alone if it is on the current page --%>
+<c:forEach var="portlet" items="${currentPage.portletIds}">
+    <c:if test="${portlet == param.fragment}">
+        <c:set var="portlet" value="${portlet}" scope="request"/>
+        <jsp:include page="portlet-window.jsp"/>
+    </c:if>
+</c:forEach>
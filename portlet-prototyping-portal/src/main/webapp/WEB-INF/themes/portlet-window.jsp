@@ -0,0 +1,46 @@
+<%--
+Copyright 2010 Johannes Lehtinen
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+
+See the License for the specific language governing permissions and
+limitations under the License.
+--%>
+<%@ taglib uri="http://java.sun.com/jstl/core" prefix="c" %>
+<%@ page import="net.jlehtinen.portlet.util.PrototypingConfiguration" %>
+<%@ page import="org.apache.pluto.driver.services.portal.PortletWindowConfig" %>
+
+<%-- Portlet window in request attribute "portlet", or a placeholder if the portlet is deferred.
+     Maximized windows and windows requested as fragments are always rendered. The measurements
+     below the window are left out if request parameter "measurements" is false. --%>
+<%
+    PrototypingConfiguration config = (PrototypingConfiguration) application.getAttribute(PrototypingConfiguration.class.getName());
+    String windowId = (String) request.getAttribute("portlet");
+    boolean deferred = config != null && request.getParameter("fragment") == null
+        && !Boolean.TRUE.equals(request.getAttribute("isMax"))
+        && config.isDeferredPortlet(PortletWindowConfig.fromId(windowId).getPortletName());
+    pageContext.setAttribute("deferred", Boolean.valueOf(deferred));
+%>
+<c:choose>
+    <c:when test="${deferred}">
+        <div class="deferred-portlet" id="deferred-<c:out value="${portlet}"/>">
+            <div class="deferred-portlet-content" style="color: #666;">Loading...</div>
+            <div class="deferred-portlet-latency" style="font-size: smaller; color: #666; margin: 0 0 1em 0;"></div>
+        </div>
+    </c:when>
+    <c:otherwise>
+        <jsp:include page="portlet-skin.jsp"/>
+        <c:if test="${param.measurements != 'false'}">
+            <jsp:include page="session-footprint.jsp"/>
+            <jsp:include page="portlet-budget.jsp"/>
+        </c:if>
+    </c:otherwise>
+</c:choose>
@@ -0,0 +1,33 @@
+<%--
+Copyright 2010 Johannes Lehtinen
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+
+See the License for the specific language governing permissions and
+limitations under the License.
+--%>
+<%@ taglib uri="http://java.sun.com/jstl/core" prefix="c" %>
+
+<%-- Session footprint of the portlet window in request attribute "portlet" --%>
+<c:set var="footprint" value="${applicationScope['net.jlehtinen.portlet.prototyping.portal.SessionFootprintAnalyzer'].footprints[portlet]}"/>
+<c:if test="${footprint != null}">
+    <div class="session-footprint" style="font-size: smaller; color: #666; margin: 0 0 1em 0;">
+        Session: portlet scope <c:out value="${footprint.portletScope}"/> bytes
+        (peak <c:out value="${footprint.peakPortletScope}"/>),
+        application scope <c:out value="${footprint.applicationScope}"/> bytes
+        (peak <c:out value="${footprint.peakApplicationScope}"/>),
+        growth <c:out value="${footprint.growth}"/> bytes
+        <c:forEach var="attribute" items="${footprint.nonSerializable}">
+            <br/><span style="color: #c00;">Not serializable: <c:out value="${attribute.key}"/>
+            (<c:out value="${attribute.value}"/>)</span>
+        </c:forEach>
+    </div>
+</c:if>
@@ -0,0 +1,119 @@
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class CapturedRequestTest {
+
+	@Test
+	public void testBodyWithinLimit() throws Exception {
+		byte[] body = "a=1&b=2".getBytes("ISO-8859-1");
+		CapturedRequest captured = new CapturedRequest(newRequest(body), body.length);
+		Assert.assertEquals("Body", "a=1&b=2", new String(captured.getBody(), "ISO-8859-1"));
+		Assert.assertEquals("Read body", "a=1&b=2", new String(read(captured.getInputStream()), "ISO-8859-1"));
+		Assert.assertEquals("Parameter", "2", captured.getParameter("b"));
+	}
+	
+	@Test
+	public void testBodyOverLimit() throws Exception {
+		byte[] body = new byte[10000];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) i;
+		}
+		CountingStream in = new CountingStream(body);
+		CapturedRequest captured = new CapturedRequest(newRequest(in, body.length, "application/octet-stream"), 100);
+		Assert.assertNull("Body", captured.getBody());
+		Assert.assertTrue("Buffered " + in.count, in.count <= 4096);
+		byte[] read = read(captured.getInputStream());
+		Assert.assertEquals("Read length", body.length, read.length);
+		for (int i = 0; i < body.length; i++) {
+			Assert.assertEquals("Byte " + i, body[i], read[i]);
+		}
+	}
+	
+	@Test
+	public void testFormPostOverLimit() throws Exception {
+		StringBuilder sb = new StringBuilder("a=1&b=");
+		for (int i = 0; i < 1000; i++) {
+			sb.append('x');
+		}
+		byte[] body = sb.toString().getBytes("ISO-8859-1");
+		CapturedRequest captured = new CapturedRequest(newRequest(body), 100);
+		Assert.assertNull("Body", captured.getBody());
+		Assert.assertEquals("Parameter", "1", captured.getParameter("a"));
+		Assert.assertEquals("Long parameter", 1000, captured.getParameter("b").length());
+	}
+	
+	private static byte[] read(InputStream in) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+	
+	private static HttpServletRequest newRequest(byte[] body) {
+		return newRequest(new CountingStream(body), body.length, "application/x-www-form-urlencoded");
+	}
+	
+	private static HttpServletRequest newRequest(final ServletInputStream in, final int length, final String contentType) {
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getInputStream")) {
+					return in;
+				} else if (name.equals("getContentLength")) {
+					return new Integer(length);
+				} else if (name.equals("getContentType")) {
+					return contentType;
+				} else if (name.equals("getMethod")) {
+					return "POST";
+				}
+				return null;
+			}
+		});
+	}
+	
+	private static class CountingStream extends ServletInputStream {
+		
+		private final ByteArrayInputStream in;
+		
+		private int count;
+		
+		public CountingStream(byte[] body) {
+			in = new ByteArrayInputStream(body);
+		}
+		
+		public int read() {
+			int b = in.read();
+			if (b != -1) {
+				count++;
+			}
+			return b;
+		}
+		
+		public int read(byte[] b, int off, int len) {
+			int n = in.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+		
+	}
+	
+}
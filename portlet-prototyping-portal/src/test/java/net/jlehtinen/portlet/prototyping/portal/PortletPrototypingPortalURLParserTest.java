@@ -0,0 +1,185 @@
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLDecoder;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.servlet.http.HttpServletRequest;
+
+import junit.framework.Assert;
+
+import org.apache.pluto.driver.url.PortalURL;
+import org.apache.pluto.driver.url.PortalURLParameter;
+import org.junit.Test;
+
+public class PortletPrototypingPortalURLParserTest {
+
+	private static final String SERVLET_PATH = "/pluto/portal";
+	
+	private final PortletPrototypingPortalURLParser parser = new PortletPrototypingPortalURLParser();
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		PortletPrototypingPortalURL url = newURL();
+		url.setRenderPath("Test Page");
+		url.setActionWindow("ns.Portlet!1");
+		url.setPortletMode("ns.Portlet!1", PortletMode.EDIT);
+		url.setWindowState("ns.Portlet!1", new WindowState("custom"));
+		url.addParameter(new PortalURLParameter("ns.Portlet!1", "name", new String[] { "a", "\u00e4\u20ac" }));
+		
+		PortalURL parsed = parse(parser.toString(url));
+		Assert.assertEquals("Render path", "Test Page", parsed.getRenderPath());
+		Assert.assertEquals("Action window", "ns.Portlet!1", parsed.getActionWindow());
+		Assert.assertEquals("Portlet mode", PortletMode.EDIT, parsed.getPortletMode("ns.Portlet!1"));
+		Assert.assertEquals("Window state", new WindowState("custom"), parsed.getWindowState("ns.Portlet!1"));
+		PortalURLParameter param = parsed.getParameters().iterator().next();
+		Assert.assertEquals("Parameter value", "\u00e4\u20ac", param.getValues()[1]);
+	}
+	
+	@Test
+	public void testNoPathInfo() {
+		PortalURL parsed = parser.parse(newRequest(null));
+		Assert.assertNull("Render path", parsed.getRenderPath());
+		Assert.assertNull("Action window", parsed.getActionWindow());
+	}
+	
+	@Test
+	public void testMalformedBase64() {
+		PortalURL parsed = parser.parse(newRequest("/page/~!!"));
+		Assert.assertEquals("Render path", "page", parsed.getRenderPath());
+		Assert.assertNull("Action window", parsed.getActionWindow());
+	}
+	
+	@Test
+	public void testUnsupportedVersion() {
+		PortletPrototypingPortalURLParser.StateBuffer buffer = new PortletPrototypingPortalURLParser.StateBuffer();
+		buffer.write(PortletPrototypingPortalURLParser.VERSION + 1);
+		buffer.writeVarInt(0);
+		assertDiscarded(buffer);
+	}
+	
+	@Test
+	public void testTruncatedState() {
+		PortletPrototypingPortalURLParser.StateBuffer buffer = newState();
+		buffer.write(PortletPrototypingPortalURLParser.TAG_PARAMETER);
+		buffer.writeVarInt(0);
+		buffer.writeVarInt(100);
+		assertDiscarded(buffer);
+	}
+	
+	@Test
+	public void testWindowIndexOutOfRange() {
+		PortletPrototypingPortalURLParser.StateBuffer buffer = newState();
+		buffer.write(PortletPrototypingPortalURLParser.TAG_ACTION);
+		buffer.writeVarInt(5);
+		assertDiscarded(buffer);
+	}
+	
+	@Test
+	public void testPortletModeOutOfRange() {
+		PortletPrototypingPortalURLParser.StateBuffer buffer = newState();
+		buffer.write(PortletPrototypingPortalURLParser.TAG_MODE);
+		buffer.writeVarInt(0);
+		buffer.writeVarInt(PortletPrototypingPortalURLParser.MODES.length);
+		assertDiscarded(buffer);
+	}
+	
+	@Test
+	public void testWindowStateOutOfRange() {
+		PortletPrototypingPortalURLParser.StateBuffer buffer = newState();
+		buffer.write(PortletPrototypingPortalURLParser.TAG_STATE);
+		buffer.writeVarInt(0);
+		buffer.writeVarInt(1000);
+		assertDiscarded(buffer);
+	}
+	
+	@Test
+	public void testPartialStateDiscarded() {
+		PortletPrototypingPortalURLParser.StateBuffer buffer = newState();
+		buffer.write(PortletPrototypingPortalURLParser.TAG_ACTION);
+		buffer.writeVarInt(0);
+		buffer.write(PortletPrototypingPortalURLParser.TAG_MODE);
+		buffer.writeVarInt(0);
+		buffer.writeVarInt(1);
+		buffer.write(99);
+		assertDiscarded(buffer);
+	}
+	
+	@Test
+	public void testStatePrefixInRenderPath() throws Exception {
+		String[] paths = { "a/~b/c", "a/~b", "~b" };
+		for (int i = 0; i < paths.length; i++) {
+			PortletPrototypingPortalURL url = newURL();
+			url.setRenderPath(paths[i]);
+			Assert.assertEquals("Render path", paths[i], parse(parser.toString(url)).getRenderPath());
+			
+			url.setActionWindow("w");
+			PortalURL parsed = parse(parser.toString(url));
+			Assert.assertEquals("Render path with state", paths[i], parsed.getRenderPath());
+			Assert.assertEquals("Action window", "w", parsed.getActionWindow());
+		}
+	}
+	
+	@Test
+	public void testEmptyState() {
+		PortalURL parsed = parser.parse(newRequest("/page/~"));
+		Assert.assertEquals("Render path", "page", parsed.getRenderPath());
+		Assert.assertNull("Action window", parsed.getActionWindow());
+	}
+	
+	private PortletPrototypingPortalURL newURL() {
+		return new PortletPrototypingPortalURL("http://localhost:8080", SERVLET_PATH, parser);
+	}
+	
+	private static PortletPrototypingPortalURLParser.StateBuffer newState() {
+		PortletPrototypingPortalURLParser.StateBuffer buffer = new PortletPrototypingPortalURLParser.StateBuffer();
+		buffer.write(PortletPrototypingPortalURLParser.VERSION);
+		buffer.writeVarInt(1);
+		buffer.writeString("w");
+		return buffer;
+	}
+	
+	private void assertDiscarded(PortletPrototypingPortalURLParser.StateBuffer buffer) {
+		StringBuilder sb = new StringBuilder("/page/");
+		sb.append(PortletPrototypingPortalURLParser.STATE_PREFIX);
+		PortletPrototypingPortalURLParser.encodeBase64(buffer.bytes, buffer.length, sb);
+		PortalURL parsed = parser.parse(newRequest(sb.toString()));
+		Assert.assertEquals("Render path", "page", parsed.getRenderPath());
+		Assert.assertNull("Action window", parsed.getActionWindow());
+		Assert.assertTrue("Portlet modes", parsed.getPortletModes().isEmpty());
+		Assert.assertTrue("Window states", parsed.getWindowStates().isEmpty());
+		Assert.assertTrue("Parameters", parsed.getParameters().isEmpty());
+	}
+	
+	private PortalURL parse(String uri) throws Exception {
+		Assert.assertTrue("Servlet path", uri.startsWith(SERVLET_PATH));
+		return parser.parse(newRequest(URLDecoder.decode(uri.substring(SERVLET_PATH.length()), "UTF-8")));
+	}
+	
+	private static HttpServletRequest newRequest(final String pathInfo) {
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getScheme")) {
+					return "http";
+				} else if (name.equals("getServerName")) {
+					return "localhost";
+				} else if (name.equals("getServerPort")) {
+					return new Integer(8080);
+				} else if (name.equals("getContextPath")) {
+					return "/pluto";
+				} else if (name.equals("getServletPath")) {
+					return "/portal";
+				} else if (name.equals("getPathInfo")) {
+					return pathInfo;
+				}
+				return null;
+			}
+		});
+	}
+	
+}
@@ -0,0 +1,196 @@
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.portlet.PortletException;
+import javax.portlet.PortletMode;
+import javax.portlet.PortletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+import junit.framework.Assert;
+
+import org.apache.pluto.container.PortletWindow;
+import org.apache.pluto.container.PortletWindowID;
+import org.apache.pluto.container.driver.PortletInvocationEvent;
+import org.apache.pluto.driver.services.portal.PageConfig;
+import org.apache.pluto.driver.services.portal.RenderConfigService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortletWarmUpTest {
+
+	private static final String SERVLET_PATH = "/pluto/portal";
+	
+	private PortletWarmUp warmUp;
+	
+	private ServerSocket server;
+	
+	@Before
+	public void startPortal() throws Exception {
+		final PageConfig page = new PageConfig();
+		page.setName("Test Page");
+		page.addPortlet("/app", "Working");
+		page.addPortlet("/app", "Throwing");
+		warmUp = new PortletWarmUp((RenderConfigService) Proxy.newProxyInstance(RenderConfigService.class.getClassLoader(),
+				new Class<?>[] { RenderConfigService.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return method.getName().equals("getDefaultPage") ? page : null;
+			}
+		}));
+		server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread thread = new Thread("Fake portal") {
+			public void run() {
+				try {
+					while (true) {
+						serve(server.accept());
+					}
+				} catch (Exception e) {
+					// Server closed
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	@After
+	public void stopPortal() throws Exception {
+		server.close();
+	}
+	
+	@Test
+	public void testThrowingPortlet() throws Exception {
+		Map<String, Set<String>> portletModes = new HashMap<String, Set<String>>();
+		Assert.assertTrue("Started", warmUp.start("http://127.0.0.1:" + server.getLocalPort(), SERVLET_PATH, portletModes));
+		long deadline = System.currentTimeMillis() + 10000;
+		while (warmUp.isRunning() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertFalse("Running", warmUp.isRunning());
+		Assert.assertFalse("Warm", warmUp.isWarm());
+		
+		List<PortletWarmUp.Render> renders = warmUp.getRenders();
+		Assert.assertEquals("Renders", 2, renders.size());
+		Iterator<PortletWarmUp.Render> iter = renders.iterator();
+		while (iter.hasNext()) {
+			PortletWarmUp.Render render = iter.next();
+			Assert.assertEquals("Status", 200, render.getStatus());
+			boolean throwing = render.getPortletName().equals("Throwing");
+			Assert.assertEquals("Successful " + render.getPortletName(), !throwing, render.isSuccessful());
+			Assert.assertEquals("Error " + render.getPortletName(), throwing, render.getError() != null);
+		}
+	}
+	
+	@Test
+	public void testOtherRequestsIgnored() {
+		warmUp.running = true;
+		warmUp.renders = warmUp.createRenders(new HashMap<String, Set<String>>());
+		PortletWarmUp.Render render = warmUp.getRenders().get(1);
+		warmUp.onError(newEvent(render.getWindowId(), PortletMode.VIEW, null), new PortletException());
+		warmUp.onError(newEvent(render.getWindowId(), PortletMode.VIEW, GeneratedRequest.STRESS_TEST), new PortletException());
+		warmUp.onError(newEvent(render.getWindowId(), PortletMode.EDIT, GeneratedRequest.WARM_UP), new PortletException());
+		Assert.assertNull("Error", render.getError());
+		warmUp.onError(newEvent(render.getWindowId(), PortletMode.VIEW, GeneratedRequest.WARM_UP), new PortletException());
+		Assert.assertNotNull("Error", render.getError());
+	}
+	
+	/**
+	 * Answers a request like the portal does when a portlet throws: the exception is
+	 * passed to the invocation listeners and the page is still returned successfully.
+	 */
+	private void serve(Socket socket) throws Exception {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+			String uri = in.readLine().split(" ")[1];
+			String source = null;
+			String line;
+			while ((line = in.readLine()) != null && line.length() > 0) {
+				if (line.toLowerCase().startsWith(GeneratedRequest.HEADER.toLowerCase() + ":")) {
+					source = line.substring(GeneratedRequest.HEADER.length() + 1).trim();
+				}
+			}
+			if (uri.startsWith(SERVLET_PATH)) {
+				String pathInfo = URLDecoder.decode(uri.substring(SERVLET_PATH.length()), "UTF-8");
+				Map<String, PortletMode> modes = PortletPrototypingPortalURLParser.getParser().parse(newRequest(pathInfo)).getPortletModes();
+				Iterator<Map.Entry<String, PortletMode>> iter = modes.entrySet().iterator();
+				while (iter.hasNext()) {
+					Map.Entry<String, PortletMode> entry = iter.next();
+					if (entry.getKey().indexOf("Throwing") != -1) {
+						warmUp.onError(newEvent(entry.getKey(), entry.getValue(), source), new PortletException("Failing render"));
+					}
+				}
+			}
+			OutputStream out = socket.getOutputStream();
+			out.write("HTTP/1.0 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok".getBytes("ISO-8859-1"));
+			out.flush();
+		} finally {
+			socket.close();
+		}
+	}
+	
+	private static PortletInvocationEvent newEvent(final String windowId, final PortletMode mode, final String source) {
+		PortletRequest request = (PortletRequest) Proxy.newProxyInstance(PortletRequest.class.getClassLoader(),
+				new Class<?>[] { PortletRequest.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("getProperty")) {
+					return GeneratedRequest.HEADER.equals(args[0]) ? source : null;
+				} else if (method.getName().equals("getPortletMode")) {
+					return mode;
+				}
+				return null;
+			}
+		});
+		final PortletWindowID id = (PortletWindowID) Proxy.newProxyInstance(PortletWindowID.class.getClassLoader(),
+				new Class<?>[] { PortletWindowID.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return method.getName().equals("getStringId") ? windowId : null;
+			}
+		});
+		PortletWindow window = (PortletWindow) Proxy.newProxyInstance(PortletWindow.class.getClassLoader(),
+				new Class<?>[] { PortletWindow.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return method.getName().equals("getId") ? id : null;
+			}
+		});
+		return new PortletInvocationEvent(request, window, PortletInvocationEvent.RENDER);
+	}
+	
+	private static HttpServletRequest newRequest(final String pathInfo) {
+		return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("getScheme")) {
+					return "http";
+				} else if (name.equals("getServerName")) {
+					return "localhost";
+				} else if (name.equals("getServerPort")) {
+					return new Integer(80);
+				} else if (name.equals("getContextPath")) {
+					return "/pluto";
+				} else if (name.equals("getServletPath")) {
+					return "/portal";
+				} else if (name.equals("getPathInfo")) {
+					return pathInfo;
+				}
+				return null;
+			}
+		});
+	}
+	
+}
@@ -0,0 +1,118 @@
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.Assert;
+
+import org.apache.pluto.container.PortletPreference;
+import org.apache.pluto.container.impl.PortletPreferenceImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreferencesLogTest {
+
+	private File file;
+	
+	@Before
+	public void createFile() throws Exception {
+		file = File.createTempFile("preferences", ".log");
+		file.delete();
+	}
+	
+	@After
+	public void deleteFiles() {
+		file.delete();
+		new File(file.getPath() + ".bak").delete();
+		new File(file.getPath() + ".tmp").delete();
+	}
+	
+	@Test
+	public void testLongValue() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 30000; i++) {
+			sb.append('\u20ac');
+		}
+		String value = sb.toString();
+		Map<String, Map<String, PortletPreference>> source = new ConcurrentHashMap<String, Map<String, PortletPreference>>();
+		source.put("window", newPreferences("name", new String[] { value, null }));
+		source.put("empty", newPreferences("name", null));
+		
+		PreferencesLog log = new PreferencesLog(file, source);
+		log.open();
+		log.write("window");
+		log.write("empty");
+		log.close();
+		
+		Map<String, Map<String, PortletPreference>> stored = new PreferencesLog(file, source).open();
+		String[] values = stored.get("window").get("name").getValues();
+		Assert.assertEquals("Values", 2, values.length);
+		Assert.assertEquals("Long value", value, values[0]);
+		Assert.assertNull("Null value", values[1]);
+		Assert.assertNull("Null values", stored.get("empty").get("name").getValues());
+	}
+	
+	@Test
+	public void testCorruptedRecord() throws Exception {
+		Map<String, Map<String, PortletPreference>> source = new HashMap<String, Map<String, PortletPreference>>();
+		source.put("window", newPreferences("name", new String[] { "value" }));
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		PreferencesLog.writeRecord(out, "window", source.get("window"));
+		PreferencesLog.writeString(out, "corrupted");
+		out.writeInt(Integer.MAX_VALUE);
+		out.close();
+		
+		Map<String, Map<String, PortletPreference>> stored = new PreferencesLog(file, source).open();
+		Assert.assertEquals("Records", 1, stored.size());
+		Assert.assertEquals("Value", "value", stored.get("window").get("name").getValues()[0]);
+	}
+	
+	@Test
+	public void testTruncatedRecord() throws Exception {
+		Map<String, Map<String, PortletPreference>> source = new HashMap<String, Map<String, PortletPreference>>();
+		source.put("window", newPreferences("name", new String[] { "value" }));
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		PreferencesLog.writeRecord(out, "window", source.get("window"));
+		out.writeInt(1000);
+		out.writeByte('x');
+		out.close();
+		
+		Map<String, Map<String, PortletPreference>> stored = new PreferencesLog(file, source).open();
+		Assert.assertEquals("Records", 1, stored.size());
+	}
+	
+	@Test
+	public void testWriterSurvivesFailure() throws Exception {
+		Map<String, Map<String, PortletPreference>> source = new ConcurrentHashMap<String, Map<String, PortletPreference>>();
+		Map<String, PortletPreference> failing = new HashMap<String, PortletPreference>();
+		failing.put("name", new PortletPreferenceImpl("name", new String[] { "value" }) {
+			public String[] getValues() {
+				throw new IllegalStateException("Failing preference");
+			}
+		});
+		source.put("failing", failing);
+		source.put("window", newPreferences("name", new String[] { "value" }));
+		
+		PreferencesLog log = new PreferencesLog(file, source);
+		log.open();
+		log.write("failing");
+		log.write("window");
+		log.close();
+		
+		Map<String, Map<String, PortletPreference>> stored = new PreferencesLog(file, source).open();
+		Assert.assertEquals("Records", 1, stored.size());
+		Assert.assertEquals("Value", "value", stored.get("window").get("name").getValues()[0]);
+	}
+	
+	private static Map<String, PortletPreference> newPreferences(String name, String[] values) {
+		Map<String, PortletPreference> preferences = new HashMap<String, PortletPreference>();
+		preferences.put(name, new PortletPreferenceImpl(name, values));
+		return preferences;
+	}
+	
+}
@@ -0,0 +1,57 @@
+package net.jlehtinen.portlet.prototyping.portal;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.portlet.PortletSession;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class SessionFootprintAnalyzerTest {
+
+	@Test
+	public void testFailingAttributes() {
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("serializable", "value");
+		attributes.put("nonSerializable", new Object());
+		attributes.put("throwing", new ThrowingAttribute());
+		PortletSession session = (PortletSession) Proxy.newProxyInstance(PortletSession.class.getClassLoader(),
+				new Class<?>[] { PortletSession.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("getAttributeNames")) {
+					return Collections.enumeration(attributes.keySet());
+				} else if (method.getName().equals("getAttribute")) {
+					return attributes.get(args[0]);
+				}
+				return null;
+			}
+		});
+		
+		Map<String, String> failed = new HashMap<String, String>();
+		long size = new SessionFootprintAnalyzer().measure(session, PortletSession.PORTLET_SCOPE, failed);
+		Assert.assertTrue("Size", size > 0);
+		Assert.assertEquals("Failed", 2, failed.size());
+		Assert.assertEquals("Non-serializable", Object.class.getName(), failed.get("nonSerializable"));
+		Assert.assertEquals("Throwing", ThrowingAttribute.class.getName(), failed.get("throwing"));
+	}
+	
+	private static class ThrowingAttribute implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			throw new IllegalStateException("Failing serialization");
+		}
+		
+	}
+	
+}